@@ -46,7 +46,7 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Binding and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -115,7 +115,7 @@ public class Binding extends QmfAgentData
     public Binding(final org.apache.qpid.server.model.Binding binding)
     {
         super(getSchema());
-        _binding = binding; // Will eventually be used in mapEncode() to retrieve statistics.
+        _binding = binding; // Used in sampleStatistics() to retrieve statistics.
         setValue("bindingKey", binding.getName());
 
         Map<String, Object> arguments = binding.getArguments();
@@ -186,19 +186,14 @@ public class Binding extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Binding to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Binding to QMF2 broker statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
         // Statistics 
-        setValue("msgMatched", _binding.getMatches());
-
-        update(); // TODO only set update if a statistic has actually changed value.
-        return super.mapEncode();
+        setStatistic("msgMatched", _binding.getMatches());
     }
 }
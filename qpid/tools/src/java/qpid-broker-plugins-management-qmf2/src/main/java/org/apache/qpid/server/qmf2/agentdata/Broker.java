@@ -62,7 +62,7 @@ import org.apache.qpid.qmf2.common.QmfType;*/
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Broker and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -679,21 +679,19 @@ System.out.println("properties = " + properties);
     } // End of invokeMethod.
 
     /**
-     * This method maps the org.apache.qpid.server.model.Broker to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Broker to QMF2 broker statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
+     * <p>
+     * The uptime is derived from the clock so it differs every time it's sampled. It's set via setValue() rather than
+     * setStatistic() so that it's current whenever the Broker is serialised, but it doesn't on its own count as a
+     * change, otherwise the Broker would be republished to every Subscription on every interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
-        update(); // Need to do update before setting uptime in order to get the latest getUpdateTime() value.
-
         // Not sure if there's an "official" broker uptime anywhere, but as the QmfManagementAgent is created when
         // the broker is and the Broker object is created then too the following approach should be good enough.
-        setValue("uptime", getUpdateTime() - getCreateTime());
-
-        return super.mapEncode();
+        setValue("uptime", System.currentTimeMillis()*1000000l - getCreateTime());
     }
 }
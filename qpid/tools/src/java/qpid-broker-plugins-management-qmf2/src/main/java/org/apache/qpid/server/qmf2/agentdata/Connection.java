@@ -43,7 +43,7 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Connection and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -168,25 +168,20 @@ public class Connection extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Connection to QMF2 connection properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Connection to QMF2 connection statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
         // Statistics
         // closing Not implemented in Java Broker
-        setValue("framesFromClient", 0); // framesFromClient Not implemented in Java Broker
-        setValue("framesToClient", 0); // framesToClient Not implemented in Java Broker
-        setValue("bytesFromClient", _connection.getBytesIn());
-        setValue("bytesToClient", _connection.getBytesOut()); 
-        setValue("msgsFromClient", _connection.getMessagesIn());
-        setValue("msgsToClient", _connection.getMessagesOut());
-
-        update(); // TODO only set update if statistics change.
-        return super.mapEncode();
+        setStatistic("framesFromClient", 0); // framesFromClient Not implemented in Java Broker
+        setStatistic("framesToClient", 0); // framesToClient Not implemented in Java Broker
+        setStatistic("bytesFromClient", _connection.getBytesIn());
+        setStatistic("bytesToClient", _connection.getBytesOut()); 
+        setStatistic("msgsFromClient", _connection.getMessagesIn());
+        setStatistic("msgsToClient", _connection.getMessagesOut());
     }
 }
@@ -47,7 +47,7 @@ import org.apache.qpid.server.model.LifetimePolicy;
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Exchange and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -95,6 +95,10 @@ public class Exchange extends QmfAgentData
         // Declare the schema for the QMF2 broker class.
         _schema = new SchemaObjectClass("org.apache.qpid.broker", "exchange");
 
+        // Index the name property so that predicate queries such as ['eq', 'name', ['quote', <name>]] don't need
+        // to evaluate every exchange known to the Agent.
+        _schema.setIndexedNames("name");
+
         // TODO
         //_schema.addProperty(new SchemaProperty("whatHappened", QmfType.TYPE_STRING));
 
@@ -205,14 +209,12 @@ public class Exchange extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Exchange to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Exchange to QMF2 broker statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
         // Statistics
         long msgReceives = _exchange.getMessagesIn();
@@ -223,7 +225,7 @@ public class Exchange extends QmfAgentData
         long byteDrops = _exchange.getBytesDropped();
         long byteRoutes = byteReceives - byteDrops;
 
-        setValue("producerCount", _exchange.getPublishers().size());
+        setStatistic("producerCount", _exchange.getPublishers().size());
 
         // We have to modify the value of bindingCount for Exchange because the QmfManagementAgent "hides" the
         // QMF Objects that relate to its own AMQP Connection/Queues/Bindings so the bindingCount for default direct
@@ -241,16 +243,13 @@ public class Exchange extends QmfAgentData
         {
             bindingCount -= 1;
         }
-        setValue("bindingCount", bindingCount);
-
-        setValue("msgReceives", msgReceives);
-        setValue("msgDrops", msgDrops);
-        setValue("msgRoutes", msgRoutes);
-        setValue("byteReceives", byteReceives);
-        setValue("byteDrops", byteDrops);
-        setValue("byteRoutes", byteRoutes);
-
-        update(); // TODO only set update if a statistic has actually changed value.
-        return super.mapEncode();
+        setStatistic("bindingCount", bindingCount);
+
+        setStatistic("msgReceives", msgReceives);
+        setStatistic("msgDrops", msgDrops);
+        setStatistic("msgRoutes", msgRoutes);
+        setStatistic("byteReceives", byteReceives);
+        setStatistic("byteDrops", byteDrops);
+        setStatistic("byteRoutes", byteRoutes);
     }
 }
@@ -52,7 +52,7 @@ import org.apache.qpid.server.model.LifetimePolicy;
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Queue and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -100,6 +100,10 @@ public class Queue extends QmfAgentData
         // Declare the schema for the QMF2 broker class.
         _schema = new SchemaObjectClass("org.apache.qpid.broker", "queue");
 
+        // Index the name property so that predicate queries such as ['eq', 'name', ['quote', <name>]] don't need
+        // to evaluate every queue known to the Agent.
+        _schema.setIndexedNames("name");
+
         // TODO
         //_schema.addProperty(new SchemaProperty("whatHappened", QmfType.TYPE_STRING));
 
@@ -160,7 +164,7 @@ public class Queue extends QmfAgentData
         setValue("autoDelete", autoDelete);
         setValue("exclusive", exclusive);
 
-        // altExchange needs to be set later, done in mapEncode() for convenience, because it isn't set during
+        // altExchange needs to be set later, done in sampleStatistics() for convenience, because it isn't set during
         // Queue construction in the Java Broker.
 
         // TODO figure out mapping from Java Broker model to QMF queue arguments.
@@ -234,14 +238,12 @@ public class Queue extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Queue to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Queue to QMF2 broker statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
         // Set the altExchange reference if an alternateExchange exists and hasn't already been set.
         // Not sure how to set this closer to the Constructor. At the moment the _alternateExchangeName gets set
@@ -253,25 +255,25 @@ public class Queue extends QmfAgentData
             {
                 _alternateExchangeName = _vhostName + altEx.getName();
                 _alternateExchange = new ObjectId("", "org.apache.qpid.broker:exchange:" + _alternateExchangeName, 0);
-                setRefValue("altExchange", _alternateExchange);
+                setStatistic("altExchange", _alternateExchange.mapEncode()); // As setRefValue(), but marks the change
             }
         }
 
         // Statistics
-        setValue("msgTotalEnqueues", _queue.getTotalEnqueuedMessages());
-        setValue("msgTotalDequeues", _queue.getTotalDequeuedMessages());
+        setStatistic("msgTotalEnqueues", _queue.getTotalEnqueuedMessages());
+        setStatistic("msgTotalDequeues", _queue.getTotalDequeuedMessages());
         // msgTxnEnqueues not implemented in Java Broker
         // msgTxnDequeues not implemented in Java Broker
-        setValue("msgPersistEnqueues", _queue.getPersistentEnqueuedMessages());
-        setValue("msgPersistDequeues", _queue.getPersistentDequeuedMessages());
-        setValue("msgDepth", _queue.getQueueDepthMessages());
-        setValue("byteDepth", _queue.getQueueDepthBytes());
-        setValue("byteTotalEnqueues", _queue.getTotalEnqueuedBytes());
-        setValue("byteTotalDequeues", _queue.getTotalDequeuedBytes());
+        setStatistic("msgPersistEnqueues", _queue.getPersistentEnqueuedMessages());
+        setStatistic("msgPersistDequeues", _queue.getPersistentDequeuedMessages());
+        setStatistic("msgDepth", _queue.getQueueDepthMessages());
+        setStatistic("byteDepth", _queue.getQueueDepthBytes());
+        setStatistic("byteTotalEnqueues", _queue.getTotalEnqueuedBytes());
+        setStatistic("byteTotalDequeues", _queue.getTotalDequeuedBytes());
         // byteTxnEnqueues not implemented in Java Broker
         // byteTxnDequeues not implemented in Java Broker
-        setValue("bytePersistEnqueues", _queue.getPersistentEnqueuedBytes());
-        setValue("bytePersistDequeues", _queue.getPersistentDequeuedBytes());
+        setStatistic("bytePersistEnqueues", _queue.getPersistentEnqueuedBytes());
+        setStatistic("bytePersistDequeues", _queue.getPersistentDequeuedBytes());
 
         // Flow-to-disk Statistics not implemented in Java Broker
         // releases & acquires not implemented in Java Broker
@@ -283,15 +285,12 @@ public class Queue extends QmfAgentData
         // discardsPurge not implemented in Java Broker
         // reroutes not implemented in Java Broker
 
-        setValue("consumerCount", _queue.getConsumerCount());
-        setValue("bindingCount", _queue.getBindingCount());
-        setValue("unackedMessages", _queue.getUnacknowledgedMessages());
+        setStatistic("consumerCount", _queue.getConsumerCount());
+        setStatistic("bindingCount", _queue.getBindingCount());
+        setStatistic("unackedMessages", _queue.getUnacknowledgedMessages());
 
-        setValue("messageLatency", "Not yet implemented");
+        setStatistic("messageLatency", "Not yet implemented");
         // flowStopped not implemented in Java Broker
         // flowStoppedCount not implemented in Java Broker
-
-        update(); // TODO only update if statistics have actually changed.
-        return super.mapEncode();
     }
 }
@@ -23,7 +23,6 @@ package org.apache.qpid.server.qmf2.agentdata;
 
 // Misc Imports
 import java.util.Collections;
-import java.util.Map;
 
 // Simple Logging Facade 4 Java
 import org.slf4j.Logger;
@@ -49,7 +48,7 @@ import org.apache.qpid.server.model.Queue;
  * to sub-class as we need to map between the properties/statistics as specified in the Java Broker
  * management model and those specified in qpid/spec/management-schema.xml which is what the C++ broker 
  * uses. This class retains a reference to its peer org.apache.qpid.server.model.Consumer and does the
- * necessary mapping when its mapEncode() method is called (which is used to serialise the QmfAgentData).
+ * necessary mapping when its sampleStatistics() method is called (before the QmfAgentData is serialised).
  *
  * @author Fraser Adams
  */
@@ -120,7 +119,7 @@ public class Subscription extends QmfAgentData
     public Subscription(final org.apache.qpid.server.model.Consumer subscription)
     {
         super(getSchema());
-        _subscription = subscription; // Will eventually be used in mapEncode() to retrieve statistics.
+        _subscription = subscription; // Used in sampleStatistics() to retrieve statistics.
 
         setValue("name", subscription.getName());
         setValue("browsing", false);      // TODO not supported in Java Broker.
@@ -191,21 +190,16 @@ public class Subscription extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Consumer to QMF2 subscribe properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Consumer to QMF2 subscribe statistics where possible. This method
+     * is called by sample() before the org.apache.qpid.qmf2.agent.Agent checks whether this object has changed or
+     * serialises it, statistics are set via setStatistic() so that update() only gets called if one has changed.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics()
     {
         // Statistics 
-        setValue("delivered", _subscription.getMessagesOut());
+        setStatistic("delivered", _subscription.getMessagesOut());
 
-        setValue("exclusive", _exclusive);
-
-        update(); // TODO Only Update if statistics have changes.
-        return super.mapEncode();
+        setStatistic("exclusive", _exclusive);
     }
 }
@@ -0,0 +1,210 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Qpid Client Imports
+import org.apache.qpid.client.message.AMQMessageDelegateFactory;
+import org.apache.qpid.client.message.JMSBytesMessage;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPMessage;
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * A JMH benchmark measuring the encoding and decoding of amqp/list Messages such as the query responses and
+ * subscription indications sent for a large broker, complementing BigPayloadAgentTest which exercises large
+ * payloads end to end.
+ * <p>
+ * The benchmark should be run with the JMH GC profiler, the gc.alloc.rate.norm results give the number of bytes
+ * allocated per Message encoded or decoded. main() adds the profiler, otherwise this can be run with:
+ * <pre>
+ * mvn test -Dbenchmark="AMQPMessageBenchmark -prof gc"
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AMQPMessageBenchmark
+{
+    private static final String AGENT_NAME = "apache.org:qpidd:41a4b1b4-ed28-4d6a-92c5-2ff2e3fa1b6d";
+
+    /**
+     * The number of objects in each amqp/list Message, JMH requires @Param fields to be public.
+     */
+    @Param({"10", "100", "1000", "10000"})
+    public int objectCount;
+
+    private List<Map<String, Object>> _list;
+    private Message _encoded;
+
+    /**
+     * Create the Map encoding of a queue object with a representative set of properties and statistics.
+     */
+    private static Map<String, Object> queue(final int i)
+    {
+        String name = "queue-" + i;
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", name);
+        values.put("vhostRef", new ObjectId(AGENT_NAME, "org.apache.qpid.broker:vhost:/", 1).mapEncode());
+        values.put("durable", Boolean.TRUE);
+        values.put("autoDelete", Boolean.FALSE);
+        values.put("exclusive", Boolean.FALSE);
+        values.put("arguments", new HashMap<String, Object>());
+        values.put("msgTotalEnqueues", (long)i*1000);
+        values.put("msgTotalDequeues", (long)i*999);
+        values.put("msgDepth", 1L);
+        values.put("byteDepth", 1024L);
+        values.put("consumerCount", 1L);
+        values.put("bindingCount", 2L);
+
+        Map<String, Object> schemaId = new HashMap<String, Object>();
+        schemaId.put("_package_name", "org.apache.qpid.broker");
+        schemaId.put("_class_name", "queue");
+        schemaId.put("_type", "_data");
+        schemaId.put("_hash", new UUID(0, 0));
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("_values", values);
+        map.put("_schema_id", schemaId);
+        map.put("_object_id", new ObjectId(AGENT_NAME, "org.apache.qpid.broker:queue:" + name, 1).mapEncode());
+        map.put("_update_ts", System.currentTimeMillis()*1000000l);
+        map.put("_create_ts", System.currentTimeMillis()*1000000l);
+        map.put("_delete_ts", 0L);
+        return map;
+    }
+
+    /**
+     * Create an empty amqp/list Message that can be written to.
+     */
+    private static Message createListMessage() throws JMSException
+    {
+        Message message = new JMSBytesMessage(AMQMessageDelegateFactory.FACTORY_0_10);
+        AMQPMessage.setContentType(message, "amqp/list");
+        return message;
+    }
+
+    @Setup
+    public void setup() throws JMSException
+    {
+        _list = new ArrayList<Map<String, Object>>(objectCount);
+        for (int i = 0; i < objectCount; i++)
+        {
+            _list.add(queue(i));
+        }
+
+        _encoded = createListMessage();
+        AMQPMessage.setList(_encoded, _list);
+        ((JMSBytesMessage)_encoded).reset(); // Make the Message body readable, as it is for a received Message.
+    }
+
+    /**
+     * Encode the List into a new Message, as the Agent does for a query response or subscription indication.
+     */
+    @Benchmark
+    public Message encode() throws JMSException
+    {
+        Message message = createListMessage();
+        AMQPMessage.setList(message, _list);
+        return message;
+    }
+
+    /**
+     * Decode the List from a received Message, as the Console does for a query response or subscription indication.
+     */
+    @Benchmark
+    public List<Map> decode() throws JMSException
+    {
+        return AMQPMessage.getList(_encoded);
+    }
+
+    /**
+     * Read a few properties of each object, as a tool such as QpidQueueStats does.
+     */
+    private static long read(final List<Map> list)
+    {
+        long total = 0;
+        for (Map m : list)
+        {
+            QmfConsoleData object = new QmfConsoleData(m, null);
+            total += object.getLongValue("msgDepth") + object.getStringValue("name").length();
+        }
+        return total;
+    }
+
+    /**
+     * Fully decode the List from a received Message then read a few properties of each object.
+     */
+    @Benchmark
+    public long decodeAndRead() throws JMSException
+    {
+        return read(AMQPMessage.<Map>getList(_encoded));
+    }
+
+    /**
+     * Lazily decode the List from a received Message then read a few properties of each object, as the Console does
+     * for query responses and subscription indications.
+     */
+    @Benchmark
+    public long lazyDecodeAndRead() throws JMSException
+    {
+        return read(AMQPMessage.<Map>getLazyList(_encoded));
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AMQPMessageBenchmark.class.getSimpleName())
+                                       .addProfiler(GCProfiler.class).build()).run();
+    }
+}
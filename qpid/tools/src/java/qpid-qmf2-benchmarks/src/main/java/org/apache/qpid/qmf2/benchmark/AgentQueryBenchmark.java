@@ -0,0 +1,215 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// JMS Imports
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+// Misc Imports
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.Agent;
+import org.apache.qpid.qmf2.common.NullQmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.loopback.LoopbackBroker;
+
+/**
+ * A JMH benchmark measuring the time taken for an Agent managing a large number of queue objects to handle a query
+ * request, i.e. to find the matching objects, sample and encode them and send them in batches of query responses.
+ * <p>
+ * The Agent is connected to a LoopbackBroker so no AMQP broker is needed. The benchmark sends _query_request
+ * Messages directly to the Agent's address and waits for the final (non-partial) _query_response, so the time
+ * measured is that of the Agent's handling of the request plus the routing of the responses. As the loopback
+ * transport passes the List of results as a java.util.List the cost of encoding the responses as amqp/list isn't
+ * included, that is measured by AMQPMessageBenchmark.
+ * <p>
+ * The query parameter selects the type of query:
+ * <pre>
+ * class     - all objects of the queue class, as used by Console.getObjects("queue").
+ * predicate - a predicate over a statistic that has to be evaluated for every queue and matches 10% of them.
+ * indexed   - an "eq" comparison of the indexed "name" property, which only needs to evaluate a single object.
+ * </pre>
+ * Populating the Agent with a million objects needs a larger heap than the default, which the forked JVM is given.
+ * This can be run with:
+ * <pre>
+ * mvn test -Dbenchmark=AgentQueryBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AgentQueryBenchmark
+{
+    private static final long RESPONSE_TIMEOUT = 60000;
+
+    /**
+     * The number of objects managed by the Agent, JMH requires @Param fields to be public.
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int objectCount;
+
+    /**
+     * The type of query.
+     */
+    @Param({"class", "predicate", "indexed"})
+    public String query;
+
+    private LoopbackBroker _broker;
+    private Agent _agent;
+    private Connection _connection;
+    private Session _session;
+    private MessageProducer _producer;
+    private MessageConsumer _consumer;
+    private Destination _agentAddress;
+    private Destination _replyAddress;
+    private Map<String, Object> _request;
+    private long _correlationId;
+
+    @Setup(Level.Trial)
+    public void setup() throws QmfException, JMSException
+    {
+        _broker = new LoopbackBroker();
+
+        _agent = new Agent(new NullQmfEventListener());
+        _agent.setVendor("apache.org");
+        _agent.setProduct("qmf2-benchmark");
+
+        SchemaObjectClass schema = QueueObjects.createSchema();
+        _agent.registerObjectClass(schema);
+        for (int i = 0; i < objectCount; i++)
+        {
+            _agent.addObject(QueueObjects.createQueue(schema, i));
+        }
+        _agent.setConnection(_broker.createConnection());
+
+        if (query.equals("class"))
+        {
+            _request = new QmfQuery(QmfQueryTarget.OBJECT,
+                                    new SchemaClassId(QueueObjects.PACKAGE_NAME, "queue")).mapEncode();
+        }
+        else if (query.equals("predicate"))
+        {
+            _request = new QmfQuery(QmfQueryTarget.OBJECT, "['ge', 'msgDepth', 90]").mapEncode();
+        }
+        else
+        {
+            String name = QueueObjects.queueName(objectCount / 2);
+            _request = new QmfQuery(QmfQueryTarget.OBJECT, "['eq', 'name', ['quote', '" + name + "']]").mapEncode();
+        }
+
+        _connection = _broker.createConnection();
+        _session = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        _agentAddress = _session.createQueue("qmf.default.direct/" + _agent.getName());
+        _replyAddress = _session.createQueue("qmf.default.direct/qmf2-benchmark");
+        _producer = _session.createProducer(_agentAddress);
+        _consumer = _session.createConsumer(_replyAddress);
+        _connection.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws JMSException
+    {
+        _connection.close();
+        _agent.destroy();
+    }
+
+    /**
+     * Send a query request to the Agent and wait for all of the responses.
+     * @return the number of response Messages, which is one more than the number of full batches of results.
+     */
+    @Benchmark
+    public int handleQueryRequest() throws JMSException
+    {
+        String correlationId = Long.toString(++_correlationId);
+        MapMessage request = _session.createMapMessage();
+        request.setJMSReplyTo(_replyAddress);
+        request.setJMSCorrelationID(correlationId);
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_query_request");
+        request.setStringProperty("qpid.subject", _agent.getName());
+        for (Map.Entry<String, Object> entry : _request.entrySet())
+        {
+            request.setObject(entry.getKey(), entry.getValue());
+        }
+        _producer.send(request);
+
+        int responses = 0;
+        while (true)
+        {
+            Message response = _consumer.receive(RESPONSE_TIMEOUT);
+            if (response == null)
+            {
+                throw new IllegalStateException("Timed out waiting for a query response");
+            }
+
+            if (correlationId.equals(response.getJMSCorrelationID()))
+            {
+                responses++;
+                if (!response.propertyExists("partial"))
+                {
+                    return responses;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AgentQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
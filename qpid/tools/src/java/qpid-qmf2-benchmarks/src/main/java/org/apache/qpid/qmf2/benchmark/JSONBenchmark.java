@@ -0,0 +1,136 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.restapi.JSON;
+
+/**
+ * A JMH benchmark measuring JSON serialising a List of QmfConsoleData queue objects, which is what the REST API does
+ * to return the objects of a class to a client, i.e. for a GET of
+ * /qpid/connection/&lt;name&gt;/console/objects/&lt;className&gt;.
+ * <p>
+ * The fromObject benchmark builds the JSON as a String, the write benchmark streams it as UTF-8 to an OutputStream
+ * in the way that the REST API writes its responses, though here the bytes are simply discarded.
+ * <p>
+ * The number of objects may be varied to show how serialisation scales with the size of the response. This can be
+ * run with:
+ * <pre>
+ * mvn test -Dbenchmark=JSONBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONBenchmark
+{
+    /**
+     * The number of objects to serialise, JMH requires @Param fields to be public.
+     */
+    @Param({"1", "100", "1000"})
+    public int objectCount;
+
+    private List<QmfConsoleData> _objects;
+
+    /**
+     * An OutputStream that discards what is written to it, standing in for the body of an HTTP response.
+     */
+    private static final OutputStream NULL_STREAM = new OutputStream()
+    {
+        @Override
+        public void write(final int b)
+        {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+        {
+        }
+    };
+
+    @Setup
+    public void setup()
+    {
+        SchemaObjectClass schema = QueueObjects.createSchema();
+        _objects = new ArrayList<QmfConsoleData>(objectCount);
+        for (int i = 0; i < objectCount; i++)
+        {
+            _objects.add(new QmfConsoleData(QueueObjects.createQueue(schema, i).mapEncode(), null));
+        }
+    }
+
+    /**
+     * Serialise the List of objects.
+     */
+    @Benchmark
+    public String fromObject()
+    {
+        return JSON.fromObject(_objects);
+    }
+
+    /**
+     * Stream the List of objects as UTF-8.
+     */
+    @Benchmark
+    public void write() throws IOException
+    {
+        Writer writer = new OutputStreamWriter(NULL_STREAM, "UTF-8");
+        JSON.write(_objects, writer);
+        writer.flush();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(JSONBenchmark.class.getSimpleName()).build()).run();
+    }
+}
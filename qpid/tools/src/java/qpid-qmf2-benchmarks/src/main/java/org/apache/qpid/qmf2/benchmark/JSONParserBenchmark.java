@@ -0,0 +1,154 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.restapi.JSON;
+import org.apache.qpid.restapi.JSONMapParser;
+
+/**
+ * A JMH benchmark comparing the hand-written JSONMapParser with the Lexicon based parser that it replaced, parsing
+ * the body of a REST API method invocation, i.e. a POST to /qpid/connection/&lt;name&gt;/object/&lt;objectId&gt;,
+ * whose "_arguments" Map holds a number of properties of mixed type.
+ * <p>
+ * Both throughput and the distribution of the time taken by each parse are measured. The lexicon benchmark parses
+ * a String with LexiconJSONMapParser, the string benchmark parses the same String with JSONMapParser and the stream
+ * benchmark has JSONMapParser parse the UTF-8 bytes of the body directly, as the REST API now does with the
+ * InputStream of a request. This can be run with:
+ * <pre>
+ * mvn test -Dbenchmark=JSONParserBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONParserBenchmark
+{
+    /**
+     * The number of properties in the "_arguments" Map, JMH requires @Param fields to be public.
+     */
+    @Param({"10", "100", "1000"})
+    public int argumentCount;
+
+    private String _json;
+    private byte[] _bytes;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException
+    {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (int i = 0; i < argumentCount; i++)
+        {
+            switch (i % 5)
+            {
+            case 0:
+                properties.put("qpid.string_" + i, "value of property " + i);
+                break;
+            case 1:
+                properties.put("qpid.int_" + i, i);
+                break;
+            case 2:
+                properties.put("qpid.long_" + i, 104857600000L + i);
+                break;
+            case 3:
+                properties.put("qpid.boolean_" + i, (i & 1) == 0);
+                break;
+            default:
+                properties.put("qpid.list_" + i, Arrays.asList(i, 2.5, "x" + i));
+                break;
+            }
+        }
+
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        arguments.put("type", "queue");
+        arguments.put("name", QueueObjects.queueName(42));
+        arguments.put("strict", true);
+        arguments.put("properties", properties);
+
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("_method_name", "create");
+        request.put("_arguments", arguments);
+
+        _json = JSON.fromObject(request);
+        _bytes = _json.getBytes("UTF-8");
+    }
+
+    /**
+     * Parse the request String with the Lexicon based parser.
+     */
+    @Benchmark
+    public Map<Object, Object> lexicon()
+    {
+        return new LexiconJSONMapParser(_json).map();
+    }
+
+    /**
+     * Parse the request String with JSONMapParser.
+     */
+    @Benchmark
+    public Map<Object, Object> string()
+    {
+        return new JSONMapParser(_json).map();
+    }
+
+    /**
+     * Parse the UTF-8 bytes of the request with JSONMapParser.
+     */
+    @Benchmark
+    public Map<Object, Object> stream()
+    {
+        return new JSONMapParser(new ByteArrayInputStream(_bytes)).map();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(JSONParserBenchmark.class.getSimpleName()).build()).run();
+    }
+}
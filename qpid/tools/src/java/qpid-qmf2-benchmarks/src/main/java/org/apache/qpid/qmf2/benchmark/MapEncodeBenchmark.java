@@ -0,0 +1,120 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.QmfEvent;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
+
+/**
+ * A JMH benchmark measuring mapEncode() of the QMF2 data classes that the Agent sends, i.e. QmfAgentData, which is
+ * encoded for each object returned by a query or Subscription, and QmfEvent, which is encoded for each event raised.
+ * <p>
+ * Note that QmfData.mapEncode() simply returns the underlying Map of values, so it isn't measured here, whereas these
+ * subclasses build a new Map containing the values and the schema id, object id and timestamps. The sampleAndEncode
+ * benchmark includes the call to QmfAgentData.sample() that the Agent makes before encoding an object. This can be
+ * run with:
+ * <pre>
+ * mvn test -Dbenchmark=MapEncodeBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapEncodeBenchmark
+{
+    private QmfAgentData _agentData;
+    private QmfEvent _event;
+
+    @Setup
+    public void setup()
+    {
+        _agentData = QueueObjects.createQueue(QueueObjects.createSchema(), 42);
+
+        SchemaEventClass eventSchema = new SchemaEventClass(QueueObjects.PACKAGE_NAME, "queueDeclare");
+        _event = new QmfEvent(eventSchema);
+        _event.setValue("qName", QueueObjects.queueName(42));
+        _event.setValue("durable", false);
+        _event.setValue("excl", false);
+        _event.setValue("autoDel", false);
+        _event.setValue("disp", "created");
+        _event.setValue("user", "guest");
+        _event.setValue("rhost", "127.0.0.1:5672-127.0.0.1:41234");
+    }
+
+    /**
+     * Encode a QmfAgentData.
+     */
+    @Benchmark
+    public Map<String, Object> qmfAgentData()
+    {
+        return _agentData.mapEncode();
+    }
+
+    /**
+     * Sample then encode a QmfAgentData, as the Agent does for each object in a query response.
+     */
+    @Benchmark
+    public Map<String, Object> sampleAndEncode()
+    {
+        _agentData.sample();
+        return _agentData.mapEncode();
+    }
+
+    /**
+     * Encode a QmfEvent, as the Agent does when raising an event.
+     */
+    @Benchmark
+    public Map<String, Object> qmfEvent()
+    {
+        return _event.mapEncode();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(MapEncodeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
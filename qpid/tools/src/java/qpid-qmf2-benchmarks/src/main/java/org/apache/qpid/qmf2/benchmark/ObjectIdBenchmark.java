@@ -0,0 +1,165 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+
+/**
+ * A JMH benchmark measuring ObjectId lookups in a Map of 100k objects, which is representative of the Agent's
+ * object store or a Console's cache of the objects of a large broker.
+ * <p>
+ * The probe ObjectIds are distinct instances from the Map keys and have their agent and object names encoded as
+ * byte[], in the same way as ObjectIds decoded from messages sent by the C++ broker. This can be run with:
+ * <pre>
+ * mvn test -Dbenchmark=ObjectIdBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectIdBenchmark
+{
+    private static final int OBJECT_COUNT = 100000;
+    private static final int PROBE_COUNT = 4096; // Must be a power of two.
+    private static final String AGENT_NAME = "apache.org:qpidd:41a4b1b4-ed28-4d6a-92c5-2ff2e3fa1b6d";
+
+    private Map<ObjectId, Object> _objects;
+    private ObjectId[] _hits;
+    private ObjectId[] _misses;
+    private Map[] _encodedHits;
+    private int _next;
+
+    /**
+     * Create the ObjectId Map encoding of a queue ObjectId, with the names encoded as byte[].
+     */
+    private static Map<String, Object> encode(final String objectName)
+    {
+        try
+        {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("_agent_name", AGENT_NAME.getBytes("UTF-8"));
+            map.put("_object_name", objectName.getBytes("UTF-8"));
+            map.put("_agent_epoch", 1L);
+            return map;
+        }
+        catch (UnsupportedEncodingException uee)
+        { // UTF-8 is always supported
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static String queueName(final int i)
+    {
+        return "org.apache.qpid.broker:queue:vhost:/queue-" + i;
+    }
+
+    @Setup
+    public void setup()
+    {
+        _objects = new HashMap<ObjectId, Object>(OBJECT_COUNT*2);
+        for (int i = 0; i < OBJECT_COUNT; i++)
+        {
+            ObjectId objectId = new ObjectId(AGENT_NAME, queueName(i), 1);
+            _objects.put(objectId, objectId);
+        }
+
+        Random random = new Random(42);
+        _hits = new ObjectId[PROBE_COUNT];
+        _misses = new ObjectId[PROBE_COUNT];
+        _encodedHits = new Map[PROBE_COUNT];
+        for (int i = 0; i < PROBE_COUNT; i++)
+        {
+            Map<String, Object> encoded = encode(queueName(random.nextInt(OBJECT_COUNT)));
+            _encodedHits[i] = encoded;
+            _hits[i] = new ObjectId(encoded);
+            _misses[i] = new ObjectId(encode(queueName(OBJECT_COUNT + random.nextInt(OBJECT_COUNT))));
+        }
+    }
+
+    /**
+     * Look up an ObjectId that is present in the Map.
+     */
+    @Benchmark
+    public Object lookupHit()
+    {
+        return _objects.get(_hits[_next++ & (PROBE_COUNT - 1)]);
+    }
+
+    /**
+     * Look up an ObjectId that isn't present in the Map.
+     */
+    @Benchmark
+    public Object lookupMiss()
+    {
+        return _objects.get(_misses[_next++ & (PROBE_COUNT - 1)]);
+    }
+
+    /**
+     * Decode an ObjectId from its Map encoding and hash it, which is the cost of keying a Map by a received ObjectId.
+     */
+    @Benchmark
+    public int decodeAndHash()
+    {
+        return new ObjectId(_encodedHits[_next++ & (PROBE_COUNT - 1)]).hashCode();
+    }
+
+    /**
+     * Decode an ObjectId from its Map encoding then look it up, as the Agent does for a method request.
+     */
+    @Benchmark
+    public Object decodeAndLookup()
+    {
+        return _objects.get(new ObjectId(_encodedHits[_next++ & (PROBE_COUNT - 1)]));
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ObjectIdBenchmark.class.getSimpleName()).build()).run();
+    }
+}
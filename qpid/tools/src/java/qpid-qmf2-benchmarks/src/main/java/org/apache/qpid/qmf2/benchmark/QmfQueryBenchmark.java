@@ -0,0 +1,144 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JMH Imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * A JMH benchmark measuring QmfQuery.evaluate() with each type of BooleanExpression, and with the LogicalExpressions
+ * combining them, which is the cost per object of the Agent handling a query or a Subscription and of the Console
+ * matching the objects it has retrieved.
+ * <p>
+ * Each query is evaluated against the Agent's QmfAgentData form and the Console's QmfConsoleData form of the same
+ * queue objects, taken in turn from an array of PROBE_COUNT objects with varying property values. This can be run with:
+ * <pre>
+ * mvn test -Dbenchmark=QmfQueryBenchmark
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QmfQueryBenchmark
+{
+    private static final int PROBE_COUNT = 1024; // Must be a power of two.
+
+    /**
+     * The predicates keyed by the name of the expression type that they exercise.
+     */
+    private static final Map<String, String> PREDICATES = new HashMap<String, String>();
+    static
+    {
+        PREDICATES.put("eq", "['eq', 'name', ['quote', 'queue-42']]");
+        PREDICATES.put("ne", "['ne', 'name', ['quote', 'queue-42']]");
+        PREDICATES.put("lt", "['lt', 'msgDepth', 50]");
+        PREDICATES.put("le", "['le', 'msgDepth', 50]");
+        PREDICATES.put("gt", "['gt', 'msgDepth', 50]");
+        PREDICATES.put("ge", "['ge', 'msgDepth', 50]");
+        PREDICATES.put("re_match", "['re_match', 'name', ['quote', '^queue-4.*']]");
+        PREDICATES.put("exists", "['exists', 'msgDepth']");
+        PREDICATES.put("true", "['true']");
+        PREDICATES.put("false", "['false']");
+        PREDICATES.put("and", "['and', ['eq', '_class_name', ['quote', 'queue']], ['gt', 'msgDepth', 50]]");
+        PREDICATES.put("or", "['or', ['eq', 'consumerCount', 0], ['gt', 'msgDepth', 90]]");
+        PREDICATES.put("not", "['not', ['eq', 'consumerCount', 0]]");
+    }
+
+    /**
+     * The expression type to evaluate, JMH requires @Param fields to be public.
+     */
+    @Param({"eq", "ne", "lt", "le", "gt", "ge", "re_match", "exists", "true", "false", "and", "or", "not"})
+    public String expression;
+
+    private QmfQuery _query;
+    private QmfAgentData[] _agentObjects;
+    private QmfConsoleData[] _consoleObjects;
+    private int _next;
+
+    @Setup
+    public void setup() throws QmfException
+    {
+        _query = new QmfQuery(QmfQueryTarget.OBJECT, PREDICATES.get(expression));
+
+        SchemaObjectClass schema = QueueObjects.createSchema();
+        _agentObjects = new QmfAgentData[PROBE_COUNT];
+        _consoleObjects = new QmfConsoleData[PROBE_COUNT];
+        for (int i = 0; i < PROBE_COUNT; i++)
+        {
+            _agentObjects[i] = QueueObjects.createQueue(schema, i);
+            _consoleObjects[i] = new QmfConsoleData(_agentObjects[i].mapEncode(), null);
+        }
+    }
+
+    /**
+     * Evaluate the query against a QmfAgentData, as the Agent does when handling a query or Subscription.
+     */
+    @Benchmark
+    public boolean evaluateAgentData()
+    {
+        return _query.evaluate(_agentObjects[_next++ & (PROBE_COUNT - 1)]);
+    }
+
+    /**
+     * Evaluate the query against a QmfConsoleData, as the Console does when emulating Subscriptions.
+     */
+    @Benchmark
+    public boolean evaluateConsoleData()
+    {
+        return _query.evaluate(_consoleObjects[_next++ & (PROBE_COUNT - 1)]);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(QmfQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
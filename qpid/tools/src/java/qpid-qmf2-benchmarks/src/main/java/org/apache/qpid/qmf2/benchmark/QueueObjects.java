@@ -0,0 +1,128 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.benchmark;
+
+// Misc Imports
+import java.util.HashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+
+/**
+ * Creates the broker queue objects used by the benchmarks, which have a representative set of properties and
+ * statistics. The values vary from object to object so that benchmarks evaluating them don't always take the same
+ * branch.
+ *
+ * @author Fraser Adams
+ */
+final class QueueObjects
+{
+    static final String AGENT_NAME = "apache.org:qpidd:41a4b1b4-ed28-4d6a-92c5-2ff2e3fa1b6d";
+    static final String PACKAGE_NAME = "org.apache.qpid.broker";
+
+    /**
+     * Make constructor private as this class provides a set of static helper methods and doesn't need instantiated.
+     */
+    private QueueObjects()
+    {
+    }
+
+    /**
+     * Create the schema of the queue class.
+     * @return the schema of the queue class.
+     */
+    static SchemaObjectClass createSchema()
+    {
+        try
+        {
+            SchemaObjectClass schema = new SchemaObjectClass(PACKAGE_NAME, "queue");
+            schema.addProperty(new SchemaProperty("name", QmfType.TYPE_STRING));
+            schema.addProperty(new SchemaProperty("vhostRef", QmfType.TYPE_MAP));
+            schema.addProperty(new SchemaProperty("durable", QmfType.TYPE_BOOL));
+            schema.addProperty(new SchemaProperty("autoDelete", QmfType.TYPE_BOOL));
+            schema.addProperty(new SchemaProperty("exclusive", QmfType.TYPE_BOOL));
+            schema.addProperty(new SchemaProperty("arguments", QmfType.TYPE_MAP));
+            schema.addProperty(new SchemaProperty("msgTotalEnqueues", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("msgTotalDequeues", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("msgDepth", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("byteDepth", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("consumerCount", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("bindingCount", QmfType.TYPE_INT));
+            schema.setIdNames("name");
+            schema.setIndexedNames("name");
+            return schema;
+        }
+        catch (QmfException qmfe)
+        { // The schema is well formed so this can't happen.
+            throw new IllegalStateException(qmfe);
+        }
+    }
+
+    /**
+     * Create the name of a queue.
+     * @param i the index of the queue.
+     * @return the name of the queue.
+     */
+    static String queueName(final int i)
+    {
+        return "queue-" + i;
+    }
+
+    /**
+     * Create a queue object.
+     * @param schema the schema of the queue class.
+     * @param i the index of the queue, which determines its name and statistics.
+     * @return the queue object with an ObjectId set, as if it had been added to an Agent.
+     */
+    static QmfAgentData createQueue(final SchemaObjectClass schema, final int i)
+    {
+        QmfAgentData queue = new QmfAgentData(schema);
+        populate(queue, i);
+        queue.setObjectId(new ObjectId(AGENT_NAME, PACKAGE_NAME + ":queue:" + queueName(i), 1));
+        return queue;
+    }
+
+    /**
+     * Set the properties of a queue object.
+     * @param queue the queue object.
+     * @param i the index of the queue, which determines its name and statistics.
+     */
+    static void populate(final QmfAgentData queue, final int i)
+    {
+        queue.setValue("name", queueName(i));
+        queue.setRefValue("vhostRef", new ObjectId(AGENT_NAME, PACKAGE_NAME + ":vhost:/", 1));
+        queue.setValue("durable", (i & 1) == 0);
+        queue.setValue("autoDelete", Boolean.FALSE);
+        queue.setValue("exclusive", Boolean.FALSE);
+        queue.setValue("arguments", new HashMap<String, Object>());
+        queue.setValue("msgTotalEnqueues", (long)i*1000);
+        queue.setValue("msgTotalDequeues", (long)i*999);
+        queue.setValue("msgDepth", (long)(i % 100));
+        queue.setValue("byteDepth", (long)(i % 100)*1024);
+        queue.setValue("consumerCount", (long)(i % 3));
+        queue.setValue("bindingCount", 2L);
+    }
+}
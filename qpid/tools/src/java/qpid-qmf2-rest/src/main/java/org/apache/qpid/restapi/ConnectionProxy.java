@@ -20,9 +20,6 @@
  */
 package org.apache.qpid.restapi;
 
-// Misc Imports
-import java.util.TimerTask;
-
 // JMS Imports
 import javax.jms.Connection;
 import javax.jms.ExceptionListener;
@@ -33,8 +30,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.common.BlockingNotifier;
 import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.ScheduledTask;
 import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.util.ConnectionHelper;
 
@@ -49,12 +46,10 @@ import org.apache.qpid.qmf2.util.ConnectionHelper;
  *
  * @author Fraser Adams
  */
-public final class ConnectionProxy extends TimerTask implements ExceptionListener
+public final class ConnectionProxy extends ScheduledTask implements ExceptionListener
 {
     private static final Logger _log = LoggerFactory.getLogger(ConnectionProxy.class);
 
-    private static final int MAX_WORKITEM_QUEUE_SIZE = 20; // Maximum number of items allowed on WorkItem queue.
-
     // Connections expire after 20 minutes of no use.
     private static final int TIMEOUT_THRESHOLD = (20*60000)/ConnectionStore.PING_PERIOD; 
 
@@ -70,6 +65,8 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
     private final String _url;
     private final String _connectionOptions;
     private final boolean _disableEvents;
+    private final ResponseCache _cache;
+    private final WorkItemPublisher _publisher;
 
     /**
      * Actually create the Qpid Connection and QMF2 Console specified in the Constructor.
@@ -84,11 +81,9 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
             {       
                 _connection.setExceptionListener(this);
 
-                // N.B. creating a Console with a notifier causes the internal WorkQueue to get populated, so care must
-                // be taken to manage its size. In a normal Console application the application would only declare this
-                // if there was an intention to retrieve work items, but in a fairly general REST API we can't guarantee
-                // that clients will. ConsoleLease acts to make the WorkQueue "circular" by deleting items from the
-                // front of the WorkQueue if it exceeds a particular size.
+                // N.B. the Console passes its WorkItems to the WorkItemPublisher, which publishes them to any event
+                // streams and retains a bounded number of them for clients that poll for them. The same publisher is
+                // used by each Console created on reconnection so that event streams survive broker disconnection.
                 if (_disableEvents)
                 {
                     _console = new Console(_name, null, null, null);
@@ -96,8 +91,7 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
                 }
                 else
                 {
-                    BlockingNotifier notifier = new BlockingNotifier();
-                    _console = new Console(_name, null, notifier, null);
+                    _console = new Console(_name, null, _publisher, null);
                 }
                 _console.addConnection(_connection);
                 _connected = true;
@@ -153,9 +147,11 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
      * @param connectionOptions A set of connection options in the form supported by {@link org.apache.qpid.qmf2.util.ConnectionHelper}.
      * @param disableEvents if true create a QMF Console Connection that can only perform synchronous
      * operations like getObjects() and cannot do asynchronous things like Agent discovery or receive Events.
+     * @param cacheTTL the time to live in milliseconds of the query responses held by the Connection's ResponseCache.
      */
     public ConnectionProxy(final ConnectionStore store, final String name,
-                           final String url, final String connectionOptions, final boolean disableEvents)
+                           final String url, final String connectionOptions, final boolean disableEvents,
+                           final long cacheTTL)
     {
         _connected = false;
         _store = store;
@@ -163,6 +159,8 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         _url = url;
         _connectionOptions = connectionOptions;
         _disableEvents = disableEvents;
+        _cache = new ResponseCache(cacheTTL);
+        _publisher = new WorkItemPublisher(_cache);
     }
 
     /**
@@ -183,18 +181,19 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
      * This method is called periodically by {@link org.apache.qpid.restapi.ConnectionStore} to carry out a number
      * of housekeeping tasks. It checks if the Qpid Connection is still connected and if not it attempts to reconnect
      * it also checks whether the Connection "lease" has run out and if it has it tidies up the Connection. Finally
-     * it restricts the size of the QMF2 WorkItem queue as the REST API has no control over whether a client is or
-     * is not interested in being notified of QMF2 Events.
+     * it pings any event streams, which keeps them open and detects clients that have gone away. The lease of a
+     * Connection is renewed for as long as it has event streams open.
      */
     public void run()
     {
+        _publisher.ping();
         if (_connected)
         {
             //System.out.println("ConnectionProxy name: " + _name + ", thread: " + Thread.currentThread().getId() + ", WorkItem count = " + _console.getWorkitemCount());
 
-            while (_console.getWorkitemCount() > MAX_WORKITEM_QUEUE_SIZE)
+            if (_publisher.getEventStreamCount() > 0)
             {
-                _console.getNextWorkitem();
+                _expireCount = TIMEOUT_THRESHOLD;
             }
 
             _expireCount--;
@@ -218,6 +217,7 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         //System.out.println("ConnectionProxy close() name: " + _name + ", thread: " + Thread.currentThread().getId() + ", expireCount = " + _expireCount);
 
         cancel();
+        _publisher.close();
 
         try
         {
@@ -240,6 +240,27 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         return _console;
     }
 
+    /**
+     * Retrieves the WorkItemPublisher that publishes the WorkItems received by the QMF2 Console to event streams
+     * and queues them for clients that poll for them.
+     * @return The WorkItemPublisher that we've associated with this Connection.
+     */
+    public WorkItemPublisher getWorkItemPublisher()
+    {
+        _expireCount = TIMEOUT_THRESHOLD;
+        return _publisher;
+    }
+
+    /**
+     * Retrieves the ResponseCache that holds the responses to queries made on the QMF2 Console.
+     * @return The ResponseCache that we've associated with this Connection.
+     */
+    public ResponseCache getResponseCache()
+    {
+        _expireCount = TIMEOUT_THRESHOLD;
+        return _cache;
+    }
+
     /**
      * Returns whether or not the Connection is currently connected to the broker. This is used by the REST API to
      * tell any clients about the Connection state.
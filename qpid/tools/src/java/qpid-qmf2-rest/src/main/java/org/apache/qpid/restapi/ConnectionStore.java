@@ -22,18 +22,20 @@ package org.apache.qpid.restapi;
 
 // Misc Imports
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.ScheduledTask;
 import org.apache.qpid.qmf2.console.Console;
 
 /**
  * A ConnectionStore is a container for Qpid Connection Objects, or rather it's a container for ConnectionProxy
  * Objects which wrap Qpid Connections and provide some additional housekeeping behaviour necessary for a distributed
  * system. The ConnectionStore schedules regular housekeeping tasks to be executed on the ConnectionProxy Objects
- * using a java.util.Timer, which scales fairly well.
+ * using the scheduler shared with the QMF2 Consoles, so a ConnectionProxy that is slow to reconnect doesn't hold up
+ * the housekeeping of the others.
  *
  * @author Fraser Adams
  */
@@ -52,11 +54,34 @@ public class ConnectionStore
     private Map<String, ConnectionProxy> _connections = new ConcurrentHashMap<String, ConnectionProxy>();
 
     /**
-     * Create a Timer used to schedule regular checks on ConnectionProxy Objects to see that they are still in use.
+     * The scheduler used to schedule regular checks on ConnectionProxy Objects to see that they are still in use.
      * In essence ConnectionProxy Objects behave in a similar way to RMI Leases in that if they are not used 
      * (dereferenced) within a particular period it is assumed that the client has lost interest and they are reaped.
      */
-    private Timer _timer = new Timer(true);
+    private ScheduledExecutorService _scheduler = ScheduledTask.getDefaultScheduler();
+
+    /**
+     * The time to live in milliseconds of the query responses cached by each ConnectionProxy.
+     */
+    private final long _cacheTTL;
+
+    /**
+     * Construct a ConnectionStore whose ConnectionProxies cache query responses for ResponseCache.DEFAULT_TTL.
+     */
+    public ConnectionStore()
+    {
+        this(ResponseCache.DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a ConnectionStore.
+     * @param cacheTTL the time to live in milliseconds of the query responses cached by each ConnectionProxy,
+     * zero disables caching.
+     */
+    public ConnectionStore(final long cacheTTL)
+    {
+        _cacheTTL = cacheTTL;
+    }
 
     /**
      * Creates a new ConnectionProxy Object with the given name, which in turn creates a Qpid Connection using the
@@ -77,9 +102,9 @@ public class ConnectionStore
         ConnectionProxy connection = _connections.get(name);
         if (connection == null)
         {
-            connection = new ConnectionProxy(this, name, url, opts, disableEvents);
+            connection = new ConnectionProxy(this, name, url, opts, disableEvents, _cacheTTL);
             _connections.put(name, connection);
-            _timer.schedule(connection, 0, PING_PERIOD);
+            connection.schedule(_scheduler, 0, PING_PERIOD);
         }
         return connection;
     }
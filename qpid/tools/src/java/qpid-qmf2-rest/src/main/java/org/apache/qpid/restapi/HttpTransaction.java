@@ -22,6 +22,7 @@ package org.apache.qpid.restapi;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * An HttpTransaction encapsulates an HTTP request received and a response to be generated in one HTTP request/response
@@ -90,6 +91,19 @@ public interface HttpTransaction
      */
     public void sendResponse(final int status, final String mimeType, final InputStream is) throws IOException;
 
+    /**
+     * Send the HTTP response headers for a response whose content is written incrementally, such as a
+     * text/event-stream, and return the Stream that the content should be written to.
+     * <p>
+     * Unlike the sendResponse() methods this doesn't complete the transaction, which completes when the returned
+     * Stream is closed. The Stream may therefore be retained and written to by other threads after the Server's
+     * doGet() has returned, so an open stream doesn't tie up the thread that handled the request.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/event-stream.
+     * @return the Stream that the content of the response is written to.
+     */
+    public OutputStream sendResponseStream(final int status, final String mimeType) throws IOException;
+
     /**
      * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
      * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
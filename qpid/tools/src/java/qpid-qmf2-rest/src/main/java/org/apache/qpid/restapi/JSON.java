@@ -20,6 +20,9 @@
  */
 package org.apache.qpid.restapi;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -33,28 +36,101 @@ import org.apache.qpid.qmf2.common.QmfDescribed;
 import org.apache.qpid.qmf2.common.SchemaClassId;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.SubscribeIndication;
 
 /**
  * This class provides a number of convenience methods to serialise and deserialise JSON strings to/from Java
  * Collections or QmfData objects.
  *
- * The JSONMapParser class used here is largely a direct copy of org.apache.qpid.messaging.util.AddressParser
- * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
- * we really need for QMF. Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;"
- * but there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
- * which means that long integer values aren't correctly stored. It's this restriction that gives Java Address
- * Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but it's better
- * to add features covering "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo, mega, giga etc.)
- * to both the Java and C++ AddressParser to ensure maximum consistency.
+ * The JSONMapParser class used here parses JSON into a Map, which is the only JSON requirement that we really
+ * need for QMF. Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;" but there's
+ * a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer which means that
+ * long integer values aren't correctly stored, so JSONMapParser started life as a modified copy of AddressParser.
+ * It is now a hand-written single-pass parser that accepts the same syntax, including the "shorthand" forms for
+ * large values (e.g. k/K, m/M, g/G for kilo, mega, giga etc.), and which can parse directly from the InputStream
+ * of a request body.
  *
  * Because the JSON requirements for the REST API are relatively modest a fairly simple serialisation/deserialisation
- * mechanism is included here and in the modified AddressParser classes rather than incorporating a full-blown
+ * mechanism is included here and in JSONMapParser rather than incorporating a full-blown
  * Java JSON parser. This helps avoid a bot of bloat and keeps dependencies limited to the core qpid classes.
  *
  * @author Fraser Adams
  */
 public final class JSON
 {
+    /**
+     * Hex digits used to escape control characters.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The Appendable used by write() to buffer the JSON encoding written to a Writer. The JSON is written a few
+     * characters at a time so writing directly to a Writer would mean a (synchronized) call to the Writer for
+     * each of them, so instead it is gathered in a char[] and written to the Writer whenever that fills.
+     */
+    private static final class WriterBuffer implements Appendable
+    {
+        private final Writer _writer;
+        private final char[] _buffer = new char[8192];
+        private int _count = 0;
+
+        WriterBuffer(final Writer writer)
+        {
+            _writer = writer;
+        }
+
+        public Appendable append(final char c) throws IOException
+        {
+            if (_count == _buffer.length)
+            {
+                flush();
+            }
+            _buffer[_count++] = c;
+            return this;
+        }
+
+        public Appendable append(final CharSequence csq) throws IOException
+        {
+            return append(csq, 0, csq.length());
+        }
+
+        public Appendable append(final CharSequence csq, int start, final int end) throws IOException
+        {
+            while (start < end)
+            {
+                if (_count == _buffer.length)
+                {
+                    flush();
+                }
+
+                int length = Math.min(end - start, _buffer.length - _count);
+                if (csq instanceof String)
+                {
+                    ((String)csq).getChars(start, start + length, _buffer, _count);
+                }
+                else
+                {
+                    for (int i = 0; i < length; i++)
+                    {
+                        _buffer[_count + i] = csq.charAt(start + i);
+                    }
+                }
+                _count += length;
+                start += length;
+            }
+            return this;
+        }
+
+        /**
+         * Write the buffered characters to the Writer.
+         */
+        void flush() throws IOException
+        {
+            _writer.write(_buffer, 0, _count);
+            _count = 0;
+        }
+    }
+
     /**
      * Serialise an Object to JSON. Note this isn't a full JSON serialisation of java.lang.Object, rather it only
      * includes types that are relevant to QmfData Objects and the types that may be contained therein.
@@ -69,173 +145,348 @@ public final class JSON
         }
         else
         {
-            if (item instanceof Map)
-            { // Check if the value part is an ObjectId and serialise appropriately
-                Map map = (Map)item;
-                if (map.containsKey("_object_name"))
-                { // Serialise "ref" properties as String versions of ObjectId to match encoding used in fromQmfData()
-                    return "\"" + new ObjectId(map) + "\"";
-                }
-                else
-                {
-                    return fromMap(map);
-                }
-            }
-            else if (item instanceof List)
-            {
-                return fromList((List)item);
-            }
-            else if (item instanceof QmfData)
-            {
-                return fromQmfData((QmfData)item);
-            }
-            else if (item instanceof WorkItem)
+            StringBuilder buffer = new StringBuilder(512);
+            appendObject(buffer, item);
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Serialise an Object to JSON, writing the encoding to an Appendable such as a Writer wrapping an HTTP response
+     * Stream rather than building it as a String. The encoding is the same as that returned by fromObject().
+     * <p>
+     * If out is a Writer the encoding is buffered, so the Writer needn't be a BufferedWriter, and any characters
+     * remaining in the buffer are written to the Writer before write() returns, though the Writer isn't flushed.
+     * @param item the Object that we wish to serialise to JSON.
+     * @param out the Appendable that the JSON encoding is written to.
+     */
+    public final static void write(final Object item, final Appendable out) throws IOException
+    {
+        if (item != null)
+        {
+            if (out instanceof Writer)
             {
-                return fromWorkItem((WorkItem)item);
+                WriterBuffer buffer = new WriterBuffer((Writer)out);
+                writeObject(buffer, item);
+                buffer.flush();
             }
-            else if (item instanceof String)
+            else
             {
-                return "\"" + item + "\"";
+                writeObject(out, item);
             }
-            else if (item instanceof byte[])
-            {
-                return "\"" + new String((byte[])item) + "\"";
+        }
+    }
+
+    /**
+     * Serialise a Map to JSON.
+     * @param m the Map that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromMap(final Map m)
+    {
+        StringBuilder buffer = new StringBuilder(512);
+        try
+        {
+            writeMap(buffer, m);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Serialise a List to JSON.
+     * @param list the List that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromList(final List list)
+    {
+        StringBuilder buffer = new StringBuilder(512);
+        try
+        {
+            writeList(buffer, list);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Serialise a QmfData Object to JSON. If the Object is a QmfConsoleData we serialise the ObjectId as a String
+     * which is the same encoding used for the various "ref" properies in fromObject().
+     * @param data the QmfData that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromQmfData(final QmfData data)
+    {
+        StringBuilder buffer = new StringBuilder(512);
+        try
+        {
+            writeQmfData(buffer, data);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Serialise a WorkItem Object to JSON.
+     * @param data the WorkItem that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromWorkItem(final WorkItem data)
+    {
+        StringBuilder buffer = new StringBuilder(512);
+        try
+        {
+            writeWorkItem(buffer, data);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Serialise an Object to a StringBuilder.
+     */
+    private static void appendObject(final StringBuilder buffer, final Object item)
+    {
+        try
+        {
+            writeObject(buffer, item);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+        }
+    }
+
+    /**
+     * Write the JSON encoding of an Object. A null nested in a Map or List is written as null.
+     * @param out the Appendable that the JSON encoding is written to.
+     * @param item the Object that we wish to serialise to JSON.
+     */
+    private static void writeObject(final Appendable out, final Object item) throws IOException
+    {
+        if (item == null)
+        {
+            out.append("null");
+        }
+        else if (item instanceof Map)
+        { // Check if the value part is an ObjectId and serialise appropriately
+            Map map = (Map)item;
+            if (map.containsKey("_object_name"))
+            { // Serialise "ref" properties as String versions of ObjectId to match encoding used in fromQmfData()
+                writeString(out, new ObjectId(map).toString());
             }
-            else if (item instanceof UUID)
+            else
             {
-                return "\"" + item.toString() + "\"";
+                writeMap(out, map);
             }
-            else
+        }
+        else if (item instanceof List)
+        {
+            writeList(out, (List)item);
+        }
+        else if (item instanceof QmfData)
+        {
+            writeQmfData(out, (QmfData)item);
+        }
+        else if (item instanceof WorkItem)
+        {
+            writeWorkItem(out, (WorkItem)item);
+        }
+        else if (item instanceof String)
+        {
+            writeString(out, (String)item);
+        }
+        else if (item instanceof byte[])
+        {
+            writeString(out, new String((byte[])item));
+        }
+        else if (item instanceof UUID)
+        {
+            writeString(out, item.toString());
+        }
+        else
+        {
+            out.append(item.toString());
+        }
+    }
+
+    /**
+     * Write a String as a quoted JSON string, escaping quotes, backslashes and control characters. The line and
+     * paragraph separators U+2028 and U+2029 are escaped too, as although JSON allows them JavaScript doesn't.
+     * @param out the Appendable that the JSON encoding is written to.
+     * @param s the String that we wish to serialise to JSON.
+     */
+    private static void writeString(final Appendable out, final String s) throws IOException
+    {
+        out.append('"');
+        int length = s.length();
+        int start = 0; // Runs of characters that don't need escaping are appended in one go.
+        for (int i = 0; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c == '\u2028' || c == '\u2029')
             {
-                return item.toString();
+                out.append(s, start, i);
+                start = i + 1;
+                switch (c)
+                {
+                    case '"':  out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\b': out.append("\\b"); break;
+                    case '\f': out.append("\\f"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:   out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                                                 .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                }
             }
         }
+        out.append(s, start, length);
+        out.append('"');
     }
 
     /**
-     * Encode the Map contents so we can use the same code for fromMap and fromQmfData as the latter also needs
-     * to encode _object_id and _schema_id. This returns a String that needs to be topped and tailed with braces.
+     * Write the Map contents so we can use the same code for writeMap and writeQmfData as the latter also needs
+     * to write _object_id and _schema_id. This writes the entries separated by commas without enclosing braces.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param m the Map that we wish to serialise to JSON.
-     * @return the String encoding of the contents.
+     * @param first true if no entries have been written within the enclosing braces yet.
      */
     @SuppressWarnings("unchecked")
-    private final static String encodeMapContents(final Map m)
+    private static void writeMapContents(final Appendable out, final Map m, boolean first) throws IOException
     {
         Map<String, Object> map = (Map<String, Object>)m;
-        StringBuilder buffer = new StringBuilder(512);
-        int size = map.size();
-        int count = 1;
         for (Map.Entry<String, Object> entry : map.entrySet())
         {
-            String key = (String)entry.getKey();
-            buffer.append("\"" + key + "\":");
-
-            Object value = entry.getValue();
-            buffer.append(fromObject(value));
-            if (count++ < size)
+            if (!first)
             {
-                buffer.append(",");
+                out.append(',');
             }
+            first = false;
+            writeString(out, entry.getKey());
+            out.append(':');
+            writeObject(out, entry.getValue());
         }
-        return buffer.toString();
     }
 
     /**
-     * Serialise a Map to JSON.
+     * Write a Map as a JSON object.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param m the Map that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    @SuppressWarnings("unchecked")
-    public final static String fromMap(final Map m)
+    private static void writeMap(final Appendable out, final Map m) throws IOException
     {
-        return "{" + encodeMapContents(m) + "}";
+        out.append('{');
+        writeMapContents(out, m, true);
+        out.append('}');
     }
 
     /**
-     * Serialise a List to JSON.
+     * Write a List as a JSON array.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param list the List that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    public final static String fromList(final List list)
+    private static void writeList(final Appendable out, final List list) throws IOException
     {
-        StringBuilder buffer = new StringBuilder(512);
-        buffer.append("[");
-        int size = list.size();
-        int count = 1;
+        out.append('[');
+        boolean first = true;
         for (Object item : list)
         {
-            buffer.append(fromObject(item));
-            if (count++ < size)
+            if (!first)
             {
-                buffer.append(",");
+                out.append(',');
             }
+            first = false;
+            writeObject(out, item);
         }
-        buffer.append("]");
-        return buffer.toString();
+        out.append(']');
     }
 
     /**
-     * Serialise a QmfData Object to JSON. If the Object is a QmfConsoleData we serialise the ObjectId as a String
-     * which is the same encoding used for the various "ref" properies in fromObject().
+     * Write a QmfData as a JSON object. If the Object is a QmfConsoleData we write the ObjectId as a String which
+     * is the same encoding used for the various "ref" properies in writeObject().
+     * @param out the Appendable that the JSON encoding is written to.
      * @param data the QmfData that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    public final static String fromQmfData(final QmfData data)
+    private static void writeQmfData(final Appendable out, final QmfData data) throws IOException
     {
-        String consoleDataInfo = "";
-
+        out.append('{');
+        boolean first = true;
         if (data instanceof QmfConsoleData)
         {
             QmfConsoleData consoleData = (QmfConsoleData)data;
             SchemaClassId sid = consoleData.getSchemaClassId();
             long[] ts = consoleData.getTimestamps();
 
-            String objectId = "\"_object_id\":\"" + consoleData.getObjectId().toString() + "\",";
-            String schemaId = "\"_schema_id\":{" + 
-                "\"_package_name\":\"" + sid.getPackageName() +
-                "\",\"_class_name\":\"" + sid.getClassName() +
-                "\",\"_type\":\"" + sid.getType() +
-                "\",\"_hash\":\"" + sid.getHashString() +
-            "\"},";
-
-            String timestamps = "\"_update_ts\":" + ts[0] + "," +
-                                "\"_create_ts\":" + ts[1] + "," +
-                                "\"_delete_ts\":" + ts[2] + ",";
-
-            consoleDataInfo = objectId + schemaId + timestamps;
+            out.append("\"_object_id\":");
+            writeString(out, consoleData.getObjectId().toString());
+            out.append(",\"_schema_id\":{\"_package_name\":");
+            writeString(out, String.valueOf(sid.getPackageName()));
+            out.append(",\"_class_name\":");
+            writeString(out, String.valueOf(sid.getClassName()));
+            out.append(",\"_type\":");
+            writeString(out, String.valueOf(sid.getType()));
+            out.append(",\"_hash\":");
+            writeString(out, String.valueOf(sid.getHashString()));
+            out.append("},\"_update_ts\":").append(Long.toString(ts[0]));
+            out.append(",\"_create_ts\":").append(Long.toString(ts[1]));
+            out.append(",\"_delete_ts\":").append(Long.toString(ts[2]));
+            first = false;
         }
-
-        return "{" + consoleDataInfo + encodeMapContents(data.mapEncode()) + "}";
+        writeMapContents(out, data.mapEncode(), first);
+        out.append('}');
     }
 
     /**
-     * Serialise a WorkItem Object to JSON.
+     * Write a WorkItem as a JSON object.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param data the WorkItem that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    public final static String fromWorkItem(final WorkItem data)
+    private static void writeWorkItem(final Appendable out, final WorkItem data) throws IOException
     {
-        // TODO There are a couple of WorkItem types that won't serialise correctly - SubscriptionIndicationWorkItem
-        // and MethodCallWorkItem. Their params require a custom serialiser - though they probably won't be used
-        // from a REST API so they've been parked for now.
-        String type = "\"_type\":\"" + data.getType() + "\",";
+        // TODO MethodCallWorkItem won't serialise correctly as its params require a custom serialiser, though as
+        // it is an Agent WorkItem it won't be used from a REST API so it has been parked for now.
+        out.append("{\"_type\":\"").append(data.getType().toString()).append("\",");
         Handle handle = data.getHandle();
-        String handleString = handle == null ? "" : "\"_handle\":\"" + handle.getCorrelationId() + "\",";
-        String params = "\"_params\":" + fromObject(data.getParams());
+        if (handle != null)
+        {
+            out.append("\"_handle\":");
+            writeString(out, handle.getCorrelationId());
+            out.append(',');
+        }
+        out.append("\"_params\":");
 
-        return "{" + type + handleString + params + "}";
+        Object params = data.getParams();
+        if (params instanceof SubscribeIndication)
+        { // The params of a SubscriptionIndicationWorkItem are serialised as the consoleHandle and updated objects.
+            SubscribeIndication indication = (SubscribeIndication)params;
+            out.append("{\"_console_handle\":");
+            writeString(out, String.valueOf(indication.getConsoleHandle()));
+            out.append(",\"_data\":");
+            writeList(out, indication.getData());
+            out.append('}');
+        }
+        else if (params != null)
+        { // Unlike other nested values null params are written as nothing, as fromObject() has always done.
+            writeObject(out, params);
+        }
+        out.append('}');
     }
 
     /**
      * Create a Map from a JSON String.
-     * The JSONMapParser class used here is largely a direct copy of org.apache.qpid.messaging.util.AddressParser
-     * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
-     * we really need for QMF. Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;"
-     * but there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
-     * which means that long integer values aren't correctly stored. It's this restriction that gives Java Address
-     * Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but it's better
-     * to add features covering "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo, mega, giga etc.)
-     * to both the Java and C++ AddressParser to ensure maximum consistency.
+     * The JSONMapParser class used here accepts the relaxed syntax of Qpid Address String options as well as strict
+     * JSON, and parses integers into a Long where they are too large for an Integer, so large values such as queue
+     * sizes are correctly stored. It also supports "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo,
+     * mega, giga etc.) as AddressParser should, see JSONMapParser for details.
      * @param json the JSON String that we wish to decode into a Map.
      * @return the Map encoding of the JSON String.
      */
@@ -251,6 +502,25 @@ public final class JSON
         }
     }
 
+    /**
+     * Create a Map from UTF-8 encoded JSON read from an InputStream, such as the body of an HTTP request. The JSON
+     * is parsed as it is read, so the request needn't be read into a String first. The InputStream isn't closed.
+     * @param is the InputStream that the JSON we wish to decode into a Map is read from.
+     * @return the Map encoding of the JSON, an empty Map if the InputStream contains only whitespace.
+     */
+    public final static Map toMap(final InputStream is)
+    {
+        JSONMapParser parser = new JSONMapParser(is);
+        if (parser.isEmpty())
+        {
+            return Collections.EMPTY_MAP;
+        }
+        else
+        {
+            return parser.map();
+        }
+    }
+
     /**
      * Create a QmfData from a JSON String.
      * @param json the JSON String that we wish to decode into a QmfData.
@@ -20,383 +20,596 @@
  */
 package org.apache.qpid.restapi;
 
+// Misc Imports
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.apache.qpid.messaging.Address;
-import org.apache.qpid.messaging.util.Lexer;
-import org.apache.qpid.messaging.util.Lexicon;
-import org.apache.qpid.messaging.util.ParseError;
-import org.apache.qpid.messaging.util.Token;
+import java.util.regex.Pattern;
 
 /**
- * AddressParser
- *
- * This JSONMapParser class used is mostly just a direct copy of org.apache.qpid.messaging.util.AddressParser
- * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
- * we really need for QMF.
+ * JSONMapParser parses JSON into java.util.Map and java.util.List structures in a single pass, reading characters
+ * directly from a Reader or from the InputStream of a request body rather than first lexing the whole input into a
+ * List of tokens.
+ * <p>
+ * This is a hand-written replacement for the original JSONMapParser, which was a copy of
+ * org.apache.qpid.messaging.util.AddressParser driven by the regex based org.apache.qpid.messaging.util.Lexicon.
+ * The syntax accepted is the same, so as well as strict JSON it accepts the relaxed syntax used by Qpid Address
+ * String options, which is what the REST API's connectionOptions are expressed in:
+ * <pre>
+ * {reconnect: True, 'username': 'guest', 42: [1, 2.5, -3]}
+ * </pre>
+ * <ul>
+ *  <li>Strings may be quoted with double or single quotes and as well as the JSON escapes may contain the
+ *      \a, \v, \', \xNN and \oNN escapes understood by AddressParser.</li>
+ *  <li>An unquoted identifier such as reconnect is a String, other than true and false, which are Booleans
+ *      regardless of their case, and null, which is null.</li>
+ *  <li>Map keys may be any value, not just Strings, and Maps and Lists may have a trailing comma.</li>
+ *  <li>A quoted String holding a number followed by k/K, m/M or g/G, e.g. "10M", is a Long multiplied by 1000,
+ *      1000000 or 1000000000, which allows large values such as queue sizes to be expressed in shorthand.</li>
+ * </ul>
+ * Numbers are typed as an Integer if they fit, otherwise a Long, and as a Double if they have a fraction or
+ * exponent or are too large for a Long. Integers are always decimal, so unlike the Lexicon based parser, which used
+ * Integer.decode(), a leading zero doesn't make a number octal.
+ * <p>
+ * Syntax errors are reported as an IllegalArgumentException giving the position of the error in the input.
  *
- * Unfortunately there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
- * which means that long integer values aren't correctly stored. It's this restriction that gives Java Address
- * Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but it's better
- * to add features covering "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo, mega, giga etc.)
- * to both the Java and C++ AddressParser to ensure maximum consistency.
- *
- * This AddressParser clone largely uses the classes from org.apache.qpid.messaging.util like the real AddressParser
- * but unfortunately the Parser class was package scope rather than public, so I've done some "copy and paste reuse"
- * to add the Parser methods into this version of AddressParser. I've also removed the bits that actually create
- * an Address as all we need to do is to parse into a java.util.Map.
+ * @author Fraser Adams
  */
-
-public class JSONMapParser
+public final class JSONMapParser
 {
+    /**
+     * Check for a number (with optional floating point) ending in K, M or G.
+     */
+    private static final Pattern SHORTHAND = Pattern.compile("([0-9]*\\.[0-9]+|[0-9]+)\\s*[kKmMgG]");
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Marks the end of the input, returned by peek() and read().
+     */
+    private static final int EOF = -1;
+
+    private final Reader _reader;
+    private final char[] _buffer = new char[8192];
+    private int _position = 0;
+    private int _limit = 0;
+    private long _offset = 0; // The offset in the input of the start of _buffer, used to report errors.
+
+    /**
+     * Used to accumulate Strings, numbers and identifiers, reused to avoid allocating one per token.
+     */
+    private final StringBuilder _token = new StringBuilder(64);
 
-    private static Lexicon lxi = new Lexicon();
-
-    private static Token.Type LBRACE = lxi.define("LBRACE", "\\{");
-    private static Token.Type RBRACE = lxi.define("RBRACE", "\\}");
-    private static Token.Type LBRACK = lxi.define("LBRACK", "\\[");
-    private static Token.Type RBRACK = lxi.define("RBRACK", "\\]");
-    private static Token.Type COLON = lxi.define("COLON", ":");
-    private static Token.Type SEMI = lxi.define("SEMI", ";");
-    private static Token.Type SLASH = lxi.define("SLASH", "/");
-    private static Token.Type COMMA = lxi.define("COMMA", ",");
-    private static Token.Type NUMBER = lxi.define("NUMBER", "[+-]?[0-9]*\\.?[0-9]+");
-    // Make test for true and false case insensitive. N.B. org.apache.qpid.messaging.util.AddressParser test is
-    // case sensitive - not sure if that's a bug/oversight in the AddressParser??
-    private static Token.Type TRUE = lxi.define("TRUE", "(?i)True");
-    private static Token.Type FALSE = lxi.define("FALSE", "(?i)False");
-    private static Token.Type ID = lxi.define("ID", "[a-zA-Z_](?:[a-zA-Z0-9_-]*[a-zA-Z0-9_])?");
-    private static Token.Type STRING = lxi.define("STRING", "\"(?:[^\\\"]|\\.)*\"|'(?:[^\\']|\\.)*'");
-    private static Token.Type ESC = lxi.define("ESC", "\\\\[^ux]|\\\\x[0-9a-fA-F][0-9a-fA-F]|\\\\u[0-9a-fA-F][0-9a-fA-F][0-9a-fA-F][0-9a-fA-F]");
-    private static Token.Type SYM = lxi.define("SYM", "[.#*%@$^!+-]");
-    private static Token.Type WSPACE = lxi.define("WSPACE", "[\\s]+");
-    private static Token.Type EOF = lxi.eof("EOF");
-
-    private static Lexer LEXER = lxi.compile();
-
-/********** Copied from org.apache.qpid.messaging.util.Parser as Parser was package scope **********/
-
-    private List<Token> tokens;
-    private int idx = 0;
-
-    Token next()
+    /**
+     * Construct a JSONMapParser that parses a String.
+     * @param input the JSON String.
+     */
+    public JSONMapParser(final String input)
     {
-        return tokens.get(idx);
+        this(new StringReader(input));
     }
 
-    boolean matches(Token.Type ... types)
+    /**
+     * Construct a JSONMapParser that parses the UTF-8 encoded JSON read from an InputStream, such as the body of an
+     * HTTP request. The InputStream is read as it is parsed, but it isn't closed by the JSONMapParser.
+     * @param is the InputStream that the JSON is read from.
+     */
+    public JSONMapParser(final InputStream is)
     {
-        for (Token.Type t : types)
-        {
-            if (next().getType() == t)
-            {
-                return true;
-            }
-        }
-        return false;
+        this(new InputStreamReader(is, UTF8));
     }
 
-    Token eat(Token.Type ... types)
+    /**
+     * Construct a JSONMapParser that parses the JSON read from a Reader. The Reader is read in blocks so it needn't
+     * be a BufferedReader.
+     * @param reader the Reader that the JSON is read from.
+     */
+    public JSONMapParser(final Reader reader)
     {
-        if (types.length > 0 && !matches(types))
-        {
-            throw new ParseError(next(), types);
-        }
-        else
-        {
-            Token t = next();
-            idx += 1;
-            return t;
-        }
+        _reader = reader;
     }
 
-/***************************************************************************************************/
+    /**
+     * Return true if the input is empty or contains only whitespace.
+     * @return true if the input is empty or contains only whitespace.
+     */
+    public boolean isEmpty()
+    {
+        return skipWhitespace() == EOF;
+    }
 
-    public static List<Token> lex(String input)
+    /**
+     * Parse the input, which must be a JSON object, into a Map.
+     * @return the Map encoding of the input.
+     */
+    public Map<Object, Object> map()
     {
-        return LEXER.lex(input);
+        expect('{');
+        Map<Object, Object> result = parseMap();
+        if (skipWhitespace() != EOF)
+        {
+            throw error("end of input");
+        }
+        return result;
     }
 
-    static List<Token> wlex(String input)
+    /**
+     * Return the next character of the input without consuming it, refilling the buffer from the Reader if needed.
+     * @return the next character of the input or EOF.
+     */
+    private int peek()
     {
-        List<Token> tokens = new ArrayList<Token>();
-        for (Token t : lex(input))
+        if (_position == _limit)
         {
-            if (t.getType() != WSPACE)
+            try
             {
-                tokens.add(t);
+                _offset += _limit;
+                _position = 0;
+                _limit = 0;
+                int read = _reader.read(_buffer, 0, _buffer.length);
+                if (read <= 0)
+                {
+                    return EOF;
+                }
+                _limit = read;
+            }
+            catch (IOException ioe)
+            {
+                throw new IllegalArgumentException("IOException " + ioe.getMessage() + " reading JSON input");
             }
         }
-        return tokens;
+        return _buffer[_position];
     }
 
-    static String unquote(String st, Token tok)
+    /**
+     * Consume and return the next character of the input.
+     * @return the next character of the input or EOF.
+     */
+    private int read()
     {
-        StringBuilder result = new StringBuilder();
-        for (int i = 1; i < st.length() - 1; i++)
+        int c = peek();
+        if (c != EOF)
         {
-            char ch = st.charAt(i);
-            if (ch == '\\')
+            _position++;
+        }
+        return c;
+    }
+
+    /**
+     * Skip any whitespace then return the next character without consuming it.
+     * @return the next non-whitespace character of the input or EOF.
+     */
+    private int skipWhitespace()
+    {
+        while (true)
+        {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f')
             {
-                char code = st.charAt(i+1);
-                switch (code)
-                {
-                case '\n':
-                    break;
-                case '\\':
-                    result.append('\\');
-                    break;
-                case '\'':
-                    result.append('\'');
-                    break;
-                case '"':
-                    result.append('"');
-                    break;
-                case 'a':
-                    result.append((char) 0x07);
-                    break;
-                case 'b':
-                    result.append((char) 0x08);
-                    break;
-                case 'f':
-                    result.append('\f');
-                    break;
-                case 'n':
-                    result.append('\n');
-                    break;
-                case 'r':
-                    result.append('\r');
-                    break;
-                case 't':
-                    result.append('\t');
-                    break;
-                case 'u':
-                    result.append(decode(st.substring(i+2, i+6)));
-                    i += 4;
-                    break;
-                case 'v':
-                    result.append((char) 0x0b);
-                    break;
-                case 'o':
-                    result.append(decode(st.substring(i+2, i+4), 8));
-                    i += 2;
-                    break;
-                case 'x':
-                    result.append(decode(st.substring(i+2, i+4)));
-                    i += 2;
-                    break;
-                default:
-                    throw new ParseError(tok);
-                }
-                i += 1;
+                _position++;
             }
             else
             {
-                result.append(ch);
+                return c;
             }
         }
-
-        return result.toString();
     }
 
-    static char[] decode(String hex)
+    /**
+     * Skip any whitespace then consume the next character, which must be the expected character.
+     */
+    private void expect(final char expected)
     {
-        return decode(hex, 16);
+        if (skipWhitespace() != expected)
+        {
+            throw error("'" + expected + "'");
+        }
+        _position++;
     }
 
-    static char[] decode(String code, int radix)
+    /**
+     * Create the Exception used to report a syntax error at the current position.
+     * @param expected a description of what was expected at the current position.
+     * @return the Exception.
+     */
+    private IllegalArgumentException error(final String expected)
     {
-        return Character.toChars(Integer.parseInt(code, radix));
+        int c = peek();
+        String found = (c == EOF) ? "end of input" : "'" + (char)c + "'";
+        return new IllegalArgumentException("JSON syntax error at position " + (_offset + _position) +
+                                            ", found " + found + " when expecting " + expected);
     }
 
     /**
-     * This method is the the main place where this class differs from org.apache.qpid.messaging.util.AddressParser.
-     * If the token type is a STRING it checks for a number (with optional floating point) ending in K, M or G
-     * and if it is of this type it creates a Long out of the float value multiplied by 1000, 1000000 or 1000000000.
-     * If the token type is a NUMBER it tries to parse into an Integer like AddressParser, but if that fails it
-     * tries to parse onto a Long which allows much larger integer values to be used.
+     * Parse the contents of a Map, the opening brace having been consumed.
      */
-    static Object tok2obj(Token tok)
+    private Map<Object, Object> parseMap()
     {
-        Token.Type type = tok.getType();
-        String value = tok.getValue();
-        if (type == STRING)
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        if (skipWhitespace() == '}')
+        {
+            _position++;
+            return result;
+        }
+
+        while (true)
         {
-            value = unquote(value, tok);
+            Object key = parseValue();
+            expect(':');
+            result.put(key, parseValue());
 
-            // Initial regex to check for a number (with optional floating point) ending in K, M or G
-            if (value.matches("([0-9]*\\.[0-9]+|[0-9]+)\\s*[kKmMgG]"))
+            int c = skipWhitespace();
+            if (c == ',')
             {
-                // If it's a numeric string perform the relevant multiplication and return as a Long.
-                int length = value.length();
-                if (length > 1)
-                {
-                    String end = value.substring(length - 1, length).toUpperCase();
-                    String start = value.substring(0, length - 1).trim();
-
-                    if (end.equals("K"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000.0));
-                    }
-                    else if (end.equals("M"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000000.0));
-                    }
-                    else if (end.equals("G"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000000000.0));
-                    }
+                _position++;
+                if (skipWhitespace() == '}')
+                { // Like AddressParser a trailing comma is allowed.
+                    _position++;
+                    return result;
                 }
-
-                return value;
+            }
+            else if (c == '}')
+            {
+                _position++;
+                return result;
             }
             else
             {
-                return value;
+                throw error("',' or '}'");
             }
         }
-        else if (type == NUMBER)
+    }
+
+    /**
+     * Parse the contents of a List, the opening bracket having been consumed.
+     */
+    private List<Object> parseList()
+    {
+        List<Object> result = new ArrayList<Object>();
+        if (skipWhitespace() == ']')
+        {
+            _position++;
+            return result;
+        }
+
+        while (true)
         {
-            // This block extends the original AddressParser handling of NUMBER. It first attempts to parse the String
-            // into an Integer in order to be backwards compatible with AddressParser however if this causes a
-            // NumberFormatException it then attempts to parse into a Long.
-            if (value.indexOf('.') >= 0)
+            result.add(parseValue());
+
+            int c = skipWhitespace();
+            if (c == ',')
             {
-                return Double.valueOf(value);
+                _position++;
+                if (skipWhitespace() == ']')
+                { // Like AddressParser a trailing comma is allowed.
+                    _position++;
+                    return result;
+                }
+            }
+            else if (c == ']')
+            {
+                _position++;
+                return result;
             }
             else
             {
-                try
-                {
-                    return Integer.decode(value);
-                }
-                catch (NumberFormatException nfe)
-                {
-                    return Long.decode(value);
-                }
+                throw error("',' or ']'");
             }
         }
-        else if (type == TRUE)
+    }
+
+    /**
+     * Parse a value, which may be a Map, List, String, number, Boolean, null or unquoted identifier.
+     */
+    private Object parseValue()
+    {
+        int c = skipWhitespace();
+        if (c == '{')
+        {
+            _position++;
+            return parseMap();
+        }
+        else if (c == '[')
+        {
+            _position++;
+            return parseList();
+        }
+        else if (c == '"' || c == '\'')
+        {
+            _position++;
+            return parseString((char)c);
+        }
+        else if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.')
         {
-            return true;
+            return parseNumber();
         }
-        else if (type == FALSE)
+        else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_')
         {
-            return false;
+            return parseIdentifier();
         }
         else
         {
-            return value;
+            throw error("a value");
         }
     }
 
-    public JSONMapParser(String input)
-    {
-        this.tokens = wlex(input); // Copied from org.apache.qpid.messaging.util.Parser
-        this.idx = 0; // Copied from org.apache.qpid.messaging.util.Parser
-    }
-
-    public Map<Object,Object> map()
+    /**
+     * Parse a quoted String, the opening quote having been consumed. Runs of characters without escapes are copied
+     * from the buffer in bulk.
+     */
+    private Object parseString(final char quote)
     {
-        eat(LBRACE);
-
-        Map<Object,Object> result = new HashMap<Object,Object>();
+        _token.setLength(0);
         while (true)
         {
-            if (matches(NUMBER, STRING, ID, LBRACE, LBRACK))
+            if (peek() == EOF)
             {
-                keyval(result);
-                if (matches(COMMA))
-                {
-                    eat(COMMA);
-                }
-                else if (matches(RBRACE))
+                throw error("closing " + quote);
+            }
+
+            int start = _position;
+            while (_position < _limit)
+            {
+                char c = _buffer[_position];
+                if (c == quote || c == '\\')
                 {
                     break;
                 }
-                else
-                {
-                    throw new ParseError(next(), COMMA, RBRACE);
-                }
+                _position++;
             }
-            else if (matches(RBRACE))
+            _token.append(_buffer, start, _position - start);
+
+            if (_position < _limit)
             {
-                break;
+                if (_buffer[_position++] == quote)
+                {
+                    break;
+                }
+                parseEscape();
             }
-            else
+        }
+
+        String value = _token.toString();
+        int length = value.length();
+        if (length > 1 && "kKmMgG".indexOf(value.charAt(length - 1)) >= 0 && SHORTHAND.matcher(value).matches())
+        { // A number with a K, M or G suffix is converted to a Long.
+            float number = Float.parseFloat(value.substring(0, length - 1).trim());
+            char suffix = Character.toUpperCase(value.charAt(length - 1));
+            double multiplier = (suffix == 'K') ? 1000.0 : (suffix == 'M') ? 1000000.0 : 1000000000.0;
+            return Long.valueOf((long)(number * multiplier));
+        }
+        return value;
+    }
+
+    /**
+     * Parse an escape sequence, the backslash having been consumed, appending the escaped character to _token.
+     */
+    private void parseEscape()
+    {
+        int code = read();
+        switch (code)
+        {
+        case '\n':
+            break;
+        case '\\':
+        case '\'':
+        case '"':
+        case '/':
+            _token.append((char)code);
+            break;
+        case 'a':
+            _token.append((char)0x07);
+            break;
+        case 'b':
+            _token.append('\b');
+            break;
+        case 'f':
+            _token.append('\f');
+            break;
+        case 'n':
+            _token.append('\n');
+            break;
+        case 'r':
+            _token.append('\r');
+            break;
+        case 't':
+            _token.append('\t');
+            break;
+        case 'v':
+            _token.append((char)0x0b);
+            break;
+        case 'u':
+            _token.appendCodePoint(parseDigits(4, 16));
+            break;
+        case 'x':
+            _token.appendCodePoint(parseDigits(2, 16));
+            break;
+        case 'o':
+            _token.appendCodePoint(parseDigits(2, 8));
+            break;
+        default:
+            if (code != EOF)
             {
-                throw new ParseError(next(), NUMBER, STRING, ID, LBRACE, LBRACK,
-                                     RBRACE);
+                _position--;
             }
+            throw error("a valid escape sequence");
         }
-
-        eat(RBRACE);
-        return result;
     }
 
-    void keyval(Map<Object,Object> map)
+    /**
+     * Parse the digits of a numeric escape sequence.
+     * @param count the number of digits.
+     * @param radix the radix of the digits.
+     * @return the value of the digits.
+     */
+    private int parseDigits(final int count, final int radix)
     {
-        Object key = value();
-        eat(COLON);
-        Object val = value();
-        map.put(key, val);
+        int value = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int digit = Character.digit(peek(), radix);
+            if (peek() == EOF || digit < 0)
+            {
+                throw error("a digit");
+            }
+            _position++;
+            value = value * radix + digit;
+        }
+        return value;
     }
 
-    Object value()
+    /**
+     * Parse a number, returning an Integer or Long for integers and a Double for numbers with a fraction or exponent
+     * or that are too large to be a Long.
+     */
+    private Object parseNumber()
     {
-        if (matches(NUMBER, STRING, ID, TRUE, FALSE))
+        _token.setLength(0);
+        boolean integer = true;
+        int c = peek();
+        if (c == '-' || c == '+')
         {
-            return tok2obj(eat());
+            _token.append((char)read());
         }
-        else if (matches(LBRACE))
+
+        int digits = appendDigits();
+        if (peek() == '.')
         {
-            return map();
+            integer = false;
+            _token.append((char)read());
+            digits += appendDigits();
         }
-        else if (matches(LBRACK))
+
+        if (digits == 0)
         {
-            return list();
+            throw error("a digit");
         }
-        else
+
+        c = peek();
+        if (c == 'e' || c == 'E')
         {
-            throw new ParseError(next(), NUMBER, STRING, ID, LBRACE, LBRACK);
+            integer = false;
+            _token.append((char)read());
+            c = peek();
+            if (c == '-' || c == '+')
+            {
+                _token.append((char)read());
+            }
+            if (appendDigits() == 0)
+            {
+                throw error("a digit");
+            }
         }
+
+        if (integer)
+        {
+            int length = _token.length();
+            if (length < 10)
+            { // Fewer than ten characters, including any sign, must fit in an int.
+                return Integer.valueOf((int)parseLong(length));
+            }
+            else if (length < 19)
+            { // Likewise fewer than nineteen characters must fit in a long.
+                long value = parseLong(length);
+                return (value == (int)value) ? (Object)Integer.valueOf((int)value) : (Object)Long.valueOf(value);
+            }
+            else
+            {
+                try
+                {
+                    long value = Long.parseLong(_token.toString());
+                    return (value == (int)value) ? (Object)Integer.valueOf((int)value) : (Object)Long.valueOf(value);
+                }
+                catch (NumberFormatException nfe)
+                { // Too large for a long so fall through to Double.
+                }
+            }
+        }
+        return Double.valueOf(_token.toString());
     }
 
-    List<Object> list()
+    /**
+     * Parse the integer held in _token, which is known to fit in a long, without creating a String.
+     */
+    private long parseLong(final int length)
     {
-        eat(LBRACK);
+        char sign = _token.charAt(0);
+        int i = (sign == '-' || sign == '+') ? 1 : 0;
+        long value = 0;
+        for (; i < length; i++)
+        {
+            value = value * 10 + (_token.charAt(i) - '0');
+        }
+        return (sign == '-') ? -value : value;
+    }
 
-        List<Object> result = new ArrayList<Object>();
+    /**
+     * Append any decimal digits at the current position to _token.
+     * @return the number of digits appended.
+     */
+    private int appendDigits()
+    {
+        int count = 0;
+        while (true)
+        {
+            int c = peek();
+            if (c >= '0' && c <= '9')
+            {
+                _token.append((char)c);
+                _position++;
+                count++;
+            }
+            else
+            {
+                return count;
+            }
+        }
+    }
 
+    /**
+     * Parse an unquoted identifier, which is a Boolean if it is true or false regardless of case, null if it is null
+     * and otherwise a String.
+     */
+    private Object parseIdentifier()
+    {
+        _token.setLength(0);
         while (true)
         {
-            if (matches(RBRACK))
+            int c = peek();
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-')
             {
-                break;
+                _token.append((char)c);
+                _position++;
             }
             else
             {
-                result.add(value());
-                if (matches(COMMA))
-                {
-                    eat(COMMA);
-                }
-                else if (matches(RBRACK))
-                {
-                    break;
-                }
-                else
-                {
-                    throw new ParseError(next(), COMMA, RBRACK);
-                }
+                break;
             }
         }
 
-        eat(RBRACK);
-        return result;
+        String value = _token.toString();
+        if (value.equalsIgnoreCase("true"))
+        {
+            return Boolean.TRUE;
+        }
+        else if (value.equalsIgnoreCase("false"))
+        {
+            return Boolean.FALSE;
+        }
+        else if (value.equals("null"))
+        {
+            return null;
+        }
+        else
+        {
+            return value;
+        }
     }
-
 }
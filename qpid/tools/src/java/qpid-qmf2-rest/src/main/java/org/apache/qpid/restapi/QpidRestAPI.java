@@ -31,10 +31,19 @@ import org.apache.qpid.qmf2.util.GetOpt;
 
 import org.apache.qpid.restapi.httpserver.Authenticator;
 import org.apache.qpid.restapi.httpserver.Delegator;
+import org.apache.qpid.restapi.nioserver.NioHttpServer;
 
 /**
- * Note QpidRestAPI makes use of the Java 1.6 "Easter Egg" HttpServer and associated classes to create a simple
- * HTTP REST interface to Qpid and QMF2 functionality.
+ * QpidRestAPI creates a simple HTTP REST interface to Qpid and QMF2 functionality. It has two interchangeable HTTP
+ * front ends, selected using the --server option.
+ * <p>
+ * By default QpidRestAPI uses NioHttpServer, which serves every connection from a single java.nio selector thread
+ * and passes complete requests to a bounded pool of worker threads. Idle keep-alive connections therefore don't
+ * occupy threads, so many Web UI sessions can be served at once, and when every worker is busy and the pool's queue
+ * is full further requests are refused with "503 Service Unavailable" rather than each creating a thread. The number
+ * of workers, the time that idle connections are kept alive and the time allowed to send a request may be tuned.
+ * <p>
+ * Alternatively QpidRestAPI can use the Java 1.6 "Easter Egg" HttpServer and associated classes.
  * <p>
  * Because HttpServer is in the com.sun.net.httpserver.HttpServer namespace it is technically not part of core Java
  * and so may not be supported in all JREs, however it seems to be present in the OpenJDK Runtime Environment that is 
@@ -72,6 +81,19 @@ import org.apache.qpid.restapi.httpserver.Delegator;
  *                        the socket backlog default is 10
  *        -w &lt;directory&gt;, --webroot=&lt;directory&gt;
  *                        the directory of the QpidRestAPI Web Site default is qpid-web
+ *        -c &lt;ttl&gt;,       --cache-ttl=&lt;ttl&gt;
+ *                        the time in milliseconds that the responses to object, class and package
+ *                        queries are cached default is 5000 (0 disables caching)
+ *        --server=&lt;server&gt;
+ *                        the HTTP front end, nio or httpserver, default is nio
+ *        --workers=&lt;workers&gt;
+ *                        the number of nio worker threads default is 50
+ *        --keep-alive-timeout=&lt;timeout&gt;
+ *                        the time in milliseconds that the nio server keeps an idle
+ *                        connection open default is 30000
+ *        --request-timeout=&lt;timeout&gt;
+ *                        the time in milliseconds that the nio server allows for a client
+ *                        to send a request or to read its response default is 30000
  * </pre>
  * @author Fraser Adams
  */
@@ -104,7 +126,26 @@ public class QpidRestAPI
     "                        default is 10\n" +
     "  -w <directory>, --webroot=<directory>\n" +
     "                        the directory of the QpidRestAPI Web Site.\n" +
-    "                        default is qpid-web.\n";
+    "                        default is qpid-web.\n" +
+    "  -c <ttl>,     --cache-ttl=<ttl>\n" +
+    "                        the time in milliseconds that the responses to\n" +
+    "                        object, class and package queries are cached.\n" +
+    "                        default is 5000 (0 disables caching).\n" +
+    "  --server=<server>\n" +
+    "                        the HTTP front end, nio or httpserver.\n" +
+    "                        default is nio.\n" +
+    "  --workers=<workers>\n" +
+    "                        the number of nio worker threads.\n" +
+    "                        default is 50.\n" +
+    "  --keep-alive-timeout=<timeout>\n" +
+    "                        the time in milliseconds that the nio server keeps\n" +
+    "                        an idle connection open.\n" +
+    "                        default is 30000.\n" +
+    "  --request-timeout=<timeout>\n" +
+    "                        the time in milliseconds that the nio server allows\n" +
+    "                        for a client to send a request or to read its\n" +
+    "                        response.\n" +
+    "                        default is 30000.\n";
 
 
     /**
@@ -120,22 +161,84 @@ public class QpidRestAPI
     public QpidRestAPI(final String addr, final int port, String broker, final int backlog, final String webroot) 
         throws IOException
     {
+        this(addr, port, broker, backlog, webroot, ResponseCache.DEFAULT_TTL);
+    }
+
+    /**
+     * Construct and start an instance of QpidRestAPI. This class used a Delegator class to delegate to underlying 
+     * Server instances that actually implement the business logic of the REST API.
+     *
+     * @param addr the the address the QpidRestAPI is bound to (null = default). 
+     * @param port the port the QpidRestAPI is bound to.
+     * @param broker the address of the Qpid broker to connect to (null = default).
+     * @param backlog the socket backlog.
+     * @param webroot the directory of the QpidRestAPI Web Site.
+     * @param cacheTTL the time in milliseconds that the responses to object, class and package queries are cached.
+     */
+    public QpidRestAPI(final String addr, final int port, String broker, final int backlog, final String webroot,
+                       final long cacheTTL) throws IOException
+    {
+        this(addr, port, broker, backlog, webroot, cacheTTL, "nio", NioHttpServer.DEFAULT_WORKERS,
+             NioHttpServer.DEFAULT_KEEP_ALIVE_TIMEOUT, NioHttpServer.DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Construct and start an instance of QpidRestAPI using the specified HTTP front end. The "nio" front end is an
+     * NioHttpServer, the "httpserver" front end is a com.sun.net.httpserver.HttpServer with a Delegator per Server.
+     *
+     * @param addr the the address the QpidRestAPI is bound to (null = default). 
+     * @param port the port the QpidRestAPI is bound to.
+     * @param broker the address of the Qpid broker to connect to (null = default).
+     * @param backlog the socket backlog.
+     * @param webroot the directory of the QpidRestAPI Web Site.
+     * @param cacheTTL the time in milliseconds that the responses to object, class and package queries are cached.
+     * @param server the HTTP front end, either "nio" or "httpserver".
+     * @param workers the number of worker threads used by the nio front end.
+     * @param keepAliveTimeout the time in milliseconds that the nio front end keeps an idle connection open.
+     * @param requestTimeout the time in milliseconds that the nio front end allows for a client to send a request or
+     *        to read its response.
+     */
+    public QpidRestAPI(final String addr, final int port, String broker, final int backlog, final String webroot,
+                       final long cacheTTL, final String server, final int workers, final long keepAliveTimeout,
+                       final long requestTimeout) throws IOException
+    {
+        if (!server.equals("nio") && !server.equals("httpserver"))
+        {
+            throw new IllegalArgumentException("Unknown server " + server + ", expected nio or httpserver");
+        }
+
         final InetSocketAddress inetaddr = (addr == null) ? new InetSocketAddress(port) :
                                                             new InetSocketAddress(addr, port);
-        final HttpServer server = HttpServer.create(inetaddr, backlog);
 
         broker = (broker == null) ? inetaddr.getAddress().getHostAddress() + ":5672" : broker;
 
-        Delegator fileserver = new Delegator(new FileServer(webroot + "/web", true));
-        Delegator qpidserver  = new Delegator(new QpidServer(broker));
+        FileServer fileserver = new FileServer(webroot + "/web", true);
+        QpidServer qpidserver = new QpidServer(broker, cacheTTL);
 
         Authenticator authenticator = new Authenticator(this.getClass().getCanonicalName(), webroot + "/authentication");
 
-        server.setExecutor(Executors.newCachedThreadPool());
-        server.createContext("/", fileserver);
-        server.createContext("/ui", fileserver).setAuthenticator(authenticator);
-        server.createContext("/qpid/connection", qpidserver).setAuthenticator(authenticator);
-        server.start();
+        if (server.equals("nio"))
+        {
+            NioHttpServer nioServer = new NioHttpServer(inetaddr, backlog);
+            nioServer.setExecutor(NioHttpServer.newWorkerPool(workers, NioHttpServer.DEFAULT_WORKER_QUEUE_SIZE));
+            nioServer.setKeepAliveTimeout(keepAliveTimeout);
+            nioServer.setRequestTimeout(requestTimeout);
+            nioServer.createContext("/", fileserver);
+            nioServer.createContext("/ui", fileserver, authenticator);
+            nioServer.createContext("/qpid/connection", qpidserver, authenticator);
+            nioServer.start();
+        }
+        else
+        {
+            final HttpServer httpServer = HttpServer.create(inetaddr, backlog);
+            Delegator fileDelegator = new Delegator(fileserver);
+
+            httpServer.setExecutor(Executors.newCachedThreadPool());
+            httpServer.createContext("/", fileDelegator);
+            httpServer.createContext("/ui", fileDelegator).setAuthenticator(authenticator);
+            httpServer.createContext("/qpid/connection", new Delegator(qpidserver)).setAuthenticator(authenticator);
+            httpServer.start();
+        }
     }
 
     /**
@@ -148,7 +251,8 @@ public class QpidRestAPI
         logLevel = (logLevel == null) ? "FATAL" : logLevel; // Set default log level to FATAL rather than DEBUG.
         System.setProperty("amqj.logging.level", logLevel);
 
-        String[] longOpts = {"help", "host=", "port=", "backlog=", "webroot="};
+        String[] longOpts = {"help", "host=", "port=", "backlog=", "webroot=", "cache-ttl=", "server=", "workers=",
+                             "keep-alive-timeout=", "request-timeout="};
         try
         {
             String addr = null;
@@ -156,8 +260,13 @@ public class QpidRestAPI
             String broker = null;
             int backlog = 10;
             String webroot = "qpid-web";
+            long cacheTTL = ResponseCache.DEFAULT_TTL;
+            String server = "nio";
+            int workers = NioHttpServer.DEFAULT_WORKERS;
+            long keepAliveTimeout = NioHttpServer.DEFAULT_KEEP_ALIVE_TIMEOUT;
+            long requestTimeout = NioHttpServer.DEFAULT_REQUEST_TIMEOUT;
 
-            GetOpt getopt = new GetOpt(args, "ha:i:p:b:w:", longOpts);
+            GetOpt getopt = new GetOpt(args, "ha:i:p:b:w:c:", longOpts);
             List<String[]> optList = getopt.getOptList();
             String[] cargs = {};
             cargs = getopt.getEncArgs().toArray(cargs);
@@ -191,9 +300,30 @@ public class QpidRestAPI
                 {
                     webroot = opt[1];
                 }
+                else if (opt[0].equals("-c") || opt[0].equals("--cache-ttl"))
+                {
+                    cacheTTL = Long.parseLong(opt[1]);
+                }
+                else if (opt[0].equals("--server"))
+                {
+                    server = opt[1];
+                }
+                else if (opt[0].equals("--workers"))
+                {
+                    workers = Integer.parseInt(opt[1]);
+                }
+                else if (opt[0].equals("--keep-alive-timeout"))
+                {
+                    keepAliveTimeout = Long.parseLong(opt[1]);
+                }
+                else if (opt[0].equals("--request-timeout"))
+                {
+                    requestTimeout = Long.parseLong(opt[1]);
+                }
             }
 
-            QpidRestAPI restAPI = new QpidRestAPI(addr, port, broker, backlog, webroot);
+            QpidRestAPI restAPI = new QpidRestAPI(addr, port, broker, backlog, webroot, cacheTTL, server, workers,
+                                                  keepAliveTimeout, requestTimeout);
         }
         catch (IllegalArgumentException e)
         {
@@ -26,6 +26,9 @@ import org.slf4j.LoggerFactory;
 
 // Misc Imports
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.util.Collections;
 import java.util.List;
@@ -46,6 +49,7 @@ import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
 import static java.net.HttpURLConnection.HTTP_CREATED;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.net.HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 
 
@@ -166,21 +170,111 @@ import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
  * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/console/nextWorkItem
  * 
  *      This method retrieves (as a JSON string) the next pending work item from this Console (N.B. this method
- *      blocks until a WorkItem is available so should only be called asynchronously e.g. via AJAX).
+ *      blocks until a WorkItem is available so should only be called asynchronously e.g. via AJAX). The request
+ *      waits without tying up a Server thread, and while it waits whitespace is periodically sent ahead of the JSON.
  *      This is the REST equivalent of Console.getNextWorkitem().
+ *
+ * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/console/workItemStream
+ * 
+ *      This method opens a Server-Sent Events (text/event-stream) stream on which each WorkItem received by this
+ *      Console from now on, e.g. subscription indications, QMF2 Events and Agent lifecycle changes, is pushed as it
+ *      arrives. The event name is the WorkItem type and the event data is the JSON string that nextWorkItem would
+ *      return. The stream stays open without tying up a Server thread, which makes it much more efficient than
+ *      polling nextWorkItem, but a client that falls too far behind is disconnected (and an EventSource client
+ *      will reconnect after 5 seconds). The Connection is kept alive for as long as it has streams open.
  * </pre>
+ * The responses to console/objects, console/classes and console/packages are held in the ResponseCache of the
+ * Connection for a short time to live, so clients polling them don't each cause a QMF query to be sent to the broker.
+ * These responses have weak ETag and Last-Modified headers, the Last-Modified time of a list of objects being the latest
+ * _update_ts of the objects, and a conditional GET using If-None-Match or If-Modified-Since receives a
+ * 304 Not Modified response if the content hasn't changed. A cached response is never reused after an Agent has
+ * been added, removed or restarted, and the cache is invalidated when a method is invoked via POST or the Console
+ * receives a QMF2 Event.
  * @author Fraser Adams
  */
 public final class QpidServer implements Server
 {
     private static final Logger _log = LoggerFactory.getLogger(QpidServer.class);
 
-    private ConnectionStore _connections = new ConnectionStore();
+    private final ConnectionStore _connections;
     private String _defaultBroker = null;
 
     public QpidServer(final String broker)
+    {
+        this(broker, ResponseCache.DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a QpidServer.
+     * @param broker the address of the default broker.
+     * @param cacheTTL the time to live in milliseconds of cached query responses, zero disables caching.
+     */
+    public QpidServer(final String broker, final long cacheTTL)
     {
         _defaultBroker = broker;
+        _connections = new ConnectionStore(cacheTTL);
+    }
+
+    /**
+     * Send an HTTP 200 response whose content is the JSON representation of the specified Object. The JSON is
+     * written as UTF-8 directly to the response as it is serialised, using chunked transfer encoding, so large
+     * responses such as the results of getObjects() aren't first built as a String and then copied to a byte[].
+     */
+    private void sendJSONResponse(final HttpTransaction tx, final Object item) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(tx.sendResponseStream(HTTP_OK, "application/json"), "UTF-8");
+        try
+        {
+            JSON.write(item, writer);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Send the next WorkItem as the response to a console/nextWorkItem request. The response headers are sent
+     * straight away and the request is handed to the WorkItemPublisher, which sends the WorkItem once one is
+     * available, so this returns without waiting for a WorkItem.
+     * @param tx the HttpTransaction containing the request from the client and used to send the response.
+     * @param connection the Connection whose WorkItems are retrieved.
+     */
+    private void sendNextWorkItem(final HttpTransaction tx, final ConnectionProxy connection) throws IOException
+    {
+        tx.setHeader("Cache-Control", "no-cache");
+        OutputStream os = tx.sendResponseStream(HTTP_OK, "application/json");
+        connection.getWorkItemPublisher().addWorkItemRequest(os, tx.getRemoteAddr() + ":" + tx.getRemotePort());
+    }
+
+    /**
+     * Send the response to a query via the ResponseCache of a Connection, performing the query only if there is no
+     * fresh cached response. If the request is a conditional GET whose validators match the response then a
+     * 304 Not Modified response is sent, otherwise the result of the query is streamed to the client as it is
+     * serialised.
+     * @param tx the HttpTransaction containing the request from the client and used to send the response.
+     * @param connection the Connection that the query is made on.
+     * @param key the key identifying the query in the ResponseCache.
+     * @param query performs the query.
+     */
+    private void sendCachedResponse(final HttpTransaction tx, final ConnectionProxy connection, final String key,
+                                    final ResponseCache.Query query) throws IOException
+    {
+        List<Agent> agents = connection.getConsole().getAgents();
+        ResponseCache.Entry entry = connection.getResponseCache().get(key, agents, query);
+
+        // no-cache allows clients to store the response but has them revalidate it on each use.
+        tx.setHeader("Cache-Control", "no-cache");
+        tx.setHeader("ETag", entry.getETag());
+        tx.setHeader("Last-Modified", entry.getLastModified());
+        if (entry.isNotModified(tx.getHeader("If-None-Match"), tx.getHeader("If-Modified-Since")))
+        {
+            tx.sendResponse(HTTP_NOT_MODIFIED, "application/json", (byte[])null);
+        }
+        else
+        {
+            sendJSONResponse(tx, entry.getResult());
+        }
     }
 
     /**
@@ -189,17 +283,31 @@ public final class QpidServer implements Server
      * in other words a request for information about an object resource specified by the remaining path.
      * Only the GET method is valid for this resource and it is in effect the REST mapping for Console.getObjects().
      */
-    private void sendGetObjectsResponse(final HttpTransaction tx, final Console console, final String path) throws IOException
+    private void sendGetObjectsResponse(final HttpTransaction tx, final ConnectionProxy connection, final String path)
+        throws IOException
     {
-        String[] params = path.split("/");
+        final Console console = connection.getConsole();
+        final String[] params = path.split("/");
         if (params.length == 1)
         { // With one parameter we call getObjects(className)
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getObjects(params[0])));
+            sendCachedResponse(tx, connection, "objects/" + params[0], new ResponseCache.Query()
+            {
+                public Object execute()
+                {
+                    return console.getObjects(params[0]);
+                }
+            });
         }
         else if (params.length == 2)
         { // With two parameters we call getObjects(packageName, className)
             //System.out.println("params = " + params[0] + ", " + params[1]);
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getObjects(params[0], params[1])));
+            sendCachedResponse(tx, connection, "objects/" + params[0] + "/" + params[1], new ResponseCache.Query()
+            {
+                public Object execute()
+                {
+                    return console.getObjects(params[0], params[1]);
+                }
+            });
         }
         else if (params.length == 3)
         { // TODO With three parameters we call getObjects(packageName, className, agent)
@@ -231,7 +339,7 @@ public final class QpidServer implements Server
             String user = tx.getPrincipal(); // Using the principal lets different users use the default connection.
             if (path.length() == 0)
             { // handle "/qpid/connection/" request with unspecified connection (returns list of available connections).
-                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(_connections.getAll(user)));   
+                sendJSONResponse(tx, _connections.getAll(user));
             }
             else
             { // if path.length() > 0 we're dealing with a specified Connection so extract the name and look it up.
@@ -285,44 +393,60 @@ public final class QpidServer implements Server
                     else
                     { // In this block we are dealing with resources associated with a specified connectionName.
                       // path describes the resources specifically related to "/qpid/connection/<connectionName>"
-                        Console console = connection.getConsole();
+                        final Console console = connection.getConsole();
+                        final ResponseCache.Query getClasses = new ResponseCache.Query()
+                        {
+                            public Object execute()
+                            {
+                                return console.getClasses();
+                            }
+                        };
 
                         if (path.startsWith("console/objects/"))
                         { // Get information about specified objects.
                             path = path.substring(16);
-                            sendGetObjectsResponse(tx, console, path);
+                            sendGetObjectsResponse(tx, connection, path);
                         }
                         else if (path.startsWith("console/objects") && path.length() == 15)
                         {  // If objects is unspecified treat as a synonym for classes.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getClasses()));
+                            sendCachedResponse(tx, connection, "classes", getClasses);
                         }
                         else if (path.startsWith("console/address/"))
                         { // Get the Console AMQP Address
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAddress()));
+                            sendJSONResponse(tx, console.getAddress());
                         }
                         else if (path.startsWith("console/address") && path.length() == 15)
                         { // Get the Console AMQP Address
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAddress()));
+                            sendJSONResponse(tx, console.getAddress());
                         }
                         else if (path.startsWith("console/workItemCount/"))
                         { // Returns the count of pending WorkItems that can be retrieved.
-                            tx.sendResponse(HTTP_OK, "text/plain", "" + console.getWorkitemCount());
+                            WorkItemPublisher publisher = connection.getWorkItemPublisher();
+                            tx.sendResponse(HTTP_OK, "text/plain", "" + publisher.getWorkitemCount());
                         }
                         else if (path.startsWith("console/workItemCount") && path.length() == 21)
                         { // Returns the count of pending WorkItems that can be retrieved.
-                            tx.sendResponse(HTTP_OK, "text/plain", "" + console.getWorkitemCount());
+                            WorkItemPublisher publisher = connection.getWorkItemPublisher();
+                            tx.sendResponse(HTTP_OK, "text/plain", "" + publisher.getWorkitemCount());
                         }
                         else if (path.startsWith("console/nextWorkItem/"))
-                        { // Obtains the next pending work item, or null if none available.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getNextWorkitem()));
+                        { // Obtains the next pending work item, waiting without blocking a thread if none available.
+                            sendNextWorkItem(tx, connection);
                         }
                         else if (path.startsWith("console/nextWorkItem") && path.length() == 20)
-                        { // Obtains the next pending work item, or null if none available.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getNextWorkitem()));
+                        { // Obtains the next pending work item, waiting without blocking a thread if none available.
+                            sendNextWorkItem(tx, connection);
+                        }
+                        else if (path.equals("console/workItemStream") || path.equals("console/workItemStream/"))
+                        { // Opens a Server-Sent Events stream of WorkItems, this returns leaving the stream open.
+                            WorkItemPublisher publisher = connection.getWorkItemPublisher();
+                            tx.setHeader("Cache-Control", "no-cache");
+                            OutputStream os = tx.sendResponseStream(HTTP_OK, "text/event-stream");
+                            publisher.addEventStream(os, tx.getRemoteAddr() + ":" + tx.getRemotePort());
                         }
                         else if (path.startsWith("console/agents") && path.length() == 14)
                         { // Get information about all available Agents.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAgents()));
+                            sendJSONResponse(tx, console.getAgents());
                         }
                         else if (path.startsWith("console/agent/"))
                         { // Get information about a specified Agent.
@@ -333,12 +457,12 @@ public final class QpidServer implements Server
                             }
                             else
                             {
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(agent));
+                                sendJSONResponse(tx, agent);
                             }
                         }
                         else if (path.startsWith("console/agent") && path.length() == 13)
                         { // If agent is unspecified treat as a synonym for agents.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAgents()));
+                            sendJSONResponse(tx, console.getAgents());
                         }
                         else if (path.startsWith("console/classes/"))
                         { // Get information about the classes for a specified Agent
@@ -349,7 +473,7 @@ public final class QpidServer implements Server
                         }
                         else if (path.startsWith("console/classes") && path.length() == 15)
                         { // Get information about all the classes for all Agents
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getClasses()));
+                            sendCachedResponse(tx, connection, "classes", getClasses);
                         }
                         else if (path.startsWith("console/packages/"))
                         { // Get information about the packages for a specified Agent
@@ -383,12 +507,18 @@ public final class QpidServer implements Server
                                 // Not that in a departure from the QMF2 API this returns the QmfConsoleData object
                                 // rather than a list of size one. Perhaps the APIs should be completely consistent
                                 // but this response seems more convenient.
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(objects.get(0)));
+                                sendJSONResponse(tx, objects.get(0));
                             }
                         }
                         else if (path.startsWith("console/packages") && path.length() == 16)
                         { // Get information about all the packages for all Agents
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getPackages()));
+                            sendCachedResponse(tx, connection, "packages", new ResponseCache.Query()
+                            {
+                                public Object execute()
+                                {
+                                    return console.getPackages();
+                                }
+                            });
                         }
                         else
                         {
@@ -401,7 +531,7 @@ public final class QpidServer implements Server
         else if (path.startsWith("/qpid/connection"))
         { // handle "/qpid/connection" request with unspecified connection (returns list of available connections).
             String user = tx.getPrincipal(); // Using the principal lets different users use the default connection.
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(_connections.getAll(user)));   
+            sendJSONResponse(tx, _connections.getAll(user));
         }
         else
         {
@@ -482,14 +612,11 @@ public final class QpidServer implements Server
                             QmfConsoleData object = new QmfConsoleData(Collections.EMPTY_MAP, agent);
                             object.setObjectId(oid);
 
-                            String request = tx.getRequestString();
-                            _log.info("QpidServer.doPost path: {} body: {}", tx.getRequestURI(), request);
-
-                            //System.out.println(request);
                             String method = "";
                             try
                             {
-                                Map<String, Object> reqMap = JSON.toMap(request);
+                                Map<String, Object> reqMap = JSON.toMap(tx.getRequestStream());
+                                _log.info("QpidServer.doPost path: {} body: {}", tx.getRequestURI(), reqMap);
 
                                 method = (String)reqMap.get("_method_name");
                                 Object arguments = reqMap.get("_arguments");
@@ -503,9 +630,16 @@ public final class QpidServer implements Server
                                 // Invoke the specified method on the QmfConsoleData we've created.
                                 MethodResult results = null;
 
-                                _log.info("invokeMethod: {}", request);
-                                results = object.invokeMethod(method, inArgs);
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(results));
+                                _log.info("invokeMethod: {}", reqMap);
+                                try
+                                {
+                                    results = object.invokeMethod(method, inArgs);
+                                }
+                                finally
+                                { // The method may well have created, deleted or changed objects.
+                                    connection.getResponseCache().invalidate();
+                                }
+                                sendJSONResponse(tx, results);
                             }
                             catch (QmfException qmfe)
                             {
@@ -570,16 +704,14 @@ public final class QpidServer implements Server
         {
             path = path.substring(17);
             String user = tx.getPrincipal();
-            String request = tx.getRequestString();
-            _log.info("QpidServer.doPut path: {} body: {}", tx.getRequestURI(), request);
-
             String name = user + "." + path;
 
             try
             {
                 // The PUT request is a JSON string containing a url String property and a connectionOptions
                 // property which is itself a JSON String.
-                Map<String, String> reqMap = JSON.toMap(request);
+                Map<String, String> reqMap = JSON.toMap(tx.getRequestStream());
+                _log.info("QpidServer.doPut path: {} body: {}", tx.getRequestURI(), reqMap);
 
                 String url = reqMap.get("url");
                 url = url.equals("") ? _defaultBroker : url;
@@ -0,0 +1,353 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.console.Agent;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * A ResponseCache holds the JSON responses to the REST API queries of a ConnectionProxy, such as
+ * console/objects/&lt;className&gt;, console/classes and console/packages, so that clients that poll them, such as
+ * a browser UI refreshing every second, don't each cause a QMF query to be sent to the broker.
+ * <p>
+ * Responses are keyed by their query and are only reused while they are fresh, i.e. for the cache's time to live
+ * and while the set of Agents and their epochs are those that the query was made against, so a response is never
+ * reused after an Agent has been added, removed or restarted. The cache may also be explicitly invalidated, which
+ * ConnectionProxy does when the Console receives an Event or a method is invoked, as these usually indicate that
+ * objects have been created, deleted or changed.
+ * <p>
+ * The cache holds the result of each query rather than its JSON encoding, which is written straight to the client
+ * as it is serialised, so a response is never buffered and a conditional GET answered with 304 Not Modified isn't
+ * serialised at all.
+ * <p>
+ * Each response has a weak ETag and a Last-Modified time, which are computed from the result without serialising
+ * it. The ETag is a hash of the generation of the Agents, the number of items in the result, the latest _update_ts
+ * of its objects and the ObjectIds (or for other results the hashCodes) of its items. As the Agent updates an
+ * object's _update_ts whenever the object changes, the ETag changes whenever an object is added, removed or updated.
+ * For a List of QmfConsoleData the Last-Modified time is the latest _update_ts of the objects, otherwise it is the
+ * time that the result was first seen. These allow a client to make a conditional GET, which is answered with
+ * 304 Not Modified if the result hasn't changed, and the validators are retained when a response is refreshed with
+ * the same result so a client can continue to revalidate its copy after the response has expired. A time to live of
+ * zero disables the reuse of responses, so no results are held, but they are still given validators so conditional
+ * GETs may still be made.
+ *
+ * @author Fraser Adams
+ */
+public final class ResponseCache
+{
+    /**
+     * The default time to live of cached responses in milliseconds. The broker's ManagementAgent publishes object
+     * updates every ten seconds by default, so statistics are rarely stale for long.
+     */
+    public static final long DEFAULT_TTL = 5000;
+
+    /**
+     * The maximum number of responses cached, if this is exceeded the cache is cleared. This bounds the memory used
+     * by clients that query many different classes, each distinct query being held by its own cache entry.
+     */
+    private static final int MAX_ENTRIES = 100;
+
+    /**
+     * Performs the query whose response is cached, called by get() when there is no fresh cached response.
+     */
+    public interface Query
+    {
+        /**
+         * Perform the query.
+         * @return the result of the query, which is serialised to JSON.
+         */
+        public Object execute();
+    }
+
+    /**
+     * A cached response, holding the result of a query along with its validators.
+     */
+    public static final class Entry
+    {
+        private final Object _result;
+        private final String _etag;
+        private final long _lastModified;
+        private final long _generation;
+        private final long _version;
+        private final long _expires;
+
+        /**
+         * Construct an Entry.
+         * @param result the result of the query, serialised to JSON as the response.
+         * @param etag the opaque tag of the response's weak ETag, including its quotes.
+         * @param lastModified the Last-Modified time of the response in milliseconds since the epoch.
+         * @param generation the generation of the Agents that the query was made against.
+         * @param version the version of the cache when the query was made.
+         * @param expires the System.nanoTime() after which the response is stale.
+         */
+        private Entry(final Object result, final String etag, final long lastModified,
+                      final long generation, final long version, final long expires)
+        {
+            _result = result;
+            _etag = etag;
+            _lastModified = lastModified;
+            _generation = generation;
+            _version = version;
+            _expires = expires;
+        }
+
+        /**
+         * Return the result of the query, which is serialised to JSON as the response.
+         * @return the result of the query.
+         */
+        public Object getResult()
+        {
+            return _result;
+        }
+
+        /**
+         * Return the weak ETag of the response.
+         * @return the weak ETag of the response.
+         */
+        public String getETag()
+        {
+            return "W/" + _etag;
+        }
+
+        /**
+         * Return the Last-Modified time of the response formatted as an HTTP date.
+         * @return the Last-Modified time of the response formatted as an HTTP date.
+         */
+        public String getLastModified()
+        {
+            return createDateFormat().format(new Date(_lastModified));
+        }
+
+        /**
+         * Evaluate the conditional GET headers of a request against the response's validators. If-None-Match takes
+         * precedence over If-Modified-Since, which is only used if the request has no If-None-Match header.
+         * @param ifNoneMatch the value of the request's If-None-Match header, may be null.
+         * @param ifModifiedSince the value of the request's If-Modified-Since header, may be null.
+         * @return true if the client's copy of the response is current, i.e. 304 Not Modified should be sent.
+         */
+        public boolean isNotModified(final String ifNoneMatch, final String ifModifiedSince)
+        {
+            if (ifNoneMatch != null)
+            {
+                for (String tag : ifNoneMatch.split(","))
+                {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/"))
+                    { // If-None-Match uses the weak comparison.
+                        tag = tag.substring(2);
+                    }
+
+                    if (tag.equals("*") || tag.equals(_etag))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            else if (ifModifiedSince != null)
+            {
+                try
+                { // HTTP dates have a resolution of one second.
+                    long since = createDateFormat().parse(ifModifiedSince).getTime();
+                    return since >= (_lastModified / 1000) * 1000;
+                }
+                catch (ParseException pe)
+                { // An invalid date is ignored.
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong _version = new AtomicLong();
+    private final long _ttl;
+
+    /**
+     * Construct a ResponseCache.
+     * @param ttl the time to live of cached responses in milliseconds, zero disables the reuse of responses.
+     */
+    public ResponseCache(final long ttl)
+    {
+        _ttl = ttl;
+    }
+
+    /**
+     * Create a SimpleDateFormat for HTTP dates, which are formatted as specified in RFC 1123. SimpleDateFormat
+     * isn't thread safe so one is created for each use.
+     */
+    private static SimpleDateFormat createDateFormat()
+    {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * Return the generation of a List of Agents, which changes if an Agent is added or removed or if an Agent's
+     * epoch changes, i.e. it has restarted.
+     * @param agents the Agents.
+     * @return the generation of the Agents.
+     */
+    private static long getGeneration(final List<Agent> agents)
+    {
+        long generation = agents.size();
+        for (Agent agent : agents)
+        { // The sum doesn't depend upon the order of the Agents.
+            long epoch = agent.getEpoch();
+            generation += 31L * agent.getName().hashCode() + (epoch ^ (epoch >>> 32)) * 1000003L;
+        }
+        return generation;
+    }
+
+    /**
+     * Return the cached response to a query if it is fresh, otherwise perform the query and cache its response.
+     * @param key the key identifying the query, e.g. "objects/queue".
+     * @param agents the Agents currently known by the Console that the query is made on.
+     * @param query performs the query if there is no fresh cached response.
+     * @return the cached response.
+     */
+    public Entry get(final String key, final List<Agent> agents, final Query query)
+    {
+        long generation = getGeneration(agents);
+        long version = _version.get();
+        long now = System.nanoTime();
+
+        Entry previous = _entries.get(key);
+        if (previous != null && previous._result != null && previous._generation == generation &&
+            previous._version == version && now - previous._expires < 0)
+        {
+            return previous;
+        }
+
+        Object result = query.execute();
+        long latestUpdate = getLatestUpdate(result);
+        String etag = createETag(generation, latestUpdate, result);
+
+        long lastModified;
+        if (previous != null && previous._etag.equals(etag))
+        { // The result hasn't changed so retain the previous Last-Modified time.
+            lastModified = previous._lastModified;
+        }
+        else
+        { // Last-Modified mustn't go backwards when the result changes, which it would if the object with the
+          // latest _update_ts had been deleted, and as HTTP dates have a resolution of one second it must advance
+          // by at least a second.
+            lastModified = latestUpdate/1000000L;
+            if (previous != null && lastModified < previous._lastModified + 1000)
+            {
+                lastModified = Math.max(System.currentTimeMillis(), previous._lastModified + 1000);
+            }
+            else if (lastModified == 0)
+            {
+                lastModified = System.currentTimeMillis();
+            }
+        }
+
+        Entry entry = new Entry(result, etag, lastModified, generation, version, now + _ttl*1000000L);
+        if (_entries.size() >= MAX_ENTRIES && !_entries.containsKey(key))
+        {
+            _entries.clear();
+        }
+        // When responses aren't reused only the validators are retained, the result is just returned.
+        _entries.put(key, (_ttl > 0) ? entry : new Entry(null, etag, lastModified, generation, version, now));
+        return entry;
+    }
+
+    /**
+     * Mark all cached responses as stale, so the next request for each performs its query. The validators of the
+     * responses are retained, so a response that is refreshed with the same content keeps its ETag and Last-Modified.
+     */
+    public void invalidate()
+    {
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Create the opaque tag of a weak ETag from a hash of the generation of the Agents, the number of items in the
+     * result, the latest _update_ts of its objects and the ObjectIds, or for other items the hashCodes, of its items.
+     * The item hashes are summed so that the tag doesn't depend upon the order of the items.
+     */
+    private static String createETag(final long generation, final long latestUpdate, final Object result)
+    {
+        long count = 1;
+        long items = 0;
+        if (result instanceof List)
+        {
+            count = ((List)result).size();
+            for (Object item : (List)result)
+            {
+                if (item instanceof QmfConsoleData)
+                {
+                    ObjectId objectId = ((QmfConsoleData)item).getObjectId();
+                    items += (objectId == null) ? 0 : objectId.hashCode();
+                }
+                else if (item != null)
+                {
+                    items += item.hashCode();
+                }
+            }
+        }
+        else if (result != null)
+        {
+            items = result.hashCode();
+        }
+
+        long hash = generation;
+        hash = 31L*hash + count;
+        hash = 31L*hash + latestUpdate;
+        hash = 31L*hash + items;
+        return '"' + Long.toHexString(hash) + '"';
+    }
+
+    /**
+     * Return the latest _update_ts in nanoseconds of the objects in a query result, or zero if the result isn't a
+     * List of QmfConsoleData or is empty.
+     */
+    private static long getLatestUpdate(final Object result)
+    {
+        long latest = 0;
+        if (result instanceof List)
+        {
+            for (Object item : (List)result)
+            {
+                if (item instanceof QmfConsoleData)
+                {
+                    latest = Math.max(latest, ((QmfConsoleData)item).getUpdateTime());
+                }
+            }
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,705 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.common.WorkItem.WorkItemType;
+import org.apache.qpid.qmf2.common.WorkQueue;
+import static org.apache.qpid.qmf2.common.WorkItem.WorkItemType.*;
+
+/**
+ * A WorkItemPublisher is the QmfEventListener of the QMF2 Console associated with a ConnectionProxy. It publishes
+ * each WorkItem that the Console receives to the Server-Sent Events streams opened by REST API clients, and it also
+ * queues the WorkItems for clients that poll console/nextWorkItem.
+ * <p>
+ * Each WorkItem is serialised once, as an event whose name is the WorkItem type and whose data is the JSON encoding
+ * of the WorkItem, and the same bytes are queued for every stream e.g.
+ * <pre>
+ * id: 42
+ * event: AGENT_ADDED
+ * data: {"_type":"AGENT_ADDED","_params":{"agent":{...}}}
+ * </pre>
+ * The streams are written by a pool of writer threads shared by all WorkItemPublishers rather than by the Console's
+ * JMS MessageListener thread or the HTTP threads, so a client that has opened a stream doesn't pin an HTTP thread.
+ * When a writer runs it writes all of the events that have been queued for the stream in a single buffered write,
+ * so a burst of WorkItems results in few writes. Each stream may queue at most MAX_PENDING_EVENTS events, a client
+ * that falls further behind than that is disconnected rather than letting its events accumulate, and an EventSource
+ * client will simply reconnect. A slow client therefore never holds up the Console or the other clients. The pool
+ * has at most MAX_WRITERS threads and MAX_QUEUED_WRITES waiting writes, if it is saturated the stream or parked
+ * request whose write is rejected is closed rather than creating yet more threads.
+ * <p>
+ * As the REST API has no control over whether clients poll for WorkItems, the queue used by console/nextWorkItem
+ * holds at most MAX_WORKITEM_QUEUE_SIZE WorkItems, the oldest being discarded to make space. A console/nextWorkItem
+ * request made when the queue is empty doesn't block an HTTP thread until a WorkItem arrives, the request is parked
+ * and a writer thread sends the next WorkItem as its response. Parked requests are sent a space, which JSON parsers
+ * ignore, each time the WorkItemPublisher is pinged so that clients that have gone away are detected. If a WorkItem
+ * can't be sent because its client has gone away it is passed to the next parked request, or put back at the head
+ * of the queue, so that it isn't lost.
+ * <p>
+ * The WorkItemPublisher also invalidates the ConnectionProxy's ResponseCache when the Console receives an Event or
+ * learns of a new package or class, as broker Events such as queueDeclare indicate that objects have changed.
+ *
+ * @author Fraser Adams
+ */
+public final class WorkItemPublisher implements QmfEventListener
+{
+    private static final Logger _log = LoggerFactory.getLogger(WorkItemPublisher.class);
+
+    private static final int MAX_WORKITEM_QUEUE_SIZE = 20; // Maximum number of items allowed on WorkItem queue.
+    private static final int MAX_PENDING_EVENTS = 1000; // Maximum number of events queued for each event stream.
+    private static final int WRITE_BUFFER_SIZE = 65536;
+    private static final int MAX_WRITERS = 50; // Maximum number of writer threads shared by all WorkItemPublishers.
+    private static final int MAX_QUEUED_WRITES = 4096; // Maximum number of writes waiting for a writer thread.
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Sent when a stream is opened, this tells an EventSource client to wait 5 seconds before reconnecting.
+     */
+    private static final byte[] PREAMBLE = "retry: 5000\n\n".getBytes(UTF8);
+
+    /**
+     * A comment line, which EventSource clients ignore, sent by ping() to keep idle streams open through proxies and
+     * to detect clients that have gone away.
+     */
+    private static final byte[] PING = ": ping\n\n".getBytes(UTF8);
+
+    /**
+     * Whitespace, which JSON parsers ignore, sent by ping() to parked console/nextWorkItem requests.
+     */
+    private static final byte[] WHITESPACE = " ".getBytes(UTF8);
+
+    /**
+     * Used to number the writer threads.
+     */
+    private static final AtomicInteger _threadCount = new AtomicInteger();
+
+    /**
+     * A write to a client that is executed by the writer threads.
+     */
+    private interface ClientWrite extends Runnable
+    {
+        /**
+         * Called on the thread scheduling the write when the writer threads are saturated, this closes the client's
+         * response Stream rather than leaving the client waiting for a write that will never happen.
+         */
+        void rejected();
+    }
+
+    /**
+     * The writer threads shared by all WorkItemPublishers.
+     */
+    private static final ThreadPoolExecutor _writers = newWriterPool();
+
+    /**
+     * Create the pool of writer threads, which rejects writes once all of its threads are busy and MAX_QUEUED_WRITES
+     * writes are waiting, closing the stream or parked request whose write was rejected.
+     * @return the ThreadPoolExecutor.
+     */
+    private static ThreadPoolExecutor newWriterPool()
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS, 60, TimeUnit.SECONDS,
+                                                         new ArrayBlockingQueue<Runnable>(MAX_QUEUED_WRITES),
+                                                         new ThreadFactory()
+        {
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "qpid-rest-event-stream-" + _threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        },
+                                                         new RejectedExecutionHandler()
+        {
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
+            {
+                ((ClientWrite)r).rejected();
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A Server-Sent Events stream to a client along with the events queued for it.
+     */
+    private final class EventStream implements ClientWrite
+    {
+        private final OutputStream _os;
+        private final String _client;
+        private final BlockingQueue<byte[]> _pending = new ArrayBlockingQueue<byte[]>(MAX_PENDING_EVENTS);
+
+        /**
+         * Set while a run() of this stream is waiting to be executed or is executing, so that at most one writer
+         * thread writes to the stream at a time.
+         */
+        private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+        private volatile boolean _closed = false;
+
+        /**
+         * Construct an EventStream.
+         * @param os the response Stream of the client's HttpTransaction.
+         * @param client a description of the client used in log messages.
+         */
+        EventStream(final OutputStream os, final String client)
+        {
+            _os = new BufferedOutputStream(os, WRITE_BUFFER_SIZE);
+            _client = client;
+        }
+
+        /**
+         * Queue an event to be written to the stream, closing the stream if the client has fallen too far behind.
+         * @param event the encoded event.
+         */
+        void offer(final byte[] event)
+        {
+            if (!_closed)
+            {
+                if (_pending.offer(event))
+                {
+                    schedule();
+                }
+                else
+                {
+                    _log.info("Closing event stream to {} as it has {} events pending", _client, MAX_PENDING_EVENTS);
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Have a writer thread write the queued events, unless one already has been.
+         */
+        void schedule()
+        {
+            if (_scheduled.compareAndSet(false, true))
+            {
+                _writers.execute(this);
+            }
+        }
+
+        /**
+         * Close the stream. The stream is actually closed by a writer thread, as closing it may block in the same
+         * way as writing to it.
+         */
+        void close()
+        {
+            _closed = true;
+            schedule();
+        }
+
+        /**
+         * Close the stream as the writer threads are saturated. As _scheduled is set no writer thread is writing to
+         * the stream, and it is never scheduled again.
+         */
+        public void rejected()
+        {
+            _log.info("Closing event stream to {} as the writer threads are saturated", _client);
+            _closed = true;
+            closeStream();
+        }
+
+        /**
+         * Write the queued events to the stream, this is executed by a writer thread.
+         */
+        public void run()
+        {
+            do
+            {
+                if (_closed)
+                { // _scheduled is left set so that the stream is never scheduled again.
+                    closeStream();
+                    return;
+                }
+
+                try
+                {
+                    byte[] event;
+                    while (!_closed && (event = _pending.poll()) != null)
+                    {
+                        _os.write(event);
+                    }
+                    _os.flush();
+                }
+                catch (IOException ioe)
+                {
+                    _log.info("IOException {} caught in EventStream.run() writing to {}", ioe.getMessage(), _client);
+                    _closed = true;
+                    closeStream();
+                    return;
+                }
+
+                _scheduled.set(false);
+
+                // If an event was queued after the last poll() and its offer() didn't manage to schedule the stream
+                // then write it now, otherwise leave it to the run() that offer() scheduled.
+            } while ((_closed || !_pending.isEmpty()) && _scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Remove the stream from the WorkItemPublisher and close the client's response Stream.
+         */
+        private void closeStream()
+        {
+            _streams.remove(this);
+            _pending.clear();
+            try
+            {
+                _os.close();
+            }
+            catch (IOException ioe)
+            { // The client has most likely gone away already, so there's nothing else to do.
+            }
+        }
+    }
+
+    /**
+     * A console/nextWorkItem request that is parked until a WorkItem is available. The response headers have
+     * already been sent and a writer thread writes the WorkItem as the response body.
+     */
+    private final class WorkItemRequest implements ClientWrite
+    {
+        private final OutputStream _os;
+        private final String _client;
+
+        /**
+         * The WorkItem to send, which is taken by whichever of run() or rejected() gets to it first.
+         */
+        private final AtomicReference<WorkItem> _item = new AtomicReference<WorkItem>();
+
+        /**
+         * Held while writing to the response Stream. A lock is used rather than the monitor so that rejected() can
+         * avoid waiting for a write to a slow client.
+         */
+        private final ReentrantLock _lock = new ReentrantLock();
+        private volatile boolean _closed = false;
+        private volatile boolean _done = false;
+
+        /**
+         * Construct a WorkItemRequest.
+         * @param os the response Stream of the client's HttpTransaction.
+         * @param client a description of the client used in log messages.
+         */
+        WorkItemRequest(final OutputStream os, final String client)
+        {
+            _os = os;
+            _client = client;
+        }
+
+        /**
+         * Have a writer thread send the WorkItem as the response.
+         * @param item the WorkItem.
+         */
+        void complete(final WorkItem item)
+        {
+            _item.set(item);
+            _writers.execute(this);
+        }
+
+        /**
+         * Have a writer thread send whitespace, which detects a client that has gone away.
+         */
+        void ping()
+        {
+            if (!_done)
+            {
+                _writers.execute(this);
+            }
+        }
+
+        /**
+         * Have a writer thread close the response without sending a WorkItem.
+         */
+        void close()
+        {
+            _closed = true;
+            _writers.execute(this);
+        }
+
+        /**
+         * Close the response as the writer threads are saturated, giving its WorkItem, if it has one, to another
+         * request. If a writer thread is writing to the response it closes the response once it has finished.
+         */
+        public void rejected()
+        {
+            _log.info("Closing console/nextWorkItem request from {} as the writer threads are saturated", _client);
+            _closed = true;
+            removeWorkItemRequest(this);
+            WorkItem item = _item.getAndSet(null);
+            if (item != null)
+            {
+                requeue(item);
+            }
+
+            if (_lock.tryLock())
+            {
+                try
+                {
+                    if (!_done)
+                    {
+                        _done = true;
+                        closeQuietly();
+                    }
+                }
+                finally
+                {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Write the WorkItem, or whitespace if there isn't one yet, this is executed by a writer thread. If the
+         * response is closed by rejected() whilst writing, it is closed here once the write has finished.
+         */
+        public void run()
+        {
+            do
+            {
+                _lock.lock();
+                try
+                {
+                    write();
+                }
+                finally
+                {
+                    _lock.unlock();
+                }
+            } while (_closed && !_done);
+        }
+
+        /**
+         * Write the WorkItem, whitespace or close the response. Must be called holding _lock.
+         */
+        private void write()
+        {
+            if (_done)
+            {
+                return;
+            }
+
+            WorkItem item = _item.getAndSet(null);
+            try
+            {
+                if (item != null)
+                {
+                    _done = true;
+                    Writer writer = new OutputStreamWriter(_os, UTF8);
+                    JSON.write(item, writer);
+                    writer.close();
+                }
+                else if (_closed)
+                {
+                    _done = true;
+                    _os.close();
+                }
+                else
+                {
+                    _os.write(WHITESPACE);
+                    _os.flush();
+                }
+            }
+            catch (IOException ioe)
+            {
+                _log.info("IOException {} caught in WorkItemRequest.run() writing to {}", ioe.getMessage(), _client);
+                _done = true;
+                removeWorkItemRequest(this);
+                if (item != null)
+                { // The client has gone away, so don't lose the WorkItem.
+                    requeue(item);
+                }
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Close the response Stream, ignoring any IOException.
+         */
+        private void closeQuietly()
+        {
+            try
+            {
+                _os.close();
+            }
+            catch (IOException e)
+            { // The client has most likely gone away already, so there's nothing else to do.
+            }
+        }
+    }
+
+    private final List<EventStream> _streams = new CopyOnWriteArrayList<EventStream>();
+
+    /**
+     * The parked console/nextWorkItem requests, in the order that they were made. WorkItems are only queued on
+     * _workQueue when there are no parked requests, both are guarded by _requests.
+     */
+    private final ArrayDeque<WorkItemRequest> _requests = new ArrayDeque<WorkItemRequest>();
+    private final WorkQueue _workQueue = new WorkQueue(MAX_WORKITEM_QUEUE_SIZE, WorkQueue.OverflowPolicy.DROP_OLDEST);
+    private final AtomicLong _eventId = new AtomicLong();
+    private final ResponseCache _cache;
+
+    /**
+     * Construct a WorkItemPublisher.
+     * @param cache the ResponseCache that is invalidated when an Event, package or class is received.
+     */
+    public WorkItemPublisher(final ResponseCache cache)
+    {
+        _cache = cache;
+    }
+
+    /**
+     * Encode a WorkItem as a Server-Sent Event. Any line breaks in the JSON are sent as separate data lines, which
+     * the client joins back together.
+     * @param item the WorkItem.
+     * @return the encoded event.
+     */
+    private byte[] encode(final WorkItem item)
+    {
+        StringBuilder buffer = new StringBuilder(512);
+        buffer.append("id: ").append(_eventId.incrementAndGet()).append('\n');
+        buffer.append("event: ").append(item.getType()).append('\n');
+        for (String line : JSON.fromWorkItem(item).split("\r\n|\r|\n"))
+        {
+            buffer.append("data: ").append(line).append('\n');
+        }
+        buffer.append('\n');
+        return buffer.toString().getBytes(UTF8);
+    }
+
+    /**
+     * Queue an encoded event for each of the streams.
+     */
+    private void publish(final byte[] event)
+    {
+        for (EventStream stream : _streams)
+        {
+            stream.offer(event);
+        }
+    }
+
+    /**
+     * Called by the Console for each WorkItem that it receives, this is usually called on the JMS MessageListener
+     * thread so it only queues the WorkItem, it never writes to a client.
+     * @param item the WorkItem.
+     */
+    public void onEvent(final WorkItem item)
+    {
+        WorkItemType type = item.getType();
+        if (type == EVENT_RECEIVED || type == NEW_PACKAGE || type == NEW_CLASS)
+        {
+            _cache.invalidate();
+        }
+
+        WorkItemRequest request;
+        synchronized (_requests)
+        {
+            request = _requests.poll();
+            if (request == null)
+            {
+                _workQueue.addWorkItem(item);
+            }
+        }
+
+        if (request != null)
+        {
+            request.complete(item);
+        }
+
+        if (!_streams.isEmpty())
+        { // The WorkItem is only serialised if there are streams to publish it to.
+            publish(encode(item));
+        }
+    }
+
+    /**
+     * Add a Server-Sent Events stream to which the WorkItems received from now on are published. The stream is
+     * closed when the client disconnects, falls too far behind or the WorkItemPublisher is closed.
+     * @param os the response Stream of an HttpTransaction whose response headers have been sent.
+     * @param client a description of the client, such as its address, used in log messages.
+     */
+    public void addEventStream(final OutputStream os, final String client)
+    {
+        EventStream stream = new EventStream(os, client);
+        _streams.add(stream);
+        stream.offer(PREAMBLE);
+    }
+
+    /**
+     * Return the number of open event streams.
+     * @return the number of open event streams.
+     */
+    public int getEventStreamCount()
+    {
+        return _streams.size();
+    }
+
+    /**
+     * Send a comment to each event stream, this is called periodically to keep idle streams open and to detect
+     * clients that have disconnected.
+     */
+    public void ping()
+    {
+        publish(PING);
+        for (WorkItemRequest request : getWorkItemRequests(false))
+        {
+            request.ping();
+        }
+    }
+
+    /**
+     * Close all of the event streams and parked console/nextWorkItem requests.
+     */
+    public void close()
+    {
+        for (EventStream stream : _streams)
+        {
+            stream.close();
+        }
+
+        for (WorkItemRequest request : getWorkItemRequests(true))
+        {
+            request.close();
+        }
+    }
+
+    /**
+     * Return a copy of the parked console/nextWorkItem requests.
+     * @param remove if true the requests are no longer parked.
+     * @return a copy of the parked console/nextWorkItem requests.
+     */
+    private List<WorkItemRequest> getWorkItemRequests(final boolean remove)
+    {
+        synchronized (_requests)
+        {
+            List<WorkItemRequest> requests = new ArrayList<WorkItemRequest>(_requests);
+            if (remove)
+            {
+                _requests.clear();
+            }
+            return requests;
+        }
+    }
+
+    /**
+     * Remove a parked console/nextWorkItem request whose client has gone away.
+     * @param request the WorkItemRequest.
+     */
+    private void removeWorkItemRequest(final WorkItemRequest request)
+    {
+        synchronized (_requests)
+        {
+            _requests.remove(request);
+        }
+    }
+
+    /**
+     * Give a WorkItem that couldn't be sent to a client that has gone away to the next parked console/nextWorkItem
+     * request, or if there isn't one put it back at the head of the queue so that it is the next WorkItem retrieved.
+     * @param item the WorkItem.
+     */
+    private void requeue(final WorkItem item)
+    {
+        WorkItemRequest request;
+        synchronized (_requests)
+        {
+            request = _requests.poll();
+            if (request == null)
+            {
+                _workQueue.pushBack(item);
+            }
+        }
+
+        if (request != null)
+        {
+            request.complete(item);
+        }
+    }
+
+    /**
+     * Return the count of pending WorkItems that can be retrieved by getNextWorkitem().
+     * @return the count of pending WorkItems that can be retrieved by getNextWorkitem().
+     */
+    public int getWorkitemCount()
+    {
+        return _workQueue.size();
+    }
+
+    /**
+     * Obtains the next pending WorkItem, blocking until one is available.
+     * @return the next pending WorkItem.
+     */
+    public WorkItem getNextWorkitem()
+    {
+        return _workQueue.getNextWorkitem();
+    }
+
+    /**
+     * Send the next pending WorkItem as the response to a console/nextWorkItem request. This returns immediately,
+     * if no WorkItem is pending the request is parked and the next WorkItem that the Console receives is sent
+     * by a writer thread, so a client waiting for a WorkItem doesn't pin an HTTP thread.
+     * @param os the response Stream of an HttpTransaction whose response headers have been sent.
+     * @param client a description of the client, such as its address, used in log messages.
+     */
+    public void addWorkItemRequest(final OutputStream os, final String client)
+    {
+        WorkItemRequest request = new WorkItemRequest(os, client);
+        WorkItem item;
+        synchronized (_requests)
+        {
+            item = _workQueue.getNextWorkitem(0);
+            if (item == null)
+            {
+                _requests.add(request);
+                return;
+            }
+        }
+        request.complete(item);
+    }
+}
@@ -28,17 +28,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import com.sun.net.httpserver.BasicAuthenticator;
 
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ScheduledTask;
+
 /**
  * This class implements a simple com.sun.net.httpserver.BasicAuthenticator. Clearly it's not very secure being a
  * BasicAuthenticator that takes a plain (well Base64 encoded) username/password.
  * TODO Clearly something more secure needs to be implemented.....
  *
- * This class creates a Timer used to schedule regular checks on the account.properties file and if it has changed
+ * This class uses the shared QMF2 scheduler to schedule regular checks on the account.properties file and if it has changed
  * it reloads the cache used for looking up the credentials. The poll period is every 10 seconds which should be OK
  * for checking account updates. The class only updates the cache if the account.properties file has actually changed.
  * Polling isn't ideal, but for this application it's probably no big deal. With Java 7 there is a Watch Service API
@@ -58,15 +59,10 @@ public class Authenticator extends BasicAuthenticator
     private long _accountFileLastModified = 0; // Used to check for updates to the account properties.
 
     /**
-     * Create a Timer used to schedule regular checks on the account.properties file.
-     */
-    private Timer _timer = new Timer(true);
-
-    /**
-     * This private inner class is a fairly trivial TimerTask whose run() method simply calls checkAccountFile()
+     * This private inner class is a fairly trivial ScheduledTask whose run() method simply calls checkAccountFile()
      * in the main Authenticator class to check for account changes.
      */
-    private final class CacheUpdater extends TimerTask
+    private final class CacheUpdater extends ScheduledTask
     {
         public void run()
         {
@@ -75,7 +71,7 @@ public class Authenticator extends BasicAuthenticator
     }
 
     /**
-     * Construct the Authenticator. This fires up the CacheUpdater TimerTask to periodically check for changes.
+     * Construct the Authenticator. This fires up the CacheUpdater ScheduledTask to periodically check for changes.
      * @param realm the authentication realm to use.
      * @param path the path of the directory holding the account properties file.
      */
@@ -89,7 +85,7 @@ public class Authenticator extends BasicAuthenticator
         if (_file.exists())
         {
             CacheUpdater updater = new CacheUpdater();
-            _timer.schedule(updater, 0, CHECK_PERIOD);
+            updater.schedule(ScheduledTask.getDefaultScheduler(), 0, CHECK_PERIOD);
         }
         else
         {
@@ -21,6 +21,7 @@
 package org.apache.qpid.restapi.httpserver;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -183,6 +184,41 @@ public final class HttpExchangeTransaction implements HttpTransaction
         }
     }
 
+    /**
+     * Send the HTTP response headers for a response whose content is written incrementally, such as a
+     * text/event-stream, and return the Stream that the content should be written to. The HttpExchange is closed
+     * when the returned Stream is closed.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/event-stream.
+     * @return the Stream that the content of the response is written to.
+     */
+    public OutputStream sendResponseStream(final int status, final String mimeType) throws IOException
+    {
+        _exchange.getResponseHeaders().set("Content-Type", mimeType);
+        _exchange.sendResponseHeaders(status, 0); // For a stream we set to zero to force chunked transfer encoding.
+        return new FilterOutputStream(_exchange.getResponseBody())
+        {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException
+            { // FilterOutputStream would otherwise write a byte at a time.
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    _exchange.close();
+                }
+            }
+        };
+    }
+
     /**
      * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
      * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
@@ -0,0 +1,818 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nioserver;
+
+// Misc Imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An NioConnection holds the state of a connection accepted by an NioHttpServer.
+ * <p>
+ * The request side of a connection is only used by the selector thread, which reads and parses the request head
+ * and reads the request content, then stops parsing until the response has been completed. While a request is
+ * being processed the selector thread carries on reading, so that a client that closes the connection is noticed
+ * and the connection closed, which makes any further writes of the response fail rather than wait for a client
+ * that has gone. Anything a pipelining client sends meanwhile is kept until the input buffer is full, at which
+ * point reading stops until the response has been completed. Content delimited by Content-Length is read straight
+ * into the content array, whereas chunked content is read into the input buffer and decoded from there, the content
+ * array growing as chunks arrive up to MAX_CONTENT_LENGTH. The response side may
+ * be written by any thread, so it is guarded by the NioConnection's monitor. A writer writes directly to the socket
+ * when nothing is queued and queues whatever the socket didn't accept, which the selector thread then writes when
+ * the socket becomes writable.
+ *
+ * @author Fraser Adams
+ */
+final class NioConnection
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEAD_SIZE = 32768;
+    private static final int MAX_CONTENT_LENGTH = 4*1024*1024;
+
+    /**
+     * The largest number of bytes written to the socket by a single write. The JDK copies the content of a heap
+     * ByteBuffer into a temporary direct ByteBuffer of the same size, which it caches for each thread, so large
+     * responses are written in slices rather than in one write.
+     */
+    private static final int MAX_WRITE = 65536;
+
+    /**
+     * The states of the decoding of chunked content that aren't reading chunk data, in which case the state is the
+     * number of bytes of the chunk remaining.
+     */
+    private static final int CHUNK_SIZE = -1;
+    private static final int CHUNK_END = -2;
+    private static final int CHUNK_TRAILER = -3;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(ISO_8859_1);
+
+    private final NioHttpServer _server;
+    private final SocketChannel _channel;
+    private final SelectionKey _key;
+    private final InetSocketAddress _remoteAddress;
+
+    // The request side, only used by the selector thread. _input is left in "write mode" i.e. its position is the
+    // end of the data that has been read.
+    private ByteBuffer _input = ByteBuffer.allocate(BUFFER_SIZE);
+    private int _scanned = 0;
+    private NioHttpTransaction _request = null;
+    private byte[] _content = null;
+    private int _contentRead = 0;
+    private boolean _chunked = false;
+    private int _chunkState = CHUNK_SIZE;
+    private int _requestCount = 0;
+    private boolean _processing = false;
+    private boolean _idle = true;
+    private long _deadline;
+
+    // The response side, guarded by this.
+    private final ArrayDeque<ByteBuffer> _output = new ArrayDeque<ByteBuffer>();
+    private long _pending = 0;
+    private long _lastWrite = 0;
+    private boolean _closeWhenFlushed = false;
+    private boolean _closed = false;
+
+    /**
+     * Construct an NioConnection.
+     * @param server the NioHttpServer that accepted the connection.
+     * @param channel the connection's SocketChannel.
+     * @param key the SelectionKey of the SocketChannel.
+     */
+    NioConnection(final NioHttpServer server, final SocketChannel channel, final SelectionKey key)
+    {
+        _server = server;
+        _channel = channel;
+        _key = key;
+        _remoteAddress = (InetSocketAddress)channel.socket().getRemoteSocketAddress();
+        _deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(server.getKeepAliveTimeout());
+    }
+
+    /**
+     * Return the NioHttpServer that accepted the connection.
+     * @return the NioHttpServer that accepted the connection.
+     */
+    NioHttpServer getServer()
+    {
+        return _server;
+    }
+
+    /**
+     * Return the address of the client.
+     * @return the address of the client.
+     */
+    InetSocketAddress getRemoteAddress()
+    {
+        return _remoteAddress;
+    }
+
+    /**
+     * Called by the selector thread when the SocketChannel is readable.
+     */
+    void onReadable() throws IOException
+    {
+        int read;
+        if (_processing)
+        { // Only look for the client closing the connection, pipelined requests are parsed by resume().
+            if (!_input.hasRemaining())
+            {
+                _key.interestOps(_key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            else if (_channel.read(_input) < 0)
+            {
+                close();
+            }
+            return;
+        }
+
+        if (_content == null || _chunked)
+        {
+            if (!_input.hasRemaining())
+            { // parse() has checked that the head or chunk line isn't too large.
+                ByteBuffer input = ByteBuffer.allocate(_input.capacity()*2);
+                _input.flip();
+                input.put(_input);
+                _input = input;
+            }
+            read = _channel.read(_input);
+        }
+        else
+        {
+            read = _channel.read(ByteBuffer.wrap(_content, _contentRead, _content.length - _contentRead));
+            _contentRead += (read > 0) ? read : 0;
+        }
+
+        if (read < 0)
+        {
+            close();
+            return;
+        }
+
+        if (read > 0 && _idle)
+        {
+            _idle = false;
+            _deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_server.getRequestTimeout());
+        }
+        parse();
+    }
+
+    /**
+     * Parse as much of the current request as has been read, dispatching it if it is complete.
+     */
+    private void parse() throws IOException
+    {
+        if (_content == null)
+        {
+            // Skip any empty lines preceding the request line.
+            byte[] data = _input.array();
+            int start = 0;
+            while (start < _input.position() && (data[start] == '\r' || data[start] == '\n'))
+            {
+                start++;
+            }
+            if (start > 0)
+            {
+                consume(start);
+            }
+
+            int end = findEndOfHead();
+            if (end < 0)
+            {
+                if (_input.position() >= MAX_HEAD_SIZE)
+                {
+                    reject(431, "Request Header Fields Too Large");
+                }
+                return;
+            }
+
+            _request = parseHead(new String(data, 0, end, ISO_8859_1));
+            consume(end);
+            if (_request == null)
+            {
+                reject(400, "Bad Request");
+                return;
+            }
+
+            long contentLength = 0;
+            String header = _request.getHeader("Content-Length");
+            String transferEncoding = _request.getHeader("Transfer-Encoding");
+            if (transferEncoding != null)
+            {
+                if (!transferEncoding.trim().equalsIgnoreCase("chunked"))
+                {
+                    reject(501, "Not Implemented");
+                    return;
+                }
+
+                if (header != null)
+                { // A request having both is rejected as its length is ambiguous.
+                    reject(400, "Bad Request");
+                    return;
+                }
+
+                _chunked = true;
+                _chunkState = CHUNK_SIZE;
+                contentLength = BUFFER_SIZE; // The initial size of the content array, which grows as chunks arrive.
+            }
+            else if (header != null)
+            {
+                try
+                {
+                    contentLength = Long.parseLong(header.trim());
+                }
+                catch (NumberFormatException nfe)
+                {
+                    contentLength = -1;
+                }
+
+                if (contentLength < 0)
+                {
+                    reject(400, "Bad Request");
+                    return;
+                }
+
+                if (contentLength > MAX_CONTENT_LENGTH)
+                {
+                    reject(413, "Request Entity Too Large");
+                    return;
+                }
+            }
+
+            _content = new byte[(int)contentLength];
+            if (_chunked)
+            {
+                _contentRead = 0;
+                if (_input.position() == 0 && "100-continue".equalsIgnoreCase(_request.getHeader("Expect")))
+                {
+                    write(ByteBuffer.wrap(CONTINUE));
+                }
+            }
+            else
+            {
+                _contentRead = Math.min(_content.length, _input.position());
+                System.arraycopy(data, 0, _content, 0, _contentRead);
+                consume(_contentRead);
+
+                if (_contentRead < _content.length && "100-continue".equalsIgnoreCase(_request.getHeader("Expect")))
+                {
+                    write(ByteBuffer.wrap(CONTINUE));
+                }
+            }
+        }
+
+        if (_chunked ? decodeChunks() : _contentRead == _content.length)
+        {
+            NioHttpTransaction tx = _request;
+            tx.setContent(_chunked ? Arrays.copyOf(_content, _contentRead) : _content);
+            _request = null;
+            _content = null;
+            _chunked = false;
+
+            _requestCount++;
+            if (_requestCount >= _server.getMaxKeepAliveRequests())
+            {
+                tx.setKeepAlive(false);
+            }
+
+            _processing = true;
+            _server.dispatch(tx);
+        }
+    }
+
+    /**
+     * Decode as much of chunked content as has been read into the input buffer, appending the chunk data to the
+     * content array. Chunk extensions and trailer fields are ignored.
+     * @return true if the content is complete, false if more must be read or the request has been rejected.
+     */
+    private boolean decodeChunks() throws IOException
+    {
+        byte[] data = _input.array();
+        while (true)
+        {
+            if (_chunkState > 0)
+            { // Copy as much of the chunk data as has been read.
+                int count = Math.min(_chunkState, _input.position());
+                if (count == 0)
+                {
+                    return false;
+                }
+
+                if (_contentRead + count > _content.length)
+                {
+                    _content = Arrays.copyOf(_content,
+                                             Math.min(MAX_CONTENT_LENGTH, Math.max(_contentRead + count,
+                                                                                   _content.length*2)));
+                }
+                System.arraycopy(data, 0, _content, _contentRead, count);
+                _contentRead += count;
+                consume(count);
+                _chunkState -= count;
+                if (_chunkState == 0)
+                {
+                    _chunkState = CHUNK_END;
+                }
+                continue;
+            }
+
+            int end = findEndOfLine();
+            if (end < 0)
+            {
+                if (_input.position() >= MAX_HEAD_SIZE)
+                {
+                    reject(400, "Bad Request");
+                }
+                return false;
+            }
+
+            String line = new String(data, 0, end, ISO_8859_1).trim();
+            consume(end);
+
+            if (_chunkState == CHUNK_END)
+            { // The line ending that follows the chunk data.
+                if (line.length() > 0)
+                {
+                    reject(400, "Bad Request");
+                    return false;
+                }
+                _chunkState = CHUNK_SIZE;
+            }
+            else if (_chunkState == CHUNK_TRAILER)
+            { // The trailer section ends with an empty line.
+                if (line.length() == 0)
+                {
+                    return true;
+                }
+            }
+            else
+            {
+                int semicolon = line.indexOf(';');
+                String hex = (semicolon < 0) ? line : line.substring(0, semicolon).trim();
+                long size = (hex.length() == 0) ? -1 : 0;
+                for (int i = 0; i < hex.length() && size >= 0 && size <= MAX_CONTENT_LENGTH; i++)
+                {
+                    int digit = Character.digit(hex.charAt(i), 16);
+                    size = (digit < 0) ? -1 : size*16 + digit;
+                }
+
+                if (size < 0)
+                {
+                    reject(400, "Bad Request");
+                    return false;
+                }
+
+                if (size > MAX_CONTENT_LENGTH - _contentRead)
+                {
+                    reject(413, "Request Entity Too Large");
+                    return false;
+                }
+
+                _chunkState = (size == 0) ? CHUNK_TRAILER : (int)size;
+            }
+        }
+    }
+
+    /**
+     * Find the end of the line at the start of the input buffer, accepting a bare LF line ending as well as CRLF.
+     * @return the position following the line ending or -1 if the line hasn't been completely read.
+     */
+    private int findEndOfLine()
+    {
+        byte[] data = _input.array();
+        int limit = _input.position();
+        for (int i = _scanned; i < limit; i++)
+        {
+            if (data[i] == '\n')
+            {
+                return i + 1;
+            }
+        }
+        _scanned = limit;
+        return -1;
+    }
+
+    /**
+     * Remove bytes from the start of the input buffer.
+     * @param count the number of bytes to remove.
+     */
+    private void consume(final int count)
+    {
+        _input.flip();
+        _input.position(count);
+        _input.compact();
+        _scanned = 0;
+    }
+
+    /**
+     * Find the empty line that ends the request head, accepting bare LF line endings as well as CRLF.
+     * @return the position following the empty line or -1 if the head hasn't been completely read.
+     */
+    private int findEndOfHead()
+    {
+        byte[] data = _input.array();
+        int limit = _input.position();
+        for (int i = _scanned; i < limit; i++)
+        {
+            if (data[i] == '\n')
+            {
+                if (i + 1 == limit || (data[i + 1] == '\r' && i + 2 == limit))
+                { // Rescan this line ending once more has been read.
+                    _scanned = i;
+                    return -1;
+                }
+
+                if (data[i + 1] == '\n')
+                {
+                    return i + 2;
+                }
+
+                if (data[i + 1] == '\r' && data[i + 2] == '\n')
+                {
+                    return i + 3;
+                }
+            }
+        }
+        _scanned = limit;
+        return -1;
+    }
+
+    /**
+     * Parse the request line and header fields of a request.
+     * @param head the request head.
+     * @return the NioHttpTransaction for the request or null if the head is malformed.
+     */
+    private NioHttpTransaction parseHead(final String head)
+    {
+        String[] lines = head.split("\r?\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+        {
+            return null;
+        }
+
+        String path;
+        try
+        {
+            path = new URI(requestLine[1]).getPath();
+        }
+        catch (URISyntaxException use)
+        {
+            return null;
+        }
+
+        if (path == null || path.length() == 0)
+        {
+            return null;
+        }
+
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++)
+        {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0 || line.charAt(0) == ' ' || line.charAt(0) == '\t')
+            { // Obsolete line folding isn't supported.
+                return null;
+            }
+
+            String name = line.substring(0, colon).trim();
+            List<String> values = headers.get(name);
+            if (values == null)
+            {
+                values = new ArrayList<String>(1);
+                headers.put(name, values);
+            }
+            values.add(line.substring(colon + 1).trim());
+        }
+
+        return new NioHttpTransaction(this, requestLine[0], requestLine[1], path,
+                                      requestLine[2].equals("HTTP/1.0"), headers);
+    }
+
+    /**
+     * Respond to a request that can't be processed with an error and close the connection.
+     * @param status the HTTP status code.
+     * @param reason the reason phrase of the status code.
+     */
+    private void reject(final int status, final String reason) throws IOException
+    {
+        _processing = true;
+        _key.interestOps(_key.interestOps() & ~SelectionKey.OP_READ);
+
+        String content = status + " " + reason + ".";
+        String response = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+                          "Content-Type: text/plain\r\n" +
+                          "Content-Length: " + content.length() + "\r\n" +
+                          "Connection: close\r\n\r\n" + content;
+        write(ByteBuffer.wrap(response.getBytes(ISO_8859_1)));
+        closeWhenFlushed();
+    }
+
+    /**
+     * Called by the NioHttpTransaction when its response is complete.
+     * @param keepAlive true if the connection may be used for another request.
+     */
+    void complete(final boolean keepAlive)
+    {
+        if (keepAlive)
+        {
+            _server.execute(new Runnable()
+            {
+                public void run()
+                {
+                    resume();
+                }
+            });
+        }
+        else
+        {
+            closeWhenFlushed();
+        }
+    }
+
+    /**
+     * Called on the selector thread once a response is complete to process the next request on the connection,
+     * which may already have been read if the client pipelines its requests.
+     */
+    private void resume()
+    {
+        if (!_key.isValid())
+        {
+            return;
+        }
+
+        _processing = false;
+        _idle = _input.position() == 0;
+        long timeout = _idle ? _server.getKeepAliveTimeout() : _server.getRequestTimeout();
+        _deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try
+        { // Reading may have stopped because the input buffer filled up while the last request was processed.
+            _key.interestOps(_key.interestOps() | SelectionKey.OP_READ);
+            parse();
+        }
+        catch (IOException ioe)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Called periodically by the selector thread to close connections that have been idle for longer than the
+     * keep-alive timeout, that have taken longer than the request timeout to send a request or whose response
+     * hasn't made progress for longer than the request timeout.
+     * @param now the current System.nanoTime().
+     */
+    void checkTimeout(final long now)
+    {
+        try
+        {
+            if (!_processing && now - _deadline >= 0)
+            {
+                if (_idle)
+                {
+                    close();
+                }
+                else
+                {
+                    reject(408, "Request Timeout");
+                }
+            }
+
+            synchronized (this)
+            {
+                if (_pending > 0 &&
+                    now - _lastWrite >= TimeUnit.MILLISECONDS.toNanos(_server.getRequestTimeout()))
+                {
+                    close();
+                }
+            }
+        }
+        catch (IOException ioe)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Write to the connection. The buffers are written directly to the socket if nothing is already queued, and
+     * whatever isn't written is copied to the output queue, so the caller may reuse the buffers' content once
+     * write returns. If more than HIGH_WATER_MARK bytes are queued the caller blocks until the client has read
+     * enough of them, unless it is the selector thread.
+     * @param buffers the buffers to write.
+     */
+    synchronized void write(final ByteBuffer... buffers) throws IOException
+    {
+        if (_closed)
+        {
+            throw new IOException("Connection closed");
+        }
+
+        boolean empty = _output.isEmpty();
+        if (empty)
+        {
+            long length = 0;
+            for (ByteBuffer buffer : buffers)
+            {
+                length += buffer.remaining();
+            }
+
+            if (length <= MAX_WRITE)
+            { // Gather the buffers so that a small response is sent in a single packet.
+                _channel.write(buffers);
+            }
+            else
+            {
+                for (ByteBuffer buffer : buffers)
+                {
+                    if (!writeSlices(buffer))
+                    {
+                        break;
+                    }
+                }
+            }
+            _lastWrite = System.nanoTime();
+        }
+
+        for (ByteBuffer buffer : buffers)
+        {
+            int remaining = buffer.remaining();
+            if (remaining > 0)
+            {
+                ByteBuffer copy = ByteBuffer.allocate(remaining);
+                copy.put(buffer).flip();
+                _output.add(copy);
+                _pending += remaining;
+            }
+        }
+
+        if (empty && _pending > 0)
+        {
+            _server.execute(new Runnable()
+            {
+                public void run()
+                {
+                    if (_key.isValid())
+                    {
+                        _key.interestOps(_key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+        }
+
+        if (!_server.isSelectorThread())
+        {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(_server.getRequestTimeout());
+            while (_pending > NioHttpServer.HIGH_WATER_MARK && !_closed)
+            {
+                long remaining = _lastWrite + timeout - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    close();
+                    throw new IOException("Write timed out");
+                }
+
+                try
+                {
+                    wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Write interrupted");
+                }
+            }
+
+            if (_closed)
+            {
+                throw new IOException("Connection closed");
+            }
+        }
+    }
+
+    /**
+     * Write a buffer to the socket at most MAX_WRITE bytes at a time.
+     * @param buffer the buffer to write.
+     * @return true if the whole buffer was written, false if the socket's send buffer is full.
+     */
+    private boolean writeSlices(final ByteBuffer buffer) throws IOException
+    {
+        int limit = buffer.limit();
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                buffer.limit(Math.min(limit, buffer.position() + MAX_WRITE));
+                _channel.write(buffer);
+                if (buffer.hasRemaining())
+                {
+                    return false;
+                }
+                buffer.limit(limit);
+            }
+            return true;
+        }
+        finally
+        {
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * Called by the selector thread when the SocketChannel is writable to write the output queue.
+     */
+    synchronized void onWritable() throws IOException
+    {
+        while (!_output.isEmpty())
+        {
+            ByteBuffer buffer = _output.peek();
+            int position = buffer.position();
+            boolean written = writeSlices(buffer);
+            if (buffer.position() > position)
+            {
+                _pending -= buffer.position() - position;
+                _lastWrite = System.nanoTime();
+            }
+
+            if (!written)
+            {
+                break;
+            }
+            _output.poll();
+        }
+
+        if (_output.isEmpty())
+        {
+            _key.interestOps(_key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (_closeWhenFlushed)
+            {
+                close();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Close the connection once everything that has been written to it has been sent.
+     */
+    synchronized void closeWhenFlushed()
+    {
+        _closeWhenFlushed = true;
+        if (_output.isEmpty())
+        {
+            close();
+        }
+    }
+
+    /**
+     * Close the connection, discarding anything that hasn't been sent.
+     */
+    synchronized void close()
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            _output.clear();
+            _pending = 0;
+            notifyAll();
+            _key.cancel();
+            try
+            {
+                _channel.close();
+            }
+            catch (IOException ioe)
+            { // Nothing useful can be done.
+            }
+            _server.connectionClosed();
+        }
+    }
+}
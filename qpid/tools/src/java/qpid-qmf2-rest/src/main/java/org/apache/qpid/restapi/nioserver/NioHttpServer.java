@@ -0,0 +1,725 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nioserver;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+
+import com.sun.net.httpserver.BasicAuthenticator;
+
+import org.apache.qpid.restapi.Server;
+
+/**
+ * NioHttpServer is a lightweight HTTP/1.1 server built on a java.nio Selector that delegates requests to Server
+ * objects via the implementation neutral HttpTransaction interface, so it may be used in place of the
+ * com.sun.net.httpserver.HttpServer and Delegator pairing.
+ * <p>
+ * A single selector thread accepts connections and performs all of the socket reads, parsing each request and
+ * reading its content without blocking, so an idle keep-alive connection costs a socket and a small buffer rather
+ * than a thread. Once a request has been completely received it is handed to a bounded pool of worker threads that
+ * call the Server, and the connection isn't read again until the response is complete. If every worker is busy and
+ * the pool's queue is full the request is rejected with "503 Service Unavailable" so that a burst of requests can't
+ * exhaust the JVM's threads. Responses are written directly by the worker where the socket allows, any remainder
+ * being written by the selector thread, and a worker that has more than HIGH_WATER_MARK bytes waiting to be written
+ * to a slow client blocks until the client catches up or the request timeout expires.
+ * <p>
+ * The following may be tuned before the NioHttpServer is started:
+ * <pre>
+ * keepAliveTimeout      the time in milliseconds that an idle connection is kept open between requests.
+ * maxKeepAliveRequests  the number of requests served on a connection before it is closed.
+ * requestTimeout        the time in milliseconds that a client may take to send a request, and that a response
+ *                       may make no progress writing to a client, before the connection is closed.
+ * maxConnections        the number of connections that may be open at once, further connections are closed.
+ * executor              the Executor that calls the Servers, by default a pool of DEFAULT_WORKERS threads.
+ * </pre>
+ * Any Executor may be used, so on a JVM that supports them an Executor that creates a virtual thread per request
+ * could be set, in which case the maxConnections limit bounds the number of concurrent requests.
+ * <p>
+ * The parts of HTTP/1.1 needed by the REST API and the Web UI are supported, i.e. persistent connections and
+ * pipelining, request content delimited by Content-Length or chunked (with "Expect: 100-continue"), chunked
+ * response content and Basic authentication using a com.sun.net.httpserver.BasicAuthenticator. Chunk extensions
+ * and trailer fields of chunked request content are ignored, and request content using any other transfer coding
+ * is rejected with "501 Not Implemented".
+ *
+ * @author Fraser Adams
+ */
+public final class NioHttpServer
+{
+    private static final Logger _log = LoggerFactory.getLogger(NioHttpServer.class);
+
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 1000;
+    public static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 4096;
+    public static final int DEFAULT_WORKERS = 50;
+    public static final int DEFAULT_WORKER_QUEUE_SIZE = 1000;
+
+    /**
+     * The number of bytes that may be waiting to be written to a connection before a thread writing to it blocks.
+     */
+    static final int HIGH_WATER_MARK = 256*1024;
+
+    /**
+     * How often, in milliseconds, the selector thread checks connections for timeouts.
+     */
+    private static final long TIMER_RESOLUTION = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Used to number the worker threads of all NioHttpServers.
+     */
+    private static final AtomicInteger _threadCount = new AtomicInteger();
+
+    /**
+     * A Server along with the path that it is registered for and the BasicAuthenticator (if any) protecting it.
+     */
+    private static final class Context
+    {
+        private final String _path;
+        private final Server _server;
+        private final BasicAuthenticator _authenticator;
+
+        Context(final String path, final Server server, final BasicAuthenticator authenticator)
+        {
+            _path = path;
+            _server = server;
+            _authenticator = authenticator;
+        }
+    }
+
+    private final Selector _selector;
+    private final ServerSocketChannel _serverChannel;
+    private final List<Context> _contexts = new ArrayList<Context>();
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger _connectionCount = new AtomicInteger();
+
+    private long _keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private int _maxKeepAliveRequests = DEFAULT_MAX_KEEP_ALIVE_REQUESTS;
+    private long _requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private int _maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private Executor _executor = null;
+    private ExecutorService _defaultExecutor = null;
+    private Thread _thread = null;
+    private volatile boolean _running = false;
+
+    /**
+     * Create a pool of worker threads that rejects tasks once all of its threads are busy and queueSize tasks are
+     * waiting, which is what the NioHttpServer uses if no Executor is set.
+     * @param threads the maximum number of worker threads.
+     * @param queueSize the maximum number of requests that may wait for a worker thread.
+     * @return the ExecutorService.
+     */
+    public static ExecutorService newWorkerPool(final int threads, final int queueSize)
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                         new ArrayBlockingQueue<Runnable>(queueSize),
+                                                         new ThreadFactory()
+        {
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "qpid-rest-worker-" + _threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Construct an NioHttpServer bound to the specified address. The NioHttpServer doesn't accept connections
+     * until it is started.
+     * @param address the address to bind to.
+     * @param backlog the socket backlog, zero or less means the system default.
+     */
+    public NioHttpServer(final InetSocketAddress address, final int backlog) throws IOException
+    {
+        _selector = Selector.open();
+        _serverChannel = ServerSocketChannel.open();
+        try
+        {
+            _serverChannel.socket().setReuseAddress(true);
+            _serverChannel.socket().bind(address, backlog);
+            _serverChannel.configureBlocking(false);
+            _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ioe)
+        {
+            _serverChannel.close();
+            _selector.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Return the address that the NioHttpServer is bound to.
+     * @return the address that the NioHttpServer is bound to.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress)_serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Set the time that an idle connection is kept open between requests.
+     * @param keepAliveTimeout the time in milliseconds that an idle connection is kept open.
+     */
+    public void setKeepAliveTimeout(final long keepAliveTimeout)
+    {
+        _keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Return the time that an idle connection is kept open between requests.
+     * @return the time in milliseconds that an idle connection is kept open.
+     */
+    public long getKeepAliveTimeout()
+    {
+        return _keepAliveTimeout;
+    }
+
+    /**
+     * Set the number of requests served on a connection before it is closed.
+     * @param maxKeepAliveRequests the number of requests served on a connection before it is closed.
+     */
+    public void setMaxKeepAliveRequests(final int maxKeepAliveRequests)
+    {
+        _maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    /**
+     * Return the number of requests served on a connection before it is closed.
+     * @return the number of requests served on a connection before it is closed.
+     */
+    public int getMaxKeepAliveRequests()
+    {
+        return _maxKeepAliveRequests;
+    }
+
+    /**
+     * Set the time that a client may take to send a request, and that a response may make no progress writing to
+     * a client, before the connection is closed.
+     * @param requestTimeout the request timeout in milliseconds.
+     */
+    public void setRequestTimeout(final long requestTimeout)
+    {
+        _requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Return the time that a client may take to send a request, and that a response may make no progress writing
+     * to a client, before the connection is closed.
+     * @return the request timeout in milliseconds.
+     */
+    public long getRequestTimeout()
+    {
+        return _requestTimeout;
+    }
+
+    /**
+     * Set the number of connections that may be open at once.
+     * @param maxConnections the number of connections that may be open at once.
+     */
+    public void setMaxConnections(final int maxConnections)
+    {
+        _maxConnections = maxConnections;
+    }
+
+    /**
+     * Set the Executor used to call the Servers. The Executor should reject tasks by throwing a
+     * RejectedExecutionException when it is overloaded, in which case the request is sent a 503 response.
+     * @param executor the Executor used to call the Servers, null for the default pool of worker threads.
+     */
+    public void setExecutor(final Executor executor)
+    {
+        _executor = executor;
+    }
+
+    /**
+     * Register a Server to handle the requests whose path starts with the specified path. If the paths of several
+     * Servers match a request the Server with the longest path handles it.
+     * @param path the path of the requests handled by the Server e.g. "/qpid/connection".
+     * @param server the Server.
+     */
+    public void createContext(final String path, final Server server)
+    {
+        createContext(path, server, null);
+    }
+
+    /**
+     * Register a Server to handle the requests whose path starts with the specified path, the requests must
+     * present credentials accepted by the BasicAuthenticator.
+     * @param path the path of the requests handled by the Server e.g. "/qpid/connection".
+     * @param server the Server.
+     * @param authenticator the BasicAuthenticator used to check the requests' credentials, null for none.
+     */
+    public synchronized void createContext(final String path, final Server server,
+                                           final BasicAuthenticator authenticator)
+    {
+        int i = 0;
+        while (i < _contexts.size() && _contexts.get(i)._path.length() >= path.length())
+        {
+            i++;
+        }
+        _contexts.add(i, new Context(path, server, authenticator));
+    }
+
+    /**
+     * Start the selector thread.
+     */
+    public synchronized void start()
+    {
+        if (_thread == null)
+        {
+            if (_executor == null)
+            {
+                _defaultExecutor = newWorkerPool(DEFAULT_WORKERS, DEFAULT_WORKER_QUEUE_SIZE);
+                _executor = _defaultExecutor;
+            }
+
+            _running = true;
+            _thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    select();
+                }
+            }, "qpid-rest-selector");
+            _thread.start();
+        }
+    }
+
+    /**
+     * Stop the NioHttpServer, closing its connections.
+     */
+    public synchronized void stop()
+    {
+        _running = false;
+        _selector.wakeup();
+        if (_thread != null && _thread != Thread.currentThread())
+        {
+            try
+            {
+                _thread.join();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (_defaultExecutor != null)
+        {
+            _defaultExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The selector thread's main loop.
+     */
+    private void select()
+    {
+        long nextCheck = System.nanoTime();
+        while (_running)
+        {
+            try
+            {
+                _selector.select(TIMER_RESOLUTION);
+
+                Runnable task;
+                while ((task = _tasks.poll()) != null)
+                {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> i = _selector.selectedKeys().iterator();
+                while (i.hasNext())
+                {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    if (key.attachment() == null)
+                    {
+                        accept();
+                    }
+                    else
+                    {
+                        NioConnection connection = (NioConnection)key.attachment();
+                        try
+                        {
+                            if (key.isWritable())
+                            {
+                                connection.onWritable();
+                            }
+
+                            if (key.isValid() && key.isReadable())
+                            {
+                                connection.onReadable();
+                            }
+                        }
+                        catch (CancelledKeyException cke)
+                        { // The connection was closed by another thread.
+                        }
+                        catch (IOException ioe)
+                        {
+                            connection.close();
+                        }
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - nextCheck >= 0)
+                {
+                    nextCheck = now + TimeUnit.MILLISECONDS.toNanos(TIMER_RESOLUTION);
+                    for (SelectionKey key : _selector.keys())
+                    {
+                        if (key.attachment() != null)
+                        {
+                            ((NioConnection)key.attachment()).checkTimeout(now);
+                        }
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                _log.info("NioHttpServer selector error: {}", ioe.getMessage());
+            }
+        }
+
+        for (SelectionKey key : _selector.keys())
+        {
+            if (key.attachment() != null)
+            {
+                ((NioConnection)key.attachment()).close();
+            }
+        }
+
+        try
+        {
+            _serverChannel.close();
+            _selector.close();
+        }
+        catch (IOException ioe)
+        {
+            _log.info("NioHttpServer close error: {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Accept the pending connections, closing any that would exceed maxConnections.
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = _serverChannel.accept()) != null)
+        {
+            if (_connectionCount.get() >= _maxConnections)
+            {
+                _log.debug("NioHttpServer has {} connections, closing new connection", _maxConnections);
+                channel.close();
+                continue;
+            }
+
+            try
+            {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(_selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, channel, key));
+                _connectionCount.incrementAndGet();
+            }
+            catch (IOException ioe)
+            {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Called when a connection is closed.
+     */
+    void connectionClosed()
+    {
+        _connectionCount.decrementAndGet();
+    }
+
+    /**
+     * Run a task on the selector thread, which is the only thread that may change a connection's interest set.
+     * @param task the task.
+     */
+    void execute(final Runnable task)
+    {
+        _tasks.add(task);
+        if (Thread.currentThread() != _thread)
+        {
+            _selector.wakeup();
+        }
+    }
+
+    /**
+     * Return true if the current thread is the selector thread, which must never block.
+     * @return true if the current thread is the selector thread.
+     */
+    boolean isSelectorThread()
+    {
+        return Thread.currentThread() == _thread;
+    }
+
+    /**
+     * Pass a completely received request to the Executor, or reject it if the Executor is overloaded.
+     * @param tx the request.
+     */
+    void dispatch(final NioHttpTransaction tx)
+    {
+        try
+        {
+            _executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    handle(tx);
+                }
+            });
+        }
+        catch (RejectedExecutionException ree)
+        {
+            _log.debug("NioHttpServer rejected {} {}", tx.getMethod(), tx.getRequestURI());
+            try
+            {
+                tx.setHeader("Retry-After", "1");
+                tx.sendResponse(HTTP_UNAVAILABLE, "text/plain", "503 Service Unavailable.");
+            }
+            catch (IOException ioe)
+            {
+                tx.abort();
+            }
+        }
+    }
+
+    /**
+     * Find the Context of a request, check its credentials and delegate it to the Context's Server.
+     * @param tx the request.
+     */
+    private void handle(final NioHttpTransaction tx)
+    {
+        try
+        {
+            Context context = getContext(tx.getRequestURI());
+            if (context == null)
+            {
+                tx.sendResponse(HTTP_NOT_FOUND, "text/plain", "404 Not Found.");
+            }
+            else if (context._authenticator != null && !authenticate(context._authenticator, tx))
+            {
+                tx.setHeader("WWW-Authenticate", "Basic realm=\"" + context._authenticator.getRealm() + "\"");
+                tx.sendResponse(HTTP_UNAUTHORIZED, "text/plain", "401 Unauthorized.");
+            }
+            else
+            {
+                Server server = context._server;
+                String method = tx.getMethod();
+                if (method.equals("GET"))
+                {
+                    server.doGet(tx);
+                }
+                else if (method.equals("POST"))
+                {
+                    server.doPost(tx);
+                }
+                else if (method.equals("PUT"))
+                {
+                    server.doPut(tx);
+                }
+                else if (method.equals("DELETE"))
+                {
+                    server.doDelete(tx);
+                }
+                else
+                {
+                    tx.sendResponse(HTTP_BAD_METHOD, "text/plain", "405 Bad Method.");
+                }
+            }
+
+            if (!tx.isCommitted())
+            {
+                tx.sendResponse(HTTP_INTERNAL_ERROR, "text/plain", "500 No response.");
+            }
+        }
+        catch (Exception e)
+        {
+            _log.info("NioHttpServer {} {} failed: {}", tx.getMethod(), tx.getRequestURI(), e.getMessage());
+            if (tx.isCommitted())
+            {
+                tx.abort();
+            }
+            else
+            {
+                try
+                {
+                    tx.sendResponse(HTTP_INTERNAL_ERROR, "text/plain", "500 " + e.getMessage());
+                }
+                catch (IOException ioe)
+                {
+                    tx.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the Context with the longest path that is a prefix of the request path.
+     * @param path the request path.
+     * @return the Context or null if no Context matches.
+     */
+    private synchronized Context getContext(final String path)
+    {
+        for (Context context : _contexts)
+        {
+            if (path.startsWith(context._path))
+            {
+                return context;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check the Basic credentials of a request and if they are accepted set the request's principal.
+     * @param authenticator the BasicAuthenticator that checks the credentials.
+     * @param tx the request.
+     * @return true if the credentials were accepted.
+     */
+    private static boolean authenticate(final BasicAuthenticator authenticator, final NioHttpTransaction tx)
+    {
+        String authorization = tx.getHeader("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6))
+        {
+            return false;
+        }
+
+        byte[] decoded = decodeBase64(authorization.substring(6).trim());
+        if (decoded == null)
+        {
+            return false;
+        }
+
+        String credentials = new String(decoded, UTF8);
+        int colon = credentials.indexOf(':');
+        if (colon < 0)
+        {
+            return false;
+        }
+
+        String username = credentials.substring(0, colon);
+        if (authenticator.checkCredentials(username, credentials.substring(colon + 1)))
+        {
+            tx.setPrincipal(username);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decode Base64 encoded data.
+     * @param encoded the Base64 encoded data.
+     * @return the decoded data or null if encoded isn't valid Base64.
+     */
+    private static byte[] decodeBase64(final String encoded)
+    {
+        int length = encoded.length();
+        while (length > 0 && encoded.charAt(length - 1) == '=')
+        {
+            length--;
+        }
+
+        byte[] decoded = new byte[length*3/4];
+        int bits = 0;
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = encoded.charAt(i);
+            int value;
+            if (c >= 'A' && c <= 'Z')
+            {
+                value = c - 'A';
+            }
+            else if (c >= 'a' && c <= 'z')
+            {
+                value = c - 'a' + 26;
+            }
+            else if (c >= '0' && c <= '9')
+            {
+                value = c - '0' + 52;
+            }
+            else if (c == '+')
+            {
+                value = 62;
+            }
+            else if (c == '/')
+            {
+                value = 63;
+            }
+            else
+            {
+                return null;
+            }
+
+            bits = (bits << 6) | value;
+            count += 6;
+            if (count >= 8)
+            {
+                count -= 8;
+                decoded[j++] = (byte)(bits >> count);
+            }
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nioserver;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.qpid.restapi.HttpTransaction;
+
+/**
+ * This class provides an implementation of the HttpTransaction interface for a request received by an
+ * NioHttpServer. The request, including its content, has been completely read by the time that the
+ * NioHttpTransaction is passed to a Server.
+ * <p>
+ * A response whose length is known, i.e. one sent as a String or byte[] or an InputStream response for which the
+ * Server has set the Content-Length header, is sent with a Content-Length. Other responses are sent using chunked
+ * transfer encoding, or for HTTP/1.0 clients by closing the connection at the end of the content.
+ *
+ * @author Fraser Adams
+ */
+final class NioHttpTransaction implements HttpTransaction
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    /**
+     * The Stream that the content of a response of unknown length is written to. Content is buffered so that
+     * small writes don't each result in a chunk, and flush() writes whatever is buffered as a chunk.
+     */
+    private final class ResponseStream extends OutputStream
+    {
+        private final boolean _chunked;
+        private final byte[] _buffer = new byte[BUFFER_SIZE];
+        private int _count = 0;
+        private boolean _closed = false;
+
+        ResponseStream(final boolean chunked)
+        {
+            _chunked = chunked;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (_count == _buffer.length)
+            {
+                flush();
+            }
+            _buffer[_count++] = (byte)b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (_closed)
+            {
+                throw new IOException("Stream closed");
+            }
+
+            if (len > _buffer.length - _count)
+            {
+                flush();
+            }
+
+            if (len >= _buffer.length)
+            {
+                writeChunk(b, off, len);
+            }
+            else
+            {
+                System.arraycopy(b, off, _buffer, _count, len);
+                _count += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (_count > 0)
+            {
+                writeChunk(_buffer, 0, _count);
+                _count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!_closed)
+            {
+                flush();
+                _closed = true;
+                if (_chunked)
+                {
+                    _connection.write(ByteBuffer.wrap(LAST_CHUNK));
+                }
+                complete();
+            }
+        }
+
+        private void writeChunk(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (_chunked)
+            {
+                byte[] size = (Integer.toHexString(len) + "\r\n").getBytes(ISO_8859_1);
+                _connection.write(ByteBuffer.wrap(size), ByteBuffer.wrap(b, off, len), ByteBuffer.wrap(CRLF));
+            }
+            else
+            {
+                _connection.write(ByteBuffer.wrap(b, off, len));
+            }
+        }
+    }
+
+    private final NioConnection _connection;
+    private final String _method;
+    private final String _target;
+    private final String _path;
+    private final boolean _http10;
+    private final Map<String, List<String>> _requestHeaders;
+    private final Map<String, List<String>> _responseHeaders =
+        new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private byte[] _content = null;
+    private String _principal = null;
+    private boolean _keepAlive;
+    private volatile boolean _committed = false;
+
+    /**
+     * Construct an NioHttpTransaction from a parsed request head.
+     * @param connection the connection that the request was received on.
+     * @param method the request method.
+     * @param target the request target as it appeared in the request line.
+     * @param path the decoded path of the request target.
+     * @param http10 true if the request is HTTP/1.0 rather than HTTP/1.1.
+     * @param headers the request header fields, keyed case insensitively.
+     */
+    NioHttpTransaction(final NioConnection connection, final String method, final String target, final String path,
+                       final boolean http10, final Map<String, List<String>> headers)
+    {
+        _connection = connection;
+        _method = method;
+        _target = target;
+        _path = path;
+        _http10 = http10;
+        _requestHeaders = headers;
+
+        String value = getHeader("Connection");
+        _keepAlive = http10 ? hasToken(value, "keep-alive") : !hasToken(value, "close");
+    }
+
+    /**
+     * Return true if a comma separated header value contains the specified token.
+     */
+    private static boolean hasToken(final String value, final String token)
+    {
+        if (value != null)
+        {
+            for (String element : value.split(","))
+            {
+                if (element.trim().equalsIgnoreCase(token))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the reason phrase of an HTTP status code.
+     */
+    private static String reason(final int status)
+    {
+        switch (status)
+        {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default:  return "";
+        }
+    }
+
+    /**
+     * Set the content of the request once it has been read.
+     * @param content the content of the request.
+     */
+    void setContent(final byte[] content)
+    {
+        _content = content;
+    }
+
+    /**
+     * Set whether the connection may be used for another request once the response is complete.
+     * @param keepAlive false if the connection should be closed once the response is complete.
+     */
+    void setKeepAlive(final boolean keepAlive)
+    {
+        _keepAlive = keepAlive;
+    }
+
+    /**
+     * Set the name of the authenticated user.
+     * @param principal the name of the authenticated user.
+     */
+    void setPrincipal(final String principal)
+    {
+        _principal = principal;
+    }
+
+    /**
+     * Return true if the response headers have been sent.
+     * @return true if the response headers have been sent.
+     */
+    boolean isCommitted()
+    {
+        return _committed;
+    }
+
+    /**
+     * Abandon the response, closing the connection.
+     */
+    void abort()
+    {
+        _connection.close();
+    }
+
+    /**
+     * Called once the response is complete.
+     */
+    private void complete()
+    {
+        _connection.complete(_keepAlive);
+    }
+
+    /**
+     * Format the status line and header fields of the response.
+     * @param status the HTTP status code.
+     * @param contentLength the length of the response content, -1 if it isn't known.
+     * @return the response head.
+     */
+    private synchronized ByteBuffer commit(final int status, final long contentLength) throws IOException
+    {
+        if (_committed)
+        {
+            throw new IOException("Response headers already sent");
+        }
+        _committed = true;
+
+        _responseHeaders.remove("Content-Length");
+        _responseHeaders.remove("Transfer-Encoding");
+        _responseHeaders.remove("Connection");
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : _responseHeaders.entrySet())
+        {
+            for (String value : header.getValue())
+            {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+
+        if (contentLength >= 0)
+        {
+            if (status >= 200 && status != 204 && status != 304)
+            {
+                head.append("Content-Length: ").append(contentLength).append("\r\n");
+            }
+        }
+        else if (_http10)
+        { // The end of the content is signalled by closing the connection.
+            _keepAlive = false;
+        }
+        else
+        {
+            head.append("Transfer-Encoding: chunked\r\n");
+        }
+
+        if (_keepAlive)
+        {
+            if (_http10)
+            {
+                head.append("Connection: keep-alive\r\n");
+            }
+            head.append("Keep-Alive: timeout=").append(_connection.getServer().getKeepAliveTimeout()/1000)
+                .append("\r\n");
+        }
+        else
+        {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(ISO_8859_1));
+    }
+
+    /**
+     * Log the HTTP request information (primarily for debugging purposes)
+     */
+    public void logRequest()
+    {
+        System.out.println(_method + " " + _target);
+        for (Map.Entry<String, List<String>> header : _requestHeaders.entrySet())
+        {
+            System.out.println(header);
+        }
+        System.out.println("From: " + getRemoteHost() + ":" + getRemotePort());
+    }
+
+    /**
+     * Return the content passed in the request from the client as a Stream.
+     * @return the content passed in the request from the client as a Stream.
+     */
+    public InputStream getRequestStream() throws IOException
+    {
+        return new ByteArrayInputStream(_content);
+    }
+
+    /**
+     * Return the content passed in the request from the client as a String.
+     * @return the content passed in the request from the client as a String.
+     */
+    public String getRequestString() throws IOException
+    {
+        return new String(_content);
+    }
+
+    /**
+     * Return the content passed in the request from the client as a byte[].
+     * @return the content passed in the request from the client as a byte[].
+     */
+    public byte[] getRequest() throws IOException
+    {
+        return _content;
+    }
+
+    /**
+     * Send the content passed as a String as an HTTP response back to the client.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param content the content of the response passed as a String.
+     */
+    public void sendResponse(final int status, final String mimeType, final String content) throws IOException
+    {
+        sendResponse(status, mimeType, (content == null) ? null : content.getBytes());
+    }
+
+    /**
+     * Send the content passed as a byte[] as an HTTP response back to the client.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param content the content of the response passed as a byte[].
+     */
+    public void sendResponse(final int status, final String mimeType, final byte[] content) throws IOException
+    {
+        setHeader("Content-Type", mimeType);
+        int length = (content == null) ? 0 : content.length;
+        ByteBuffer head = commit(status, length);
+        if (length == 0 || status == 304)
+        {
+            _connection.write(head);
+        }
+        else
+        { // Write the head and content together so that a small response is sent in a single packet.
+            _connection.write(head, ByteBuffer.wrap(content));
+        }
+        complete();
+    }
+
+    /**
+     * Send the content passed as an InputStream as an HTTP response back to the client. If the Content-Length
+     * header has been set the response is sent with that length, otherwise it is chunked.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param is the content of the response passed as an InputStream.
+     */
+    public void sendResponse(final int status, final String mimeType, final InputStream is) throws IOException
+    {
+        if (is == null)
+        {
+            sendResponse(status, mimeType, (byte[])null);
+            return;
+        }
+
+        long length = -1;
+        List<String> values = _responseHeaders.get("Content-Length");
+        if (values != null)
+        {
+            try
+            {
+                length = Long.parseLong(values.get(0));
+            }
+            catch (NumberFormatException nfe)
+            { // Send the response chunked.
+            }
+        }
+
+        setHeader("Content-Type", mimeType);
+        _connection.write(commit(status, length));
+        OutputStream os = new ResponseStream(length < 0 && !_http10);
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = is.read(buffer, 0, buffer.length)) != -1)
+        {
+            os.write(buffer, 0, read);
+        }
+        os.close();
+    }
+
+    /**
+     * Send the HTTP response headers for a response whose content is written incrementally, such as a
+     * text/event-stream, and return the Stream that the content should be written to. The response is complete
+     * when the returned Stream is closed.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/event-stream.
+     * @return the Stream that the content of the response is written to.
+     */
+    public OutputStream sendResponseStream(final int status, final String mimeType) throws IOException
+    {
+        setHeader("Content-Type", mimeType);
+        _connection.write(commit(status, -1));
+        return new ResponseStream(!_http10);
+    }
+
+    /**
+     * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
+     * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
+     */
+    public String getRemoteAddr()
+    {
+        return _connection.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    /**
+     * Returns the fully qualified name of the client or the last proxy that sent the request.
+     * @return the fully qualified name of the client or the last proxy that sent the request.
+     */
+    public String getRemoteHost()
+    {
+        return _connection.getRemoteAddress().getHostName();
+    }
+
+    /**
+     * Returns the Internet Protocol (IP) source port of the client or last proxy that sent the request.
+     * @return the Internet Protocol (IP) source port of the client or last proxy that sent the request.
+     */
+    public int getRemotePort()
+    {
+        return _connection.getRemoteAddress().getPort();
+    }
+
+    /**
+     * Returns a String containing the name of the current authenticated user. If the user has not been authenticated, 
+     * the method returns null.
+     * @return a String containing the name of the user making this request; null if the user has not been authenticated.
+     */
+    public String getPrincipal()
+    {
+        return _principal;
+    }
+
+    /**
+     * Returns the name of the HTTP method with which this request was made, for example, GET, POST, or PUT.
+     * @return a String specifying the name of the method with which this request was made.
+     */
+    public String getMethod()
+    {
+        return _method;
+    }
+
+    /**
+     * Returns the part of this request's URL from the protocol name up to the query string in the first line of
+     * the HTTP request.
+     * @return a String containing the part of the URL from the protocol name up to the query string.
+     */
+    public String getRequestURI()
+    {
+        return _path;
+    }
+
+    /**
+     * Sets a response header with the given name and value. If the header had already been set, the new value
+     * overwrites the previous one.
+     * @param name a String specifying the header name.
+     * @param value a String specifying the header value. If it contains octet string, it should be encoded according
+     *        to RFC 2047.
+     */
+    public void setHeader(final String name, final String value)
+    {
+        List<String> values = new ArrayList<String>(1);
+        values.add(value);
+        _responseHeaders.put(name, values);
+    }
+
+    /**
+     * Returns the value of the specified request header as a String. If the request did not include a header of the 
+     * specified name, this method returns null. If there are multiple headers with the same name, this method returns 
+     * the first head in the request. The header name is case insensitive. You can use this method with any request 
+     * header.
+     * @param name a String specifying the header name.
+     * @return a String containing the value of the requested header, or null if the request does not have a header of 
+     *         that name.
+     */
+    public String getHeader(final String name)
+    {
+        List<String> values = _requestHeaders.get(name);
+        return (values == null) ? null : values.get(0);
+    }
+
+    /**
+     * Returns the String value of the specified cookie.
+     * @param name a String specifying the cookie name.
+     */
+    public String getCookie(final String name)
+    {
+        List<String> values = _requestHeaders.get("Cookie");
+        if (values == null)
+        {
+            return null;
+        }
+
+        for (String value : values)
+        {
+            String[] cookies = value.split(";");
+            for (String cookie : cookies)
+            {
+                String[] cdata = cookie.split("=");
+                if (cdata.length > 1 && cdata[0].trim().equals(name))
+                {
+                    return cdata[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the specified cookie to the response. This method can be called multiple times to set more than one cookie.
+     * @param name a String specifying the cookie name.
+     * @param value a String specifying the cookie value.
+     */
+    public void addCookie(final String name, final String value)
+    {
+        String data = name + "=" + value + "; path=/";
+        List<String> values = _responseHeaders.get("Set-Cookie");
+        if (values == null)
+        {
+            values = new ArrayList<String>(1);
+            _responseHeaders.put("Set-Cookie", values);
+        }
+        values.add(data);
+    }
+}
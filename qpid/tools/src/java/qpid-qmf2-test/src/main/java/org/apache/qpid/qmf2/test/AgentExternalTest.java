@@ -309,7 +309,7 @@ System.out.println("****** Removing deleted Object *******");
             {
                 Subscription subscription = new Subscription(this, params);
                 _subscriptions.put(subscription.getSubscriptionId(), subscription);
-                _timer.schedule(subscription, 0, params.getPublishInterval());
+                subscription.schedule(_agent.getScheduler(), 0, params.getPublishInterval());
 
                 if (subscription == null)
                 {
@@ -504,15 +504,22 @@ System.out.println("Received cancellation request for " + subscriptionId);
                 QmfAgentData object = _objectIndex.get(objectId);
                 if (object != null && !object.isDeleted())
                 {
+                    object.sample();
                     results.add(object);
                 }
             }
             else
             {
-                // Look up QmfAgentData objects evaluating the query
+                // Look up QmfAgentData objects evaluating the query, sampling each object first
                 for (QmfAgentData object : _objectIndex.values())
                 {
-                    if (!object.isDeleted() && query.evaluate(object))
+                    if (object.isDeleted())
+                    {
+                        continue;
+                    }
+
+                    object.sample();
+                    if (query.evaluate(object))
                     {
                         results.add(object);
                     }
@@ -0,0 +1,210 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// Misc Imports
+import java.util.List;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.Agent;
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.NullQmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+
+/**
+ * This class tests that a query using an Agent's property index returns the same objects as evaluating the query
+ * against every object.
+ * <p>
+ * The test Agent has two classes with the same properties and objects, the properties of the "indexed" class are
+ * indexed whereas those of the "plain" class aren't. The "port" values include ints, longs, doubles and numeric and
+ * non-numeric Strings because "eq" compares a Number numerically with any numeric value, so for example an int port
+ * of 5 equals both 5.0 and ['quote', '05']. Each query is evaluated by the Agent without any term restricting the
+ * class, so that it uses the index, and the objects returned for each class are compared. NaN is unordered, so the
+ * test also checks that no relational expression comparing the port with a number matches the object whose port is
+ * NaN.
+ * <p>
+ * The queries are evaluated by Agent.evaluateQuery(), which uses the same index as the Agent's query handling, so
+ * no broker is needed, this can be run with:
+ * <pre>
+ * mvn test -DtestCase=IndexedQueryTest
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+public final class IndexedQueryTest
+{
+    private static final String PACKAGE_NAME = "org.apache.qpid.test";
+
+    /**
+     * The values given to the port property of the objects of each class, null leaves the property unset.
+     */
+    private static final Object[] PORTS = {5, 5L, 6, "5", "05", " 5", 5.0, 5.5, -0.0, 0, Double.NaN, "abc", "true",
+                                           true, null};
+
+    /**
+     * The literals compared with the port property.
+     */
+    private static final String[] LITERALS = {"5", "5.0", "['quote', '05']", "['quote', '5']", "['quote', '5.0']",
+                                              "6", "5.5", "0", "0.0", "-0.0", "['quote', 'abc']", "['quote', 'true']",
+                                              "['quote', ' 5']", "['quote', 'NaN']", "7"};
+
+    /**
+     * Predicates that must not match the object whose port is NaN, which is unordered with respect to every number.
+     */
+    private static final String[] NAN_PREDICATES = {"['eq', 'port', 7]", "['le', 'port', 7]", "['ge', 'port', 7]",
+                                                    "['lt', 'port', 7]", "['gt', 'port', 7]",
+                                                    "['eq', 'port', ['quote', 'NaN']]"};
+
+    private int _failures = 0;
+
+    /**
+     * Record the result of a check.
+     */
+    private void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Return the number of the objects of the specified class.
+     */
+    private static int count(final List<QmfAgentData> objects, final String className)
+    {
+        int count = 0;
+        for (QmfAgentData object : objects)
+        {
+            if (object.getSchemaClassId().getClassName().equals(className))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return true if any of the objects has a NaN port.
+     */
+    private static boolean containsNaN(final List<QmfAgentData> objects)
+    {
+        for (QmfAgentData object : objects)
+        {
+            Object port = object.getValue("port");
+            if (port instanceof Double && ((Double)port).isNaN())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a SchemaObjectClass having a port property, which is optionally indexed.
+     */
+    private static SchemaObjectClass createSchema(final String className, final boolean indexed)
+        throws QmfException
+    {
+        SchemaObjectClass schema = new SchemaObjectClass(PACKAGE_NAME, className);
+        schema.addProperty(new SchemaProperty("name", QmfType.TYPE_STRING));
+        schema.addProperty(new SchemaProperty("port", QmfType.TYPE_STRING));
+        schema.setIdNames("name");
+        if (indexed)
+        {
+            schema.setIndexedNames("port");
+        }
+        return schema;
+    }
+
+    public IndexedQueryTest() throws QmfException
+    {
+        System.out.println("*** Starting IndexedQueryTest used to test queries using the Agent's property index ***");
+
+        Agent agent = new Agent(new NullQmfEventListener());
+        agent.setVendor("apache.org");
+        agent.setProduct("index-test");
+
+        SchemaObjectClass indexedSchema = createSchema("indexed", true);
+        SchemaObjectClass plainSchema = createSchema("plain", false);
+        agent.registerObjectClass(indexedSchema);
+        agent.registerObjectClass(plainSchema);
+
+        for (SchemaObjectClass schema : new SchemaObjectClass[] {indexedSchema, plainSchema})
+        {
+            for (int i = 0; i < PORTS.length; i++)
+            {
+                QmfAgentData object = new QmfAgentData(schema);
+                object.setValue("name", "object" + i);
+                if (PORTS[i] != null)
+                {
+                    object.setValue("port", PORTS[i]);
+                }
+                agent.addObject(object);
+            }
+        }
+
+        // Check that the index follows changes made via update().
+        QmfAgentData changed = new QmfAgentData(indexedSchema);
+        changed.setValue("name", "changed");
+        changed.setValue("port", "abc");
+        agent.addObject(changed);
+        changed.setValue("port", 5);
+        changed.update();
+
+        QmfAgentData changedPlain = new QmfAgentData(plainSchema);
+        changedPlain.setValue("name", "changed");
+        changedPlain.setValue("port", 5);
+        agent.addObject(changedPlain);
+
+        for (String literal : LITERALS)
+        {
+            String predicate = "['eq', 'port', " + literal + "]";
+            List<QmfAgentData> objects = agent.evaluateQuery(new QmfQuery(QmfQueryTarget.OBJECT, predicate));
+            int indexed = count(objects, "indexed");
+            int plain = count(objects, "plain");
+            check(predicate + " returned " + indexed + " indexed and " + plain + " plain objects", indexed == plain);
+        }
+
+        for (String predicate : NAN_PREDICATES)
+        {
+            List<QmfAgentData> objects = agent.evaluateQuery(new QmfQuery(QmfQueryTarget.OBJECT, predicate));
+            check(predicate + " doesn't match a NaN port", !containsNaN(objects));
+        }
+
+        agent.destroy();
+
+        System.out.println("*** Ending IndexedQueryTest " + (_failures == 0 ? "PASSED" : "FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("amqj.logging.level", "FATAL");
+        new IndexedQueryTest();
+    }
+}
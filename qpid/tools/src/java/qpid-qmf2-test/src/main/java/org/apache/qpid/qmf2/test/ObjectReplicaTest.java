@@ -0,0 +1,212 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// Misc Imports
+import java.util.Arrays;
+import java.util.List;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.NullQmfEventListener;
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+import org.apache.qpid.qmf2.console.Agent;
+import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.ObjectReplica;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.loopback.LoopbackBroker;
+
+/**
+ * This class tests an ObjectReplica of more than one class whose objects have ObjectIds with different Epochs.
+ * <p>
+ * Like the broker ManagementAgent the test Agent gives its queues persistent ObjectIds, whose Epoch is zero, and
+ * its bindings ObjectIds with the Agent's Epoch. The test checks that the replica loads the objects of both classes
+ * and that updates to and deletions of the queues are still applied once the bindings have been replicated. It also
+ * checks that getReferrers() follows the bindings' queueRef as bindings are rebound and deleted.
+ * <p>
+ * The Agents and the Console are connected via a LoopbackBroker so no AMQP broker is needed, this can be run with:
+ * <pre>
+ * mvn test -DtestCase=ObjectReplicaTest
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+public final class ObjectReplicaTest
+{
+    private static final String PACKAGE_NAME = "org.apache.qpid.test";
+    private static final int QUEUE_COUNT = 10;
+    private static final long UPDATE_TIMEOUT = 5000;
+
+    private int _failures = 0;
+
+    /**
+     * Record the result of a check.
+     */
+    private void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Wait for the given number of replicated bindings to refer to the queue with the given ObjectId.
+     * @return true if the replica reflected the change before UPDATE_TIMEOUT.
+     */
+    private static boolean waitForReferrers(final ObjectReplica replica, final ObjectId objectId, final int count)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + UPDATE_TIMEOUT;
+        while (System.currentTimeMillis() < deadline)
+        {
+            if (replica.getReferrers("binding", "queueRef", objectId).size() == count)
+            {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    /**
+     * Wait for the replicated queue with the given ObjectId to be updated or deleted by the Agent.
+     * @return true if the replica reflected the change before UPDATE_TIMEOUT.
+     */
+    private static boolean waitFor(final ObjectReplica replica, final ObjectId objectId, final boolean deleted)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + UPDATE_TIMEOUT;
+        while (System.currentTimeMillis() < deadline)
+        {
+            QmfConsoleData queue = replica.getObject(objectId);
+            if (deleted ? queue == null : (queue != null && queue.getLongValue("msgDepth") == 42))
+            {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    public ObjectReplicaTest() throws QmfException, InterruptedException
+    {
+        System.out.println("*** Starting ObjectReplicaTest used to test ObjectReplica loading and updating ***");
+
+        LoopbackBroker broker = new LoopbackBroker();
+
+        // The Console waits for the broker Agent when it is connected.
+        org.apache.qpid.qmf2.agent.Agent brokerAgent = new org.apache.qpid.qmf2.agent.Agent(new NullQmfEventListener());
+        brokerAgent.setVendor("apache.org");
+        brokerAgent.setProduct("qpidd");
+        brokerAgent.setConnection(broker.createConnection());
+
+        org.apache.qpid.qmf2.agent.Agent agent = new org.apache.qpid.qmf2.agent.Agent(new NullQmfEventListener());
+        agent.setVendor("apache.org");
+        agent.setProduct("replica-test");
+
+        SchemaObjectClass queueSchema = new SchemaObjectClass(PACKAGE_NAME, "queue");
+        queueSchema.addProperty(new SchemaProperty("name", QmfType.TYPE_STRING));
+        queueSchema.addProperty(new SchemaProperty("msgDepth", QmfType.TYPE_INT));
+        queueSchema.setIdNames("name");
+        agent.registerObjectClass(queueSchema);
+
+        SchemaObjectClass bindingSchema = new SchemaObjectClass(PACKAGE_NAME, "binding");
+        bindingSchema.addProperty(new SchemaProperty("queueRef", QmfType.TYPE_MAP));
+        bindingSchema.addProperty(new SchemaProperty("bindingKey", QmfType.TYPE_STRING));
+        agent.registerObjectClass(bindingSchema);
+
+        QmfAgentData[] queues = new QmfAgentData[QUEUE_COUNT];
+        QmfAgentData[] bindings = new QmfAgentData[QUEUE_COUNT];
+        for (int i = 0; i < QUEUE_COUNT; i++)
+        {
+            queues[i] = new QmfAgentData(queueSchema);
+            queues[i].setValue("name", "queue" + i);
+            queues[i].setValue("msgDepth", 0);
+            queues[i].setObjectId(new ObjectId(agent.getName(), PACKAGE_NAME + ":queue:queue" + i, 0));
+            agent.addObject(queues[i]);
+
+            bindings[i] = new QmfAgentData(bindingSchema);
+            bindings[i].setRefValue("queueRef", queues[i].getObjectId());
+            bindings[i].setValue("bindingKey", "key" + i);
+            agent.addObject(bindings[i]);
+        }
+        agent.setConnection(broker.createConnection());
+
+        Console console = new Console(new NullQmfEventListener());
+        console.addConnection(broker.createConnection());
+        Agent consoleAgent = console.findAgent(agent.getName());
+        check("Console found the test Agent", consoleAgent != null);
+
+        List<SchemaClassId> classes = Arrays.asList(new SchemaClassId(PACKAGE_NAME, "queue"),
+                                                    new SchemaClassId(PACKAGE_NAME, "binding"));
+        ObjectReplica replica = console.createReplica(consoleAgent, classes);
+        check("Replica loaded " + QUEUE_COUNT + " queues",
+              replica.getObjects(PACKAGE_NAME, "queue").size() == QUEUE_COUNT);
+        check("Replica loaded " + QUEUE_COUNT + " bindings",
+              replica.getObjects(PACKAGE_NAME, "binding").size() == QUEUE_COUNT);
+
+        QmfConsoleData queue0 = replica.getObject(queues[0].getObjectId());
+        check("Binding queueRef can be dereferenced",
+              queue0 != null && replica.getReferrers("binding", "queueRef", queue0.getObjectId()).size() == 1);
+
+        queues[0].setValue("msgDepth", 42);
+        queues[0].publish();
+        check("Update of a queue with a persistent ObjectId was applied",
+              waitFor(replica, queues[0].getObjectId(), false));
+
+        queues[1].destroy();
+        check("Deletion of a queue with a persistent ObjectId was applied",
+              waitFor(replica, queues[1].getObjectId(), true));
+        check("The other queues were retained",
+              replica.getObjects(PACKAGE_NAME, "queue").size() == QUEUE_COUNT - 1);
+
+        bindings[2].setRefValue("queueRef", queues[3].getObjectId());
+        bindings[2].publish();
+        check("Rebinding a binding moved it between the queues' referrers",
+              waitForReferrers(replica, queues[3].getObjectId(), 2) &&
+              replica.getReferrers("binding", "queueRef", queues[2].getObjectId()).isEmpty());
+
+        bindings[4].destroy();
+        check("Deleting a binding removed it from the queue's referrers",
+              waitForReferrers(replica, queues[4].getObjectId(), 0));
+
+        replica.close();
+        console.destroy();
+        agent.destroy();
+        brokerAgent.destroy();
+
+        System.out.println("*** Ending ObjectReplicaTest " + (_failures == 0 ? "PASSED" : "FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("amqj.logging.level", "FATAL");
+        new ObjectReplicaTest();
+    }
+}
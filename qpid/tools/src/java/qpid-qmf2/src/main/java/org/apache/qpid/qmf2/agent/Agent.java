@@ -35,17 +35,20 @@ import javax.jms.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+// Need the following to encode amqp/list messages incrementally
+import org.apache.qpid.transport.codec.BBEncoder;
+
 // Misc Imports
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.AMQPMessage;
@@ -65,6 +68,8 @@ import org.apache.qpid.qmf2.common.SchemaClass;
 import org.apache.qpid.qmf2.common.SchemaClassId;
 import org.apache.qpid.qmf2.common.SchemaEventClass;
 import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.ScheduledTask;
+import org.apache.qpid.qmf2.common.TransportMessage;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.common.WorkQueue;
 
@@ -175,9 +180,9 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     private static final Logger _log = LoggerFactory.getLogger(Agent.class);
 
     /** 
-     * This TimerTask causes the Agent to sent a Hearbeat when it gets scheduled
+     * This ScheduledTask causes the Agent to sent a Hearbeat when it gets scheduled
      */
-    private final class Heartbeat extends TimerTask
+    private final class Heartbeat extends ScheduledTask
     {
         public void run()
         {
@@ -208,17 +213,7 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             }
 
             // Reap any QmfAgentData Objects that have been marked as Deleted
-            // Use the iterator approach rather than foreach as we may want to call iterator.remove() to zap an entry
-            Iterator<QmfAgentData> i = _objectIndex.values().iterator();
-            while (i.hasNext())
-            {
-                QmfAgentData object = i.next();
-                if (object.isDeleted())
-                {
-                    _log.debug("Removing deleted QmfAgentData Object from store");
-                    i.remove();
-                }
-            }
+            _objectIndex.removeDeleted();
         }
     }
 
@@ -239,16 +234,32 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     private Map<SchemaClassId, SchemaClass> _schemaCache = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
 
     /**
-     * _objectIndex is the global index of QmfAgentData objects registered with this Agent.
-     * The capacity of 100 is pretty arbitrary but the default of 16 seems too low for most Agents.
+     * _objectIndex is the global index of QmfAgentData objects registered with this Agent. As well as looking up
+     * objects by ObjectId it indexes them by SchemaClassId and by any indexed properties declared by their schema.
      */
-    private Map<ObjectId, QmfAgentData> _objectIndex = new ConcurrentHashMap<ObjectId, QmfAgentData>(100);
+    private ObjectIndex _objectIndex = new ObjectIndex(_schemaCache);
 
     /**
      * This Map is used to look up Subscriptions by SubscriptionId
      */
     private Map<String, Subscription> _subscriptions = new ConcurrentHashMap<String, Subscription>();
 
+    /**
+     * The minimum time in milliseconds between sampling passes, see sampleObjects(). This is half the minimum
+     * Subscription interval so a pass is shared by all Subscriptions publishing at around the same time.
+     */
+    private static final long SAMPLE_PERIOD = 500;
+
+    /**
+     * Serialises sampling passes and guards _lastSampleTime.
+     */
+    private final Object _sampleLock = new Object();
+
+    /**
+     * The time at which the last sampling pass started.
+     */
+    private long _lastSampleTime = 0;
+
     /**
      * Used to implement a thread safe queue of WorkItem objects used to implement the Notifier API
      */
@@ -289,6 +300,18 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
      */
     private int _heartbeatInterval = 30;
 
+    /**
+     * The maximum number of results sent in each query response message. Queries with more results than this are
+     * split over several response messages, all but the last being marked "partial". Zero means no limit.
+     */
+    private int _queryBatchSize = 100;
+
+    /**
+     * The (approximate) maximum size in bytes of the encoded results sent in each query response message. Queries
+     * whose results exceed this are split over several response messages as above. Zero means no limit.
+     */
+    private int _queryBatchBytes = 512*1024;
+
     /**
      * The domain string is used to construct the name of the AMQP exchange to which the component's 
      * name string will be bound. If not supplied, the value of the domain defaults to "default". Both
@@ -297,9 +320,15 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     private String _domain;
 
     /**
-     * This timer is used to schedule periodic events such as sending Heartbeats and subscription updates
+     * This scheduler is used to schedule periodic events such as sending Heartbeats and subscription updates. Unless
+     * setScheduler() is called this is the scheduler shared by all Consoles and Agents in the JVM.
+     */
+    private volatile ScheduledExecutorService _scheduler = ScheduledTask.getDefaultScheduler();
+
+    /**
+     * The Heartbeat task scheduled by setConnection().
      */
-    private Timer _timer;
+    private Heartbeat _heartbeat;
 
     /**
      * Various JMS related fields
@@ -435,56 +464,53 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                 //qmfContentType = "_data";
                 if (query.getObjectId() != null)
                 {
-                    List<Map> results = new ArrayList<Map>(1);
+                    List<QmfAgentData> results = new ArrayList<QmfAgentData>(1);
                     // Look up a QmfAgentData object by the ObjectId obtained from the query
                     ObjectId objectId = query.getObjectId();
                     QmfAgentData object = _objectIndex.get(objectId);
                     if (object != null && !object.isDeleted())
                     {
-                        results.add(object.mapEncode());
+                        object.sample(); // Refresh any statistics the object obtains from elsewhere.
+                        results.add(object);
                     }
-                    queryResponse(handle, results, "_data"); // Send the response back to the Console.
+                    queryResponse(handle, results, "_data", false); // Send the response back to the Console.
                 }
                 else
                 {
-                    // Look up QmfAgentData objects by the SchemaClassId obtained from the query
-                    // This is implemented by a linear search and allows searches with only the className specified.
-                    // Linear searches clearly don't scale brilliantly, but the number of QmfAgentData objects managed
-                    // by an Agent is generally fairly small, so it should be OK. Note that this is the same approach
-                    // taken by the C++ broker ManagementAgent, so if it's a problem here........
-
-                    // N.B. the results list declared here is a generic List of Objects. We *must* only pass a List of
-                    // Map to queryResponse(), but conversely if the response items are sortable we need to sort them
-                    // before doing mapEncode(). Unfortunately we don't know if the items are sortable a priori so
-                    // we either add a Map or we add a QmfAgentData, then sort then mapEncode() each item. I'm not
-                    // sure of a more elegant way to do this without creating two lists, which might not be so bad
-                    // but we don't know the size of the list a priori either.
-                    List results = new ArrayList(_objectIndex.size());
+                    // Look up QmfAgentData objects by the SchemaClassId or predicate obtained from the query.
+                    // The ObjectIndex narrows the search to the objects of the matching classes (or those having
+                    // the requested value of an indexed property) and the query is then evaluated on each candidate,
+                    // which is sampled first so that the query sees its current statistics. This allows searches
+                    // with only the className specified as well as arbitrary predicates.
+
+                    // N.B. the matching QmfAgentData objects are added to the results List rather than their mapEncoded
+                    // form, queryResponse() then does the mapEncode() as it encodes each response message so the Maps
+                    // for all the results don't have to exist at the same time. This also means that if the results
+                    // are sortable they can simply be sorted before calling queryResponse().
+                    Collection<QmfAgentData> candidates = _objectIndex.getCandidates(query);
+                    List<QmfAgentData> results = new ArrayList<QmfAgentData>(candidates.size());
                     // It's unlikely that evaluating this query will return a mixture of sortable and notSortable 
-                    // QmfAgentData objects, but it's best to check if that has occurred as accidentally passing a
-                    // List of QmfAgentData instead of a List of Map to queryResponse() will break things.
+                    // QmfAgentData objects, but it's best to check if that has occurred as they can't be sorted.
                     boolean sortable = false;
                     boolean notSortable = false;
-                    for (QmfAgentData object : _objectIndex.values())
+                    for (QmfAgentData object : candidates)
                     {
-                        if (!object.isDeleted() && query.evaluate(object))
+                        if (sampleAndEvaluate(query, object))
                         {
+                            results.add(object);
                             if (object.isSortable())
-                            { // If QmfAgentData is marked sortable we add the QmfAgentData object to the List
-                              // so we can sort first before mapEncoding.
-                                results.add(object);
+                            {
                                 sortable = true;
                             }
                             else
-                            { // If QmfAgentData is not marked sortable we mapEncode immediately and add the Map to List.
-                                results.add(object.mapEncode());
+                            {
                                 notSortable = true;
                             }
                         }
                     }
 
                     // If both flags have been set something has gone a bit weird, so we log an error and clear the
-                    // results List to avoid sending unconvertable data. Hopefully this condition should never occur.
+                    // results List to avoid sending inconsistent data. Hopefully this condition should never occur.
                     if (sortable && notSortable)
                     {
                         _log.info("Query resulted in inconsistent mixture of sortable and non-sortable data.");
@@ -493,14 +519,8 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                     else if (sortable)
                     {
                         Collections.sort(results);
-                        int length = results.size();
-                        for (int i = 0; i < length; i++)
-                        {
-                            QmfAgentData object = (QmfAgentData)results.get(i);
-                            results.set(i, object.mapEncode());
-                        }
                     }
-                    queryResponse(handle, results, "_data"); // Send the response back to the Console.
+                    queryResponse(handle, results, "_data", false); // Send the response back to the Console.
                 }
             }
         }
@@ -588,14 +608,15 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     }
 
     /**
-     * This method evaluates a QmfQuery over the Agent's data on behalf of a Subscription.
+     * This method evaluates a QmfQuery over the Agent's data on behalf of a Subscription. Each object is sampled
+     * before the query is evaluated against it, so a query on statistics sees their current values.
      *
      * @param query the QmfQuery that the Subscription wants to be evaluated over the Agent's data.
      * @return a List of QmfAgentData objects that match the specified QmfQuery.
      */
     public final List<QmfAgentData> evaluateQuery(final QmfQuery query)
     {
-        List<QmfAgentData> results = new ArrayList<QmfAgentData>(_objectIndex.size());
+        List<QmfAgentData> results = new ArrayList<QmfAgentData>();
         if (query.getTarget() == QmfQueryTarget.OBJECT)
         { // Note that we don't include objects marked as deleted in the results here, because if an object gets
           // destroyed we asynchronously publish its new state to subscribers, see QmfAgentData.destroy() method.
@@ -606,15 +627,16 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                 QmfAgentData object = _objectIndex.get(objectId);
                 if (object != null && !object.isDeleted())
                 {
+                    object.sample();
                     results.add(object);
                 }
             }
             else
             {
-                // Look up QmfAgentData objects evaluating the query
-                for (QmfAgentData object : _objectIndex.values())
+                // Look up QmfAgentData objects evaluating the query over the candidates from the ObjectIndex
+                for (QmfAgentData object : _objectIndex.getCandidates(query))
                 {
-                    if (!object.isDeleted() && query.evaluate(object))
+                    if (sampleAndEvaluate(query, object))
                     {
                         results.add(object);
                     }
@@ -624,6 +646,54 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         return results;
     }
 
+    /**
+     * Sample all of the Agent's objects, unless they have been sampled within the last SAMPLE_PERIOD milliseconds.
+     * This is called by each Subscription whose membership the Agent maintains before it publishes, so however many
+     * Subscriptions there are the objects are only sampled once per SAMPLE_PERIOD.
+     * <p>
+     * Sampling an object whose statistics have changed calls update(), which takes the next update sequence and
+     * re-evaluates the queries of the Subscriptions against the object, so objects that start or stop matching are
+     * added or removed and changed members are marked as updated in each Subscription. A Subscription then only
+     * needs to publish the members that have been updated since its last interval.
+     */
+    final void sampleObjects()
+    {
+        synchronized (_sampleLock)
+        {
+            long now = System.currentTimeMillis();
+            if (now - _lastSampleTime < SAMPLE_PERIOD)
+            {
+                return;
+            }
+
+            for (QmfAgentData object : _objectIndex.values())
+            {
+                if (!object.isDeleted())
+                {
+                    object.sample();
+                }
+            }
+            _lastSampleTime = now;
+        }
+    }
+
+    /**
+     * Sample an object then evaluate a query against it, so that the query sees the object's current statistics.
+     *
+     * @param query the QmfQuery to evaluate.
+     * @param object the QmfAgentData to evaluate the query against.
+     * @return true if the object hasn't been deleted and matches the query.
+     */
+    private static boolean sampleAndEvaluate(final QmfQuery query, final QmfAgentData object)
+    {
+        if (object.isDeleted())
+        {
+            return false;
+        }
+        object.sample();
+        return query.evaluate(object);
+    }
+
     /**
      * This method is called by the Subscription to tell the SubscribableAgent that the Subscription has been cancelled.
      *
@@ -715,7 +785,13 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                             Subscription subscription = new Subscription(this, subscriptionParams);
                             String subscriptionId = subscription.getSubscriptionId();
                             _subscriptions.put(subscriptionId, subscription);
-                            _timer.schedule(subscription, 0, subscriptionParams.getPublishInterval());
+                            // Populate the Subscription with the objects that currently match its query, after this
+                            // its membership is maintained as objects are added, updated or destroyed.
+                            for (QmfAgentData object : evaluateQuery(subscription.getQuery()))
+                            {
+                                subscription.addObject(object);
+                            }
+                            subscription.schedule(_scheduler, 0, subscriptionParams.getPublishInterval());
                             subscriptionResponse(handle, subscription.getConsoleHandle(), subscriptionId, 
                                                  subscription.getDuration(), subscription.getInterval(), null);
                         }
@@ -953,6 +1029,46 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         _epoch = epoch;
     }
 
+    /**
+     * Returns the maximum number of results sent in each query response message.
+     * @return the maximum number of results sent in each query response message, zero means no limit.
+     */
+    public final int getQueryBatchSize()
+    {
+        return _queryBatchSize;
+    }
+
+    /**
+     * Set the maximum number of results sent in each query response message. Queries with more results than this
+     * are split over several response messages, all but the last being marked "partial".
+     * @param queryBatchSize the maximum number of results sent in each query response message, zero means no limit.
+     */
+    public final void setQueryBatchSize(final int queryBatchSize)
+    {
+        _queryBatchSize = queryBatchSize;
+    }
+
+    /**
+     * Returns the (approximate) maximum size in bytes of the encoded results sent in each query response message.
+     * @return the maximum size in bytes of the encoded results of each query response message, zero means no limit.
+     */
+    public final int getQueryBatchBytes()
+    {
+        return _queryBatchBytes;
+    }
+
+    /**
+     * Set the (approximate) maximum size in bytes of the encoded results sent in each query response message.
+     * A response message is sent as soon as its encoded results reach this size, so it may be exceeded by the size
+     * of the last result encoded. Queries whose results exceed this are split over several response messages.
+     * @param queryBatchBytes the maximum size in bytes of the encoded results of each query response message,
+     *        zero means no limit.
+     */
+    public final void setQueryBatchBytes(final int queryBatchBytes)
+    {
+        _queryBatchBytes = queryBatchBytes;
+    }
+
     /**
      * Releases Agent's resources.
      */
@@ -1070,8 +1186,8 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             _connection.start();
 
             // Schedule a Heartbeat every _heartbeatInterval seconds sending the first one immediately
-            _timer = new Timer(true);
-            _timer.schedule(new Heartbeat(), 0, _heartbeatInterval*1000);
+            _heartbeat = new Heartbeat();
+            _heartbeat.schedule(_scheduler, 0, _heartbeatInterval*1000);
         }
         catch (JMSException jmse)
         {
@@ -1093,9 +1209,18 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             throw new QmfException("Attempt to delete unknown connection");
         }
 
+        // Stop the Heartbeat and Subscription tasks, as the _scheduler may be shared we can't simply shut it down.
+        if (_heartbeat != null)
+        {
+            _heartbeat.cancel();
+        }
+        for (Subscription subscription : _subscriptions.values())
+        {
+            subscription.cancel();
+        }
+
         try
         {
-            _timer.cancel();
             _connection.close();
         }
         catch (JMSException jmse)
@@ -1105,6 +1230,29 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         _connection = null;
     }
 
+    /**
+     * Set the ScheduledExecutorService used to send Heartbeats and publish Subscription updates, replacing the
+     * scheduler shared by all Consoles and Agents in the JVM. This must be called before setConnection(). The Agent
+     * never shuts down the scheduler, that remains the responsibility of the application.
+     *
+     * @param scheduler the ScheduledExecutorService to be used by this Agent.
+     */
+    public final void setScheduler(final ScheduledExecutorService scheduler)
+    {
+        _scheduler = (scheduler == null) ? ScheduledTask.getDefaultScheduler() : scheduler;
+    }
+
+    /**
+     * Return the ScheduledExecutorService used by this Agent. An AgentExternal should schedule the Subscriptions
+     * that it creates on this scheduler.
+     *
+     * @return the ScheduledExecutorService used by this Agent.
+     */
+    public final ScheduledExecutorService getScheduler()
+    {
+        return _scheduler;
+    }
+
     /**
      * Register a schema for an object class with the Agent.
      * <p>
@@ -1231,27 +1379,47 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             }
         }
 
-        _objectIndex.put(addr, object);
+        _objectIndex.add(object);
+        object.setAgent(this);
 
-        // Does the new object match any Subscriptions? If so add a reference to the matching Subscription and publish.
+        // Does the new object match any Subscriptions? If so add it to the matching Subscriptions and publish.
+        boolean subscribed = false;
         for (Subscription subscription : _subscriptions.values())
         {
-            QmfQuery query = subscription.getQuery();
-            if (query.getObjectId() != null)
-            {
-                if (query.getObjectId().equals(addr))
-                {
-                    object.addSubscription(subscription.getSubscriptionId(), subscription);
-                    object.publish();
-                }
-            }
-            else if (query.evaluate(object))
+            subscribed |= subscription.updateObject(object);
+        }
+
+        if (subscribed)
+        {
+            object.publish();
+        }
+    } // end of addObject()
+
+    /**
+     * Called by QmfAgentData.update() when the state of one of this Agent's objects changes. This refreshes any
+     * indexed property values of the object and re-evaluates the query of each Subscription against it, so that the
+     * object joins or leaves Subscriptions as necessary and gets marked as updated in those that it remains in.
+     *
+     * @param object the QmfAgentData whose state has changed.
+     */
+    final void updateObject(final QmfAgentData object)
+    {
+        if (_objectIndex.get(object.getObjectId()) != object)
+        { // The object has been reaped or replaced by another object with the same ObjectId.
+            return;
+        }
+
+        _objectIndex.reindex(object);
+
+        // Deleted objects are published by QmfAgentData.destroy(), which then removes them from their Subscriptions.
+        if (!object.isDeleted())
+        {
+            for (Subscription subscription : _subscriptions.values())
             {
-                object.addSubscription(subscription.getSubscriptionId(), subscription);
-                object.publish();
+                subscription.updateObject(object);
             }
         }
-    } // end of addObject()
+    }
 
     /**
      * Returns the count of pending WorkItems that can be retrieved.
@@ -1316,6 +1484,33 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         return _workQueue.getNextWorkitem(timeout);
     }
 
+    /**
+     * Removes up to maxItems pending WorkItems and adds them to the supplied Collection, waiting for up to timeout
+     * seconds for a WorkItem to become available if there are none pending. This allows an application to process
+     * a burst of WorkItems, such as method calls, in batches rather than one at a time.
+     *
+     * @param items the Collection that the WorkItems are added to.
+     * @param maxItems the maximum number of WorkItems to remove.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately if there are no pending WorkItems.
+     * @return the number of WorkItems added to the Collection.
+     */
+    public final int drainWorkitems(final Collection<? super WorkItem> items, final int maxItems, final long timeout)
+    {
+        return _workQueue.drainTo(items, maxItems, timeout);
+    }
+
+    /**
+     * Set the capacity of the WorkQueue used when the Agent has a Notifier, and the policy applied when a WorkItem
+     * arrives while it is full. By default the WorkQueue is unbounded.
+     *
+     * @param capacity the maximum number of pending WorkItems, zero means unbounded.
+     * @param overflowPolicy the policy applied when a WorkItem arrives while the WorkQueue is full.
+     */
+    public final void setWorkQueueCapacity(final int capacity, final WorkQueue.OverflowPolicy overflowPolicy)
+    {
+        _workQueue.setCapacity(capacity, overflowPolicy);
+    }
+
     /**
      * Releases a WorkItem instance obtained by getNextWorkItem(). Called when the application has finished
      * processing the WorkItem.
@@ -1385,24 +1580,121 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
 
     /**
      * Send the query response back to the Console.
+     * <p>
+     * The results are encoded incrementally and split over several response messages if there are more than
+     * getQueryBatchSize() of them or their encoded size exceeds getQueryBatchBytes(), in which case all but the last
+     * response message are marked with the "partial" property.
+     * <p>
+     * If the Agent's transport passes Lists in memory, i.e. its Messages are TransportMessages, the results are
+     * passed as a List of Maps rather than being encoded and only getQueryBatchSize() applies.
+     *
      * @param handle the reply handle that contains the replyTo Address.
      * @param results the list of mapEncoded query results.
      * @param qmfContentType the value to be passed to the qmf.content Header.
      */
-    protected final void queryResponse(final Handle handle, List<Map> results, final String qmfContentType)
+    protected final void queryResponse(final Handle handle, final List<Map> results, final String qmfContentType)
+    {
+        sendQueryResults(handle, results.iterator(), qmfContentType);
+    }
+
+    /**
+     * Send the QmfAgentData results of a query back to the Console. Each object is mapEncoded as the response
+     * message containing it is built, so the Maps for all the results don't have to exist at the same time. The
+     * results are split over several response messages as described for queryResponse(Handle, List, String).
+     *
+     * @param handle the reply handle that contains the replyTo Address.
+     * @param results the list of QmfAgentData query results.
+     * @param qmfContentType the value to be passed to the qmf.content Header.
+     * @param sample false if the results have already been sampled whilst evaluating the query, otherwise each
+     *        object is sampled before it is mapEncoded.
+     */
+    protected final void queryResponse(final Handle handle, final List<QmfAgentData> results,
+                                       final String qmfContentType, final boolean sample)
+    {
+        final Iterator<QmfAgentData> objects = results.iterator();
+        sendQueryResults(handle, new Iterator<Map>()
+        {
+            public boolean hasNext()
+            {
+                return objects.hasNext();
+            }
+
+            public Map next()
+            {
+                QmfAgentData object = objects.next();
+                if (sample)
+                {
+                    object.sample(); // Refresh any statistics the object obtains from elsewhere.
+                }
+                return object.mapEncode();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        }, qmfContentType);
+    }
+
+    /**
+     * Send the results of a query, split over several response messages if necessary.
+     *
+     * @param handle the reply handle that contains the replyTo Address.
+     * @param results the mapEncoded results, each of which is only obtained as it is added to a response message.
+     * @param qmfContentType the value to be passed to the qmf.content Header.
+     */
+    private void sendQueryResults(final Handle handle, final Iterator<Map> results, final String qmfContentType)
     {
         try
         {
             Message response = AMQPMessage.createListMessage(_syncSession);
-            response.setJMSCorrelationID(handle.getCorrelationId());
-            response.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            response.setStringProperty("method", "response");
-            response.setStringProperty("qmf.opcode", "_query_response");
-            response.setStringProperty("qmf.agent", _name);
-            response.setStringProperty("qmf.content", qmfContentType);
-            response.setStringProperty("qpid.subject", handle.getRoutingKey());
-            AMQPMessage.setList(response, results);
-            sendResponse(handle, response);
+            if (response instanceof TransportMessage)
+            {
+                List<Map> batch = new ArrayList<Map>();
+                while (results.hasNext())
+                {
+                    batch.add(results.next());
+
+                    if (_queryBatchSize > 0 && batch.size() >= _queryBatchSize && results.hasNext())
+                    {
+                        AMQPMessage.setList(response, batch);
+                        sendQueryResponse(handle, response, qmfContentType, true);
+                        response = AMQPMessage.createListMessage(_syncSession);
+                        batch = new ArrayList<Map>();
+                    }
+                }
+                AMQPMessage.setList(response, batch);
+                sendQueryResponse(handle, response, qmfContentType, false);
+                return;
+            }
+
+            BBEncoder encoder = AMQPMessage.acquireEncoder();
+            try
+            {
+                int count = 0;
+                while (results.hasNext())
+                {
+                    AMQPMessage.writeListEntry(encoder, results.next());
+                    count++;
+
+                    boolean batchFull = (_queryBatchSize > 0 && count >= _queryBatchSize) ||
+                                        (_queryBatchBytes > 0 && encoder.position() >= _queryBatchBytes);
+                    if (batchFull && results.hasNext())
+                    {
+                        AMQPMessage.setList(response, encoder, count);
+                        sendQueryResponse(handle, response, qmfContentType, true);
+                        response = AMQPMessage.createListMessage(_syncSession);
+                        encoder.init();
+                        count = 0;
+                    }
+                }
+                AMQPMessage.setList(response, encoder, count);
+                sendQueryResponse(handle, response, qmfContentType, false);
+            }
+            finally
+            {
+                AMQPMessage.releaseEncoder(encoder);
+            }
         }
         catch (JMSException jmse)
         {
@@ -1410,6 +1702,30 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         }
     }
 
+    /**
+     * Send a single query response message whose List of results has already been set.
+     * @param handle the reply handle that contains the replyTo Address.
+     * @param response the amqp/list response message containing the results.
+     * @param qmfContentType the value to be passed to the qmf.content Header.
+     * @param partial true if further response messages will follow this one.
+     */
+    private void sendQueryResponse(final Handle handle, final Message response, final String qmfContentType,
+                                   final boolean partial) throws JMSException
+    {
+        response.setJMSCorrelationID(handle.getCorrelationId());
+        response.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        response.setStringProperty("method", "response");
+        response.setStringProperty("qmf.opcode", "_query_response");
+        response.setStringProperty("qmf.agent", _name);
+        response.setStringProperty("qmf.content", qmfContentType);
+        response.setStringProperty("qpid.subject", handle.getRoutingKey());
+        if (partial)
+        {
+            response.setBooleanProperty("partial", true);
+        }
+        sendResponse(handle, response);
+    }
+
     /**
      * If the subscription request is successful, the Agent application must provide a unique subscriptionId.
      * <p>
@@ -193,14 +193,8 @@ public final class AgentExternal extends Agent
         List<QmfAgentData> objects = _queryResults.get(index);
         if (objects != null)
         {
-            List<Map> results = new ArrayList<Map>(objects.size());
-            for (QmfAgentData object : objects)
-            {
-                results.add(object.mapEncode());
-            }
-
-            // Send the response back to the Console
-            queryResponse(handle, results, "_data");
+            // Send the response back to the Console, the objects get mapEncoded as each response message is built.
+            queryResponse(handle, objects, "_data", true);
             _queryResults.remove(index);
         }
     }
@@ -0,0 +1,533 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.agent;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.BooleanExpression;
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.SchemaClass;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+
+/**
+ * ObjectIndex is the Agent's store of the QmfAgentData objects that it manages.
+ * <p>
+ * As well as the primary index of objects keyed by ObjectId this class maintains a secondary index keyed by the
+ * SchemaClassId of the objects, so that queries scoped to a package and/or class name only need to visit the
+ * objects of the matching classes rather than every object known to the Agent.
+ * <p>
+ * In addition a SchemaObjectClass may declare, via setIndexedNames(), a set of property names whose values are
+ * indexed for objects of that class. A predicate query containing an "eq" comparison of an indexed property against
+ * a literal then only needs to visit the objects having the requested value. As "eq" compares a Number numerically
+ * with any numeric value, e.g. an int property of 5 equals the literals 5.0 and ['quote', '05'], values and literals
+ * are both indexed by BooleanExpression.getEqualityKey() so that the index agrees with evaluating the query.
+ * <p>
+ * The values of indexed properties are (re)captured when the object is added and each time QmfAgentData.update() is
+ * called, which is the documented way for an Agent to indicate that the state of an object has changed. Properties
+ * that change without update() being called will therefore not be seen correctly by the property index, which is why
+ * indexed properties should generally be identifying properties such as "name" that don't change over the lifetime of
+ * the object.
+ * <p>
+ * N.B. getCandidates() returns a <i>superset</i> of the objects matching a query; it's still necessary to evaluate
+ * the query against each candidate, but the number of objects needing evaluation is much reduced.
+ *
+ * @author Fraser Adams
+ */
+final class ObjectIndex
+{
+    /**
+     * The index of the values of a single property of the objects belonging to a given class.
+     */
+    private static final class PropertyIndex
+    {
+        private final String _name;
+
+        /**
+         * The objects having the property, keyed by the BooleanExpression.getEqualityKey() of the property's value.
+         */
+        private final Map<String, Map<ObjectId, QmfAgentData>> _values =
+            new ConcurrentHashMap<String, Map<ObjectId, QmfAgentData>>();
+
+        /**
+         * Objects that don't (yet) have the property. These must be treated as candidates for any lookup because
+         * BooleanExpression has some fallbacks (e.g. looking in the SchemaClassId) for properties not set on the object.
+         */
+        private final Map<ObjectId, QmfAgentData> _absent = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+
+        /**
+         * The value each object was indexed with, needed to remove the object from the old value when it changes.
+         */
+        private final Map<ObjectId, String> _indexedValues = new ConcurrentHashMap<ObjectId, String>();
+
+        PropertyIndex(final String name)
+        {
+            _name = name;
+        }
+
+        void add(final ObjectId objectId, final QmfAgentData object)
+        {
+            String value = getKey(object);
+            if (value != null)
+            {
+                Map<ObjectId, QmfAgentData> objects = _values.get(value);
+                if (objects == null)
+                {
+                    objects = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+                    _values.put(value, objects);
+                }
+                objects.put(objectId, object);
+                _indexedValues.put(objectId, value);
+            }
+            else
+            {
+                _absent.put(objectId, object);
+            }
+        }
+
+        void remove(final ObjectId objectId)
+        {
+            String value = _indexedValues.remove(objectId);
+            if (value == null)
+            {
+                _absent.remove(objectId);
+            }
+            else
+            {
+                Map<ObjectId, QmfAgentData> objects = _values.get(value);
+                if (objects != null)
+                {
+                    objects.remove(objectId);
+                    if (objects.isEmpty())
+                    {
+                        _values.remove(value);
+                    }
+                }
+            }
+        }
+
+        void reindex(final ObjectId objectId, final QmfAgentData object)
+        {
+            String oldValue = _indexedValues.get(objectId);
+            String newValue = getKey(object);
+            if (oldValue == null ? newValue != null : !oldValue.equals(newValue))
+            {
+                remove(objectId);
+                add(objectId, object);
+            }
+        }
+
+        /**
+         * Return the key that the object is indexed with.
+         * @param object the object.
+         * @return the key or null if the object doesn't have the property.
+         */
+        private String getKey(final QmfAgentData object)
+        {
+            return object.hasValue(_name) ? BooleanExpression.getEqualityKey(object.getValue(_name)) : null;
+        }
+
+        void addCandidates(final String value, final List<QmfAgentData> candidates)
+        {
+            Map<ObjectId, QmfAgentData> objects = _values.get(value);
+            if (objects != null)
+            {
+                candidates.addAll(objects.values());
+            }
+            candidates.addAll(_absent.values());
+        }
+    }
+
+    /**
+     * The objects belonging to a given SchemaClassId along with any property indexes declared by its schema.
+     */
+    private static final class ClassIndex
+    {
+        private final SchemaClassId _classId;
+        private final Map<ObjectId, QmfAgentData> _objects = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+        private final Map<String, PropertyIndex> _properties = new ConcurrentHashMap<String, PropertyIndex>();
+
+        ClassIndex(final SchemaClassId classId, final SchemaClass schema)
+        {
+            _classId = classId;
+            if (schema instanceof SchemaObjectClass)
+            {
+                for (String name : ((SchemaObjectClass)schema).getIndexedNames())
+                {
+                    _properties.put(name, new PropertyIndex(name));
+                }
+            }
+        }
+
+        /**
+         * Returns true if this class would be selected by an ID query for the specified package and class names.
+         * This mirrors the wildcarding rules used by QmfQuery.evaluate().
+         */
+        boolean matches(final String packageName, final String className)
+        {
+            String dataPackageName = _classId.getPackageName();
+            String dataClassName = _classId.getClassName();
+
+            // Wildcard the package name if it hasn't been specified when checking class name
+            if (className.equals(dataClassName) &&
+                (packageName.length() == 0 || packageName.equals(dataPackageName)))
+            {
+                return true;
+            }
+
+            // Wildcard the class name if it hasn't been specified when checking package name
+            return packageName.equals(dataPackageName) &&
+                   (className.length() == 0 || className.equals(dataClassName));
+        }
+
+        synchronized void add(final ObjectId objectId, final QmfAgentData object)
+        {
+            _objects.put(objectId, object);
+            for (PropertyIndex index : _properties.values())
+            {
+                index.add(objectId, object);
+            }
+        }
+
+        synchronized void remove(final ObjectId objectId)
+        {
+            _objects.remove(objectId);
+            for (PropertyIndex index : _properties.values())
+            {
+                index.remove(objectId);
+            }
+        }
+
+        synchronized void reindex(final ObjectId objectId, final QmfAgentData object)
+        {
+            if (_objects.get(objectId) == object)
+            {
+                for (PropertyIndex index : _properties.values())
+                {
+                    index.reindex(objectId, object);
+                }
+            }
+        }
+
+        void addCandidates(final String name, final String value, final List<QmfAgentData> candidates)
+        {
+            PropertyIndex index = (name == null) ? null : _properties.get(name);
+            if (index == null)
+            {
+                candidates.addAll(_objects.values());
+            }
+            else
+            {
+                index.addCandidates(value, candidates);
+            }
+        }
+    }
+
+    /**
+     * The primary index of QmfAgentData objects keyed by ObjectId.
+     * The capacity of 100 is pretty arbitrary but the default of 16 seems too low for most Agents.
+     */
+    private final Map<ObjectId, QmfAgentData> _objects = new ConcurrentHashMap<ObjectId, QmfAgentData>(100);
+
+    /**
+     * The secondary index of QmfAgentData objects keyed by the SchemaClassId of the objects.
+     */
+    private final Map<SchemaClassId, ClassIndex> _classes = new ConcurrentHashMap<SchemaClassId, ClassIndex>();
+
+    /**
+     * The Agent's registered schema, used to find the indexed properties of a class when its first object is added.
+     */
+    private final Map<SchemaClassId, SchemaClass> _schemaCache;
+
+    /**
+     * Construct an ObjectIndex.
+     * @param schemaCache the Agent's registered schema keyed by SchemaClassId.
+     */
+    ObjectIndex(final Map<SchemaClassId, SchemaClass> schemaCache)
+    {
+        _schemaCache = schemaCache;
+    }
+
+    /**
+     * Return the QmfAgentData with the specified ObjectId.
+     * @param objectId the ObjectId of the object to return.
+     * @return the QmfAgentData with the specified ObjectId or null if it's not in the index.
+     */
+    QmfAgentData get(final ObjectId objectId)
+    {
+        return _objects.get(objectId);
+    }
+
+    /**
+     * Return the number of objects in the index.
+     * @return the number of objects in the index.
+     */
+    int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Return the ObjectIds of all objects in the index.
+     * @return the ObjectIds of all objects in the index.
+     */
+    Set<ObjectId> keySet()
+    {
+        return _objects.keySet();
+    }
+
+    /**
+     * Return all objects in the index.
+     * @return all objects in the index.
+     */
+    Collection<QmfAgentData> values()
+    {
+        return _objects.values();
+    }
+
+    /**
+     * Add an object to the index, replacing any object previously indexed with the same ObjectId.
+     * <p>
+     * The schema of the object's class is only looked up when the first object of the class is added, the class
+     * doesn't need to have a registered schema, in which case none of its properties are indexed.
+     * @param object the QmfAgentData to add, its ObjectId must already have been set.
+     */
+    synchronized void add(final QmfAgentData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        QmfAgentData previous = _objects.put(objectId, object);
+        if (previous != null)
+        {
+            removeFromClassIndex(objectId, previous);
+        }
+
+        SchemaClassId classId = object.getSchemaClassId();
+        ClassIndex classIndex = _classes.get(classId);
+        if (classIndex == null)
+        {
+            classIndex = new ClassIndex(classId, _schemaCache.get(classId));
+            _classes.put(classId, classIndex);
+        }
+        classIndex.add(objectId, object);
+    }
+
+    /**
+     * Remove an object from the index.
+     * @param object the QmfAgentData to remove.
+     */
+    synchronized void remove(final QmfAgentData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        if (_objects.remove(objectId) != null)
+        {
+            removeFromClassIndex(objectId, object);
+        }
+    }
+
+    /**
+     * Remove any objects marked as deleted from the index.
+     */
+    synchronized void removeDeleted()
+    {
+        // Use the iterator approach rather than foreach as we want to call iterator.remove() to zap an entry
+        Iterator<QmfAgentData> i = _objects.values().iterator();
+        while (i.hasNext())
+        {
+            QmfAgentData object = i.next();
+            if (object.isDeleted())
+            {
+                i.remove();
+                removeFromClassIndex(object.getObjectId(), object);
+            }
+        }
+    }
+
+    /**
+     * Called via QmfAgentData.update() to refresh the indexed property values of the object.
+     * @param object the QmfAgentData whose state has changed.
+     */
+    void reindex(final QmfAgentData object)
+    {
+        ClassIndex classIndex = _classes.get(object.getSchemaClassId());
+        if (classIndex != null && !classIndex._properties.isEmpty())
+        {
+            classIndex.reindex(object.getObjectId(), object);
+        }
+    }
+
+    /**
+     * Remove the object from the ClassIndex it belongs to.
+     */
+    private void removeFromClassIndex(final ObjectId objectId, final QmfAgentData object)
+    {
+        ClassIndex classIndex = _classes.get(object.getSchemaClassId());
+        if (classIndex != null)
+        {
+            classIndex.remove(objectId);
+        }
+    }
+
+    /**
+     * Return the objects that might match the specified OBJECT QmfQuery.
+     * <p>
+     * For ID queries this returns the objects whose class matches the query's package/class name. For PREDICATE
+     * queries this looks for an "eq" comparison between a key and a literal, either as the whole predicate or as a
+     * term of a top level "and". If one is found and the key is _class_name or _package_name only the objects of the
+     * matching classes are returned, if the key is a property indexed by a class only objects of that class having
+     * the requested value are returned. Otherwise all objects are returned.
+     *
+     * @param query the query being evaluated.
+     * @return a superset of the objects matching the query, the caller must still evaluate the query on each object.
+     */
+    Collection<QmfAgentData> getCandidates(final QmfQuery query)
+    {
+        List predicate = query.getPredicate();
+        if (predicate == null)
+        {
+            SchemaClassId classId = query.getSchemaClassId();
+            if (classId == null)
+            {
+                return _objects.values();
+            }
+
+            List<QmfAgentData> candidates = new ArrayList<QmfAgentData>();
+            for (ClassIndex classIndex : _classes.values())
+            {
+                if (classIndex.matches(classId.getPackageName(), classId.getClassName()))
+                {
+                    classIndex.addCandidates(null, null, candidates);
+                }
+            }
+            return candidates;
+        }
+
+        String[] equality = findEquality(predicate);
+        if (equality == null)
+        {
+            return _objects.values();
+        }
+
+        String name = equality[0];
+        String value = equality[1];
+        List<QmfAgentData> candidates = new ArrayList<QmfAgentData>();
+        if (name.equals("_class_name") || name.equals("_package_name"))
+        {
+            for (ClassIndex classIndex : _classes.values())
+            {
+                String classValue = name.equals("_class_name") ? classIndex._classId.getClassName() :
+                                                                 classIndex._classId.getPackageName();
+                if (value.equals(BooleanExpression.getEqualityKey(classValue)))
+                {
+                    classIndex.addCandidates(null, null, candidates);
+                }
+            }
+        }
+        else
+        {
+            for (ClassIndex classIndex : _classes.values())
+            {
+                classIndex.addCandidates(name, value, candidates);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Look for an "eq" expression comparing a key with a literal in the predicate. The predicate is expected to have
+     * already been validated when the QmfQuery was created.
+     *
+     * @param predicate the predicate List.
+     * @return a two element array containing the key and the equality key of the literal or null if none was found.
+     */
+    private static String[] findEquality(final List predicate)
+    {
+        if (predicate.size() == 0)
+        {
+            return null;
+        }
+
+        Object op = predicate.get(0);
+        if ("eq".equals(op) && predicate.size() == 3)
+        {
+            Object lhs = predicate.get(1);
+            Object rhs = predicate.get(2);
+            if (lhs instanceof String)
+            {
+                String literal = getLiteral(rhs);
+                return literal == null ? null : new String[] {(String)lhs, literal};
+            }
+            else if (rhs instanceof String)
+            {
+                String literal = getLiteral(lhs);
+                return literal == null ? null : new String[] {(String)rhs, literal};
+            }
+        }
+        else if ("and".equals(op))
+        {
+            for (int i = 1; i < predicate.size(); i++)
+            {
+                Object term = predicate.get(i);
+                if (term instanceof List)
+                {
+                    String[] equality = findEquality((List)term);
+                    if (equality != null)
+                    {
+                        return equality;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the equality key of a literal operand, converting a quoted literal to a String as BooleanExpression does.
+     * @param operand the operand, which may be a quoted String or any non-String literal.
+     * @return the BooleanExpression.getEqualityKey() of the literal or null if the operand isn't a literal.
+     */
+    private static String getLiteral(final Object operand)
+    {
+        if (operand instanceof List)
+        {
+            List quote = (List)operand;
+            if (quote.size() == 2 && "quote".equals(quote.get(0)) && quote.get(1) != null)
+            {
+                return BooleanExpression.getEqualityKey(QmfData.getString(quote.get(1)));
+            }
+            return null;
+        }
+        else if (operand instanceof String || operand == null)
+        {
+            return null;
+        }
+        return BooleanExpression.getEqualityKey(operand);
+    }
+}
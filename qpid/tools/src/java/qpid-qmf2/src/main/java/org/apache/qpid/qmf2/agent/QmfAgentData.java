@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.ObjectId;
@@ -61,10 +62,15 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  * <p>
  * The original intention was to "auto update" by calling these from the setValue() method. Upon reflection this
  * seems a bad idea, as in many cases there may be several properties that an Agent may wish to change which would
- * lead to unnecessary calls to currentTimeMillis(), but also as theSubscription update is run via a TimerTask it is
+ * lead to unnecessary calls to currentTimeMillis(), but also as theSubscription update is run via a ScheduledTask it is
  * possible that an update indication could get sent part way through setting an object's overall state.
  * Similarly calling the publish() method directly from setValue() would force an update indication on partial changes
  * of state, which is generally not the desired behaviour.
+ * <p>
+ * Agents whose objects mirror state held elsewhere (for example the statistics of a broker Queue) can override
+ * sampleStatistics() and set each statistic via setStatistic(). The Agent calls sample() before it checks whether an
+ * object has changed or serialises it, and update() then only gets called if a statistic has actually changed value,
+ * so Subscriptions only republish the objects that have really changed.
  * @author Fraser Adams
  */
 public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
@@ -74,11 +80,29 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
     private long _deleteTimestamp;
     private String _compareKey = null;
 
+    /**
+     * The sequence used to order updates to all QmfAgentData, each call to update() takes the next value so that
+     * Subscriptions can tell exactly which objects have changed since their last indication, which can't be done
+     * reliably using timestamps because several updates may occur within the timestamp resolution.
+     */
+    private static final AtomicLong _sequence = new AtomicLong();
+    private volatile long _updateSequence;
+
+    /**
+     * Set by setStatistic() when a statistic changes value, sample() then calls update() and clears it.
+     */
+    private volatile boolean _statisticsChanged = false;
+
     /**
      * This Map is used to look up Subscriptions that are interested in this data by SubscriptionId
      */
     private Map<String, Subscription> _subscriptions = new ConcurrentHashMap<String, Subscription>();
 
+    /**
+     * The Agent managing this object, used to keep the Agent's indexes and Subscription membership current.
+     */
+    private volatile Agent _agent = null;
+
     /**
      * Construct a QmfAgentData object of the type described by the given SchemaObjectClass.
      *
@@ -90,6 +114,7 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         _updateTimestamp = currentTime;
         _createTimestamp = currentTime;
         _deleteTimestamp = 0;
+        _updateSequence = _sequence.incrementAndGet();
         setSchemaClassId(schema.getClassId());
     }
 
@@ -120,6 +145,26 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         return _deleteTimestamp;
     }
 
+    /**
+     * Return the update sequence number, which is taken from a sequence shared by all QmfAgentData each time that
+     * update() is called, so the object has changed since a given point if its update sequence is greater than the
+     * value that getCurrentSequence() returned at that point.
+     * @return the update sequence number.
+     */
+    public final long getUpdateSequence()
+    {
+        return _updateSequence;
+    }
+
+    /**
+     * Return the most recent update sequence number allocated to any QmfAgentData.
+     * @return the most recent update sequence number allocated to any QmfAgentData.
+     */
+    public static long getCurrentSequence()
+    {
+        return _sequence.get();
+    }
+
     /**
      * Return true if deletion timestamp not zero.
      * @return true if deletion timestamp not zero.
@@ -142,6 +187,10 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         _deleteTimestamp = System.currentTimeMillis()*1000000l;
         _updateTimestamp = System.currentTimeMillis()*1000000l;
         publish();
+        for (Subscription subscription : _subscriptions.values())
+        {
+            subscription.removeObject(this);
+        }
         _subscriptions.clear();
     }
 
@@ -197,6 +246,50 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         setValue(name, value);
     }
 
+    /**
+     * Set the value of a statistic, recording that the object has changed only if the new value differs from the
+     * current value. This is intended to be called from sampleStatistics(). Values that change every time they are
+     * sampled, such as an uptime derived from the clock, should be set via setValue() instead, otherwise the object
+     * would always be seen as changed.
+     *
+     * @param name the name of the statistic being set.
+     * @param value the current value of the statistic.
+     */
+    protected final void setStatistic(final String name, final Object value)
+    {
+        Object current = getValue(name);
+        if (value == null ? current != null : !value.equals(current))
+        {
+            setValue(name, value);
+            _statisticsChanged = true;
+        }
+    }
+
+    /**
+     * Called by sample() to refresh any statistics that this object obtains from elsewhere. The default does nothing,
+     * subclasses that mirror state held elsewhere should override this and set each statistic using setStatistic().
+     */
+    protected void sampleStatistics()
+    {
+    }
+
+    /**
+     * Sample the object's statistics by calling sampleStatistics() then call update() if any of them have changed.
+     * The Agent calls this before checking whether an object has changed or serialising it.
+     * @return true if any statistic changed value.
+     */
+    public final synchronized boolean sample()
+    {
+        sampleStatistics();
+        if (_statisticsChanged)
+        {
+            _statisticsChanged = false;
+            update();
+            return true;
+        }
+        return false;
+    }
+
     // The following methods aren't in the QMF2 API per se, but they are used to manage the association between
     // a managed object and any subscriptions that might be interested in it.
 
@@ -228,6 +321,14 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         _subscriptions.remove(subscriptionId);
     }
 
+    /**
+     * Set the Agent that this object has been added to, called by Agent.addObject().
+     * @param agent the Agent that this object has been added to.
+     */
+    final void setAgent(final Agent agent)
+    {
+        _agent = agent;
+    }
 
     /**
      * Set the _updateTimestamp to indicate (particularly to subscriptions) that the managed object has changed.
@@ -237,14 +338,25 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
      * <p>
      * The original intention was to "auto update" by calling these from the setValue() method. Upon reflection this
      * seems a bad idea, as in many cases there may be several properties that an Agent may wish to change which would
-     * lead to unnecessary calls to currentTimeMillis(), but also as the Subscription update is run via a TimerTask it
+     * lead to unnecessary calls to currentTimeMillis(), but also as the Subscription update is run via a ScheduledTask it
      * is possible that an update indication could get sent part way through setting an object's overall state.
      * Similarly calling the publish() method directly from setValue() would force an update indication on partial
      * changes of state, which is generally not the desired behaviour.
+     * <p>
+     * If the Agent maintains indexes on any properties of this object's class (see SchemaObjectClass.setIndexedNames())
+     * these are refreshed here, so indexed properties should be changed before update() or publish() is called.
+     * Similarly the Agent re-evaluates the query of each of its Subscriptions against the object here, so the object
+     * joins or leaves Subscriptions as its state changes and gets published by the next Subscription interval.
      */
     public final void update()
     {
         _updateTimestamp = System.currentTimeMillis()*1000000l;
+        _updateSequence = _sequence.incrementAndGet();
+        Agent agent = _agent;
+        if (agent != null)
+        {
+            agent.updateObject(this);
+        }
     }
 
     /**
@@ -255,24 +367,30 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
      * <p>
      * The original intention was to "auto update" by calling these from the setValue() method. Upon reflection this
      * seems a bad idea, as in many cases there may be several properties that an Agent may wish to change which would
-     * lead to unnecessary calls to currentTimeMillis(), but also as the Subscription update is run via a TimerTask it
+     * lead to unnecessary calls to currentTimeMillis(), but also as the Subscription update is run via a ScheduledTask it
      * is possible that an update indication could get sent part way through setting an object's overall state.
      * Similarly calling the publish() method directly from setValue() would force an update indication on partial
      * changes of state, which is generally not the desired behaviour.
      */
     public final void publish()
     {
+        sample();
         update();
         if (getObjectId() == null)
         { // If ObjectId is null the Object isn't yet Managed to we can't publish
             return;
         }
 
+        // The new state is sent immediately so there's no need for the Subscriptions to send it on their next interval.
+        for (Subscription subscription : _subscriptions.values())
+        {
+            subscription.clearUpdated(this);
+        }
+
         List<Map> results = new ArrayList<Map>();
         results.add(mapEncode());
-        for (Map.Entry<String, Subscription> entry : _subscriptions.entrySet())
+        for (Subscription subscription : _subscriptions.values())
         {
-            Subscription subscription = entry.getValue();
             subscription.publish(results);
         }
     }
@@ -305,6 +423,31 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         return map;
     }
 
+    /**
+     * Return the named metadata item, this adds the "_update_ts", "_create_ts" and "_delete_ts" timestamps to the
+     * metadata of QmfManaged.
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    @Override
+    protected Object getMetadataValue(final String name)
+    {
+        if (name.equals("_update_ts"))
+        {
+            return _updateTimestamp;
+        }
+        else if (name.equals("_create_ts"))
+        {
+            return _createTimestamp;
+        }
+        else if (name.equals("_delete_ts"))
+        {
+            return _deleteTimestamp;
+        }
+        return super.getMetadataValue(name);
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
@@ -53,7 +53,9 @@ public interface SubscribableAgent
     public void sendSubscriptionIndicate(Handle handle, List<Map> results);
 
     /**
-     * This method evaluates a QmfQuery over the Agent's data on behalf of a Subscription
+     * This method evaluates a QmfQuery over the Agent's data on behalf of a Subscription. Each QmfAgentData should be
+     * sampled, by calling its sample() method, before the query is evaluated against it so that the query sees its
+     * current statistics.
      *
      * @param query the QmfQuery that the Subscription wants to be evaluated over the Agent's data
      * @return a List of QmfAgentData objects that match the specified QmfQuery
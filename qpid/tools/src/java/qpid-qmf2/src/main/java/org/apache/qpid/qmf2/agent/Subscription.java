@@ -27,28 +27,34 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.Handle;
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.QmfQuery;
 import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.ScheduledTask;
 
 /** 
- * This TimerTask represents a running Subscription on the Agent.
+ * This ScheduledTask represents a running Subscription on the Agent.
  * <p>
- * The main reason we have Subscriptions as TimerTasks is to enable proper cleanup of the references stored in
- * the _subscriptions Map when the Subscription expires. The timer also causes QmfAgenData that have been updated
+ * The main reason we have Subscriptions as ScheduledTasks is to enable proper cleanup of the references stored in
+ * the _subscriptions Map when the Subscription expires. Running it also causes QmfAgenData that have been updated
  * since the last interval to be published.
  * <p>
+ * When the Subscription belongs to an Agent the Agent maintains the set of objects matching the Subscription's query
+ * incrementally as objects are added, updated or destroyed, recording the objects that have been updated, so each
+ * interval only needs to publish those objects. For other SubscribableAgents the query is evaluated each interval.
+ * <p>
  * The following diagram illustrates the Subscription relationships with the Agent and QmfAgentData.
  * <p>
  * <img alt="" src="doc-files/Subscriptions.png">
  * @author Fraser Adams
  */
-public final class Subscription extends TimerTask
+public final class Subscription extends ScheduledTask
 {
     private static final Logger _log = LoggerFactory.getLogger(Subscription.class);
 
@@ -63,13 +69,29 @@ public final class Subscription extends TimerTask
 
     private SubscribableAgent _agent;
     private long _startTime = System.currentTimeMillis();
-    private long _lastUpdate = _startTime*1000000l;
+    private long _lastSequence = QmfAgentData.getCurrentSequence();
     private String _subscriptionId;
     private Handle _consoleHandle;
     private QmfQuery _query;
     private long _duration = 0;
     private long _interval = 0;
 
+    /**
+     * True if the Agent maintains the membership of this Subscription, in which case the query doesn't need to be
+     * evaluated on every interval.
+     */
+    private final boolean _maintained;
+
+    /**
+     * The objects that currently match the query of this Subscription, keyed by ObjectId.
+     */
+    private final Map<ObjectId, QmfAgentData> _objects = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+
+    /**
+     * The objects that have been added or updated since the last interval, keyed by ObjectId.
+     */
+    private final Map<ObjectId, QmfAgentData> _updated = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+
     /**
      * Tells the SubscribableAgent to send the results to the Console via a subscription indicate message.
      *
@@ -79,7 +101,6 @@ public final class Subscription extends TimerTask
     protected void publish(List<Map> results)
     {
         _agent.sendSubscriptionIndicate(_consoleHandle, results);
-        _lastUpdate = System.currentTimeMillis()*1000000l;
     }
 
     /**
@@ -88,8 +109,30 @@ public final class Subscription extends TimerTask
      * @param params the SubscriptionParams object that contains the information needed to create a Subscription.
      */
     public Subscription(SubscribableAgent agent, SubscriptionParams params) throws QmfException
+    {
+        this(agent, params, false);
+    }
+
+    /**
+     * Construct a new Subscription whose membership is maintained by the Agent, see Agent.updateObject().
+     * @param agent the Agent to which this Subscription is associated.
+     * @param params the SubscriptionParams object that contains the information needed to create a Subscription.
+     */
+    Subscription(Agent agent, SubscriptionParams params) throws QmfException
+    {
+        this(agent, params, true);
+    }
+
+    /**
+     * Construct a new Subscription.
+     * @param agent the SubscribableAgent to which this Subscription is associated.
+     * @param params the SubscriptionParams object that contains the information needed to create a Subscription.
+     * @param maintained true if the Agent maintains the membership of this Subscription.
+     */
+    private Subscription(SubscribableAgent agent, SubscriptionParams params, boolean maintained) throws QmfException
     {
         _agent = agent;
+        _maintained = maintained;
         _subscriptionId = UUID.randomUUID().toString();
         _consoleHandle = params.getConsoleHandle();
         _query = params.getQuery();
@@ -100,12 +143,21 @@ public final class Subscription extends TimerTask
     }
 
     /**
-     * This method gets called periodically by the Timer scheduling this TimerTask.
+     * This method gets called periodically by the scheduler running this ScheduledTask.
      * <p>
      * First a check is made to see if the Subscription has expired, if it has then it is cancelled.
      * <p>
-     * If the Subscription isn't cancelled the Query gets evaluated against all registered objects and any that match
-     * which are new to the Subscription or have changed since the last update get published.
+     * If the Subscription isn't cancelled any matching objects which are new to the Subscription or have changed
+     * since the last update get published.
+     * <p>
+     * The objects are sampled before the query is evaluated against them, so that objects mirroring state held
+     * elsewhere refresh their statistics first and a query on those statistics sees their current values. Sampling
+     * only marks an object as updated if a statistic has actually changed. Where the Agent maintains the membership
+     * of the Subscription it samples all of its objects in a single pass shared by all of its Subscriptions, which
+     * re-evaluates the query against any object that has changed, and only the members marked as updated since the
+     * last interval are then published. Otherwise the query gets evaluated (sampling each object) by the
+     * SubscribableAgent and the update sequence is used to find the objects that have changed since the last time
+     * this method ran.
      */
     public void run()
     {
@@ -116,13 +168,38 @@ public final class Subscription extends TimerTask
             // The Subscription has expired so cancel it
             cancel();
         }
+        else if (_maintained)
+        { // Only the Agent maintains the membership of a Subscription.
+            ((Agent)_agent).sampleObjects();
+
+            List<Map> results = new ArrayList<Map>(_updated.size());
+            for (ObjectId objectId : _updated.keySet())
+            {
+                // Removing each entry as it is published means that an object updated after this point gets
+                // marked as updated again and will be published by the next run.
+                QmfAgentData object = _updated.remove(objectId);
+                if (object != null)
+                {
+                    results.add(object.mapEncode());
+                }
+            }
+
+            if (results.size() > 0)
+            {
+                publish(results);
+            }
+        }
         else
         {
             List<QmfAgentData> objects = _agent.evaluateQuery(_query);
+
+            // Any update after this point will have a greater sequence so will be caught by the next run.
+            long sequence = QmfAgentData.getCurrentSequence();
+
             List<Map> results = new ArrayList<Map>(objects.size());
             for (QmfAgentData object : objects)
             {
-                if (object.getSubscription(_subscriptionId) == null)
+                if (_objects.put(object.getObjectId(), object) == null)
                 {
                     // The object is new to this Subscription so publish it
                     object.addSubscription(_subscriptionId, this);
@@ -134,13 +211,15 @@ public final class Subscription extends TimerTask
                     // Note that in many cases an Agent might call publish() on a managed object rather than
                     // update() which immediately forces a data indication to be sent to the subscriber on
                     // the Console.
-                    if (object.getUpdateTime() > _lastUpdate)
+                    if (object.getUpdateSequence() > _lastSequence)
                     {
                         results.add(object.mapEncode());
                     }
                 }
             }
 
+            _lastSequence = sequence;
+
             if (results.size() > 0)
             {
                 publish(results);
@@ -148,6 +227,66 @@ public final class Subscription extends TimerTask
         }
     }
 
+    /**
+     * Add an object that matches the query to this Subscription and mark it as updated so that it gets published
+     * on the next interval.
+     * @param object the QmfAgentData to add.
+     */
+    void addObject(final QmfAgentData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        if (_objects.put(objectId, object) == null)
+        {
+            object.addSubscription(_subscriptionId, this);
+        }
+        _updated.put(objectId, object);
+    }
+
+    /**
+     * Called by the Agent when an object has been added or updated. The query is evaluated against the object,
+     * if it matches the object is added to this Subscription (if necessary) and marked as updated, if it doesn't
+     * match the object is removed from this Subscription (if necessary).
+     * @param object the QmfAgentData that has been added or updated.
+     * @return true if the object matches the query of this Subscription.
+     */
+    boolean updateObject(final QmfAgentData object)
+    {
+        boolean matches = (_query.getTarget() == QmfQueryTarget.OBJECT) &&
+                          ((_query.getObjectId() == null) ? _query.evaluate(object) :
+                                                            _query.getObjectId().equals(object.getObjectId()));
+        if (matches)
+        {
+            addObject(object);
+        }
+        else if (_objects.containsKey(object.getObjectId()))
+        {
+            removeObject(object);
+        }
+        return matches;
+    }
+
+    /**
+     * Remove an object from this Subscription.
+     * @param object the QmfAgentData to remove.
+     */
+    void removeObject(final QmfAgentData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        _objects.remove(objectId);
+        _updated.remove(objectId);
+        object.removeSubscription(_subscriptionId);
+    }
+
+    /**
+     * Called by QmfAgentData.publish() to clear the updated mark of an object whose state is about to be sent
+     * immediately, so that it doesn't get sent again on the next interval.
+     * @param object the QmfAgentData about to be published.
+     */
+    void clearUpdated(final QmfAgentData object)
+    {
+        _updated.remove(object.getObjectId());
+    }
+
     /**
      * Refresh the subscription by zeroing its elapsed time.
      *
@@ -162,21 +301,22 @@ public final class Subscription extends TimerTask
     }
 
     /**
-     * Cancel the Subscription, tidying references up and cancelling the TimerTask.
+     * Cancel the Subscription, tidying references up and cancelling the ScheduledTask.
      */
     @Override
     public boolean cancel()
     {
         _log.debug("Cancelling Subscription {}", _subscriptionId);
         // This Subscription is about to be deleted, remove it from any Objects that may be referencing it.
-        List<QmfAgentData> objects = _agent.evaluateQuery(_query);
-        for (QmfAgentData object : objects)
+        for (QmfAgentData object : _objects.values())
         {
             object.removeSubscription(_subscriptionId);
         }
+        _objects.clear();
+        _updated.clear();
 
         _agent.removeSubscription(this);
-        return super.cancel(); // Cancel the TimerTask
+        return super.cancel(); // Cancel the ScheduledTask
     }
 
     /**
@@ -54,11 +54,53 @@ import org.apache.qpid.qmf2.common.QmfData;
  * Whilst amqp/map messages are encoded as JMS MapMessage this isn't necessarily the most useful format as
  * MapMessage does not conform to the java.util.Map interface. As QMF methods returning lists return lists
  * of java.util.Map there's a bit of an inconsistency of type that getMap() resolves.
+ *<p>
+ * Messages from transports other than the Qpid JMS client implement TransportMessage, which exposes the
+ * Content-Type and lets amqp/list Messages carry their List without it being encoded.
  * 
  * @author Fraser Adams
  */
 public final class AMQPMessage
 {
+    /**
+     * The type code that precedes each java.util.Map entry in an encoded amqp/list.
+     */
+    private static final short MAP_TYPE_CODE = 0xa8;
+
+    /**
+     * The initial capacity of a thread's encoder buffer.
+     */
+    private static final int INITIAL_ENCODER_CAPACITY = 1024;
+
+    /**
+     * The largest encoder buffer that is retained between Messages. Encoding a larger Message leaves the next
+     * encoder sized at this rather than keeping an unusually large buffer for the lifetime of the thread.
+     */
+    private static final int MAX_RETAINED_ENCODER_CAPACITY = 1024*1024;
+
+    /**
+     * Each thread reuses its own BBEncoder between Messages. Once its buffer has grown to fit the Messages that the
+     * thread encodes it no longer needs to grow, so encoding a Message doesn't allocate or copy its intermediate
+     * buffer each time.
+     */
+    private static final ThreadLocal<EncoderCache> _encoderCache = new ThreadLocal<EncoderCache>()
+    {
+        @Override
+        protected EncoderCache initialValue()
+        {
+            return new EncoderCache();
+        }
+    };
+
+    /**
+     * Holds a thread's reusable BBEncoder along with the capacity to create the next one with if it gets discarded.
+     */
+    private static final class EncoderCache
+    {
+        private BBEncoder _encoder = null;
+        private int _capacity = INITIAL_ENCODER_CAPACITY;
+    }
+
     /**
      * Make constructor private at this class provides a set of static helper methods and doesn't need instantiated.
      */
@@ -66,16 +108,70 @@ public final class AMQPMessage
     {
     }
 
+    /**
+     * Obtain an initialised BBEncoder for the current thread, reusing the thread's encoder buffer where possible.
+     * The BBEncoder should be passed to releaseEncoder() once the encoded data has been written to a Message.
+     * <p>
+     * If the thread's encoder is already in use, e.g. if an encoder is acquired while writing the entries of another
+     * amqp/list, a new BBEncoder is returned so that the two don't interfere with each other.
+     *
+     * @return an initialised BBEncoder.
+     */
+    public static BBEncoder acquireEncoder()
+    {
+        EncoderCache cache = _encoderCache.get();
+        BBEncoder encoder = cache._encoder;
+        if (encoder == null)
+        {
+            encoder = new BBEncoder(cache._capacity);
+        }
+        else
+        {
+            cache._encoder = null; // Mark the encoder as in use.
+            encoder.init();
+        }
+        return encoder;
+    }
+
+    /**
+     * Return a BBEncoder obtained from acquireEncoder() so that it can be reused by the current thread. If the
+     * encoder's buffer has grown beyond MAX_RETAINED_ENCODER_CAPACITY it is discarded and the next encoder is created
+     * with that capacity.
+     *
+     * @param encoder the BBEncoder obtained from acquireEncoder().
+     */
+    public static void releaseEncoder(final BBEncoder encoder)
+    {
+        EncoderCache cache = _encoderCache.get();
+        int capacity = encoder.underlyingBuffer().capacity();
+        if (capacity > MAX_RETAINED_ENCODER_CAPACITY)
+        {
+            cache._encoder = null;
+            cache._capacity = MAX_RETAINED_ENCODER_CAPACITY;
+        }
+        else
+        {
+            cache._encoder = encoder;
+            cache._capacity = capacity;
+        }
+    }
+
     /**
      * This method exposes the AMQP Content-Type from a JMS Message. This has been put into an accessor
      * method because some evil hackery has to take place to set the Content-Type as no pure JMS API
      * property currently gets mapped to Content-Type, so we have to cast to AbstractJMSMessage.
+     * <p>
+     * Messages from transports other than the Qpid JMS client expose their Content-Type via TransportMessage.
      *
      * @param message a JMS Message.
      * @return the AMQP Content-Type e.g. amqp/list, amqp/map etc.
      */
     public static String getContentType(final Message message)
     {
+        if (message instanceof TransportMessage)
+        {
+            return ((TransportMessage)message).getContentType();
+        }
         return ((org.apache.qpid.client.message.AbstractJMSMessage)message).getContentType();
     }
 
@@ -83,13 +179,22 @@ public final class AMQPMessage
      * This method sets the AMQP Content-Type on a JMS Message. This has been put into a mutator
      * method because some evil hackery has to take place to set the Content-Type as no pure JMS API
      * property currently gets mapped to Content-Type, so we have to cast to AbstractJMSMessage.
+     * <p>
+     * Messages from transports other than the Qpid JMS client expose their Content-Type via TransportMessage.
      *
      * @param message a JMS Message.
      * @param contentType the AMQP Content-Type that we'd like to set, e.g. amqp/list, amqp/map etc.
      */
     public static void setContentType(final Message message, String contentType)
     {
-        ((org.apache.qpid.client.message.AbstractJMSMessage)message).setContentType(contentType);
+        if (message instanceof TransportMessage)
+        {
+            ((TransportMessage)message).setContentType(contentType);
+        }
+        else
+        {
+            ((org.apache.qpid.client.message.AbstractJMSMessage)message).setContentType(contentType);
+        }
     }
 
     /**
@@ -177,6 +282,16 @@ public final class AMQPMessage
                 object.put(prop, QmfData.getString(msg.getObjectProperty(prop)));
             }
 
+            if (msg instanceof TransportMessage)
+            {
+                String userId = ((TransportMessage)msg).getUserId();
+                if (userId != null)
+                {
+                    object.put("_user_id", userId);
+                }
+                return object;
+            }
+
             // Should be msg.getStringProperty("JMSXUserID"). See comments above for the reason behind this evil hack.
             org.apache.qpid.client.message.AMQMessageDelegate_0_10 delegate = (org.apache.qpid.client.message.AMQMessageDelegate_0_10)(((org.apache.qpid.client.message.AbstractJMSMessage)msg).getDelegate());
             byte[] rawUserId = delegate.getMessageProperties().getUserId();
@@ -194,13 +309,42 @@ public final class AMQPMessage
         }
     }
 
+    /**
+     * Return the body of a BytesMessage as a ByteBuffer. Where the Message is a Qpid JMS Message this is a view of
+     * the Message body rather than a copy of it, otherwise the body is read into a new buffer.
+     *
+     * @param message the BytesMessage to return the body of.
+     * @return a ByteBuffer containing the body of the Message.
+     */
+    private static ByteBuffer getBody(final BytesMessage message) throws JMSException
+    {
+        if (message instanceof org.apache.qpid.client.message.AbstractJMSMessage)
+        {
+            return ((org.apache.qpid.client.message.AbstractJMSMessage)message).getData();
+        }
+        else
+        {
+            //only handles responses up to 2^31-1 bytes long
+            byte[] bytes = new byte[(int) message.getBodyLength()];
+            message.reset(); // Read from the start of the body even if it has been read before.
+            message.readBytes(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+
     /**
      * JMS QMF returns amqp/list types as a BytesMessage this method decodes that into a java.util.List
      * <p>
      * Taken from Gordon Sim's initial JMS QMF Example using the BBDecoder
      * <p>
+     * Where the Message is a Qpid JMS Message the BBDecoder reads directly from the Message body rather than from
+     * a copy of it, which also means that reading the List doesn't consume the body.
+     * <p>
      * Trivia: This block of code from Gordon Sim is the seed that spawned the whole of this Java QMF2 API
      * implementation - cheers Gordon.
+     * <p>
+     * Where the Message is a TransportMessage carrying a List, such as a Message from the loopback transport, that
+     * List is returned without any decoding.
      *
      * @param message amqp/list encoded JMS Message
      * @return a java.util.List decoded from Message
@@ -212,15 +356,14 @@ public final class AMQPMessage
         {
             throw new MessageFormatException("Attempting to do AMQPMessage.getList() on null Message");
         }
+        else if (message instanceof TransportMessage && ((TransportMessage)message).getList() != null)
+        {
+            return (List<T>)((TransportMessage)message).getList();
+        }
         else if (message instanceof BytesMessage)
         {
-            BytesMessage msg = (BytesMessage)message;
-
-            //only handles responses up to 2^31-1 bytes long
-            byte[] data = new byte[(int) msg.getBodyLength()];
-            msg.readBytes(data);
             BBDecoder decoder = new BBDecoder();
-            decoder.init(ByteBuffer.wrap(data));
+            decoder.init(getBody((BytesMessage)message));
             return (List<T>)decoder.readList();
         }
         else if (message instanceof MapMessage)
@@ -248,6 +391,31 @@ public final class AMQPMessage
         }
     }
 
+    /**
+     * Decodes an amqp/list Message in the same way as getList() except that the Maps in the returned List, and any
+     * Maps that they contain, only decode their values when they are first read.
+     * <p>
+     * This is intended for query responses and subscription indications, where an application typically only reads
+     * a few properties of each of a potentially large number of objects. The Maps keep a reference to the body of the
+     * Message until they are modified, at which point they are fully decoded.
+     *
+     * @param message amqp/list encoded JMS Message
+     * @return a java.util.List decoded from Message
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> getLazyList(final Message message) throws JMSException
+    {
+        if (message instanceof BytesMessage &&
+            !(message instanceof TransportMessage && ((TransportMessage)message).getList() != null))
+        {
+            return (List<T>)EncodedMap.decodeList(getBody((BytesMessage)message));
+        }
+        else
+        { // The 0.20 MapMessage encoding and TransportMessage Lists are already decoded, so just use getList().
+            return getList(message);
+        }
+    }
+
     /**
      * Creates an amqp/list encoded Message out of a BytesMessage.
      * <p>
@@ -271,7 +439,11 @@ public final class AMQPMessage
      * This is somewhat of a dirty hack that needs to be monitored as qpid versions change.
      * <p>
      * This method uses the org.apache.qpid.transport.codec.BBEncoder writeList() method to encode
-     * a List into a ByteBuffer then writes the bytes from the buffer into a JMS BytesMessage.
+     * a List into a ByteBuffer then writes the bytes from the buffer into a JMS BytesMessage. The thread's reusable
+     * BBEncoder is used and the bytes are written directly from its buffer.
+     * <p>
+     * Where the Message is a TransportMessage, such as a Message from the loopback transport, the List is passed to
+     * the Message as it is rather than being encoded.
      *
      * @param message amqp/list encoded JMS BytesMessage
      * @param list to encode into JMS Message
@@ -279,31 +451,111 @@ public final class AMQPMessage
     @SuppressWarnings("unchecked")
     public static void setList(final Message message, final List list) throws JMSException
     {
+        if (message == null)
+        {
+            throw new MessageFormatException("Attempting to do AMQPMessage.setList() on null Message");
+        }
+
         String type = getContentType(message);
         if (!type.equals("amqp/list"))
         {
             throw new MessageFormatException("Can only do setList() on amqp/list encoded Message");
         }
 
-        if (message == null)
+        if (message instanceof TransportMessage)
         {
-            throw new MessageFormatException("Attempting to do AMQPMessage.setList() on null Message");
+            ((TransportMessage)message).setList(list);
         }
         else if (message instanceof BytesMessage)
         {
-            BBEncoder encoder = new BBEncoder(1024);
-            encoder.writeList(list);
-            ByteBuffer buf = encoder.segment();
-            byte[] data = new byte[buf.limit()];
-            buf.get(data);
-            ((BytesMessage)message).writeBytes(data);
+            BBEncoder encoder = acquireEncoder();
+            try
+            {
+                encoder.writeList(list);
+                writeBytes((BytesMessage)message, encoder.segment());
+            }
+            finally
+            {
+                releaseEncoder(encoder);
+            }
         }
         else
         {
             throw new MessageFormatException("Attempting to do setList() on " + message.getClass().getCanonicalName());
         }
     }
-}
 
+    /**
+     * Encodes a java.util.Map as the next entry of an amqp/list using the supplied BBEncoder.
+     * <p>
+     * This is used along with setList(Message, BBEncoder, int) to build amqp/list encoded Messages incrementally,
+     * which allows a large List to be split over several Messages without first having to create all of its
+     * entries. The BBEncoder should be initialised via its init() method before the first entry is written.
+     *
+     * @param encoder the BBEncoder that the entries of the amqp/list are being written to.
+     * @param map the java.util.Map to encode.
+     */
+    @SuppressWarnings("unchecked")
+    public static void writeListEntry(final BBEncoder encoder, final Map map)
+    {
+        encoder.writeUint8(MAP_TYPE_CODE);
+        encoder.writeMap(map);
+    }
+
+    /**
+     * Encodes the entries previously written to a BBEncoder using writeListEntry() as an amqp/list on a
+     * BytesMessage. The amqp/list header, comprising the size of the encoded list and its entry count, is written
+     * followed by the bytes from the encoder.
+     *
+     * @param message amqp/list encoded JMS BytesMessage
+     * @param encoder the BBEncoder that the entries have been written to.
+     * @param count the number of entries that have been written to the encoder.
+     */
+    public static void setList(final Message message, final BBEncoder encoder, final int count) throws JMSException
+    {
+        if (message == null)
+        {
+            throw new MessageFormatException("Attempting to do AMQPMessage.setList() on null Message");
+        }
 
+        String type = getContentType(message);
+        if (!type.equals("amqp/list"))
+        {
+            throw new MessageFormatException("Can only do setList() on amqp/list encoded Message");
+        }
 
+        if (message instanceof BytesMessage)
+        {
+            ByteBuffer buf = encoder.segment();
+            BytesMessage msg = (BytesMessage)message;
+            // The size of an amqp/list includes the four byte entry count, both are written in network byte order.
+            msg.writeInt(buf.remaining() + 4);
+            msg.writeInt(count);
+            writeBytes(msg, buf);
+        }
+        else
+        {
+            throw new MessageFormatException("Attempting to do setList() on " + message.getClass().getCanonicalName());
+        }
+    }
+
+    /**
+     * Write the remaining bytes of a ByteBuffer to a BytesMessage, directly from its backing array if it has one.
+     *
+     * @param message the BytesMessage to write to.
+     * @param buf the ByteBuffer containing the bytes to write.
+     */
+    private static void writeBytes(final BytesMessage message, final ByteBuffer buf) throws JMSException
+    {
+        if (buf.hasArray())
+        {
+            message.writeBytes(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        }
+        else
+        {
+            byte[] data = new byte[buf.remaining()];
+            buf.get(data);
+            message.writeBytes(data);
+        }
+    }
+}
@@ -48,7 +48,7 @@ public final class BooleanExists extends BooleanExpression
     }
 
     /**
-     * Main Constructor, uses base class constructor to populate unevaluated operands
+     * Main Constructor, uses base class constructor to bind the operands
      * @param expr the List of Expressions extracted by parsing the Query predicate
      */
     public BooleanExists(final List expr) throws QmfException
@@ -58,15 +58,13 @@ public final class BooleanExists extends BooleanExpression
 
     /**
      * Evaluate "exists" expression against a QmfData instance.
-     * N.B. to avoid complexities with types this class treats operands as Strings performing an appropriate evaluation
-     * of the String that makes sense for a given expression e.g. parsing as a double for {@literal >, >=, <, <= }
      *
      * @param data the object to evaluate the expression against
      * @return true if query matches the QmfData instance, else false.
      */    
     public boolean evaluate(final QmfData data)
     {
-        return _operands[0] != null;
+        return _operands[0].getValue(data) != null;
     }
 }
 
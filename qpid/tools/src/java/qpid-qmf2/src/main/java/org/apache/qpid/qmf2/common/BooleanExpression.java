@@ -21,7 +21,6 @@
 package org.apache.qpid.qmf2.common;
 
 // Misc Imports
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,14 +28,120 @@ import java.util.Map;
 
 /**
  * This class represents the base class for all Boolean Expressions created by expanding the Query predicate.
+ * <p>
+ * The operands of the expression are bound when the expression is created. An operand is either a literal, whose
+ * String and numeric forms are computed once up front, or a key used to look up a property of the QmfData being
+ * evaluated (falling back to the object's metadata, such as "_class_name" or "_update_ts", for keys that begin with
+ * an underscore). Operand values retain their type during evaluation, so numeric values are compared as numbers
+ * and Strings as Strings without any conversion, only falling back to String or numeric conversion where the types
+ * of the operands differ. Evaluation doesn't modify the expression, so an expression may be evaluated concurrently.
  *
  * @author Fraser Adams
  */
 public abstract class BooleanExpression extends Expression
 {
+    /**
+     * The result of compareOperands() or equateOperands() if either operand doesn't have a value.
+     */
+    protected static final int MISSING = Integer.MIN_VALUE;
+
     private static Map<String, BooleanExpression> _factories = new HashMap<String, BooleanExpression>();
-    protected String[] _operands;
-    private String[] _keys;
+    protected Operand[] _operands;
+
+    /**
+     * An operand of a BooleanExpression.
+     */
+    protected abstract static class Operand
+    {
+        /**
+         * Return the value of the operand for the specified QmfData.
+         * @param data the object the expression is being evaluated against.
+         * @return the value of the operand or null if it has no value.
+         */
+        public abstract Object getValue(final QmfData data);
+
+        /**
+         * Return the String form of a value previously returned by getValue().
+         * @param value the value returned by getValue().
+         * @return the String form of the value.
+         */
+        public abstract String getString(final Object value);
+
+        /**
+         * Return the numeric form of a value previously returned by getValue().
+         * @param value the value returned by getValue().
+         * @return the numeric form of the value or null if it isn't numeric.
+         */
+        public abstract Number getNumber(final Object value);
+    }
+
+    /**
+     * A literal operand, its String and numeric forms are computed when it is created.
+     */
+    private static final class Literal extends Operand
+    {
+        private final Object _value;
+        private final String _string;
+        private final Number _number;
+
+        public Literal(final Object value)
+        {
+            _value = value;
+            _string = QmfData.getString(value);
+            _number = toNumber(value);
+        }
+
+        public Object getValue(final QmfData data)
+        {
+            return _value;
+        }
+
+        public String getString(final Object value)
+        {
+            return _string;
+        }
+
+        public Number getNumber(final Object value)
+        {
+            return _number;
+        }
+    }
+
+    /**
+     * An operand whose value is obtained from the QmfData using a key.
+     */
+    private static final class Key extends Operand
+    {
+        private final String _key;
+        private final boolean _metadata;
+
+        public Key(final String key)
+        {
+            _key = key;
+            _metadata = key.startsWith("_");
+        }
+
+        public Object getValue(final QmfData data)
+        {
+            Object value = data.getValue(_key);
+            if (value == null && _metadata)
+            { // If there's no property of the data object named key look up its metadata e.g. _schema_id, _object_id,
+              // _package_name, _class_name, _type, _hash or timestamps.
+                value = data.getMetadataValue(_key);
+            }
+            return value;
+        }
+
+        public String getString(final Object value)
+        {
+            return QmfData.getString(value);
+        }
+
+        public Number getNumber(final Object value)
+        {
+            return toNumber(value);
+        }
+    }
 
     /**
      * Initialise the _factories Map, which contains the prototype instances of each concrete BooleanExpression
@@ -96,11 +201,11 @@ public abstract class BooleanExpression extends Expression
     }
 
     /**
-     * Main Constructor, used to populate unevaluated operands. This loops through the input expression list. If the
-     * Object is a String is is treated as a key such that when the expression is evaluated the key will be used to
-     * obtain a propery from the QmfData object. If the Object is a sub-List it is checked to see if it's a quoted
-     * String, if it is the quoted String is stored as the operand. If it's neither of these the actual object from
-     * the expression List is used as the operand.
+     * Main Constructor, used to bind the operands. This loops through the input expression list. If the Object is a
+     * String is is treated as a key such that when the expression is evaluated the key will be used to obtain a
+     * property from the QmfData object. If the Object is a sub-List it is checked to see if it's a quoted String,
+     * if it is the quoted String is used as a literal operand. If it's neither of these the actual object from the
+     * expression List is used as a literal operand.
      *
      * @param operandCount the number of operands in this Expression, the value is generally passed by the subclass.
      * @param expr the List of Expressions extracted by parsing the Query predicate
@@ -110,8 +215,7 @@ public abstract class BooleanExpression extends Expression
         Iterator iter = expr.listIterator();
         String op = (String)iter.next(); // We've already tested for hasNext() in the factory
 
-        _operands = new String[operandCount];
-        _keys = new String[operandCount];
+        _operands = new Operand[operandCount];
 
         for (int i = 0; i < operandCount; i++)
         {
@@ -121,34 +225,44 @@ public abstract class BooleanExpression extends Expression
             }
 
             Object object = iter.next();
-            _operands[i] = object.toString();
 
             if (object instanceof String)
             {
-                _keys[i] = _operands[i];
-                _operands[i] = null;
+                _operands[i] = new Key((String)object);
             }
             else if (object instanceof List)
             {
                 List sublist = (List)object;
                 Iterator subiter = sublist.listIterator();
 
-                if (subiter.hasNext() && ((String)subiter.next()).equals("quote"))
+                if (subiter.hasNext() && QmfData.getString(subiter.next()).equals("quote"))
                 {
                     if (subiter.hasNext())
                     {
-                        _operands[i] = subiter.next().toString();
+                        _operands[i] = new Literal(QmfData.getString(subiter.next()));
                         if (subiter.hasNext())
                         {
                              throw new QmfException("Extra tokens at end of 'quote'");
                         }
                     }
+                    else
+                    {
+                        throw new QmfException("Expected '[quote, <token>]'");
+                    }
                 }
                 else
                 {
                     throw new QmfException("Expected '[quote, <token>]'");
                 }
             }
+            else if (object == null)
+            {
+                throw new QmfException("Null operand for operation: " + op);
+            }
+            else
+            {
+                _operands[i] = new Literal(object);
+            }
         }
 
         if (iter.hasNext())
@@ -158,57 +272,170 @@ public abstract class BooleanExpression extends Expression
     }
 
     /**
-     * Populates operands that are obtained at evaluation time. In other words operands that are obtained by using
-     * the key obtained from the static operand evaluation to look up an associated property from the QmfData object.
-     * @param data the object to extract the operand(s) from
+     * Return the operand at the specified index if it is a literal, this is used by expressions such as re_match
+     * that need to pre-process a literal operand when they are created.
+     * @param i the index of the operand.
+     * @return the String form of the literal or null if the operand isn't a literal.
+     */
+    protected final String getLiteral(final int i)
+    {
+        Operand operand = _operands[i];
+        return (operand instanceof Literal) ? ((Literal)operand)._string : null;
+    }
+
+    /**
+     * Helper method to return a numeric representation of a value. Numbers are returned as is and Strings (or byte[])
+     * are parsed, first as a long then as a double, anything else isn't considered to be numeric.
+     * @param value the value to convert.
+     * @return the numeric representation of the value or null if it isn't numeric.
      */
-    protected void populateOperands(final QmfData data)
+    private static Number toNumber(final Object value)
     {
-        for (int i = 0; i < _operands.length; i++)
+        if (value instanceof Number)
+        {
+            return (Number)value;
+        }
+        else if (value instanceof String || value instanceof byte[])
         {
-            String key = _keys[i];
-            if (key != null)
+            String string = QmfData.getString(value).trim();
+            try
             {
-                String value = null;
-
-                if (data.hasValue(key))
-                { // If there's a property of the data object named key look it up as a String
-                    value = data.getStringValue(key);
+                return Long.valueOf(string);
+            }
+            catch (NumberFormatException nfe)
+            {
+                try
+                {
+                    return Double.valueOf(string);
                 }
-                else
-                { // If there's no property of the data object named key look up its Described/Managed metadata
-                    if (data instanceof QmfManaged)
-                    {
-                        QmfManaged managedData = (QmfManaged)data;
-                        if (key.equals("_schema_id"))
-                        {
-                            value = managedData.getSchemaClassId().toString();
-                        }
-                        else if (key.equals("_object_id"))
-                        {
-                            value = managedData.getObjectId().toString();
-                        }
-                        else if (managedData.getSchemaClassId().hasValue(key))
-                        { // If it's not _schema_id or _object_id check the SchemaClassId properties e.g. 
-                          // _package_name, _class_name, _type or _hash
-                            value = managedData.getSchemaClassId().getStringValue(key);
-                        }
-                    }
-
-                    if (value == null)
-                    { // If a value still can't be found for the key check if it's available in the mapEncoded form
-                        Map m = data.mapEncode();
-                        if (m.containsKey(key))
-                        {
-                            value = QmfData.getString(m.get(key));
-                        }
-                    }
+                catch (NumberFormatException nfe2)
+                {
+                    return null;
                 }
+            }
+        }
+        return null;
+    }
 
-                _operands[i] = value;
+    /**
+     * Return a key for a value such that any two values that an "eq" expression considers equal have equal keys,
+     * which allows values to be indexed for equality lookups. As a Number is compared numerically with any numeric
+     * value, numeric values (including Strings that parse as numbers) are keyed by their double form and other
+     * values by their String form. Values that aren't equal may share a key, so an index lookup yields a superset
+     * of the equal values.
+     *
+     * @param value the value to return the key of.
+     * @return the key of the value.
+     */
+    public static String getEqualityKey(final Object value)
+    {
+        Number number = toNumber(value);
+        if (number == null)
+        {
+            return QmfData.getString(value);
+        }
+
+        double d = number.doubleValue();
+        return Double.toString(d == 0.0 ? 0.0 : d); // Normalise -0.0, which compares equal to 0.0
+    }
+
+    /**
+     * Return true if the Number is an integral type that can be compared exactly as a long.
+     */
+    private static boolean isIntegral(final Number number)
+    {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    /**
+     * Compare two Numbers, integral values are compared as longs and other values as doubles. As with the Java
+     * relational operators NaN is unordered, so it is neither less than, equal to nor greater than any number.
+     * @return -1, 0 or 1 if lhs is less than, equal to or greater than rhs or MISSING if either is NaN.
+     */
+    private static int compareNumbers(final Number lhs, final Number rhs)
+    {
+        if (isIntegral(lhs) && isIntegral(rhs))
+        {
+            long l = lhs.longValue();
+            long r = rhs.longValue();
+            return (l < r) ? -1 : ((l == r) ? 0 : 1);
+        }
+        else
+        {
+            double l = lhs.doubleValue();
+            double r = rhs.doubleValue();
+            if (l < r)
+            {
+                return -1;
+            }
+            else if (l > r)
+            {
+                return 1;
+            }
+            return (l == r) ? 0 : MISSING;
+        }
+    }
+
+    /**
+     * Compare the two operands of an ordering expression ({@literal >, >=, <, <= }) evaluated against a QmfData.
+     * If both operands are numeric they are compared numerically otherwise they are compared lexicographically.
+     *
+     * @param data the object to evaluate the operands against.
+     * @return -1, 0 or 1 if the first operand is less than, equal to or greater than the second operand or MISSING
+     *         if either operand has no value or the operands are numeric and either is NaN.
+     */
+    protected final int compareOperands(final QmfData data)
+    {
+        Object lhs = _operands[0].getValue(data);
+        Object rhs = _operands[1].getValue(data);
+        if (lhs == null || rhs == null)
+        {
+            return MISSING;
+        }
+
+        Number l = _operands[0].getNumber(lhs);
+        if (l != null)
+        {
+            Number r = _operands[1].getNumber(rhs);
+            if (r != null)
+            {
+                return compareNumbers(l, r);
             }
-//System.out.println("key: " + key + ", operand = " + _operands[i]);
         }
+
+        // If the operands aren't both numeric use a lexicographic comparison
+        int result = _operands[0].getString(lhs).compareTo(_operands[1].getString(rhs));
+        return (result < 0) ? -1 : ((result == 0) ? 0 : 1);
+    }
+
+    /**
+     * Compare the two operands of an equality expression evaluated against a QmfData. If either operand is a Number
+     * and both are numeric they are compared numerically, so NaN isn't equal to anything, otherwise their String
+     * representations are compared.
+     *
+     * @param data the object to evaluate the operands against.
+     * @return 0 if the operands are equal, 1 if they are not equal or MISSING if either operand has no value.
+     */
+    protected final int equateOperands(final QmfData data)
+    {
+        Object lhs = _operands[0].getValue(data);
+        Object rhs = _operands[1].getValue(data);
+        if (lhs == null || rhs == null)
+        {
+            return MISSING;
+        }
+
+        if (lhs instanceof Number || rhs instanceof Number)
+        {
+            Number l = _operands[0].getNumber(lhs);
+            Number r = _operands[1].getNumber(rhs);
+            if (l != null && r != null)
+            {
+                return compareNumbers(l, r) == 0 ? 0 : 1;
+            }
+        }
+
+        return _operands[0].getString(lhs).equals(_operands[1].getString(rhs)) ? 0 : 1;
     }
 
     /**
@@ -218,4 +445,3 @@ public abstract class BooleanExpression extends Expression
      */
     public abstract boolean evaluate(final QmfData data);
 }
-
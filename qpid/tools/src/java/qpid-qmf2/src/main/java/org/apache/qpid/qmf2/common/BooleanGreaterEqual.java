@@ -48,7 +48,7 @@ public final class BooleanGreaterEqual extends BooleanExpression
     }
 
     /**
-     * Main Constructor, uses base class constructor to populate unevaluated operands
+     * Main Constructor, uses base class constructor to bind the operands
      * @param expr the List of Expressions extracted by parsing the Query predicate
      */
     public BooleanGreaterEqual(final List expr) throws QmfException
@@ -58,32 +58,15 @@ public final class BooleanGreaterEqual extends BooleanExpression
     
     /**
      * Evaluate "greater than or equal to" expression against a QmfData instance.
-     * N.B. to avoid complexities with types this class treats operands as Strings performing an appropriate evaluation
-     * of the String that makes sense for a given expression e.g. parsing as a double for {@literal >, >=, <, <= }
+     * Numeric operands are compared numerically, otherwise the operands are compared lexicographically.
      *
      * @param data the object to evaluate the expression against
      * @return true if query matches the QmfData instance, else false.
      */
     public boolean evaluate(final QmfData data)
     {
-        populateOperands(data);
-
-        if (_operands[0] == null || _operands[1] == null)
-        {
-            return false;
-        }
-
-        try
-        {
-            double l = Double.parseDouble(_operands[0]);
-            double r = Double.parseDouble(_operands[1]);
-            return l >= r;
-        }
-        catch (NumberFormatException nfe)
-        {
-            // If converting to double fails try a lexicographic comparison
-            return _operands[0].compareTo(_operands[1]) >= 0;
-        }
+        int result = compareOperands(data);
+        return result != MISSING && result >= 0;
     }
 }
 
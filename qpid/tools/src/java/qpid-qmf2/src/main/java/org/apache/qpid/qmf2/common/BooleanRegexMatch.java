@@ -54,16 +54,22 @@ public final class BooleanRegexMatch extends BooleanExpression
     }
 
     /**
-     * Main Constructor, uses base class constructor to populate unevaluated operands
+     * Main Constructor, uses base class constructor to bind the operands
      * @param expr the List of Expressions extracted by parsing the Query predicate
      */
     public BooleanRegexMatch(final List expr) throws QmfException
     {
         super(2, expr);
 
+        String regex = getLiteral(1);
+        if (regex == null)
+        {
+            throw new QmfException("The pattern for re_match must be a literal");
+        }
+
         try
         {
-            _pattern = Pattern.compile(_operands[1]);
+            _pattern = Pattern.compile(regex);
         }
         catch (PatternSyntaxException pse)
         {
@@ -73,22 +79,21 @@ public final class BooleanRegexMatch extends BooleanExpression
     
     /**
      * Evaluate "regex match" expression against a QmfData instance.
-     * N.B. to avoid complexities with types this class treats operands as Strings performing an appropriate evaluation
-     * of the String that makes sense for a given expression e.g. parsing as a double for {@literal >, >=, <, <= }
+     * The pattern is compiled once when the expression is created and matched against the String form of the first
+     * operand.
      *
      * @param data the object to evaluate the expression against
      * @return true if query matches the QmfData instance, else false.
      */
     public boolean evaluate(final QmfData data)
     {
-        populateOperands(data);
-
-        if (_operands[0] == null || _operands[1] == null || _pattern == null)
+        Object value = _operands[0].getValue(data);
+        if (value == null || _pattern == null)
         {
             return false;
         }
 
-        Matcher matcher = _pattern.matcher(_operands[0]);
+        Matcher matcher = _pattern.matcher(_operands[0].getString(value));
         return matcher.find();
     }
 }
@@ -0,0 +1,415 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// Misc Imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Reuse this class as it provides a handy mechanism to decode the less common AMQP types
+import org.apache.qpid.transport.Type;
+import org.apache.qpid.transport.codec.BBDecoder;
+
+/**
+ * A read-mostly java.util.Map view of an AMQP 0-10 encoded map such as the entries of an amqp/list Message.
+ * <p>
+ * Decoding every Map of a large query response or subscription indication creates a lot of garbage when the
+ * application only reads a handful of properties from each object. An EncodedMap instead keeps the encoded bytes
+ * and only decodes the value of an entry the first time that it is read. Entries whose values are themselves maps,
+ * such as the "_values" of a QmfConsoleData, are returned as EncodedMaps so they are decoded on demand too.
+ * <p>
+ * Modifying the Map, or iterating through its entries, fully decodes it into a LinkedHashMap (the same type of Map
+ * as BBDecoder.readMap() creates) which is then used for all subsequent operations and the encoded bytes are
+ * released. Values that have already been read are reused, so a nested EncodedMap that has been modified keeps
+ * its modifications.
+ * <p>
+ * The values are decoded into the same Java types that BBDecoder uses, so an EncodedMap can be used anywhere a
+ * Map returned by AMQPMessage.getList() could.
+ *
+ * @author Fraser Adams
+ */
+final class EncodedMap extends AbstractMap<String, Object>
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The buffer containing the encoded map, or null once the map has been fully decoded.
+     */
+    private ByteBuffer _buffer;
+
+    /**
+     * The position in _buffer of the first entry of the map.
+     */
+    private int _start;
+
+    /**
+     * The number of entries in the encoded map.
+     */
+    private int _count;
+
+    /**
+     * The values that have been decoded so far, created on the first read.
+     */
+    private Map<String, Object> _decoded = null;
+
+    /**
+     * The fully decoded map, which replaces the encoded map once it has been modified or iterated.
+     */
+    private Map<String, Object> _map = null;
+
+    /**
+     * Construct an EncodedMap from the AMQP 0-10 map encoding starting at the given position of a buffer.
+     *
+     * @param buffer the buffer containing the encoded map, this must be big endian and mustn't be modified.
+     * @param position the position of the map's size in the buffer.
+     */
+    private EncodedMap(final ByteBuffer buffer, final int position)
+    {
+        _buffer = buffer;
+        _count = buffer.getInt(position + 4);
+        _start = position + 8;
+    }
+
+    /**
+     * Decode an amqp/list from the given buffer into a List whose map entries are EncodedMaps.
+     * <p>
+     * The buffer's content is referenced rather than copied so it mustn't be modified afterwards.
+     *
+     * @param buffer the buffer containing the encoded list, from its position up to its limit.
+     * @return the decoded List.
+     */
+    static List<Object> decodeList(final ByteBuffer buffer)
+    {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int position = data.position();
+        if (data.getInt(position) == 0)
+        {
+            return null;
+        }
+
+        int count = data.getInt(position + 4);
+        List<Object> list = new ArrayList<Object>(count);
+        position += 8;
+        for (int i = 0; i < count; i++)
+        {
+            Type type = Type.get(data.get(position++));
+            list.add(decode(data, position, type));
+            position = skip(data, position, type);
+        }
+        return list;
+    }
+
+    /**
+     * Return the position following the value of the given type that starts at the given position.
+     */
+    private static int skip(final ByteBuffer buffer, final int position, final Type type)
+    {
+        if (type.isFixed())
+        {
+            return position + type.getWidth();
+        }
+
+        switch (type.getWidth())
+        {
+            case 1: return position + 1 + (buffer.get(position) & 0xff);
+            case 2: return position + 2 + (buffer.getShort(position) & 0xffff);
+            case 4: return position + 4 + buffer.getInt(position);
+            default: throw new IllegalArgumentException("Unsupported size width: " + type.getWidth());
+        }
+    }
+
+    /**
+     * Return the bytes of the value of the given type starting at the given position, as the BBDecoder does for
+     * the types that it doesn't interpret.
+     */
+    private static byte[] getBytes(final ByteBuffer buffer, final int position, final Type type)
+    {
+        int start = type.isFixed() ? position : position + type.getWidth();
+        byte[] bytes = new byte[skip(buffer, position, type) - start];
+        ByteBuffer value = buffer.duplicate();
+        value.position(start);
+        value.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decode the value of the given type starting at the given position into the same Java type as BBDecoder does,
+     * with the exception that maps are decoded into EncodedMaps.
+     */
+    private static Object decode(final ByteBuffer buffer, final int position, final Type type)
+    {
+        switch (type)
+        {
+            case BIN8:
+            case UINT8:
+                return (short)(buffer.get(position) & 0xff);
+            case INT8:
+                return buffer.get(position);
+            case CHAR:
+                return (char)buffer.get(position);
+            case BOOLEAN:
+                return buffer.get(position) > 0;
+            case BIN16:
+            case UINT16:
+                return buffer.getShort(position) & 0xffff;
+            case INT16:
+                return buffer.getShort(position);
+            case BIN32:
+            case UINT32:
+                return buffer.getInt(position) & 0xffffffffL;
+            case CHAR_UTF32:
+            case INT32:
+                return buffer.getInt(position);
+            case FLOAT:
+                return buffer.getFloat(position);
+            case BIN64:
+            case UINT64:
+            case INT64:
+            case DATETIME:
+                return buffer.getLong(position);
+            case DOUBLE:
+                return buffer.getDouble(position);
+            case UUID:
+                return new UUID(buffer.getLong(position), buffer.getLong(position + 8));
+            case STR8:
+            case STR16:
+                return new String(getBytes(buffer, position, type), UTF8);
+            case STR8_LATIN:
+            case STR8_UTF16:
+            case STR16_LATIN:
+            case STR16_UTF16:
+                return new String(getBytes(buffer, position, type));
+            case MAP:
+                return (buffer.getInt(position) == 0) ? null : new EncodedMap(buffer, position);
+            case LIST:
+            case ARRAY:
+            case STRUCT32:
+                BBDecoder decoder = new BBDecoder();
+                ByteBuffer value = buffer.duplicate();
+                value.position(position);
+                decoder.init(value);
+                return (type == Type.LIST) ? decoder.readList() :
+                       (type == Type.ARRAY) ? decoder.readArray() : decoder.readStruct32();
+            case VOID:
+                return null;
+            default:
+                return getBytes(buffer, position, type);
+        }
+    }
+
+    /**
+     * Return true if the str8 encoded key at the given position is equal to the given String. ASCII keys, which
+     * include all of the QMF property names, are compared without having to create a String.
+     */
+    private static boolean keyEquals(final ByteBuffer buffer, final int position, final String key)
+    {
+        int length = buffer.get(position) & 0xff;
+        int keyLength = key.length();
+        for (int i = 0; i < keyLength; i++)
+        {
+            if (key.charAt(i) > 0x7f)
+            {
+                byte[] bytes = key.getBytes(UTF8);
+                if (bytes.length != length)
+                {
+                    return false;
+                }
+                for (int j = 0; j < length; j++)
+                {
+                    if (bytes[j] != buffer.get(position + 1 + j))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        if (keyLength != length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (key.charAt(i) != buffer.get(position + 1 + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the position of the type code of the entry with the given key, or -1 if there is no such entry.
+     */
+    private int find(final String key)
+    {
+        int position = _start;
+        for (int i = 0; i < _count; i++)
+        {
+            int keyLength = _buffer.get(position) & 0xff;
+            if (keyEquals(_buffer, position, key))
+            {
+                return position + 1 + keyLength;
+            }
+            position += 1 + keyLength;
+            position = skip(_buffer, position + 1, Type.get(_buffer.get(position)));
+        }
+        return -1;
+    }
+
+    /**
+     * Fully decode the map, reusing any values that have already been decoded, and release the encoded bytes.
+     *
+     * @return the fully decoded map.
+     */
+    private Map<String, Object> materialise()
+    {
+        if (_map == null)
+        {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            int position = _start;
+            for (int i = 0; i < _count; i++)
+            {
+                int keyLength = _buffer.get(position) & 0xff;
+                ByteBuffer keyBuffer = _buffer.duplicate();
+                keyBuffer.position(position + 1).limit(position + 1 + keyLength);
+                String key = UTF8.decode(keyBuffer).toString();
+                position += 1 + keyLength;
+
+                Type type = Type.get(_buffer.get(position++));
+                if (_decoded != null && _decoded.containsKey(key))
+                {
+                    map.put(key, _decoded.get(key));
+                }
+                else
+                {
+                    map.put(key, decode(_buffer, position, type));
+                }
+                position = skip(_buffer, position, type);
+            }
+            _map = map;
+            _decoded = null;
+            _buffer = null;
+        }
+        return _map;
+    }
+
+    @Override
+    public synchronized Object get(final Object key)
+    {
+        if (_map != null)
+        {
+            return _map.get(key);
+        }
+        if (!(key instanceof String))
+        {
+            return null;
+        }
+
+        String name = (String)key;
+        if (_decoded != null && _decoded.containsKey(name))
+        {
+            return _decoded.get(name);
+        }
+
+        int position = find(name);
+        if (position < 0)
+        {
+            return null;
+        }
+
+        Object value = decode(_buffer, position + 1, Type.get(_buffer.get(position)));
+        if (_decoded == null)
+        {
+            _decoded = new HashMap<String, Object>();
+        }
+        _decoded.put(name, value);
+        return value;
+    }
+
+    @Override
+    public synchronized boolean containsKey(final Object key)
+    {
+        if (_map != null)
+        {
+            return _map.containsKey(key);
+        }
+        return (key instanceof String) && find((String)key) >= 0;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return (_map == null) ? _count : _map.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized Object put(final String key, final Object value)
+    {
+        return materialise().put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(final Object key)
+    {
+        return materialise().remove(key);
+    }
+
+    @Override
+    public synchronized void putAll(final Map<? extends String, ? extends Object> m)
+    {
+        materialise().putAll(m);
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        materialise().clear();
+    }
+
+    @Override
+    public synchronized Set<Map.Entry<String, Object>> entrySet()
+    {
+        return materialise().entrySet();
+    }
+
+    @Override
+    public synchronized Set<String> keySet()
+    {
+        return materialise().keySet();
+    }
+}
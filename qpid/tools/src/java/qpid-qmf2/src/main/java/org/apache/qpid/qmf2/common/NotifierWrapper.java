@@ -20,6 +20,9 @@
  */
 package org.apache.qpid.qmf2.common;
 
+// Misc Imports
+import java.util.List;
+
 /**
  * Implementation of QmfEventListener that wraps a Notifier instance. This class populates the WorkItem
  * queue then invokes the Notifier's indication() method to notify clients of available data.
@@ -54,4 +57,19 @@ public final class NotifierWrapper implements QmfEventListener
         _workQueue.addWorkItem(item);
         _notifier.indication();
     }
+
+    /**
+     * This method adds a batch of WorkItems to the WorkQueue then notifies any clients through a single
+     * Notifier.indication(), rather than one per WorkItem.
+     *
+     * @param items the WorkItems to add to the queue
+     */
+    public void onEvents(final List<WorkItem> items)
+    {
+        if (!items.isEmpty())
+        {
+            _workQueue.addWorkItems(items);
+            _notifier.indication();
+        }
+    }
 }
@@ -30,7 +30,11 @@ import java.util.Map;
  * as byte[] due to inconsistent binary and UTF-8 encodings being used and byte[].equals() compares the address not a
  * bytewise comparison.
  * <p>
- * This class creates a String from the internal ObjectId state information to enable easier comparison and rendering.
+ * This class extracts the agent name, object name and agent epoch from the underlying Map as Strings and a long,
+ * so ObjectIds compare equal irrespective of whether the names were encoded as byte[] or String. ObjectId is used
+ * as a key in a number of potentially large Maps, so the identity fields are immutable, the hashCode is computed
+ * once on construction and equals() compares the fields directly rather than building Strings. The String
+ * representation is likewise only created once, when first needed.
  *
  * @author Fraser Adams
  */
@@ -39,6 +43,8 @@ public final class ObjectId extends QmfData
     private final String _agentName;
     private final String _objectName;
     private final long   _agentEpoch;
+    private final int    _hashCode;
+    private String       _string = null;
 
     /**
      * Create an ObjectId given the ID created via ObjectId.toString().
@@ -46,11 +52,13 @@ public final class ObjectId extends QmfData
      */
     public ObjectId(String oid)
     {
-        String[] split = oid.split("@");
+        // Limit the split so object names containing '@' are preserved.
+        String[] split = oid.split("@", 3);
 
         _agentName  = split.length == 3 ? split[0] : "";
         _agentEpoch = split.length == 3 ? Long.parseLong(split[1]) : 0;
         _objectName = split.length == 3 ? split[2] : "";
+        _hashCode = hash(_agentName, _objectName, _agentEpoch);
 
         setValue("_agent_name", _agentName);
         setValue("_agent_epoch", _agentEpoch);
@@ -65,9 +73,10 @@ public final class ObjectId extends QmfData
      */
     public ObjectId(String agentName, String objectName, long agentEpoch)
     {
-        _agentName = agentName;
-        _objectName = objectName;
+        _agentName = (agentName == null) ? "" : agentName;
+        _objectName = (objectName == null) ? "" : objectName;
         _agentEpoch = agentEpoch;
+        _hashCode = hash(_agentName, _objectName, _agentEpoch);
         setValue("_agent_name", _agentName);
         setValue("_object_name", _objectName);
         setValue("_agent_epoch", _agentEpoch);
@@ -75,6 +84,8 @@ public final class ObjectId extends QmfData
 
     /**
      * Create an ObjectId from a Map. In essence it "deserialises" its state from the Map.
+     * <p>
+     * The names may be encoded in the Map as either byte[] or String, getStringValue() converts both to String.
      * @param m the Map the Object is retrieving its state from.
      */
     public ObjectId(Map m)
@@ -83,6 +94,7 @@ public final class ObjectId extends QmfData
         _agentName = getStringValue("_agent_name");
         _objectName = getStringValue("_object_name");
         _agentEpoch = getLongValue("_agent_epoch");
+        _hashCode = hash(_agentName, _objectName, _agentEpoch);
     }
 
     /**
@@ -94,6 +106,17 @@ public final class ObjectId extends QmfData
         this(qmfd.mapEncode());
     }
 
+    /**
+     * Compute the hashCode from the identity fields.
+     */
+    private static int hash(final String agentName, final String objectName, final long agentEpoch)
+    {
+        int result = agentName.hashCode();
+        result = 31*result + (int)(agentEpoch ^ (agentEpoch >>> 32));
+        result = 31*result + objectName.hashCode();
+        return result;
+    }
+
     /**
      * Returns the name of the Agent managing the object.
      * @return the name of the Agent managing the object.
@@ -129,9 +152,19 @@ public final class ObjectId extends QmfData
     @Override
     public boolean equals(Object rhs)
     {
+        if (rhs == this)
+        {
+            return true;
+        }
+
         if (rhs instanceof ObjectId)
         {
-            return toString().equals(rhs.toString());
+            ObjectId that = (ObjectId)rhs;
+            // Compare the cheapest and most discriminating fields first.
+            return _hashCode == that._hashCode &&
+                   _agentEpoch == that._agentEpoch &&
+                   _objectName.equals(that._objectName) &&
+                   _agentName.equals(that._agentName);
         }
         return false;
     }
@@ -143,7 +176,7 @@ public final class ObjectId extends QmfData
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        return _hashCode;
     }
 
     /**
@@ -153,7 +186,13 @@ public final class ObjectId extends QmfData
     @Override
     public String toString()
     {
-        return _agentName + "@" +  _agentEpoch + "@" + _objectName;
+        // It doesn't matter if more than one thread races to create the String as they will all be equal.
+        String string = _string;
+        if (string == null)
+        {
+            string = _agentName + "@" +  _agentEpoch + "@" + _objectName;
+            _string = string;
+        }
+        return string;
     }
 }
-
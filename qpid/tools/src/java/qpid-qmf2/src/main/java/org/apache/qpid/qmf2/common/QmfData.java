@@ -412,6 +412,21 @@ public class QmfData
         return _values;
     }
 
+    /**
+     * Return the value of a named metadata item of this QmfData, metadata names begin with an underscore e.g.
+     * "_schema_id" or "_update_ts". This is used by query predicates, which would otherwise have to mapEncode()
+     * the object being evaluated in order to find its metadata.
+     * <p>
+     * A plain QmfData has no metadata, subclasses override this to return the metadata that they hold.
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    protected Object getMetadataValue(final String name)
+    {
+        return null;
+    }
+
     /**
      * Helper/debug method to list the properties and their type.
      */
@@ -71,6 +71,31 @@ public class QmfDescribed extends QmfData
         _schema_id = schema_id;
     }
 
+    /**
+     * Return the named metadata item, this adds the "_schema_id" and the SchemaClassId properties "_package_name",
+     * "_class_name", "_type" and "_hash".
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    @Override
+    protected Object getMetadataValue(final String name)
+    {
+        if (_schema_id == null)
+        {
+            return super.getMetadataValue(name);
+        }
+        else if (name.equals("_schema_id"))
+        {
+            return _schema_id;
+        }
+        else if (_schema_id.hasValue(name))
+        {
+            return _schema_id.getValue(name);
+        }
+        return super.getMetadataValue(name);
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
@@ -179,6 +179,26 @@ public final class QmfEvent extends QmfDescribed
         return map;
     }
 
+    /**
+     * Return the named metadata item, this adds the "_timestamp" and "_severity" to the metadata of QmfDescribed.
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    @Override
+    protected Object getMetadataValue(final String name)
+    {
+        if (name.equals("_timestamp"))
+        {
+            return _timestamp;
+        }
+        else if (name.equals("_severity"))
+        {
+            return _severity;
+        }
+        return super.getMetadataValue(name);
+    }
+
     /**
      * Helper/debug method to list the object properties and their type.
      */
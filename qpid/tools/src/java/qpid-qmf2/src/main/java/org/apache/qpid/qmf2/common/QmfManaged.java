@@ -70,6 +70,22 @@ public class QmfManaged extends QmfDescribed
         _object_id = object_id;
     }
 
+    /**
+     * Return the named metadata item, this adds the "_object_id" to the metadata of QmfDescribed.
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    @Override
+    protected Object getMetadataValue(final String name)
+    {
+        if (name.equals("_object_id") && _object_id != null)
+        {
+            return _object_id;
+        }
+        return super.getMetadataValue(name);
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
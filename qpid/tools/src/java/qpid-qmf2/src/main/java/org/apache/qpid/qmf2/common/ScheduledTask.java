@@ -0,0 +1,177 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ScheduledTask is a task that may be scheduled for one-time or repeated execution on a ScheduledExecutorService.
+ * <p>
+ * It deliberately mirrors java.util.TimerTask, which it replaces, so subclasses simply implement run() and may be
+ * stopped by calling cancel(). The difference is that a java.util.Timer runs all of its tasks on a single thread,
+ * so one slow task, such as a Subscription publishing a large number of objects, delays every other task on that
+ * Timer. Moreover each Console and Agent previously created its own Timer, so a process hosting many of them
+ * carried many mostly idle timer threads.
+ * <p>
+ * By default ScheduledTasks run on a scheduler shared by all of the Consoles and Agents in the JVM, returned by
+ * getDefaultScheduler(), whose pool has one thread per available processor so that slow tasks don't stall the
+ * others. The number of threads may be set with the "qmf2.scheduler.threads" System Property, and Consoles and
+ * Agents may be given an application supplied ScheduledExecutorService instead.
+ * <p>
+ * Unlike a TimerTask, a ScheduledTask that throws a RuntimeException is logged and continues to be scheduled. A
+ * Timer would have stopped running every one of its tasks in this case.
+ *
+ * @author Fraser Adams
+ */
+public abstract class ScheduledTask implements Runnable
+{
+    private static final Logger _log = LoggerFactory.getLogger(ScheduledTask.class);
+
+    /**
+     * The lazily created default scheduler, see getDefaultScheduler().
+     */
+    private static ScheduledExecutorService _defaultScheduler;
+
+    /**
+     * The ScheduledFuture of the current scheduling of this task.
+     */
+    private ScheduledFuture<?> _future;
+
+    /**
+     * Set once the task has been scheduled or cancelled, as with a TimerTask a ScheduledTask may only be scheduled once.
+     */
+    private boolean _used = false;
+
+    /**
+     * The Runnable actually submitted to the ScheduledExecutorService, this stops a RuntimeException thrown by run()
+     * from cancelling subsequent executions of a repeating task.
+     */
+    private final Runnable _runner = new Runnable()
+    {
+        public void run()
+        {
+            try
+            {
+                ScheduledTask.this.run();
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught in ScheduledTask.run()", re.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Return the default scheduler shared by all of the Consoles and Agents in the JVM, creating it if necessary.
+     * Its threads are daemon threads so they don't prevent the JVM from exiting.
+     *
+     * @return the default ScheduledExecutorService.
+     */
+    public static synchronized ScheduledExecutorService getDefaultScheduler()
+    {
+        if (_defaultScheduler == null)
+        {
+            int threads = Integer.getInteger("qmf2.scheduler.threads", Runtime.getRuntime().availableProcessors());
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(Math.max(threads, 1),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger _count = new AtomicInteger();
+
+                    public Thread newThread(final Runnable r)
+                    {
+                        Thread thread = new Thread(r, "qmf2-scheduler-" + _count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            // Cancelled tasks, such as the timeouts of requests that have completed, are removed immediately
+            // rather than remaining in the queue until their delay expires.
+            scheduler.setRemoveOnCancelPolicy(true);
+            _defaultScheduler = scheduler;
+        }
+        return _defaultScheduler;
+    }
+
+    /**
+     * Schedule this task for execution after the specified delay.
+     *
+     * @param scheduler the ScheduledExecutorService to run the task on.
+     * @param delay the delay in milliseconds before the task is executed.
+     * @throws IllegalStateException if the task has already been scheduled or cancelled.
+     */
+    public final synchronized void schedule(final ScheduledExecutorService scheduler, final long delay)
+    {
+        checkUnused();
+        _future = scheduler.schedule(_runner, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedule this task for repeated fixed-delay execution, beginning after the specified delay. As with
+     * java.util.Timer.schedule(task, delay, period) subsequent executions take place at approximately regular
+     * intervals separated by the specified period, and a given task never runs concurrently with itself.
+     *
+     * @param scheduler the ScheduledExecutorService to run the task on.
+     * @param delay the delay in milliseconds before the task is first executed.
+     * @param period the time in milliseconds between successive task executions.
+     * @throws IllegalStateException if the task has already been scheduled or cancelled.
+     */
+    public final synchronized void schedule(final ScheduledExecutorService scheduler, final long delay,
+                                            final long period)
+    {
+        checkUnused();
+        _future = scheduler.scheduleWithFixedDelay(_runner, delay, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check that the task hasn't already been scheduled or cancelled. Must be called holding the monitor.
+     */
+    private void checkUnused()
+    {
+        if (_used)
+        {
+            throw new IllegalStateException("Task already scheduled or cancelled");
+        }
+        _used = true;
+    }
+
+    /**
+     * Cancel this task. If the task has been scheduled for one-time execution and has not yet run, or has been
+     * scheduled for repeated execution, it will never run again. If the task is running when this call occurs the
+     * task will run to completion but will never run again.
+     *
+     * @return true if this task was prevented from running one or more scheduled executions.
+     */
+    public synchronized boolean cancel()
+    {
+        _used = true;
+        return (_future == null) ? false : _future.cancel(false);
+    }
+}
@@ -51,6 +51,7 @@ public final class SchemaObjectClass extends SchemaClass
     private List<SchemaMethod>   _methods = new ArrayList<SchemaMethod>();
     private List<SchemaProperty> _properties = new ArrayList<SchemaProperty>();
     private String[]             _idNames = {};
+    private String[]             _indexedNames = {};
 
     /**
      * The main constructor, taking a java.util.Map as a parameter.
@@ -136,6 +137,15 @@ public final class SchemaObjectClass extends SchemaClass
         return Arrays.copyOf(_idNames, _idNames.length);
     }
 
+    /**
+     * Return the list of property names whose values are indexed by an Agent managing objects of this class.
+     * @return the list of property names whose values are indexed by an Agent managing objects of this class.
+     */
+    public String[] getIndexedNames()
+    {
+        return Arrays.copyOf(_indexedNames, _indexedNames.length);
+    }
+
     /**
      * Return the count of SchemaProperties in this instance.
      * @return the count of SchemaProperties in this instance.
@@ -296,6 +306,23 @@ public final class SchemaObjectClass extends SchemaClass
         _idNames = idNames;
     }
 
+    /**
+     * Set the list of property names whose values should be indexed by an Agent managing objects of this class.
+     * <p>
+     * This is an Agent side hint that isn't part of the QMF2 protocol, so it is neither encoded nor included in the
+     * schema hash. Predicate queries containing an "eq" comparison between an indexed property and a literal only
+     * need to evaluate the objects having that value, rather than every object managed by the Agent. The Agent
+     * refreshes its index when QmfAgentData.update() is called, so indexed properties would generally be properties
+     * such as "name" that don't change over the lifetime of an object.
+     * <p>
+     * This must be called before any objects of this class are added to the Agent.
+     * @param indexedNames the list of property names whose values should be indexed.
+     */
+    public void setIndexedNames(final String... indexedNames)
+    {
+        _indexedNames = indexedNames;
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
@@ -0,0 +1,73 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// Misc Imports
+import java.util.List;
+
+/**
+ * The Agent and Console talk to their transport via the JMS API, which covers Connections, Sessions, Destinations,
+ * producers and consumers, but has no notion of the AMQP Content-Type or of amqp/list Messages. With the Qpid JMS
+ * client AMQPMessage gets at these by delving inside the client's Message implementation.
+ * <p>
+ * A transport other than the Qpid JMS client, such as the in-process loopback transport in
+ * org.apache.qpid.qmf2.loopback, makes its Messages implement TransportMessage to expose them instead. AMQPMessage
+ * checks for TransportMessage before falling back to the Qpid JMS client, so Agent and Console code is the same
+ * whichever transport their Connection comes from.
+ * <p>
+ * A transport that passes Lists between the Agent and Console in memory rather than encoding them returns them from
+ * getList(), so amqp/list Messages needn't be encoded and decoded at all.
+ *
+ * @author Fraser Adams
+ */
+public interface TransportMessage
+{
+    /**
+     * Return the AMQP Content-Type of the Message.
+     * @return the AMQP Content-Type e.g. amqp/list, amqp/map etc. or an empty String if none has been set.
+     */
+    public String getContentType();
+
+    /**
+     * Set the AMQP Content-Type of the Message.
+     * @param contentType the AMQP Content-Type, e.g. amqp/list, amqp/map etc.
+     */
+    public void setContentType(String contentType);
+
+    /**
+     * Return the authenticated user id of the sender of the Message.
+     * @return the user id or null if the sender isn't known.
+     */
+    public String getUserId();
+
+    /**
+     * Return the List carried by an amqp/list Message.
+     * @return the List or null if the Message doesn't carry a List, in which case AMQPMessage decodes the body of
+     * the Message instead.
+     */
+    public List getList();
+
+    /**
+     * Set the List carried by an amqp/list Message.
+     * @param list the List, which the Message takes ownership of.
+     */
+    public void setList(List list);
+}
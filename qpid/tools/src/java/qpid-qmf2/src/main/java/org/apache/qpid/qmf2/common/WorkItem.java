@@ -331,7 +331,7 @@ public class WorkItem
 
     private final WorkItemType _type;
     private final Handle       _handle;
-    private final Object       _params;
+    private volatile Object    _params;
 
     /**
      * Construct a WorkItem
@@ -347,6 +347,34 @@ public class WorkItem
         _params = params;
     }
 
+    /**
+     * Construct a WorkItem whose payload is created by createParams() when getParams() is first called.
+     * <p>
+     * This is used by WorkItems that hold their payload in typed fields, such as the Agent of an AgentHeartbeatWorkItem,
+     * so that the Map payload defined by the QMF2 API is only created if the application actually calls getParams()
+     * rather than for every WorkItem.
+     *
+     * @param type the type of WorkItem specified by the WorkItemType enum
+     * @param handle the handle passed by async calls - the correlation ID
+     */
+    protected WorkItem(final WorkItemType type, final Handle handle)
+    {
+        _type = type;
+        _handle = handle;
+    }
+
+    /**
+     * Create the payload of a WorkItem constructed without one, called by getParams() the first time it is called.
+     * <p>
+     * The default implementation returns null.
+     *
+     * @return the payload of the work item.
+     */
+    protected Object createParams()
+    {
+        return null;
+    }
+
     /**
      * Return the type of work item.
      * @return the type of work item.
@@ -394,7 +422,43 @@ public class WorkItem
     @SuppressWarnings("unchecked")
     public final <T> T getParams()
     {
-        return (T)_params;
+        Object params = _params;
+        if (params == null)
+        { // If two threads race to create the payload they create equivalent payloads, so either may be retained.
+            params = createParams();
+            _params = params;
+        }
+        return (T)params;
+    }
+
+    /**
+     * Coalesce a newer WorkItem into this one, this is used by a WorkQueue with the COALESCE OverflowPolicy when it
+     * is full. WorkItems that describe the state of objects, such as SubscriptionIndications, override this to merge
+     * the newer WorkItem's objects with their own so that only the latest state of each object is retained.
+     * <p>
+     * The default implementation returns null, as most WorkItems describe events that can't be coalesced.
+     *
+     * @param newer the newer WorkItem.
+     * @return a WorkItem combining this WorkItem and the newer WorkItem, or null if they can't be coalesced.
+     */
+    public WorkItem coalesce(final WorkItem newer)
+    {
+        return null;
+    }
+
+    /**
+     * Return the key identifying the objects whose state this WorkItem describes. A WorkQueue with the COALESCE
+     * OverflowPolicy only attempts to coalesce WorkItems having equal keys, and when it's full only discards WorkItems
+     * that have a key, as a later WorkItem will carry the newer state of their objects. WorkItems that override
+     * coalesce() should override this too.
+     * <p>
+     * The default implementation returns null, as most WorkItems describe events that mustn't be discarded.
+     *
+     * @return the coalesce key, or null if this WorkItem can't be coalesced.
+     */
+    public Object getCoalesceKey()
+    {
+        return null;
     }
 }
 
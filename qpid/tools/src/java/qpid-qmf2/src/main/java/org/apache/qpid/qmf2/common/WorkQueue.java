@@ -21,27 +21,173 @@
 package org.apache.qpid.qmf2.common;
 
 // Misc Imports
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This is an implementation of a QMF2 WorkQueue. In practice this is likely to be used by an Agent or Console.
+ * <p>
+ * By default the WorkQueue is unbounded, however an application that can fall behind a burst of WorkItems, for
+ * example a Console receiving SubscriptionIndications from a large broker, may give the WorkQueue a capacity and an
+ * OverflowPolicy that determines what happens when a WorkItem is added to a full WorkQueue.
+ * <p>
+ * WorkItems may be added one at a time via addWorkItem() or in batches via addWorkItems(), and retrieved one at a
+ * time via getNextWorkitem() or in batches via drainTo().
+ * <p>
+ * WorkItems that describe the state of objects, such as SubscriptionIndications, return a key from
+ * WorkItem.getCoalesceKey(). The WorkQueue keeps the pending WorkItems having a key both in the order they were
+ * added and indexed by key, so that the COALESCE OverflowPolicy can find the WorkItem to coalesce with, or the oldest
+ * such WorkItem to discard, without scanning the WorkQueue.
  *
  * @author Fraser Adams
  */
 public class WorkQueue
 {
     /**
-     * Used to implement a thread safe queue of WorkItem objects
+     * The policies that determine what happens when a WorkItem is added to a WorkQueue that is full.
      */
-    private BlockingQueue<WorkItem> _workQueue = new LinkedBlockingQueue<WorkItem>();
+    public enum OverflowPolicy
+    {
+        /**
+         * Block the thread adding the WorkItem, usually the JMS MessageListener thread, until there is space. This
+         * applies backpressure, so Messages back up on the broker rather than in the application's memory.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest WorkItem on the WorkQueue to make space.
+         */
+        DROP_OLDEST,
+        /**
+         * Coalesce the WorkItem with an older WorkItem describing the same objects, e.g. merge SubscriptionIndications
+         * for the same subscription keeping only the latest state of each ObjectId. If there is no such WorkItem the
+         * oldest WorkItem describing the state of objects is discarded to make space, as a later WorkItem will carry
+         * newer state. WorkItems describing events, such as AGENT_DELETED or METHOD_RESPONSE, are never discarded to
+         * make space, if there is no state to discard the new WorkItem is discarded instead. Either way the thread
+         * adding the WorkItem, usually the JMS MessageListener thread, is never blocked.
+         */
+        COALESCE;
+    }
+
+    /**
+     * A pending WorkItem. Coalescing replaces the WorkItem held by the Slot, so the WorkItem keeps its position.
+     */
+    private static final class Slot
+    {
+        private WorkItem _item;
+        private final Object _key;
+
+        Slot(final WorkItem item)
+        {
+            _item = item;
+            _key = item.getCoalesceKey();
+        }
+    }
+
+    /**
+     * The queue of pending WorkItems in the order they were added, guarded by this WorkQueue's monitor. The Slots use
+     * identity equality, so any Slot can be removed in constant time.
+     */
+    private final LinkedHashSet<Slot> _workQueue = new LinkedHashSet<Slot>();
+
+    /**
+     * The pending Slots whose WorkItems have a coalesce key, in the order they were added.
+     */
+    private final LinkedHashSet<Slot> _states = new LinkedHashSet<Slot>();
+
+    /**
+     * The most recently added pending Slot for each coalesce key.
+     */
+    private final Map<Object, Slot> _latest = new HashMap<Object, Slot>();
+
+    /**
+     * The maximum number of WorkItems, or zero if the WorkQueue is unbounded.
+     */
+    private int _capacity = 0;
+
+    /**
+     * The policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    private OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * The number of WorkItems that have been discarded, rejected or coalesced because the WorkQueue was full.
+     */
+    private long _overflowCount = 0;
+
+    /**
+     * Construct an unbounded WorkQueue.
+     */
+    public WorkQueue()
+    {
+    }
+
+    /**
+     * Construct a bounded WorkQueue.
+     *
+     * @param capacity the maximum number of WorkItems, zero means unbounded.
+     * @param overflowPolicy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public WorkQueue(final int capacity, final OverflowPolicy overflowPolicy)
+    {
+        setCapacity(capacity, overflowPolicy);
+    }
+
+    /**
+     * Set the capacity and OverflowPolicy of the WorkQueue. If the WorkQueue already contains more WorkItems than
+     * the new capacity they are retained but no more will be added until it has been drained below the capacity.
+     *
+     * @param capacity the maximum number of WorkItems, zero means unbounded.
+     * @param overflowPolicy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public synchronized void setCapacity(final int capacity, final OverflowPolicy overflowPolicy)
+    {
+        if (capacity < 0 || overflowPolicy == null)
+        {
+            throw new IllegalArgumentException("WorkQueue capacity must be >= 0 and overflowPolicy must not be null");
+        }
+        _capacity = capacity;
+        _overflowPolicy = overflowPolicy;
+        notifyAll(); // Any threads blocked in addWorkItem() may now have space.
+    }
+
+    /**
+     * Return the capacity of the WorkQueue.
+     * @return the capacity of the WorkQueue, zero means unbounded.
+     */
+    public synchronized int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Return the OverflowPolicy of the WorkQueue.
+     * @return the OverflowPolicy of the WorkQueue.
+     */
+    public synchronized OverflowPolicy getOverflowPolicy()
+    {
+        return _overflowPolicy;
+    }
+
+    /**
+     * Return the number of WorkItems that have been discarded (DROP_OLDEST or COALESCE), rejected (COALESCE) or
+     * coalesced (COALESCE) because the WorkQueue was full. This is useful for monitoring whether an application is
+     * keeping up with its WorkItems.
+     * @return the number of WorkItems that have been discarded, rejected or coalesced.
+     */
+    public synchronized long getOverflowCount()
+    {
+        return _overflowCount;
+    }
 
     /**
      * Return the count of pending WorkItems that can be retrieved.
      * @return the count of pending WorkItems that can be retrieved.
      */
-    public int size()
+    public synchronized int size()
     {
         return _workQueue.size();
     }
@@ -51,11 +197,15 @@ public class WorkQueue
      *
      * @return the next pending work item, or null if none available.
      */
-    public WorkItem getNextWorkitem()
+    public synchronized WorkItem getNextWorkitem()
     {
         try
         {
-            return _workQueue.take();
+            while (_workQueue.isEmpty())
+            {
+                wait();
+            }
+            return remove();
         }
         catch (InterruptedException ie)
         {
@@ -69,38 +219,277 @@ public class WorkQueue
      * @param timeout the timeout in seconds. If timeout = 0 it returns immediately with either a WorkItem or null
      * @return the next pending work item, or null if none available.
      */
-    public WorkItem getNextWorkitem(long timeout)
+    public synchronized WorkItem getNextWorkitem(long timeout)
     {
-        try
+        return awaitWorkItem(timeout*1000) ? remove() : null;
+    }
+
+    /**
+     * Removes up to maxItems pending WorkItems and adds them to the supplied Collection, returning immediately
+     * if there are no pending WorkItems.
+     * <p>
+     * This allows an application to process all of the WorkItems that have arrived since it was last notified
+     * in a single batch rather than retrieving them one at a time.
+     *
+     * @param items the Collection that the WorkItems are added to.
+     * @param maxItems the maximum number of WorkItems to remove.
+     * @return the number of WorkItems added to the Collection.
+     */
+    public int drainTo(final Collection<? super WorkItem> items, final int maxItems)
+    {
+        return drainTo(items, maxItems, 0);
+    }
+
+    /**
+     * Removes up to maxItems pending WorkItems and adds them to the supplied Collection, waiting for up to timeout
+     * seconds for a WorkItem to become available if there are none pending.
+     *
+     * @param items the Collection that the WorkItems are added to.
+     * @param maxItems the maximum number of WorkItems to remove.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately if there are no pending WorkItems.
+     * @return the number of WorkItems added to the Collection.
+     */
+    public synchronized int drainTo(final Collection<? super WorkItem> items, final int maxItems, final long timeout)
+    {
+        if (!awaitWorkItem(timeout*1000))
         {
-            return _workQueue.poll(timeout, TimeUnit.SECONDS);
+            return 0;
         }
-        catch (InterruptedException ie)
+
+        int count = 0;
+        while (count < maxItems && !_workQueue.isEmpty())
         {
-            return null;
+            items.add(removeFirst());
+            count++;
         }
+        if (_capacity > 0)
+        { // Wake any threads blocked in addWorkItem().
+            notifyAll();
+        }
+        return count;
     }
 
     /**
-     * Adds a WorkItem to the WorkQueue. 
+     * Adds a WorkItem to the WorkQueue, applying the OverflowPolicy if the WorkQueue is full.
      *
      * @param item the WorkItem passed to the WorkQueue
      */
-    public void addWorkItem(WorkItem item)
+    public synchronized void addWorkItem(WorkItem item)
     {
-        // We wrap the blocking put() method in a loop "just in case" InterruptedException occurs
-        // if it does we retry the put otherwise we carry on, notify then exit.
-        while (true)
+        boolean interrupted = false;
+        try
         {
-            try
+            while (_capacity > 0 && _workQueue.size() >= _capacity)
             {
-                _workQueue.put(item);
-                break;
+                if (_overflowPolicy == OverflowPolicy.COALESCE)
+                {
+                    _overflowCount++;
+                    if (coalesce(item))
+                    {
+                        return;
+                    }
+                    else if (_states.isEmpty())
+                    { // There's no state to discard, so reject the new WorkItem rather than discard an event.
+                        return;
+                    }
+                    else
+                    {
+                        unlink(_states.iterator().next());
+                    }
+                }
+                else if (_overflowPolicy == OverflowPolicy.DROP_OLDEST)
+                {
+                    removeFirst();
+                    _overflowCount++;
+                }
+                else
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException ie)
+                    { // As before "just in case" InterruptedException occurs we carry on waiting to add the item.
+                        interrupted = true;
+                    }
+                }
             }
-            catch (InterruptedException ie)
+
+            add(item);
+            notifyAll();
+        }
+        finally
+        {
+            if (interrupted)
             {
-                continue;
+                Thread.currentThread().interrupt();
             }
         }
     }
+
+    /**
+     * Adds a batch of WorkItems to the WorkQueue, such as the WorkItems created from a single Message. An unbounded
+     * WorkQueue adds them all at once, waking any waiting threads only once, otherwise each is added in turn
+     * applying the OverflowPolicy as for addWorkItem().
+     *
+     * @param items the WorkItems passed to the WorkQueue
+     */
+    public synchronized void addWorkItems(final Collection<? extends WorkItem> items)
+    {
+        if (_capacity > 0)
+        {
+            for (WorkItem item : items)
+            {
+                addWorkItem(item);
+            }
+        }
+        else if (!items.isEmpty())
+        {
+            for (WorkItem item : items)
+            {
+                add(item);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Puts a WorkItem that was retrieved but couldn't be delivered back at the head of the WorkQueue, so that it is
+     * the next WorkItem retrieved. The WorkItem is put back even if the WorkQueue is full, as it has already been
+     * admitted by the OverflowPolicy. This copies the pending WorkItems so it is intended for the rare failure case.
+     *
+     * @param item the WorkItem to put back.
+     */
+    public synchronized void pushBack(final WorkItem item)
+    {
+        Slot slot = new Slot(item);
+        List<Slot> slots = new ArrayList<Slot>(_workQueue);
+        _workQueue.clear();
+        _workQueue.add(slot);
+        _workQueue.addAll(slots);
+        if (slot._key != null)
+        {
+            slots = new ArrayList<Slot>(_states);
+            _states.clear();
+            _states.add(slot);
+            _states.addAll(slots);
+            if (!_latest.containsKey(slot._key))
+            { // Any pending WorkItem with the same key is newer, so it remains the one to coalesce with.
+                _latest.put(slot._key, slot);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Attempt to coalesce a WorkItem with the most recent pending WorkItem having the same coalesce key. Must be
+     * called holding the monitor.
+     *
+     * @param item the WorkItem to coalesce.
+     * @return true if the WorkItem was coalesced, otherwise false.
+     */
+    private boolean coalesce(final WorkItem item)
+    {
+        Object key = item.getCoalesceKey();
+        Slot slot = (key == null) ? null : _latest.get(key);
+        if (slot != null)
+        {
+            WorkItem coalesced = slot._item.coalesce(item);
+            if (coalesced != null)
+            {
+                slot._item = coalesced;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a WorkItem to the end of the WorkQueue. Must be called holding the monitor.
+     *
+     * @param item the WorkItem to add.
+     */
+    private void add(final WorkItem item)
+    {
+        Slot slot = new Slot(item);
+        _workQueue.add(slot);
+        if (slot._key != null)
+        {
+            _states.add(slot);
+            _latest.put(slot._key, slot);
+        }
+    }
+
+    /**
+     * Remove the first WorkItem. Must be called holding the monitor.
+     *
+     * @return the first WorkItem.
+     */
+    private WorkItem removeFirst()
+    {
+        Slot slot = _workQueue.iterator().next();
+        unlink(slot);
+        return slot._item;
+    }
+
+    /**
+     * Remove a Slot from the WorkQueue and from the coalescing indexes. Must be called holding the monitor.
+     *
+     * @param slot the Slot to remove.
+     */
+    private void unlink(final Slot slot)
+    {
+        _workQueue.remove(slot);
+        if (slot._key != null)
+        {
+            _states.remove(slot);
+            if (_latest.get(slot._key) == slot)
+            {
+                _latest.remove(slot._key);
+            }
+        }
+    }
+
+    /**
+     * Wait for up to timeout milliseconds for a WorkItem to become available. Must be called holding the monitor.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return true if a WorkItem is available, otherwise false.
+     */
+    private boolean awaitWorkItem(final long timeout)
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        try
+        {
+            while (_workQueue.isEmpty())
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+        catch (InterruptedException ie)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Remove the next WorkItem, waking any threads blocked in addWorkItem(). Must be called holding the monitor.
+     *
+     * @return the next WorkItem.
+     */
+    private WorkItem remove()
+    {
+        WorkItem item = removeFirst();
+        if (_capacity > 0)
+        { // Only a bounded WorkQueue can have threads blocked in addWorkItem().
+            notifyAll();
+        }
+        return item;
+    }
 }
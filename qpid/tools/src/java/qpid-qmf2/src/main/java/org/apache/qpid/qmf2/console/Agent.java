@@ -62,7 +62,8 @@ public final class Agent extends QmfData
     private long                            _heartbeatInterval;
     private long                            _timestamp;
     private boolean                         _eventsEnabled = true;
-    private boolean                         _isActive = true;
+    private volatile boolean                _isActive = true;
+    private volatile long                   _expiryTime;
 
     /**
      * The main constructor, taking a java.util.Map as a parameter. In essence it "deserialises" its state from the Map.
@@ -87,7 +88,7 @@ public final class Agent extends QmfData
      * @param m the Map used to initialise the Agent.
      */
     @SuppressWarnings("unchecked")
-    public void initialise(final Map m)
+    public synchronized void initialise(final Map m)
     {        
         Map<String, Object> values = (Map<String, Object>)m.get("_values");
         _values = (values == null) ? m : values;
@@ -156,7 +157,7 @@ public final class Agent extends QmfData
      * Return the Epoch stamp.
      * @return the Epoch stamp, used to determine if an Agent has been restarted.
      */
-    public long getEpoch()
+    public synchronized long getEpoch()
     {
         return _epoch;
     }
@@ -165,11 +166,30 @@ public final class Agent extends QmfData
      * Set the Epoch stamp.
      * @param epoch the new Epoch stamp, used to indicate that an Agent has been restarted.
      */
-    public void setEpoch(long epoch)
+    public synchronized void setEpoch(long epoch)
     {
         _epoch = epoch;
     }
 
+    /**
+     * Atomically set the Epoch stamp if it currently has the expected value. The Console notices that an Agent has
+     * been restarted both from its heartbeats and from the ObjectIds of its data, on different threads, and uses this
+     * so that only the thread that actually changes the Epoch handles the restart.
+     *
+     * @param expect the expected current Epoch stamp.
+     * @param update the new Epoch stamp.
+     * @return true if the Epoch stamp was changed, false if it didn't have the expected value.
+     */
+    public synchronized boolean compareAndSetEpoch(final long expect, final long update)
+    {
+        if (_epoch != expect)
+        {
+            return false;
+        }
+        _epoch = update;
+        return true;
+    }
+
     /**
      * Return the time that the Agent waits between sending hearbeat messages.
      * @return the time that the Agent waits between sending hearbeat messages.
@@ -188,6 +208,25 @@ public final class Agent extends QmfData
         return _timestamp;
     }
 
+    /**
+     * Return the local time in milliseconds at which the Console will expire the Agent unless it sends a heartbeat.
+     * @return the local time in milliseconds at which the Console will expire the Agent.
+     */
+    long getExpiryTime()
+    {
+        return _expiryTime;
+    }
+
+    /**
+     * Set the local time in milliseconds at which the Console will expire the Agent unless it sends a heartbeat.
+     * Called by the Console whenever it receives a heartbeat from the Agent.
+     * @param expiryTime the local time in milliseconds at which the Console will expire the Agent.
+     */
+    void setExpiryTime(final long expiryTime)
+    {
+        _expiryTime = expiryTime;
+    }
+
     /**
      * Return true if the agent is alive.
      * @return true if the agent is alive (heartbeats have not timed out).
@@ -290,6 +329,30 @@ public final class Agent extends QmfData
         }
     }
 
+    /**
+     * Sends an asynchronous method request to the Agent, returning a QmfFuture that completes with the MethodResult.
+     * Delegates to the AgentProxy to actually send the method as it's the AgentProxy that knows about connections,
+     * sessions and messages.
+     *
+     * @param objectId the objectId of the remote object.
+     * @param name the remote method name.
+     * @param inArgs the formal parameters of the remote method name.
+     * @param timeout the maximum time to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    protected QmfFuture<MethodResult> invokeMethodAsync(final ObjectId objectId, final String name,
+                                                        final QmfData inArgs, final int timeout) throws QmfException
+    {
+        if (isActive())
+        {
+            return _proxy.invokeMethodAsync(this, createRequest(objectId, name, inArgs), timeout);
+        }
+        else
+        {
+            throw new QmfException("Agent.invokeMethodAsync() called from deactivated Agent");
+        }
+    }
+
     /**
      * Sends a method request to the Agent. Delegates to the AgentProxy to actually send the method as it's the
      * AgentProxy that knows about connections, sessions and messages.
@@ -330,6 +393,22 @@ public final class Agent extends QmfData
         invokeMethod(null, name, inArgs, replyHandle);
     }
 
+    /**
+     * Sends an asynchronous method request to the Agent, returning a QmfFuture that completes with the MethodResult.
+     * Delegates to the AgentProxy to actually send the method as it's the AgentProxy that knows about connections,
+     * sessions and messages.
+     *
+     * @param name the remote method name.
+     * @param inArgs the formal parameters of the remote method name.
+     * @param timeout the maximum time to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(final String name, final QmfData inArgs, final int timeout)
+        throws QmfException
+    {
+        return invokeMethodAsync(null, name, inArgs, timeout);
+    }
+
     /**
      * Remove a Subscription. Delegates to the AgentProxy to actually remove the Subscription as it's the AgentProxy
      * that really knows about subscriptions.
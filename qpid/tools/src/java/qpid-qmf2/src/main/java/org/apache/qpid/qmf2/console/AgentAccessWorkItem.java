@@ -38,6 +38,8 @@ import org.apache.qpid.qmf2.common.WorkItem;
 
 public abstract class AgentAccessWorkItem extends WorkItem
 {
+    private final Agent _agent;
+
     /**
      * Helper method to create the WorkItem params as a Map.
      *
@@ -65,16 +67,40 @@ public abstract class AgentAccessWorkItem extends WorkItem
     public AgentAccessWorkItem(final WorkItemType type, final Handle handle, final Object params)
     {
         super(type, handle, params);
+        _agent = (params instanceof Map) ? (Agent)((Map)params).get("agent") : null;
+    }
+
+    /**
+     * Construct an AgentAccessWorkItem holding the Agent directly, the params Map is only created if getParams()
+     * is called.
+     *
+     * @param type the type of WorkItem specified by the WorkItemType enum
+     * @param handle the handle passed by async calls - the correlation ID
+     * @param agent the Agent associated with the WorkItem.
+     */
+    protected AgentAccessWorkItem(final WorkItemType type, final Handle handle, final Agent agent)
+    {
+        super(type, handle);
+        _agent = agent;
+    }
+
+    /**
+     * Create the params Map holding the Agent, called if getParams() is called.
+     * @return the params Map holding the Agent.
+     */
+    @Override
+    protected Object createParams()
+    {
+        return newParams(_agent, null);
     }
 
     /**
-     * Return the Agent stored in the params Map.
-     * @return the Agent stored in the params Map.
+     * Return the Agent associated with the WorkItem, which is the Agent stored in the params Map.
+     * @return the Agent associated with the WorkItem.
      */
     public final Agent getAgent()
     {
-        Map<String, Object> p = this.<Map<String, Object>>getParams();
-        return (Agent)p.get("agent");
+        return _agent;
     }
 }
 
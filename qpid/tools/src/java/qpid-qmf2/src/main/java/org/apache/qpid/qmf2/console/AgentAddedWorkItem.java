@@ -43,7 +43,7 @@ public final class AgentAddedWorkItem extends AgentAccessWorkItem
      */
     public AgentAddedWorkItem(final Agent agent)
     {
-        super(WorkItemType.AGENT_ADDED, null, newParams(agent, null));
+        super(WorkItemType.AGENT_ADDED, null, agent);
     }
 }
 
@@ -44,7 +44,7 @@ public final class AgentDeletedWorkItem extends AgentAccessWorkItem
      */
     public AgentDeletedWorkItem(final Agent agent)
     {
-        super(WorkItemType.AGENT_DELETED, null, newParams(agent, null));
+        super(WorkItemType.AGENT_DELETED, null, agent);
     }
 }
 
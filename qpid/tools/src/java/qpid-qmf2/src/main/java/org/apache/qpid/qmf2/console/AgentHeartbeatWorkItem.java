@@ -42,7 +42,7 @@ public final class AgentHeartbeatWorkItem extends AgentAccessWorkItem
      */
     public AgentHeartbeatWorkItem(final Agent agent)
     {
-        super(WorkItemType.AGENT_HEARTBEAT, null, newParams(agent, null));
+        super(WorkItemType.AGENT_HEARTBEAT, null, agent);
     }
 }
 
@@ -75,6 +75,16 @@ public interface AgentProxy
      */
     public MethodResult invokeMethod(Agent agent, Map<String, Object> content, String replyHandle, int timeout) throws QmfException;
 
+    /**
+     * Invoke the named method on the named Agent asynchronously.
+     *
+     * @param agent the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @param timeout the maximum time to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(Agent agent, Map<String, Object> content, int timeout) throws QmfException;
+
     /**
      * Remove a Subscription.
      *
@@ -40,7 +40,7 @@ public final class AgentRestartedWorkItem extends AgentAccessWorkItem
      */
     public AgentRestartedWorkItem(final Agent agent)
     {
-        super(WorkItemType.AGENT_RESTARTED, null, newParams(agent, null));
+        super(WorkItemType.AGENT_RESTARTED, null, agent);
     }
 }
 
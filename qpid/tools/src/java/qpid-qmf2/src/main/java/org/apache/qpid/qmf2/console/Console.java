@@ -39,15 +39,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // Misc Imports
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.AMQPMessage;
@@ -65,8 +76,7 @@ import org.apache.qpid.qmf2.common.QmfQuery;
 import org.apache.qpid.qmf2.common.QmfQueryTarget;
 import org.apache.qpid.qmf2.common.SchemaClass;
 import org.apache.qpid.qmf2.common.SchemaClassId;
-import org.apache.qpid.qmf2.common.SchemaEventClass;
-import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.ScheduledTask;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.common.WorkQueue;
 
@@ -209,18 +219,53 @@ public final class Console implements MessageListener, AgentProxy
     /**
      * Explicitly store Agents in a ConcurrentHashMap, as we know the MessageListener thread may modify its contents.
      */
-    private Map<String, Agent> _agents = new ConcurrentHashMap<String, Agent>();
+    private ConcurrentMap<String, Agent> _agents = new ConcurrentHashMap<String, Agent>();
 
     /**
      * This Map is used to look up a Subscription by consoleHandle. 
      */
-    private Map<String, SubscriptionManager> _subscriptionByHandle = new ConcurrentHashMap<String, SubscriptionManager>();
+    private ConcurrentMap<String, SubscriptionManager> _subscriptionByHandle =
+        new ConcurrentHashMap<String, SubscriptionManager>();
 
     /**
      * This Map is used to look up a Subscription by subscriptionId
      */
     private Map<String, SubscriptionManager> _subscriptionById = new ConcurrentHashMap<String, SubscriptionManager>();
 
+    /**
+     * The prefix of the correlation IDs of the requests made by the methods returning a QmfFuture, responses whose
+     * correlation IDs have this prefix are never delivered as WorkItems.
+     */
+    private static final String ASYNC_PREFIX = "qmf2-future-";
+
+    /**
+     * The source of the numeric part of the correlation IDs of the requests made by the methods returning a QmfFuture.
+     */
+    private final AtomicLong _nextAsyncId = new AtomicLong();
+
+    /**
+     * This Map is used to look up the outstanding requests made by the methods returning a QmfFuture by their
+     * correlation IDs so that the responses can complete the QmfFutures on the listener thread.
+     */
+    private Map<String, AsyncRequest<?>> _asyncRequests = new ConcurrentHashMap<String, AsyncRequest<?>>();
+
+    /**
+     * The schema retrieved from all Agents keyed by their full SchemaClassId, so that Agents supporting the same
+     * schema share it and restarted Agents don't need to retrieve unchanged schema again.
+     */
+    private volatile SchemaCache _schemaCache = new SchemaCache();
+
+    /**
+     * The prefix of the consoleHandles of the Subscriptions created to keep ObjectReplicas up to date, the updates
+     * from these Subscriptions are applied to the ObjectReplicas and are never delivered as WorkItems.
+     */
+    private static final String REPLICA_PREFIX = "qmf2-replica-";
+
+    /**
+     * The ObjectReplicas created by createReplica(), which are updated by the _data indications from their Agents.
+     */
+    private List<ObjectReplica> _replicas = new CopyOnWriteArrayList<ObjectReplica>();
+
     /**
      * Used to implement a thread safe queue of WorkItem objects used to implement the Notifier API
      */
@@ -274,6 +319,17 @@ public final class Console implements MessageListener, AgentProxy
      */
     private boolean _subscriptionEmulationEnabled = !Boolean.getBoolean("disable_subscription_emulation");
 
+    /**
+     * The Subscriptions emulated on the Console for the broker Agent, indexed so that the objects pushed by the
+     * broker are only evaluated against the Subscriptions that may match them.
+     */
+    private final SubscriptionIndex _emulatedSubscriptions = new SubscriptionIndex();
+
+    /**
+     * Evaluates the objects pushed by the broker Agent against the emulated Subscriptions off the listener thread.
+     */
+    private final SubscriptionEmulator _subscriptionEmulator = new SubscriptionEmulator();
+
     /**
      * Various timeouts used internally.
      * replyTimeout is the default maximum time we wait for synchronous responses
@@ -285,10 +341,11 @@ public final class Console implements MessageListener, AgentProxy
     private int _subscriptionDuration = 300; // 5 minutes
 
     /**
-     * This timer is used tidy up Subscription references where a Subscription has expired. Ideally a client should
-     * call cancelSubscription(), but we can't rely on it.
+     * This scheduler is used tidy up Subscription references where a Subscription has expired. Ideally a client
+     * should call cancelSubscription(), but we can't rely on it. It is also used to time out asynchronous requests.
+     * Unless setScheduler() is called this is the scheduler shared by all Consoles and Agents in the JVM.
      */
-    private Timer _timer;
+    private volatile ScheduledExecutorService _scheduler = ScheduledTask.getDefaultScheduler();
 
     /**
      * Various JMS related fields
@@ -296,14 +353,23 @@ public final class Console implements MessageListener, AgentProxy
     private Connection      _connection = null;
     private Session         _asyncSession;
     private Session         _syncSession; 
+    private Session         _responseSession;
     private MessageConsumer _eventConsumer;
     private MessageConsumer _responder; 
+    private ResponseDispatcher _responseDispatcher = new ResponseDispatcher("sync-");
     private MessageConsumer _asyncResponder;
     private MessageProducer _requester; 
     private MessageProducer _broadcaster;
     private Destination     _replyAddress;
     private Destination     _asyncReplyAddress;
 
+    /**
+     * Serialises the use of _syncSession, which creates the request Messages and whose MessageProducers send them,
+     * as like any JMS Session it may only be used by one thread at a time. The _responder that the ResponseDispatcher
+     * receives on has a Session of its own so that receiving responses never uses _syncSession.
+     */
+    private final Object _sessionLock = new Object();
+
     //                                  private implementation methods
     // ********************************************************************************************************
 
@@ -316,14 +382,21 @@ public final class Console implements MessageListener, AgentProxy
     {
         try
         {
-            Message request = AMQPMessage.createListMessage(_syncSession);
+            Message request;
+            synchronized(_sessionLock)
+            {
+                request = AMQPMessage.createListMessage(_syncSession);
+            }
             request.setJMSReplyTo(_asyncReplyAddress);
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_agent_locate_request");
             request.setStringProperty("qpid.subject", "console.request.agent_locate");
             AMQPMessage.setList(request, Collections.emptyList());
-            _broadcaster.send(request);
+            synchronized(_sessionLock)
+            {
+                _broadcaster.send(request);
+            }
         }
         catch (JMSException jmse)
         {
@@ -332,37 +405,484 @@ public final class Console implements MessageListener, AgentProxy
     }
 
     /**
-     * Check whether any of the registered Agents has expired by comparing their timestamp against the 
-     * current time. We explicitly use an iterator rather than a foreach loop because if the Agent has
-     * expired we want to remove it and the only safe way to do that whilst still iterating is to use
-     * iterator.remove() and the foreach loop hides the underlying iterator from us.
+     * Create a MapMessage for a request. Each thread populates the Message that it creates, but creating it uses the
+     * shared _syncSession so is serialised with the other uses of the Session.
+     *
+     * @return a new MapMessage.
+     */
+    private MapMessage createRequestMessage() throws JMSException
+    {
+        synchronized(_sessionLock)
+        {
+            return _syncSession.createMapMessage();
+        }
+    }
+
+    /**
+     * Send a request to the QMF direct address. The MessageProducer is shared by all of the threads making requests,
+     * but the Session lock is only held for the duration of the send, the responses are routed by the
+     * _responseDispatcher so many requests may be outstanding at once.
+     *
+     * @param request the request Message to send.
+     */
+    private void sendRequest(final Message request) throws JMSException
+    {
+        synchronized(_sessionLock)
+        {
+            _requester.send(request);
+        }
+    }
+
+    /**
+     * The SubscriptionEmulator evaluates the _data indications pushed by the broker Agent against the emulated
+     * Subscriptions. onMessage() simply queues the indications, which are then evaluated in order on the _scheduler
+     * by at most one thread at a time. This keeps the potentially expensive evaluation off the listener thread,
+     * while still delivering each Subscription's indications in the order that the broker pushed them.
+     */
+    private final class SubscriptionEmulator implements Runnable
+    {
+        private final Queue<Runnable> _pending = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean _running = new AtomicBoolean(false);
+
+        /**
+         * Queue a _data indication for evaluation against the emulated Subscriptions.
+         *
+         * @param agent the Agent that pushed the _data indication.
+         * @param list the objects from the _data indication.
+         */
+        public void add(final Agent agent, final List<Map> list)
+        {
+            _pending.add(new Runnable()
+            {
+                public void run()
+                {
+                    emulateSubscriptions(agent, list);
+                }
+            });
+
+            if (_running.compareAndSet(false, true))
+            {
+                _scheduler.execute(this);
+            }
+        }
+
+        /**
+         * Evaluate the queued _data indications until there are none left.
+         */
+        public void run()
+        {
+            do
+            {
+                Runnable indication;
+                while ((indication = _pending.poll()) != null)
+                {
+                    try
+                    {
+                        indication.run();
+                    }
+                    catch (RuntimeException re)
+                    {
+                        _log.info("RuntimeException {} caught in SubscriptionEmulator.run()", re.getMessage());
+                    }
+                }
+                // Clear _running then check again, in case an indication was queued after the last poll() but
+                // before _running was cleared, as add() won't have executed this SubscriptionEmulator.
+                _running.set(false);
+            } while (!_pending.isEmpty() && _running.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * An AsyncRequest tracks an outstanding request made by one of the methods returning a QmfFuture. Its
+     * correlation IDs are registered in _asyncRequests so that onMessage() can pass it the responses, and it is
+     * scheduled on the _scheduler so that its QmfFuture is failed if the responses don't arrive in time. Once the
+     * QmfFuture completes, however that happens, the AsyncRequest unregisters itself and cancels its timeout.
      */
-    private void handleAgentExpiry()
+    private abstract class AsyncRequest<T> extends ScheduledTask implements QmfFutureListener<T>
     {
-        long currentTime = System.currentTimeMillis()*1000000l;
+        protected final QmfFuture<T> _future = new QmfFuture<T>();
+        private final List<String> _correlationIds = new ArrayList<String>(1);
+        private final String _method;
+
+        /**
+         * Construct an AsyncRequest.
+         *
+         * @param method the name of the Console method making the request, used in the timeout failure.
+         */
+        AsyncRequest(final String method)
+        {
+            _method = method;
+            _future.addListener(this);
+        }
+
+        /**
+         * Register a new correlation ID for this request, this must be called before the request is sent.
+         *
+         * @return the correlation ID that should be used for the request Message.
+         */
+        final synchronized String register()
+        {
+            String correlationId = ASYNC_PREFIX + _nextAsyncId.incrementAndGet();
+            _correlationIds.add(correlationId);
+            _asyncRequests.put(correlationId, this);
+            return correlationId;
+        }
+
+        /**
+         * Start the timeout once the request has been sent, unless the response has already completed _future.
+         *
+         * @param timeout the time in milliseconds after which onTimeout() is called if the request is still
+         *        outstanding.
+         */
+        final synchronized void start(final long timeout)
+        {
+            if (!_future.isDone())
+            {
+                schedule(_scheduler, timeout);
+            }
+        }
 
-        // Use the iterator approach rather than foreach as we may want to call iterator.remove() to zap an entry
-        Iterator<Agent> i = _agents.values().iterator();
-        while (i.hasNext())
+        /**
+         * Pass a response to the request, called on the listener thread by onMessage().
+         *
+         * @param correlationId the correlation ID of the response.
+         * @param response the response Message.
+         */
+        final synchronized void handleResponse(final String correlationId, final Message response)
         {
-            Agent agent = i.next();
-            // Get the time difference in seconds between now and the last Agent update.
-            long diff = (currentTime - agent.getTimestamp())/1000000000l;
-            if (diff > _agentTimeout)
+            if (!_future.isDone())
             {
-                if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
-                {            
-                    _brokerAgentName = null;
+                try
+                {
+                    onResponse(correlationId, response);
                 }
-                agent.deactivate();
-                i.remove();
-                _log.info("Agent {} has expired", agent.getName());
-                if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+                catch (JMSException jmse)
                 {
-                    _eventListener.onEvent(new AgentDeletedWorkItem(agent));
+                    _log.info("JMSException {} caught in {}()", jmse.getMessage(), _method);
+                    _future.fail(new QmfException(jmse.getMessage()));
                 }
             }
         }
+
+        /**
+         * Process a response, which should normally complete _future.
+         *
+         * @param correlationId the correlation ID of the response.
+         * @param response the response Message.
+         */
+        abstract void onResponse(String correlationId, Message response) throws JMSException;
+
+        /**
+         * Called if the request is still outstanding when the timeout expires, by default this fails _future.
+         */
+        void onTimeout()
+        {
+            _log.info("No response received in {}()", _method);
+            _future.fail(new QmfException("No response received for Console." + _method + "()"));
+        }
+
+        /**
+         * ScheduledTask run() method, called when the timeout expires.
+         */
+        public final synchronized void run()
+        {
+            if (!_future.isDone())
+            {
+                onTimeout();
+            }
+        }
+
+        /**
+         * Unregister the request and cancel the timeout once _future has completed successfully.
+         *
+         * @param result the result of the request.
+         */
+        public final void onSuccess(final T result)
+        {
+            finish();
+        }
+
+        /**
+         * Unregister the request and cancel the timeout once _future has failed or been cancelled.
+         *
+         * @param cause the reason for the failure.
+         */
+        public final void onFailure(final Throwable cause)
+        {
+            finish();
+        }
+
+        /**
+         * Unregister the request's remaining correlation IDs and cancel the timeout.
+         */
+        private synchronized void finish()
+        {
+            for (String correlationId : _correlationIds)
+            {
+                _asyncRequests.remove(correlationId);
+            }
+            _correlationIds.clear();
+            cancel();
+        }
+
+        /**
+         * Unregister a correlation ID that will receive no further responses.
+         *
+         * @param correlationId the correlation ID to unregister.
+         */
+        final synchronized void unregister(final String correlationId)
+        {
+            _correlationIds.remove(correlationId);
+            _asyncRequests.remove(correlationId);
+        }
+    }
+
+    /**
+     * An ObjectQueryRequest tracks a query for QmfConsoleData objects sent to a number of Agents by getObjectsAsync().
+     * Like the blocking getObjects() its QmfFuture completes with the results grouped by Agent in the order of the
+     * agentList once every Agent has sent its last response, or with the results retrieved to date when the timeout
+     * expires.
+     */
+    private final class ObjectQueryRequest extends AsyncRequest<List<QmfConsoleData>>
+    {
+        private final List<Agent> _agentList;
+        private final List<List<QmfConsoleData>> _agentResults;
+        private final Map<String, Integer> _pending;
+
+        /**
+         * Construct an ObjectQueryRequest.
+         *
+         * @param agentList the Agents the query is sent to.
+         */
+        ObjectQueryRequest(final List<Agent> agentList)
+        {
+            super("getObjectsAsync");
+            int agentCount = agentList.size();
+            _agentList = agentList;
+            _agentResults = new ArrayList<List<QmfConsoleData>>(agentCount);
+            _pending = new HashMap<String, Integer>(agentCount*2);
+            for (int i = 0; i < agentCount; i++)
+            {
+                _agentResults.add(new ArrayList<QmfConsoleData>());
+            }
+        }
+
+        /**
+         * Send the query to each of the Agents. Agents that the query can't be sent to are treated as having
+         * returned no results.
+         *
+         * @param query the ObjectId or SchemaClassId being queried for.
+         * @param timeout the time in milliseconds to wait for the responses.
+         */
+        synchronized void send(final QmfData query, final long timeout)
+        {
+            for (int i = 0; i < _agentList.size(); i++)
+            {
+                String agentName = _agentList.get(i).getName();
+                String correlationId = register();
+                _pending.put(correlationId, i);
+                try
+                {
+                    sendRequest(createObjectQueryRequest(agentName, query, _asyncReplyAddress, correlationId));
+                }
+                catch (JMSException jmse)
+                {
+                    _log.info("JMSException {} caught in getObjectsAsync() sending to {}", jmse.getMessage(), agentName);
+                    _pending.remove(correlationId);
+                    unregister(correlationId);
+                }
+            }
+
+            if (_pending.isEmpty())
+            {
+                _future.complete(getResults());
+            }
+            else
+            {
+                start(timeout);
+            }
+        }
+
+        /**
+         * Add the objects contained in a (possibly partial) response to the results.
+         */
+        void onResponse(final String correlationId, final Message response) throws JMSException
+        {
+            Integer index = _pending.get(correlationId);
+            if (index == null)
+            {
+                return;
+            }
+
+            if (!response.propertyExists("partial"))
+            {
+                _pending.remove(correlationId);
+                unregister(correlationId);
+            }
+
+            _agentResults.get(index).addAll(decodeObjectQueryResponse(response, _agentList.get(index)));
+            if (_pending.isEmpty())
+            {
+                _future.complete(getResults());
+            }
+        }
+
+        /**
+         * Complete with the results retrieved to date.
+         */
+        @Override
+        void onTimeout()
+        {
+            _log.info("No response received in getObjectsAsync() from {} of {} Agents",
+                      _pending.size(), _agentList.size());
+            _future.complete(getResults());
+        }
+
+        /**
+         * Return the results grouped by Agent in the order of the agentList.
+         */
+        private List<QmfConsoleData> getResults()
+        {
+            List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+            for (List<QmfConsoleData> objects : _agentResults)
+            {
+                results.addAll(objects);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * A SubscriptionRequest tracks a request made by createSubscriptionAsync() or refreshSubscriptionAsync(). The
+     * responses to createSubscriptionAsync() are correlated by consoleHandle so they complete the QmfFuture held by
+     * the SubscriptionManager, whereas the responses to refreshSubscriptionAsync() are passed to onResponse().
+     */
+    private final class SubscriptionRequest extends AsyncRequest<SubscribeParams>
+    {
+        private SubscriptionManager _subscription;
+
+        /**
+         * Construct a SubscriptionRequest.
+         *
+         * @param method the name of the Console method making the request, used in the timeout failure.
+         */
+        SubscriptionRequest(final String method)
+        {
+            super(method);
+        }
+
+        /**
+         * Set the Subscription being refreshed, this must be called before the request is registered.
+         *
+         * @param subscription the Subscription being refreshed.
+         */
+        void setSubscription(final SubscriptionManager subscription)
+        {
+            _subscription = subscription;
+        }
+
+        /**
+         * Complete with the response to a refreshSubscriptionAsync() request.
+         */
+        void onResponse(final String correlationId, final Message response) throws JMSException
+        {
+            _future.complete(handleRefreshResponse(_subscription, response));
+        }
+
+        /**
+         * As with the blocking refreshSubscription() a Subscription whose refresh gets no response is cancelled.
+         */
+        @Override
+        void onTimeout()
+        {
+            if (_subscription != null)
+            {
+                _subscription.cancel();
+            }
+            super.onTimeout();
+        }
+    }
+
+    /**
+     * An AgentExpiry is scheduled on the _scheduler to expire an Agent once no heartbeat has been received from it
+     * for _agentTimeout seconds.
+     * <p>
+     * Rather than cancelling and rescheduling the AgentExpiry on every heartbeat, a heartbeat simply moves the
+     * Agent's expiry time on. When the AgentExpiry runs it checks the expiry time, and if that has moved on it
+     * schedules a new AgentExpiry for the time remaining. So a heartbeat costs O(1) however many Agents there are,
+     * each Agent has at most one AgentExpiry scheduled per _agentTimeout however often it heartbeats, and Agents
+     * expire on time even if no heartbeats are being received from any Agent.
+     */
+    private final class AgentExpiry extends ScheduledTask
+    {
+        private final Agent _agent;
+
+        /**
+         * Construct an AgentExpiry for the specified Agent.
+         *
+         * @param agent the Agent to expire.
+         */
+        public AgentExpiry(final Agent agent)
+        {
+            _agent = agent;
+        }
+
+        /**
+         * Expire the Agent if its expiry time has passed, otherwise check again when it is due.
+         */
+        public void run()
+        {
+            if (!_agent.isActive())
+            { // The Agent has already been expired, destroyed or released by removeConnection().
+                return;
+            }
+
+            long remaining = _agent.getExpiryTime() - System.currentTimeMillis();
+            if (remaining > 0)
+            {
+                new AgentExpiry(_agent).schedule(_scheduler, remaining);
+            }
+            else
+            {
+                expireAgent(_agent);
+            }
+        }
+    }
+
+    /**
+     * Record that an Agent is alive, moving its expiry time on by _agentTimeout seconds. The expiry time is based
+     * on the local time that the heartbeat was received rather than the Agent's timestamp, so it isn't affected by
+     * any difference between the clocks of the Agent and the Console.
+     *
+     * @param agent the Agent that has sent a heartbeat.
+     */
+    private void refreshAgent(final Agent agent)
+    {
+        agent.setExpiryTime(System.currentTimeMillis() + _agentTimeout*1000l);
+    }
+
+    /**
+     * Expire an Agent, removing it from the registered Agents and sending an AgentDeletedWorkItem. This is called
+     * by the Agent's AgentExpiry on a _scheduler thread, or when the Agent is destroyed.
+     *
+     * @param agent the Agent to expire.
+     */
+    private void expireAgent(final Agent agent)
+    {
+        // Only the call that actually removes the Agent deletes it, in case the Agent is destroyed as it expires.
+        if (_agents.remove(agent.getName(), agent))
+        {
+            if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
+            {
+                _brokerAgentName = null;
+            }
+            agent.deactivate();
+            _log.info("Agent {} has expired", agent.getName());
+            if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+            {
+                _eventListener.onEvent(new AgentDeletedWorkItem(agent));
+            }
+        }
     }
 
     /**
@@ -392,22 +912,24 @@ public final class Console implements MessageListener, AgentProxy
                 if (_agents.containsKey(agentName))
                 { // This block handles Agents that have previously been registered
                     Agent agent = _agents.get(agentName);
-                    long originalEpoch = agent.getEpoch();
+                    Map map = AMQPMessage.getMap(message);
 
-                    // If we already know about an Agent we simply update the Agent's state using initialise()
-                    agent.initialise(AMQPMessage.getMap(message));
+                    // If we already know about an Agent we simply update the Agent's state using initialise(). This
+                    // is done holding the Agent's monitor, so the Epoch can't also be changed by emulateSubscriptions()
+                    // between checking and updating it, see Agent.compareAndSetEpoch().
+                    boolean restarted;
+                    synchronized (agent)
+                    {
+                        long originalEpoch = agent.getEpoch();
+                        agent.initialise(map);
+                        restarted = agent.getEpoch() != originalEpoch;
+                    }
+                    refreshAgent(agent);
 
                     // If the Epoch has changed it means the Agent has been restarted so we send a notification
-                    if (agent.getEpoch() != originalEpoch)
+                    if (restarted)
                     {
-                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                        List<SchemaClassId> classes = getClasses(agent);
-                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
-                        _log.info("Agent {} has been restarted", agentName);
-                        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
-                        {
-                            _eventListener.onEvent(new AgentRestartedWorkItem(agent));
-                        }
+                        agentRestarted(agent);
                     }
                     else
                     { // Otherwise just send a heartbeat notification
@@ -424,6 +946,8 @@ public final class Console implements MessageListener, AgentProxy
                     List<SchemaClassId> classes = getClasses(agent);
                     getSchema(classes, agent); // Discover the schema for this Agent and cache it
                     _agents.put(agentName, agent);
+                    refreshAgent(agent);
+                    new AgentExpiry(agent).schedule(_scheduler, _agentTimeout*1000l);
                     _log.info("Adding Agent {}", agentName);
 
                     // If the Agent is the Broker Agent we record it as _brokerAgentName to make retrieving
@@ -452,11 +976,24 @@ public final class Console implements MessageListener, AgentProxy
                         _eventListener.onEvent(new AgentAddedWorkItem(agent));
                     }
                 }
+                return;
+            }
 
-                // The broker Agent sends periodic heartbeats and that Agent should *always* be available given
-                // a running broker, so we should get here every "--mgmt-pub-interval" seconds or so, so it's
-                // a good place to periodically check for the expiry of any other Agents.
-                handleAgentExpiry();
+            // Responses to the requests made by the methods returning a QmfFuture complete the QmfFuture here on
+            // the listener thread rather than being delivered as WorkItems. Late responses, arriving after their
+            // request has timed out or been cancelled, are discarded.
+            String correlationId = message.getJMSCorrelationID();
+            if (correlationId != null && correlationId.startsWith(ASYNC_PREFIX))
+            {
+                AsyncRequest<?> request = _asyncRequests.get(correlationId);
+                if (request == null)
+                {
+                    _log.debug("Discarding response with unknown correlation ID {}", correlationId);
+                }
+                else
+                {
+                    request.handleResponse(correlationId, message);
+                }
                 return;
             }
 
@@ -497,11 +1034,13 @@ public final class Console implements MessageListener, AgentProxy
             {
                 if (AMQPMessage.isAMQPList(message))
                 {
-                    List<Map> list = AMQPMessage.getList(message);
+                    List<Map> list = AMQPMessage.getLazyList(message);
+                    List<WorkItem> items = new ArrayList<WorkItem>(list.size());
                     for (Map m : list)
                     {
-                        _eventListener.onEvent(new ObjectUpdateWorkItem(handle, new QmfConsoleData(m, agent)));
+                        items.add(new ObjectUpdateWorkItem(handle, new QmfConsoleData(m, agent)));
                     }
+                    onEvents(items);
                 }
                 else
                 {
@@ -514,7 +1053,6 @@ public final class Console implements MessageListener, AgentProxy
             {
                 if (AMQPMessage.isAMQPMap(message))
                 {
-                    String correlationId = message.getJMSCorrelationID();
                     SubscribeParams params = new SubscribeParams(correlationId, AMQPMessage.getMap(message));
                     String subscriptionId = params.getSubscriptionId();
 
@@ -530,7 +1068,12 @@ public final class Console implements MessageListener, AgentProxy
                                 subscription.setSubscriptionId(subscriptionId);
                                 subscription.setDuration(params.getLifetime());
                                 String replyHandle = subscription.getReplyHandle();
-                                if (replyHandle == null)
+                                QmfFuture<SubscribeParams> future = subscription.getFuture();
+                                if (future != null)
+                                {
+                                    future.complete(new SubscribeParams(correlationId, subscription.mapEncode()));
+                                }
+                                else if (replyHandle == null)
                                 {
                                     subscription.signal();
                                 }
@@ -560,73 +1103,32 @@ public final class Console implements MessageListener, AgentProxy
             {
                 if (AMQPMessage.isAMQPList(message))
                 {
+                    if (!_replicas.isEmpty())
+                    {
+                        updateReplicas(agent, message);
+                    }
+
                     String consoleHandle = handle.getCorrelationId();
                     if (consoleHandle != null && _subscriptionByHandle.containsKey(consoleHandle))
                     { // If we have a valid consoleHandle the data has come from a "real" Subscription.
-                        List<Map> list = AMQPMessage.getList(message);
-                        List<QmfConsoleData> resultList = new ArrayList<QmfConsoleData>(list.size());
-                        for (Map m : list)
+                        // The data from an ObjectReplica's Subscription has already been applied to the replica.
+                        if (!consoleHandle.startsWith(REPLICA_PREFIX))
                         {
-                            resultList.add(new QmfConsoleData(m, agent));
+                            List<Map> list = AMQPMessage.getLazyList(message);
+                            List<QmfConsoleData> resultList = new ArrayList<QmfConsoleData>(list.size());
+                            for (Map m : list)
+                            {
+                                resultList.add(new QmfConsoleData(m, agent));
+                            }
+                            _eventListener.onEvent(
+                                new SubscriptionIndicationWorkItem(new SubscribeIndication(consoleHandle, resultList))
+                            );
                         }
-                        _eventListener.onEvent(
-                            new SubscriptionIndicationWorkItem(new SubscribeIndication(consoleHandle, resultList))
-                        );
                     }
-                    else if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
+                    else if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName) &&
+                             !_emulatedSubscriptions.isEmpty())
                     { // If the data has come from is the broker Agent we emulate a Subscription on the Console
-                        for (SubscriptionManager subscription : _subscriptionByHandle.values())
-                        {
-                            QmfQuery query = subscription.getQuery();
-                            if (subscription.getAgent().getName().equals(_brokerAgentName) &&
-                                query.getTarget() == QmfQueryTarget.OBJECT)
-                            { // Only evaluate broker Agent subscriptions with QueryTarget == OBJECT on the Console.
-                                long objectEpoch = 0;
-                                consoleHandle = subscription.getConsoleHandle();
-                                List<Map> list = AMQPMessage.getList(message);
-                                List<QmfConsoleData> resultList = new ArrayList<QmfConsoleData>(list.size());
-                                for (Map m : list)
-                                { // Evaluate the QmfConsoleData object against the query
-                                    QmfConsoleData object = new QmfConsoleData(m, agent);
-                                    if (query.evaluate(object))
-                                    {
-                                        long epoch = object.getObjectId().getAgentEpoch();
-                                        objectEpoch = (epoch > objectEpoch && !object.isDeleted()) ? epoch : objectEpoch;
-                                        resultList.add(object);
-                                    }
-                                }
-
-                                if (resultList.size() > 0)
-                                {   // If there are any results available after evaluating the query we deliver them
-                                    // via a SubscribeIndicationWorkItem.
-
-                                    // Before we send the WorkItem we take a peek at the Agent Epoch value that forms
-                                    // part of the ObjectID and compare it against the current Epoch value. If they
-                                    // are different we send an AgentRestartedWorkItem. We *normally* check for Epoch
-                                    // changes when we receive heartbeat indications, but unfortunately the broker 
-                                    // ManagementAgent pushes data *before* it pushes heartbeats. Its more useful
-                                    // however for clients to know that an Agent has been restarted *before* they get
-                                    // data from the restarted Agent (in case they need to reset any state).
-                                    if (objectEpoch > agent.getEpoch())
-                                    {
-                                        agent.setEpoch(objectEpoch);
-                                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                                        List<SchemaClassId> classes = getClasses(agent);
-                                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
-                                        _log.info("Agent {} has been restarted", agentName);
-                                        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
-                                        {
-                                            _eventListener.onEvent(new AgentRestartedWorkItem(agent));
-                                        }
-                                    }
-
-                                    _eventListener.onEvent(
-                                        new SubscriptionIndicationWorkItem(
-                                            new SubscribeIndication(consoleHandle, resultList))
-                                    );
-                                }
-                            }
-                        }
+                        _subscriptionEmulator.add(agent, AMQPMessage.<Map>getLazyList(message));
                     }
                 }
                 else
@@ -646,10 +1148,12 @@ public final class Console implements MessageListener, AgentProxy
                 { // 0.10 and above broker passes Events as amqp/list encoded as BytesMessage (needs decoding)
                   // 0.20 encodes amqp/list in a MapMessage!!?? AMQPMessage hopefully abstracts this detail.
                     List<Map> list = AMQPMessage.getList(message);
+                    List<WorkItem> items = new ArrayList<WorkItem>(list.size());
                     for (Map m : list)
                     {
-                        _eventListener.onEvent(new EventReceivedWorkItem(agent, new QmfEvent(m)));
+                        items.add(new EventReceivedWorkItem(agent, new QmfEvent(m)));
                     }
+                    onEvents(items);
                 }
                 else
                 {
@@ -663,6 +1167,93 @@ public final class Console implements MessageListener, AgentProxy
         }
     } // end of onMessage() 
 
+    /**
+     * Evaluate the objects from a _data indication pushed by the broker Agent against the emulated Subscriptions
+     * and deliver the matching objects to each Subscription via a SubscribeIndicationWorkItem. This is called by
+     * the SubscriptionEmulator, so the WorkItems are delivered on a _scheduler thread rather than the listener thread.
+     * <p>
+     * Each object is only evaluated against the Subscriptions that the _emulatedSubscriptions index finds may match
+     * it, so the cost is in proportion to the number of matching Subscriptions rather than to all Subscriptions.
+     *
+     * @param agent the broker Agent.
+     * @param list the objects from the _data indication.
+     */
+    private void emulateSubscriptions(final Agent agent, final List<Map> list)
+    {
+        Map<SubscriptionManager, List<QmfConsoleData>> results =
+            new LinkedHashMap<SubscriptionManager, List<QmfConsoleData>>();
+        long objectEpoch = 0;
+        for (Map m : list)
+        { // Evaluate the QmfConsoleData object against the indexed queries
+            QmfConsoleData object = new QmfConsoleData(m, agent);
+            for (SubscriptionManager subscription : _emulatedSubscriptions.match(object))
+            {
+                List<QmfConsoleData> resultList = results.get(subscription);
+                if (resultList == null)
+                {
+                    resultList = new ArrayList<QmfConsoleData>();
+                    results.put(subscription, resultList);
+                }
+                resultList.add(object);
+
+                long epoch = object.getObjectId().getAgentEpoch();
+                objectEpoch = (epoch > objectEpoch && !object.isDeleted()) ? epoch : objectEpoch;
+            }
+        }
+
+        if (results.isEmpty())
+        {
+            return;
+        }
+
+        // If there are any results available after evaluating the queries we deliver them via
+        // SubscribeIndicationWorkItems.
+
+        // Before we send the WorkItems we take a peek at the Agent Epoch value that forms part of the ObjectID and
+        // compare it against the current Epoch value. If they are different we send an AgentRestartedWorkItem. We
+        // *normally* check for Epoch changes when we receive heartbeat indications, but unfortunately the broker
+        // ManagementAgent pushes data *before* it pushes heartbeats. Its more useful however for clients to know
+        // that an Agent has been restarted *before* they get data from the restarted Agent (in case they need to
+        // reset any state).
+        // This runs on the scheduler whereas heartbeats are handled on the JMS listener thread, so the Epoch is
+        // changed atomically and only the thread that changes it handles the restart.
+        long epoch = agent.getEpoch();
+        if (objectEpoch > epoch && agent.compareAndSetEpoch(epoch, objectEpoch))
+        {
+            agentRestarted(agent);
+        }
+
+        List<WorkItem> items = new ArrayList<WorkItem>(results.size());
+        for (Map.Entry<SubscriptionManager, List<QmfConsoleData>> entry : results.entrySet())
+        {
+            items.add(new SubscriptionIndicationWorkItem(
+                new SubscribeIndication(entry.getKey().getConsoleHandle(), entry.getValue())));
+        }
+        onEvents(items);
+    }
+
+    /**
+     * Deliver a batch of WorkItems created from a single Message. If the application uses a Notifier the whole
+     * batch is added to the WorkQueue at once with a single Notifier indication, otherwise the QmfEventListener
+     * is called for each WorkItem in turn.
+     *
+     * @param items the WorkItems to deliver.
+     */
+    private void onEvents(final List<WorkItem> items)
+    {
+        if (_eventListener instanceof NotifierWrapper)
+        {
+            ((NotifierWrapper)_eventListener).onEvents(items);
+        }
+        else
+        {
+            for (WorkItem item : items)
+            {
+                _eventListener.onEvent(item);
+            }
+        }
+    }
+
     /**
      * Retrieve the schema for a List of classes.
      * This method explicitly retrieves the schema from the remote Agent and is generally used for schema
@@ -682,6 +1273,138 @@ public final class Console implements MessageListener, AgentProxy
         return results;
     }
 
+    /**
+     * Create a _query_request Message for an "OBJECT" target using either a SchemaClassId or an ObjectId.
+     *
+     * @param agentName the name of the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param destination the JMSReplyTo Destination for the responses.
+     * @param correlationId the correlation ID for the responses.
+     * @return the request Message.
+     */
+    private MapMessage createObjectQueryRequest(final String agentName, final QmfData query,
+                                                final Destination destination, final String correlationId)
+        throws JMSException
+    {
+        MapMessage request = createRequestMessage();
+        request.setJMSReplyTo(destination);
+        request.setJMSCorrelationID(correlationId);
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_query_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        // Create a QMF Query for an "OBJECT" target using either a schema ID or object ID
+        String queryType = (query instanceof SchemaClassId) ? "_schema_id" : "_object_id";
+        request.setObject("_what", "OBJECT");
+        request.setObject(queryType, query.mapEncode());
+        return request;
+    }
+
+    /**
+     * Create a _method_request Message.
+     *
+     * @param agentName the name of the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @param destination the JMSReplyTo Destination for the response.
+     * @param correlationId the correlation ID for the response.
+     * @return the request Message.
+     */
+    private MapMessage createMethodRequest(final String agentName, final Map<String, Object> content,
+                                           final Destination destination, final String correlationId)
+        throws JMSException
+    {
+        MapMessage request = createRequestMessage();
+        request.setJMSReplyTo(destination);
+        request.setJMSCorrelationID(correlationId);
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_method_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        for (Map.Entry<String, Object> entry : content.entrySet())
+        {
+            request.setObject(entry.getKey(), entry.getValue());
+        }
+        return request;
+    }
+
+    /**
+     * Decode the QmfConsoleData objects contained in a (possibly partial) response to an "OBJECT" query.
+     *
+     * @param response the response Message.
+     * @param agent the Agent that sent the response.
+     * @return the List of QmfConsoleData objects, which is empty if the response is an error response.
+     */
+    private List<QmfConsoleData> decodeObjectQueryResponse(final Message response, final Agent agent)
+        throws JMSException
+    {
+        if (AMQPMessage.isAMQPList(response))
+        {
+            List<Map> mapResults = AMQPMessage.getLazyList(response);
+            List<QmfConsoleData> objects = new ArrayList<QmfConsoleData>(mapResults.size());
+            for (Map content : mapResults)
+            {
+                objects.add(new QmfConsoleData(content, agent));
+            }
+            return objects;
+        }
+        else if (AMQPMessage.isAMQPMap(response))
+        {
+            // Error responses are returned as MapMessages, though they are being ignored here.
+            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
+            //System.out.println(agent.getName() + " " + exception.getStringValue("error_text"));
+        }
+        else
+        {
+            _log.info("getObjects() Received response message in incorrect format");
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Update a Subscription from the response to a refreshSubscription request, the Subscription is cancelled if
+     * the Agent failed to refresh it.
+     *
+     * @param subscription the Subscription being refreshed.
+     * @param response the response Message.
+     * @return the SubscribeParams contained in the response.
+     */
+    private SubscribeParams handleRefreshResponse(final SubscriptionManager subscription, final Message response)
+        throws JMSException
+    {
+        SubscribeParams result = new SubscribeParams(subscription.getConsoleHandle(), AMQPMessage.getMap(response));
+        if (result.getSubscriptionId() == null)
+        {
+            subscription.cancel();
+        }
+        else
+        {
+            subscription.setDuration(result.getLifetime());
+            subscription.refresh();
+        }
+        return result;
+    }
+
+    /**
+     * Deliver a SUBSCRIBE_RESPONSE WorkItem for an emulated Subscription. The WorkItem is delivered on a _scheduler
+     * thread, as the response from a real Agent would be delivered on the listener thread, so that it can't reach
+     * the application before createSubscription() or refreshSubscription() has returned.
+     *
+     * @param replyHandle the correlation handle used to tie asynchronous requests with responses.
+     * @param params the SubscribeParams of the emulated Subscription.
+     */
+    private void deliverSubscribeResponse(final String replyHandle, final SubscribeParams params)
+    {
+        _scheduler.execute(new Runnable()
+        {
+            public void run()
+            {
+                _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(replyHandle), params));
+            }
+        });
+    }
+
     /**
      * Perform a query for QmfConsoleData objects. Returns a list (possibly empty) of matching objects.
      * If replyHandle is null this method will block until the agent replies, or the timeout expires.
@@ -703,31 +1426,21 @@ public final class Console implements MessageListener, AgentProxy
         try
         {
             Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_query_request");
-            request.setStringProperty("qpid.subject", agentName);
-
-            // Create a QMF Query for an "OBJECT" target using either a schema ID or object ID
-            String queryType = (query instanceof SchemaClassId) ? "_schema_id" : "_object_id";
-            request.setObject("_what", "OBJECT");
-            request.setObject(queryType, query.mapEncode());
+            String correlationId = (replyHandle == null) ? _responseDispatcher.register() : replyHandle;
+            MapMessage request = createObjectQueryRequest(agentName, query, destination, correlationId);
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
+            // The correlationId ties the responses to this request, so other threads may invoke requests
+            // concurrently without their responses getting interleaved with ours.
+            try
             {
-                _requester.send(request);
+                sendRequest(request);
                 if (replyHandle == null)
                 {
                     boolean lastResult = true;
                     ArrayList<QmfConsoleData> partials = new ArrayList<QmfConsoleData>();
                     do
                     { // Wrap in a do/while loop to cater for the case where the Agent may send partial results.
-                        Message response = _responder.receive(timeout*1000);
+                        Message response = _responseDispatcher.receive(correlationId, timeout*1000);
                         if (response == null)
                         {
                             _log.info("No response received in getObjects()");
@@ -735,30 +1448,18 @@ public final class Console implements MessageListener, AgentProxy
                         }
 
                         lastResult = !response.propertyExists("partial");
-
-                        if (AMQPMessage.isAMQPList(response))
-                        {
-                            List<Map> mapResults = AMQPMessage.getList(response);
-                            partials.ensureCapacity(partials.size() + mapResults.size());
-                            for (Map content : mapResults)
-                            {
-                                partials.add(new QmfConsoleData(content, agent));
-                            }
-                        }
-                        else if (AMQPMessage.isAMQPMap(response))
-                        {
-                            // Error responses are returned as MapMessages, though they are being ignored here.
-                            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
-                            //System.out.println(agentName + " " + exception.getStringValue("error_text"));
-                        }
-                        else
-                        {
-                            _log.info("getObjects() Received response message in incorrect format");
-                        }
+                        partials.addAll(decodeObjectQueryResponse(response, agent));
                     } while (!lastResult);
                     results = partials;
                 }
             }
+            finally
+            {
+                if (replyHandle == null)
+                {
+                    _responseDispatcher.unregister(correlationId);
+                }
+            }
         }
         catch (JMSException jmse)
         {
@@ -780,7 +1481,7 @@ public final class Console implements MessageListener, AgentProxy
      */
     public void destroy(final Agent agent)
     {
-        handleAgentExpiry();
+        expireAgent(agent);
     }
 
     /**
@@ -823,27 +1524,17 @@ public final class Console implements MessageListener, AgentProxy
         try
         {
             Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_method_request");
-            request.setStringProperty("qpid.subject", agentName);
-
-            for (Map.Entry<String, Object> entry : content.entrySet())
-            {
-                request.setObject(entry.getKey(), entry.getValue());
-            }
+            String correlationId = (replyHandle == null) ? _responseDispatcher.register() : replyHandle;
+            MapMessage request = createMethodRequest(agentName, content, destination, correlationId);
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
+            // The correlationId ties the response to this request, so other threads may invoke requests
+            // concurrently without their responses getting interleaved with ours.
+            try
             {
-                _requester.send(request);
+                sendRequest(request);
                 if (replyHandle == null)
                 { // If this is a synchronous request get the response
-                    Message response = _responder.receive(timeout*1000);
+                    Message response = _responseDispatcher.receive(correlationId, timeout*1000);
                     if (response == null)
                     {
                         _log.info("No response received in invokeMethod()");
@@ -858,6 +1549,13 @@ public final class Console implements MessageListener, AgentProxy
                     return result;
                 }
             }
+            finally
+            {
+                if (replyHandle == null)
+                {
+                    _responseDispatcher.unregister(correlationId);
+                }
+            }
             // If this is an asynchronous request return without waiting for a response
             return null;
         }
@@ -868,6 +1566,58 @@ public final class Console implements MessageListener, AgentProxy
         }
     }
 
+    /**
+     * Invoke the named method on the named Agent asynchronously, returning a QmfFuture that completes with the
+     * MethodResult. The QmfFuture fails with the QmfException returned by the Agent if the method fails, or with a
+     * QmfException if no response is received before the timeout expires.
+     * <p>
+     * Intended to by called by the AgentProxy. Shouldn't generally be called directly by Console applications.
+     *
+     * @param agent the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @param timeout the time to wait for a reply from the Agent, a value of -1 means use the default timeout
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(final Agent agent, final Map<String, Object> content,
+                                                     final int timeout) throws QmfException
+    {
+        if (!agent.isActive())
+        {
+            throw new QmfException("Called invokeMethodAsync() with inactive agent");
+        }
+
+        AsyncRequest<MethodResult> request = new AsyncRequest<MethodResult>("invokeMethodAsync")
+        {
+            void onResponse(final String correlationId, final Message response) throws JMSException
+            {
+                MethodResult result = new MethodResult(AMQPMessage.getMap(response));
+                QmfException exception = result.getQmfException();
+                if (exception == null)
+                {
+                    _future.complete(result);
+                }
+                else
+                {
+                    _future.fail(exception);
+                }
+            }
+        };
+
+        try
+        {
+            sendRequest(createMethodRequest(agent.getName(), content, _asyncReplyAddress, request.register()));
+            request.start(1000l*((timeout < 1) ? _replyTimeout : timeout));
+            return request._future;
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in invokeMethodAsync()", jmse.getMessage());
+            QmfException qmfe = new QmfException(jmse.getMessage());
+            request._future.fail(qmfe);
+            throw qmfe;
+        }
+    }
+
     /**
      * Remove a Subscription.
      *
@@ -885,6 +1635,7 @@ public final class Console implements MessageListener, AgentProxy
         {
             _subscriptionById.remove(subscriptionId);
         }
+        _emulatedSubscriptions.remove(subscription);
     }
 
     //                                          QMF API Methods
@@ -937,12 +1688,16 @@ public final class Console implements MessageListener, AgentProxy
      *        EventListener is called from the JMS MessageListener thread. This API may be simpler and more convenient
      *        than the QMF2 Notifier API for many applications.
      * @param options a String representation of a Map containing the options in the form
-     *        <pre>"{replyTimeout:&lt;value&gt;, agentTimeout:&lt;value&gt;, subscriptionDuration:&lt;value&gt;}"</pre>
+     *        <pre>"{replyTimeout:&lt;value&gt;, agentTimeout:&lt;value&gt;, subscriptionDuration:&lt;value&gt;,
+     *          workQueueCapacity:&lt;value&gt;, workQueueOverflow:&lt;value&gt;, schemaCacheFile:&lt;value&gt;}"</pre>
      *        they are all optional and may appear in any order.
      * <pre>
      *         <b>replyTimeout</b>=&lt;default for all blocking calls&gt;
      *         <b>agentTimeout</b>=&lt;default timeout for agent heartbeat&gt;,
      *         <b>subscriptionDuration</b>=&lt;default lifetime of a subscription&gt;
+     *         <b>workQueueCapacity</b>=&lt;maximum number of WorkItems queued for a Notifier, default unbounded&gt;
+     *         <b>workQueueOverflow</b>=&lt;block|drop-oldest|coalesce, what to do when the WorkQueue is full&gt;
+     *         <b>schemaCacheFile</b>=&lt;file used to persist the SchemaCache between runs&gt;
      * </pre>
      */
     public Console(String name, final String domain,
@@ -1003,6 +1758,27 @@ public final class Console implements MessageListener, AgentProxy
             {
                 _subscriptionDuration = (int)optMap.getLongValue("subscriptionDuration");
             }
+
+            if (optMap.hasValue("workQueueCapacity") || optMap.hasValue("workQueueOverflow"))
+            {
+                int capacity = (int)optMap.getLongValue("workQueueCapacity");
+                String overflow = optMap.hasValue("workQueueOverflow") ?
+                                  optMap.getStringValue("workQueueOverflow") : "block";
+                try
+                {
+                    _workQueue.setCapacity(capacity,
+                        WorkQueue.OverflowPolicy.valueOf(overflow.toUpperCase().replace('-', '_')));
+                }
+                catch (IllegalArgumentException iae)
+                {
+                    throw new QmfException("Invalid workQueueCapacity or workQueueOverflow option " + iae.getMessage());
+                }
+            }
+
+            if (optMap.hasValue("schemaCacheFile"))
+            {
+                _schemaCache = new SchemaCache(new File(optMap.getStringValue("schemaCacheFile")));
+            }
         }
     }
 
@@ -1024,6 +1800,39 @@ public final class Console implements MessageListener, AgentProxy
         }
     }
 
+    /**
+     * Set the ScheduledExecutorService used to expire Subscriptions and time out asynchronous requests, replacing
+     * the scheduler shared by all Consoles and Agents in the JVM. This should be called before addConnection().
+     * The Console never shuts down the scheduler, that remains the responsibility of the application.
+     *
+     * @param scheduler the ScheduledExecutorService to be used by this Console.
+     */
+    public void setScheduler(final ScheduledExecutorService scheduler)
+    {
+        _scheduler = (scheduler == null) ? ScheduledTask.getDefaultScheduler() : scheduler;
+    }
+
+    /**
+     * Return the SchemaCache holding the schema retrieved from the Agents.
+     * @return the SchemaCache holding the schema retrieved from the Agents.
+     */
+    public SchemaCache getSchemaCache()
+    {
+        return _schemaCache;
+    }
+
+    /**
+     * Set the SchemaCache used to hold the schema retrieved from the Agents, which allows the schema to be shared
+     * between Consoles. This should be called before addConnection() so that the schema of the Agents discovered
+     * on connection are held in the supplied SchemaCache.
+     *
+     * @param schemaCache the SchemaCache to use, if null a new empty SchemaCache is used.
+     */
+    public void setSchemaCache(final SchemaCache schemaCache)
+    {
+        _schemaCache = (schemaCache == null) ? new SchemaCache() : schemaCache;
+    }
+
     /**
      * Connect the console to the AMQP cloud.
      *
@@ -1119,9 +1928,13 @@ public final class Console implements MessageListener, AgentProxy
                 Destination directAddress = _syncSession.createQueue("qmf." + _domain + ".direct");
                 _requester = _syncSession.createProducer(directAddress);
 
-                // Create the JMSReplyTo _replyAddress and MessageConsumer
-                _replyAddress = _syncSession.createQueue(_address + syncReplyAddressOptions);
-                _responder = _syncSession.createConsumer(_replyAddress);
+                // Create the JMSReplyTo _replyAddress and MessageConsumer, the ResponseDispatcher routes the
+                // responses received by the MessageConsumer to the threads waiting for them. The MessageConsumer
+                // has its own Session as the threads making requests use _syncSession.
+                _responseSession = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                _replyAddress = _responseSession.createQueue(_address + syncReplyAddressOptions);
+                _responder = _responseSession.createConsumer(_replyAddress);
+                _responder.setMessageListener(_responseDispatcher);
 
                 _connection.start();
 
@@ -1164,9 +1977,6 @@ public final class Console implements MessageListener, AgentProxy
                         throw new QmfException("Broker Agent not found");
                     }
                 }
-
-                // Timer used for tidying up Subscriptions.
-                _timer = new Timer(true);
             }
         }
         catch (JMSException jmse)
@@ -1193,7 +2003,6 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            _timer.cancel();
             _connection.close(); // Should we close() the connection here or just stop() it ???
         }
         catch (JMSException jmse)
@@ -1201,6 +2010,42 @@ public final class Console implements MessageListener, AgentProxy
             throw new QmfException("Failed to remove connection, caught JMSException " + jmse.getMessage());
         }
         _connection = null;
+
+        // Fail the outstanding QmfFutures and stop the Subscriptions' scheduled tasks, as the _scheduler may be
+        // shared we can't simply shut it down.
+        QmfException removed = new QmfException("Connection removed from Console");
+        for (AsyncRequest<?> request : _asyncRequests.values())
+        {
+            request._future.fail(removed);
+        }
+        for (SubscriptionManager subscription : _subscriptionByHandle.values())
+        {
+            QmfFuture<SubscribeParams> future = subscription.getFuture();
+            if (future != null)
+            {
+                future.fail(removed);
+            }
+            subscription.cancel();
+        }
+        for (ObjectReplica replica : _replicas)
+        {
+            replica.cancel();
+        }
+
+        // Release the Agents associated with the connection, deactivating them ends their AgentExpiry tasks.
+        // Any Agents that are still alive will be rediscovered by their heartbeats if a connection is added again.
+        synchronized(this)
+        {
+            _agentAvailable = false;
+            _brokerAgentName = null;
+        }
+        for (Agent agent : _agents.values())
+        {
+            agent.deactivate();
+        }
+        _agents.clear();
+
+        _schemaCache.save();
     }
 
     /**
@@ -1402,6 +2247,36 @@ public final class Console implements MessageListener, AgentProxy
         return _workQueue.getNextWorkitem(timeout);
     }
 
+    /**
+     * Removes up to maxItems pending WorkItems and adds them to the supplied Collection, waiting for up to timeout
+     * seconds for a WorkItem to become available if there are none pending. This allows an application to process
+     * a burst of WorkItems, such as SubscriptionIndications, in batches rather than one at a time e.g.
+     * <pre>
+     *   List&lt;WorkItem&gt; batch = new ArrayList&lt;WorkItem&gt;();
+     *   while (true)
+     *   {
+     *       notifier.waitForWorkItem(); // Assuming a BlockingNotifier has been used here
+     *       while (console.drainWorkitems(batch, 500, 0) &gt; 0)
+     *       {
+     *           for (WorkItem wi : batch)
+     *           {
+     *               System.out.println("WorkItem type: " + wi.getType());
+     *           }
+     *           batch.clear();
+     *       }
+     *   }
+     * </pre>
+     *
+     * @param items the Collection that the WorkItems are added to.
+     * @param maxItems the maximum number of WorkItems to remove.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately if there are no pending WorkItems.
+     * @return the number of WorkItems added to the Collection.
+     */
+    public int drainWorkitems(final Collection<? super WorkItem> items, final int maxItems, final long timeout)
+    {
+        return _workQueue.drainTo(items, maxItems, timeout);
+    }
+
     /**
      * Releases a WorkItem instance obtained by getNextWorkItem(). Called when the application has finished
      * processing the WorkItem.
@@ -1531,8 +2406,10 @@ public final class Console implements MessageListener, AgentProxy
         results = new ArrayList<SchemaClassId>();
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            String correlationId = _responseDispatcher.register();
+            MapMessage request = createRequestMessage();
             request.setJMSReplyTo(_replyAddress);
+            request.setJMSCorrelationID(correlationId);
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_query_request");
@@ -1540,12 +2417,12 @@ public final class Console implements MessageListener, AgentProxy
 
             // Create a QMF Query for an "SCHEMA_ID" target
             request.setObject("_what", "SCHEMA_ID");
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this) 
+            // The correlationId ties the response to this request, so other threads may invoke requests
+            // concurrently without their responses getting interleaved with ours.
+            try
             {
-                _requester.send(request);
-                Message response = _responder.receive(_replyTimeout*1000);
+                sendRequest(request);
+                Message response = _responseDispatcher.receive(correlationId, _replyTimeout*1000);
                 if (response == null)
                 {
                     _log.info("No response received in getClasses()");
@@ -1573,6 +2450,10 @@ public final class Console implements MessageListener, AgentProxy
                     _log.info("getClasses() Received response message in incorrect format");
                 }
             }
+            finally
+            {
+                _responseDispatcher.unregister(correlationId);
+            }
         }
         catch (JMSException jmse)
         {
@@ -1622,13 +2503,26 @@ public final class Console implements MessageListener, AgentProxy
             return results;
         }
 
+        // Next look to see if the schema has already been retrieved from any Agent, including this Agent prior to
+        // it being restarted, in which case there's no need to retrieve it again.
+        SchemaClass cached = _schemaCache.get(schemaClassId);
+        if (cached != null)
+        {
+            results = new ArrayList<SchemaClass>(1);
+            results.add(cached);
+            agent.setSchema(schemaClassId, results);
+            return results;
+        }
+
         String agentName = agent.getName();
 //System.out.println("getSchema for agent " + agentName);
         results = new ArrayList<SchemaClass>();
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            String correlationId = _responseDispatcher.register();
+            MapMessage request = createRequestMessage();
             request.setJMSReplyTo(_replyAddress);
+            request.setJMSCorrelationID(correlationId);
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_query_request");
@@ -1638,12 +2532,12 @@ public final class Console implements MessageListener, AgentProxy
             request.setObject("_what", "SCHEMA");
             request.setObject("_schema_id", schemaClassId.mapEncode());
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
+            // The correlationId ties the response to this request, so other threads may invoke requests
+            // concurrently without their responses getting interleaved with ours.
+            try
             {
-                _requester.send(request);
-                Message response = _responder.receive(_replyTimeout*1000);
+                sendRequest(request);
+                Message response = _responseDispatcher.receive(correlationId, _replyTimeout*1000);
                 if (response == null)
                 {
                     _log.info("No response received in getSchema()");
@@ -1655,11 +2549,9 @@ public final class Console implements MessageListener, AgentProxy
                     List<Map> mapResults = AMQPMessage.getList(response);
                     for (Map content : mapResults)
                     {
-                        SchemaClass schema = new SchemaObjectClass(content);
-                        if (schema.getClassId().getType().equals("_event"))
-                        {
-                            schema = new SchemaEventClass(content);
-                        }
+                        // Adding the schema to the SchemaCache returns the SchemaClass of any identical schema
+                        // previously retrieved from another Agent, so the Agents share a single instance.
+                        SchemaClass schema = _schemaCache.put(SchemaCache.decode(content));
 //schema.listValues();
                         results.add(schema);
                     }
@@ -1676,6 +2568,10 @@ public final class Console implements MessageListener, AgentProxy
                     _log.info("getSchema() Received response message in incorrect format");
                 }
             }
+            finally
+            {
+                _responseDispatcher.unregister(correlationId);
+            }
         }
         catch (JMSException jmse)
         {
@@ -1855,14 +2751,302 @@ public final class Console implements MessageListener, AgentProxy
      */
     public List<QmfConsoleData> getObjects(final QmfData query, final int timeout, final List<Agent> agentList)
     {
+        return getObjects(query, timeout, agentList, null);
+    }
+
+    /**
+     * Perform a blocking query for QmfConsoleData objects. Returns a list (possibly empty) of matching objects
+     * This method will block until all known Agents reply, or the timeout expires. Once the timeout expires, all
+     * data retrieved to date is returned.
+     * <p>
+     * The query is sent to all of the Agents before any responses are waited for and the timeout applies to the
+     * query as a whole, so querying many Agents takes roughly as long as the slowest Agent takes to respond rather
+     * than the sum of their response times. The results are returned grouped by Agent in the order of agentList.
+     * <p>
+     * If a listener is supplied it is passed the objects from each response as soon as that response is received,
+     * so the results from the faster Agents may be processed before the slower Agents have responded. The listener
+     * is called on the thread that called getObjects().
+     *
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @param timeout overrides the default replyTimeout.
+     * @param agentList if this parameter is supplied then the query is sent to only those Agents.
+     * @param listener if this parameter is supplied it is passed the results of each response as it is received.
+     * @return a List of QMF Objects describing that class.
+     */
+    public List<QmfConsoleData> getObjects(final QmfData query, final int timeout, final List<Agent> agentList,
+                                           final QueryResultListener listener)
+    {
+        long deadline = System.currentTimeMillis() + 1000l*((timeout < 1) ? _replyTimeout : timeout);
+        int agentCount = agentList.size();
+        List<List<QmfConsoleData>> agentResults = new ArrayList<List<QmfConsoleData>>(agentCount);
+        Map<String, Integer> pending = new HashMap<String, Integer>(agentCount*2);
+        BlockingQueue<Message> responses = new LinkedBlockingQueue<Message>();
+        try
+        {
+            // Scatter the query to all of the Agents.
+            for (int i = 0; i < agentCount; i++)
+            {
+                agentResults.add(new ArrayList<QmfConsoleData>());
+                String agentName = agentList.get(i).getName();
+                String correlationId = _responseDispatcher.register(responses);
+                pending.put(correlationId, i);
+                try
+                {
+                    sendRequest(createObjectQueryRequest(agentName, query, _replyAddress, correlationId));
+                }
+                catch (JMSException jmse)
+                {
+                    _log.info("JMSException {} caught in getObjects() sending to {}", jmse.getMessage(), agentName);
+                    pending.remove(correlationId);
+                    _responseDispatcher.unregister(correlationId);
+                }
+            }
+
+            // Gather the responses until every Agent has sent its last response or the deadline passes.
+            while (!pending.isEmpty())
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                Message response = (remaining > 0) ? responses.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (response == null)
+                {
+                    _log.info("No response received in getObjects() from {} of {} Agents", pending.size(), agentCount);
+                    break;
+                }
+
+                String correlationId = response.getJMSCorrelationID();
+                Integer index = pending.get(correlationId);
+                if (index == null)
+                { // Shouldn't happen as only our correlation IDs are registered with the responses queue.
+                    continue;
+                }
+
+                if (!response.propertyExists("partial"))
+                {
+                    pending.remove(correlationId);
+                    _responseDispatcher.unregister(correlationId);
+                }
+
+                Agent agent = agentList.get(index);
+                List<QmfConsoleData> objects = decodeObjectQueryResponse(response, agent);
+                agentResults.get(index).addAll(objects);
+                if (listener != null && objects.size() > 0)
+                {
+                    listener.onResults(agent, objects);
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getObjects()", jmse.getMessage());
+        }
+        finally
+        {
+            for (String correlationId : pending.keySet())
+            {
+                _responseDispatcher.unregister(correlationId);
+            }
+        }
+
         List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
-        for (Agent agent : agentList)
+        for (List<QmfConsoleData> objects : agentResults)
         {
-            results.addAll(getObjects(agent, query, null, timeout));
+            results.addAll(objects);
         }
         return results;
     }
 
+    /**
+     * Perform an asynchronous query for QmfConsoleData objects, returning a QmfFuture that completes with a list
+     * (possibly empty) of matching objects once all known Agents reply, or with all data retrieved to date once
+     * the timeout expires.
+     *
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @return a QmfFuture that completes with a List of QMF Objects describing that class.
+     */
+    public QmfFuture<List<QmfConsoleData>> getObjectsAsync(final QmfData query)
+    {
+        return getObjectsAsync(query, _replyTimeout, getAgents());
+    }
+
+    /**
+     * Perform an asynchronous query for QmfConsoleData objects, returning a QmfFuture that completes with a list
+     * (possibly empty) of matching objects once all of the Agents in agentList reply, or with all data retrieved
+     * to date once the timeout expires.
+     * <p>
+     * As with the blocking getObjects() the query is sent to all of the Agents at once and the results are grouped
+     * by Agent in the order of agentList. The QmfFuture is completed on the Console's listener thread.
+     *
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @param timeout overrides the default replyTimeout.
+     * @param agentList the Agents that the query is sent to.
+     * @return a QmfFuture that completes with a List of QMF Objects describing that class.
+     */
+    public QmfFuture<List<QmfConsoleData>> getObjectsAsync(final QmfData query, final int timeout,
+                                                           final List<Agent> agentList)
+    {
+        ObjectQueryRequest request = new ObjectQueryRequest(agentList);
+        request.send(query, 1000l*((timeout < 1) ? _replyTimeout : timeout));
+        return request._future;
+    }
+
+    /**
+     * Creates an ObjectReplica, a local replica of the objects of the given classes managed by the given Agent that
+     * is kept up to date by the _data indications from the Agent, so that the objects may be read repeatedly
+     * without querying the Agent each time.
+     * <p>
+     * The replica is registered to receive updates before the objects are queried, so no update can be missed
+     * while it is being loaded. If the Agent isn't the broker a Subscription is also created for each class, which
+     * the replica refreshes until it is closed. The broker ManagementAgent pushes updates to all Consoles anyway.
+     * <p>
+     * This method blocks while the objects are queried so it mustn't be called on the Console's listener thread,
+     * for example from a QmfEventListener.
+     *
+     * @param agent the Agent managing the replicated objects.
+     * @param classes the classes of the replicated objects, only the package and class names are significant.
+     * @return the loaded ObjectReplica.
+     * @throws QmfException if the Console has events disabled, as it then doesn't receive the updates from Agents,
+     *         or if a Subscription couldn't be created.
+     */
+    public ObjectReplica createReplica(final Agent agent, final List<SchemaClassId> classes) throws QmfException
+    {
+        if (agent == null)
+        {
+            throw new QmfException("Called createReplica() with null Agent");
+        }
+
+        if (_disableEvents)
+        {
+            throw new QmfException("Called createReplica() on a Console with events disabled");
+        }
+
+        ObjectReplica replica = new ObjectReplica(this, agent, classes);
+        _replicas.add(replica);
+        boolean loaded = false;
+        try
+        {
+            if (!agent.getName().equals(_brokerAgentName))
+            {
+                long lifetime = _subscriptionDuration;
+                for (SchemaClassId classId : classes)
+                {
+                    QmfQuery query = new QmfQuery(QmfQueryTarget.OBJECT, classId);
+                    SubscribeParams params = createSubscription(agent, query, REPLICA_PREFIX + UUID.randomUUID());
+                    replica.addSubscription(params.getSubscriptionId());
+                    lifetime = Math.min(lifetime, params.getLifetime());
+                }
+
+                // Refresh the Subscriptions well before they expire.
+                long refreshInterval = Math.max(lifetime*500l, 1000l);
+                replica.schedule(_scheduler, refreshInterval, refreshInterval);
+            }
+
+            List<Agent> agentList = Collections.singletonList(agent);
+            for (SchemaClassId classId : classes)
+            {
+                replica.load(getObjects(new SchemaClassId(classId.getPackageName(), classId.getClassName()),
+                                        _replyTimeout, agentList));
+            }
+            replica.endLoad();
+            loaded = true;
+        }
+        finally
+        {
+            if (!loaded)
+            { // Don't leave a partially loaded replica registered, or its Subscriptions active.
+                replica.close();
+            }
+        }
+
+        return replica;
+    }
+
+    /**
+     * Stop updating an ObjectReplica, called by ObjectReplica.close().
+     *
+     * @param replica the ObjectReplica to stop updating.
+     */
+    void removeReplica(final ObjectReplica replica)
+    {
+        _replicas.remove(replica);
+    }
+
+    /**
+     * Handle the restart of an Agent, this is called only by the thread that changed the Agent's Epoch. The Agent's
+     * ObjectReplicas are told of the new Epoch, its schema are rediscovered and an AgentRestartedWorkItem is sent.
+     *
+     * @param agent the restarted Agent.
+     */
+    private void agentRestarted(final Agent agent)
+    {
+        restartReplicas(agent);
+        agent.clearSchemaCache(); // Clear cache to force a lookup
+        List<SchemaClassId> classes = getClasses(agent);
+        getSchema(classes, agent); // Discover the schema for this Agent and cache it
+        _log.info("Agent {} has been restarted", agent.getName());
+        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+        {
+            _eventListener.onEvent(new AgentRestartedWorkItem(agent));
+        }
+    }
+
+    /**
+     * Pass the new Epoch of a restarted Agent to its ObjectReplicas so that they remove the Agent's stale objects.
+     *
+     * @param agent the restarted Agent.
+     */
+    private void restartReplicas(final Agent agent)
+    {
+        for (ObjectReplica replica : _replicas)
+        {
+            if (replica.getAgent().getName().equals(agent.getName()))
+            {
+                replica.setEpoch(agent.getEpoch());
+            }
+        }
+    }
+
+    /**
+     * Apply the objects in a _data indication to the ObjectReplicas of the Agent that sent it.
+     * <p>
+     * The objects are fully decoded rather than lazily decoded, as the lazily decoded values would hold on to the
+     * whole message for as long as the replicated object remained in the replica.
+     *
+     * @param agent the Agent that sent the _data indication.
+     * @param message the _data indication.
+     */
+    private void updateReplicas(final Agent agent, final Message message) throws JMSException
+    {
+        List<ObjectReplica> replicas = null;
+        for (ObjectReplica replica : _replicas)
+        {
+            if (replica.getAgent().getName().equals(agent.getName()))
+            {
+                if (replicas == null)
+                {
+                    replicas = new ArrayList<ObjectReplica>(2);
+                }
+                replicas.add(replica);
+            }
+        }
+
+        if (replicas != null)
+        {
+            List<Map> list = AMQPMessage.getList(message);
+            for (Map m : list)
+            {
+                QmfConsoleData object = new QmfConsoleData(m, agent);
+                for (ObjectReplica replica : replicas)
+                {
+                    replica.update(object);
+                }
+            }
+        }
+    }
+
     /**
      * Creates a subscription to the agent using the given Query.
      * <p>
@@ -1915,8 +3099,51 @@ public final class Console implements MessageListener, AgentProxy
      *        <b>timeout</b> the time to wait for a reply from the Agent.
      * </pre>
      */
-    public synchronized SubscribeParams createSubscription(final Agent agent, final QmfQuery query,
-                                                final String consoleHandle, final String options) throws QmfException
+    public SubscribeParams createSubscription(final Agent agent, final QmfQuery query,
+                                              final String consoleHandle, final String options) throws QmfException
+    {
+        return createSubscription(agent, query, consoleHandle, options, null);
+    }
+
+    /**
+     * Creates a subscription to the agent using the given Query, returning a QmfFuture that completes with the
+     * SubscribeParams once the Agent responds rather than blocking or delivering a SUBSCRIBE_RESPONSE WorkItem.
+     * <p>
+     * The options are as for createSubscription() other than replyHandle, which is ignored.
+     *
+     * @param agent the Agent on which to create the subscription.
+     * @param query the Query to perform on the Agent
+     * @param consoleHandle an application-provided handle that will accompany each subscription update sent
+     *        from the Agent.
+     * @param options a String representation of a Map containing the options in the form
+     *        <pre>"{lifetime:&lt;value&gt;, publishInterval:&lt;value&gt;, timeout:&lt;value&gt;}"</pre>
+     *        they are optional and may appear in any order.
+     * @return a QmfFuture that completes with the SubscribeParams.
+     */
+    public QmfFuture<SubscribeParams> createSubscriptionAsync(final Agent agent, final QmfQuery query,
+                                                              final String consoleHandle, final String options)
+        throws QmfException
+    {
+        SubscriptionRequest request = new SubscriptionRequest("createSubscriptionAsync");
+        createSubscription(agent, query, consoleHandle, options, request);
+        return request._future;
+    }
+
+    /**
+     * Creates a subscription to the agent using the given Query, the implementation of createSubscription() and
+     * createSubscriptionAsync().
+     *
+     * @param agent the Agent on which to create the subscription.
+     * @param query the Query to perform on the Agent
+     * @param consoleHandle an application-provided handle that will accompany each subscription update sent
+     *        from the Agent.
+     * @param options a String representation of a Map containing the options.
+     * @param asyncRequest the SubscriptionRequest to complete when called by createSubscriptionAsync(), otherwise null.
+     * @return the SubscribeParams if called synchronously, otherwise null.
+     */
+    private SubscribeParams createSubscription(final Agent agent, final QmfQuery query,
+                                               final String consoleHandle, final String options,
+                                               final SubscriptionRequest asyncRequest) throws QmfException
     {
         if (consoleHandle == null)
         {
@@ -1961,7 +3188,7 @@ public final class Console implements MessageListener, AgentProxy
                 timeout = optMap.getLongValue("timeout");
             }
 
-            if (optMap.hasValue("replyHandle"))
+            if (optMap.hasValue("replyHandle") && asyncRequest == null)
             {
                 replyHandle = optMap.getStringValue("replyHandle");
             }
@@ -1969,7 +3196,7 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            MapMessage request = createRequestMessage();
             request.setJMSReplyTo(_asyncReplyAddress);  // Deliberately forcing all replies to the _asyncReplyAddress
             request.setJMSCorrelationID(consoleHandle); // Deliberately using consoleHandle not replyHandle here
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
@@ -1983,36 +3210,47 @@ public final class Console implements MessageListener, AgentProxy
 
             SubscriptionManager subscription =
                 new SubscriptionManager(agent, query, consoleHandle, replyHandle, publishInterval, lifetime);
-            _subscriptionByHandle.put(consoleHandle, subscription);
-            _timer.schedule(subscription, 0, publishInterval);
+            if (asyncRequest != null)
+            {
+                subscription.setFuture(asyncRequest._future);
+            }
+            if (_subscriptionByHandle.putIfAbsent(consoleHandle, subscription) != null)
+            { // Another thread has created a Subscription with the same consoleHandle since the check above.
+                throw new QmfException("Called createSubscription() with a consoleHandle that is already in use");
+            }
+            subscription.schedule(_scheduler, 0, publishInterval);
 
             if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
             { // If the Agent is the broker Agent we emulate the Subscription on the Console
                 String subscriptionId = UUID.randomUUID().toString();
                 _subscriptionById.put(subscriptionId, subscription);
                 subscription.setSubscriptionId(subscriptionId);
-                final SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
-                if (replyHandle == null)
+                if (query.getTarget() == QmfQueryTarget.OBJECT)
+                { // Only evaluate broker Agent subscriptions with QueryTarget == OBJECT on the Console.
+                    _emulatedSubscriptions.add(subscription);
+                }
+                SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
+                if (asyncRequest != null)
+                {
+                    asyncRequest._future.complete(params);
+                }
+                else if (replyHandle == null)
                 {
                     return params;
                 }
                 else
                 {
-                    final String handle = replyHandle;
-                    Thread thread = new Thread()
-                    {
-                        public void run()
-                        {
-                            _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(handle), params));
-                        }
-                    };
-                    thread.start();
+                    deliverSubscribeResponse(replyHandle, params);
                 }
                 return null;
             }
 
-            _requester.send(request);
-            if (replyHandle == null)
+            sendRequest(request);
+            if (asyncRequest != null)
+            {
+                asyncRequest.start(timeout*1000);
+            }
+            else if (replyHandle == null)
             { // If this is an synchronous request get the response
                 subscription.await(timeout*1000);
                 if (subscription.getSubscriptionId() == null)
@@ -2029,7 +3267,12 @@ public final class Console implements MessageListener, AgentProxy
         catch (JMSException jmse)
         {
             _log.info("JMSException {} caught in createSubscription()", jmse.getMessage());
-            throw new QmfException(jmse.getMessage());
+            QmfException qmfe = new QmfException(jmse.getMessage());
+            if (asyncRequest != null)
+            {
+                asyncRequest._future.fail(qmfe);
+            }
+            throw qmfe;
         }
     } // end of createSubscription()
 
@@ -2066,7 +3309,43 @@ public final class Console implements MessageListener, AgentProxy
      *        <b>timeout</b> the time to wait for a reply from the Agent.
      * </pre>
      */
-    public SubscribeParams refreshSubscription(String subscriptionId, final String options) throws QmfException
+    public SubscribeParams refreshSubscription(final String subscriptionId, final String options) throws QmfException
+    {
+        return refreshSubscription(subscriptionId, options, null);
+    }
+
+    /**
+     * Renews a subscription identified by SubscriptionId, returning a QmfFuture that completes with the
+     * SubscribeParams once the Agent responds rather than blocking or delivering a SUBSCRIBE_RESPONSE WorkItem.
+     * <p>
+     * The options are as for refreshSubscription() other than replyHandle, which is ignored.
+     *
+     * @param subscriptionId the ID of the subscription to be refreshed
+     * @param options a String representation of a Map containing the options in the form
+     *        <pre>"{lifetime:&lt;value&gt;, timeout:&lt;value&gt;}"</pre>
+     *        they are optional and may appear in any order.
+     * @return a QmfFuture that completes with the SubscribeParams.
+     */
+    public QmfFuture<SubscribeParams> refreshSubscriptionAsync(final String subscriptionId, final String options)
+        throws QmfException
+    {
+        SubscriptionRequest request = new SubscriptionRequest("refreshSubscriptionAsync");
+        refreshSubscription(subscriptionId, options, request);
+        return request._future;
+    }
+
+    /**
+     * Renews a subscription identified by SubscriptionId, the implementation of refreshSubscription() and
+     * refreshSubscriptionAsync().
+     *
+     * @param subscriptionId the ID of the subscription to be refreshed
+     * @param options a String representation of a Map containing the options.
+     * @param asyncRequest the SubscriptionRequest to complete when called by refreshSubscriptionAsync(), otherwise
+     *        null.
+     * @return the SubscribeParams if called synchronously, otherwise null.
+     */
+    private SubscribeParams refreshSubscription(final String subscriptionId, final String options,
+                                                final SubscriptionRequest asyncRequest) throws QmfException
     {
         if (subscriptionId == null)
         {
@@ -2103,18 +3382,34 @@ public final class Console implements MessageListener, AgentProxy
                 timeout = optMap.getLongValue("timeout");
             }
 
-            if (optMap.hasValue("replyHandle"))
+            if (optMap.hasValue("replyHandle") && asyncRequest == null)
             {
                 replyHandle = optMap.getStringValue("replyHandle");
             }
         }
 
+        boolean sync = (replyHandle == null && asyncRequest == null);
         try
         {
-            Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
+            String correlationId = null;
+            Destination destination = _asyncReplyAddress;
+            if (asyncRequest != null)
+            {
+                asyncRequest.setSubscription(subscription);
+                correlationId = asyncRequest.register();
+            }
+            else if (replyHandle != null)
+            {
+                correlationId = replyHandle;
+            }
+            else
+            {
+                correlationId = _responseDispatcher.register();
+                destination = _replyAddress;
+            }
+            MapMessage request = createRequestMessage();
             request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
+            request.setJMSCorrelationID(correlationId);
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_subscribe_refresh_indication");
@@ -2126,55 +3421,51 @@ public final class Console implements MessageListener, AgentProxy
                 request.setObject("_duration", lifetime);
             }
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
+            // The correlationId ties the response to this request, so other threads may invoke requests
+            // concurrently without their responses getting interleaved with ours.
+            try
             {
                 if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
                 { // If the Agent is the broker Agent we emulate the Subscription on the Console
                     subscription.refresh();
-                    final SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
-                    if (replyHandle == null)
+                    SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
+                    if (asyncRequest != null)
+                    {
+                        asyncRequest._future.complete(params);
+                    }
+                    else if (replyHandle == null)
                     {
                         return params;
                     }
                     else
                     {
-                        final String handle = replyHandle;
-                        Thread thread = new Thread()
-                        {
-                            public void run()
-                            {
-                                _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(handle), params));
-                            }
-                        };
-                        thread.start();
+                        deliverSubscribeResponse(replyHandle, params);
                     }
                     return null;
                 }
 
-                _requester.send(request);
-                if (replyHandle == null)
+                sendRequest(request);
+                if (asyncRequest != null)
+                {
+                    asyncRequest.start(timeout*1000);
+                }
+                else if (replyHandle == null)
                 { // If this is an synchronous request get the response
-                    Message response = _responder.receive(timeout*1000);
+                    Message response = _responseDispatcher.receive(correlationId, timeout*1000);
                     if (response == null)
                     {
                         subscription.cancel();
                         _log.info("No response received in refreshSubscription()");
                         throw new QmfException("No response received for Console.refreshSubscription()");
                     }
-                    SubscribeParams result = new SubscribeParams(consoleHandle, AMQPMessage.getMap(response));
-                    subscriptionId = result.getSubscriptionId();
-                    if (subscriptionId == null)
-                    {
-                        subscription.cancel();
-                    }
-                    else
-                    {
-                        subscription.setDuration(result.getLifetime());
-                        subscription.refresh();
-                    }
-                    return result;
+                    return handleRefreshResponse(subscription, response);
+                }
+            }
+            finally
+            {
+                if (sync)
+                {
+                    _responseDispatcher.unregister(correlationId);
                 }
             }
             // If this is an asynchronous request return without waiting for a response
@@ -2183,7 +3474,12 @@ public final class Console implements MessageListener, AgentProxy
         catch (JMSException jmse)
         {
             _log.info("JMSException {} caught in refreshSubscription()", jmse.getMessage());
-            throw new QmfException(jmse.getMessage());
+            QmfException qmfe = new QmfException(jmse.getMessage());
+            if (asyncRequest != null)
+            {
+                asyncRequest._future.fail(qmfe);
+            }
+            throw qmfe;
         }
     } // end of refreshSubscription()
 
@@ -2213,19 +3509,16 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            MapMessage request = createRequestMessage();
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_subscribe_cancel_indication");
             request.setStringProperty("qpid.subject", agentName);
             request.setObject("_subscription_id", subscriptionId);
 
-            synchronized(this)
+            if (!_subscriptionEmulationEnabled || !agentName.equals(_brokerAgentName))
             {
-                if (!_subscriptionEmulationEnabled || !agentName.equals(_brokerAgentName))
-                {
-                    _requester.send(request);
-                }
+                sendRequest(request);
             }
             subscription.cancel();
         }
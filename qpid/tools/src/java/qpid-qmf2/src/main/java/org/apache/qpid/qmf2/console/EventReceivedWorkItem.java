@@ -20,8 +20,6 @@
  */
 package org.apache.qpid.qmf2.console;
 
-import java.util.Map;
-
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.QmfEvent;
 
@@ -39,6 +37,8 @@ import org.apache.qpid.qmf2.common.QmfEvent;
 
 public final class EventReceivedWorkItem extends AgentAccessWorkItem
 {
+    private final QmfEvent _event;
+
     /**
      * Construct a EventReceivedWorkItem. Convenience constructor not in API
      *
@@ -47,17 +47,27 @@ public final class EventReceivedWorkItem extends AgentAccessWorkItem
      */
     public EventReceivedWorkItem(final Agent agent, final QmfEvent event)
     {
-        super(WorkItemType.EVENT_RECEIVED, null, newParams(agent, event));
+        super(WorkItemType.EVENT_RECEIVED, null, agent);
+        _event = event;
+    }
+
+    /**
+     * Create the params Map holding the Agent and QmfEvent, called if getParams() is called.
+     * @return the params Map holding the Agent and QmfEvent.
+     */
+    @Override
+    protected Object createParams()
+    {
+        return newParams(getAgent(), _event);
     }
 
     /**
-     * Return the QmfEvent stored in the params Map.
-     * @return the QmfEvent stored in the params Map.
+     * Return the QmfEvent associated with the WorkItem, which is the QmfEvent stored in the params Map.
+     * @return the QmfEvent associated with the WorkItem.
      */
     public QmfEvent getEvent()
     {
-        Map<String, Object> p = this.<Map<String, Object>>getParams();
-        return (QmfEvent)p.get("event");
+        return _event;
     }
 }
 
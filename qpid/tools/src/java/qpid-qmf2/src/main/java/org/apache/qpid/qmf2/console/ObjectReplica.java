@@ -0,0 +1,609 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.ScheduledTask;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+
+/**
+ * An ObjectReplica is a local, indexed and thread safe replica of the objects of selected classes managed by an Agent,
+ * created by Console.createReplica().
+ * <p>
+ * Management tools commonly call Console.getObjects() for the same classes over and over again, for example to find
+ * the queues, exchanges and bindings of a broker, and then join the objects by following their ObjectId references.
+ * Each getObjects() call is a round trip to the Agent returning every object of the class. An ObjectReplica instead
+ * loads the objects once and is then kept up to date by the _data indications pushed by the Agent, so reading it
+ * costs no round trips. Objects that the Agent reports as deleted are removed from the replica.
+ * <p>
+ * The broker ManagementAgent pushes _data indications for its objects whenever they change, so a replica of broker
+ * classes simply listens to these. For other Agents the ObjectReplica creates a Subscription for each class, which
+ * it refreshes periodically until the replica is closed.
+ * <p>
+ * The objects returned by an ObjectReplica are snapshots: an update to an object replaces it in the replica with a
+ * new QmfConsoleData rather than modifying the one previously returned, so the returned objects should be treated as
+ * read only. The ref-join methods dereference() and getReferrers() allow references between replicated objects to be
+ * followed locally. The first getReferrers() call for a class and reference property builds an index of the objects
+ * of the class by the ObjectId that the property refers to, which is then maintained as the replica is updated, so
+ * joins such as the following cost a lookup per queue rather than a scan of every binding:
+ * <pre>
+ * List&lt;SchemaClassId&gt; classes = Arrays.asList(new SchemaClassId("org.apache.qpid.broker", "queue"),
+ *                                             new SchemaClassId("org.apache.qpid.broker", "exchange"),
+ *                                             new SchemaClassId("org.apache.qpid.broker", "binding"));
+ * ObjectReplica replica = console.createReplica(console.getAgent("broker"), classes);
+ *
+ * for (QmfConsoleData queue : replica.getObjects("org.apache.qpid.broker", "queue"))
+ * {
+ *     for (QmfConsoleData binding : replica.getReferrers("binding", "queueRef", queue.getObjectId()))
+ *     {
+ *         QmfConsoleData exchange = replica.dereference(binding, "exchangeRef");
+ *         ....
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Fraser Adams
+ */
+public final class ObjectReplica extends ScheduledTask
+{
+    private static final Logger _log = LoggerFactory.getLogger(ObjectReplica.class);
+
+    private final Console _console;
+    private final Agent _agent;
+    private final List<SchemaClassId> _classes;
+
+    /**
+     * The replicated objects keyed by ObjectId.
+     */
+    private final Map<ObjectId, QmfConsoleData> _objects = new ConcurrentHashMap<ObjectId, QmfConsoleData>();
+
+    /**
+     * The replicated objects of each class keyed by ObjectId, this Map is keyed by "packageName:className" and is
+     * never modified after construction.
+     */
+    private final Map<String, Map<ObjectId, QmfConsoleData>> _classIndex =
+        new HashMap<String, Map<ObjectId, QmfConsoleData>>();
+
+    /**
+     * The ReferenceIndexes of each class keyed by the name of the reference property, built by getReferrers(). The
+     * outer Map is keyed in the same way as _classIndex and is never modified after construction.
+     */
+    private final Map<String, Map<String, ReferenceIndex>> _referenceIndex =
+        new HashMap<String, Map<String, ReferenceIndex>>();
+
+    /**
+     * The ObjectIds of the objects deleted while the initial objects are being loaded, which prevents load() from
+     * reinstating objects that were deleted after the Agent had responded to the query. Null once endLoad() has
+     * been called after the objects of every class have been loaded.
+     */
+    private Set<ObjectId> _deletedWhileLoading = new HashSet<ObjectId>();
+
+    /**
+     * The Epoch of the Agent, as given by its heartbeats. An Agent restart increments its Epoch, at which point the
+     * objects from the previous Epoch are removed as the Agent won't report their deletion. ObjectIds with an Epoch
+     * of zero are persistent, they don't change when the Agent restarts so such objects are never considered stale.
+     */
+    private long _epoch;
+
+    /**
+     * The IDs of the Subscriptions created to keep the replica up to date when the Agent isn't the broker.
+     */
+    private final List<String> _subscriptionIds = new CopyOnWriteArrayList<String>();
+
+    /**
+     * An index of the objects of a class by the ObjectId that one of their reference properties refers to. It is
+     * only modified while holding the ObjectReplica's monitor, but may be read concurrently.
+     */
+    private static final class ReferenceIndex
+    {
+        private final String _refName;
+
+        /**
+         * The ObjectId referred to by each referring object, keyed by the ObjectId of the referring object.
+         */
+        private final Map<ObjectId, ObjectId> _targets = new ConcurrentHashMap<ObjectId, ObjectId>();
+
+        /**
+         * The ObjectIds of the referring objects, keyed by the ObjectId that they refer to.
+         */
+        private final Map<ObjectId, Set<ObjectId>> _referrers = new ConcurrentHashMap<ObjectId, Set<ObjectId>>();
+
+        ReferenceIndex(final String refName)
+        {
+            _refName = refName;
+        }
+
+        /**
+         * Index an object that has been added or updated.
+         */
+        void put(final QmfConsoleData object)
+        {
+            ObjectId referrer = object.getObjectId();
+            Object value = object.getValue(_refName);
+            ObjectId target = (value instanceof Map) ? object.getRefValue(_refName) : null;
+            ObjectId previous = (target == null) ? _targets.remove(referrer) : _targets.put(referrer, target);
+            if (previous != null && !previous.equals(target))
+            {
+                removeReferrer(previous, referrer);
+            }
+
+            if (target != null && !target.equals(previous))
+            {
+                Set<ObjectId> referrers = _referrers.get(target);
+                if (referrers == null)
+                {
+                    referrers = Collections.newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+                    _referrers.put(target, referrers);
+                }
+                referrers.add(referrer);
+            }
+        }
+
+        /**
+         * Remove an object that has been deleted.
+         */
+        void remove(final ObjectId referrer)
+        {
+            ObjectId previous = _targets.remove(referrer);
+            if (previous != null)
+            {
+                removeReferrer(previous, referrer);
+            }
+        }
+
+        private void removeReferrer(final ObjectId target, final ObjectId referrer)
+        {
+            Set<ObjectId> referrers = _referrers.get(target);
+            if (referrers != null)
+            {
+                referrers.remove(referrer);
+                if (referrers.isEmpty())
+                {
+                    _referrers.remove(target);
+                }
+            }
+        }
+
+        /**
+         * Return the ObjectIds of the objects referring to the given ObjectId.
+         */
+        Set<ObjectId> get(final ObjectId target)
+        {
+            Set<ObjectId> referrers = _referrers.get(target);
+            return (referrers == null) ? Collections.<ObjectId>emptySet() : referrers;
+        }
+    }
+
+    /**
+     * Construct an ObjectReplica, only the Console creates ObjectReplicas.
+     *
+     * @param console the Console that created the replica.
+     * @param agent the Agent managing the replicated objects.
+     * @param classes the classes of the replicated objects, only the package and class names are significant.
+     */
+    ObjectReplica(final Console console, final Agent agent, final List<SchemaClassId> classes)
+    {
+        _console = console;
+        _agent = agent;
+        _epoch = agent.getEpoch();
+        _classes = Collections.unmodifiableList(new ArrayList<SchemaClassId>(classes));
+        for (SchemaClassId classId : _classes)
+        {
+            String key = getKey(classId.getPackageName(), classId.getClassName());
+            _classIndex.put(key, new ConcurrentHashMap<ObjectId, QmfConsoleData>());
+            _referenceIndex.put(key, new ConcurrentHashMap<String, ReferenceIndex>());
+        }
+    }
+
+    /**
+     * Return the key of the _classIndex for the given class.
+     */
+    private static String getKey(final String packageName, final String className)
+    {
+        return packageName + ":" + className;
+    }
+
+    /**
+     * Return the key of the _classIndex for the class of the given SchemaClassId.
+     *
+     * @param classId the SchemaClassId of the class.
+     * @return the key of the class or null if the class isn't replicated.
+     */
+    private String getKey(final SchemaClassId classId)
+    {
+        if (classId == null)
+        {
+            return null;
+        }
+        String key = getKey(classId.getPackageName(), classId.getClassName());
+        return _classIndex.containsKey(key) ? key : null;
+    }
+
+    /**
+     * Record a Subscription created to keep the replica up to date.
+     *
+     * @param subscriptionId the ID of the Subscription.
+     */
+    void addSubscription(final String subscriptionId)
+    {
+        _subscriptionIds.add(subscriptionId);
+    }
+
+    /**
+     * Apply an update from the Agent, this is called by the Console on its listener thread for each object in the
+     * _data indications from the replica's Agent.
+     *
+     * @param object the updated object, which may be of a class that isn't replicated.
+     */
+    void update(final QmfConsoleData object)
+    {
+        String key = getKey(object.getSchemaClassId());
+        if (key != null)
+        {
+            apply(object, key);
+        }
+    }
+
+    /**
+     * Add the results of the initial query for one of the replicated classes. Updates received since the replica was
+     * registered with the Console, so that none can be missed, take precedence over the query results.
+     *
+     * @param objects the results of the initial query.
+     */
+    synchronized void load(final List<QmfConsoleData> objects)
+    {
+        for (QmfConsoleData object : objects)
+        {
+            String key = getKey(object.getSchemaClassId());
+            if (key != null && !_deletedWhileLoading.contains(object.getObjectId()))
+            {
+                apply(object, key);
+            }
+        }
+    }
+
+    /**
+     * Called once the objects of every replicated class have been loaded, after which deletions no longer need to
+     * be remembered.
+     */
+    synchronized void endLoad()
+    {
+        _deletedWhileLoading = null;
+    }
+
+    /**
+     * Called by the Console when the Agent's Epoch changes, i.e. when the Agent has been restarted, to remove the
+     * objects from the previous Epochs.
+     *
+     * @param epoch the new Agent Epoch.
+     */
+    synchronized void setEpoch(final long epoch)
+    {
+        if (epoch > _epoch)
+        {
+            _log.info("Agent {} has been restarted, removing replicated objects from Epoch {}",
+                      _agent.getName(), _epoch);
+            _epoch = epoch;
+            Iterator<ObjectId> i = _objects.keySet().iterator();
+            while (i.hasNext())
+            {
+                ObjectId objectId = i.next();
+                if (isStale(objectId))
+                {
+                    i.remove();
+                    for (Map<ObjectId, QmfConsoleData> index : _classIndex.values())
+                    {
+                        index.remove(objectId);
+                    }
+                    for (Map<String, ReferenceIndex> references : _referenceIndex.values())
+                    {
+                        for (ReferenceIndex referenceIndex : references.values())
+                        {
+                            referenceIndex.remove(objectId);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if an ObjectId is from a previous Epoch of the Agent. ObjectIds with an Epoch of zero are never
+     * stale, as persistent objects such as the broker's queues and exchanges use that Epoch.
+     */
+    private boolean isStale(final ObjectId objectId)
+    {
+        long epoch = objectId.getAgentEpoch();
+        return epoch != 0 && epoch < _epoch;
+    }
+
+    /**
+     * Apply an update or query result to the replica.
+     * <p>
+     * Updates are merged with the replicated object rather than replacing it, as the updates from the broker only
+     * include the properties or the statistics that have changed. The merge is done in the order of the objects'
+     * update timestamps so an update that arrives ahead of the query results isn't overwritten by them.
+     *
+     * @param object the updated object.
+     * @param key the key of the class of the object.
+     */
+    private synchronized void apply(final QmfConsoleData object, final String key)
+    {
+        ObjectId objectId = object.getObjectId();
+        if (isStale(objectId))
+        {
+            return; // A late update from before the Agent was restarted.
+        }
+
+        Map<ObjectId, QmfConsoleData> index = _classIndex.get(key);
+        Map<String, ReferenceIndex> references = _referenceIndex.get(key);
+        if (object.isDeleted())
+        {
+            _objects.remove(objectId);
+            index.remove(objectId);
+            for (ReferenceIndex referenceIndex : references.values())
+            {
+                referenceIndex.remove(objectId);
+            }
+            if (_deletedWhileLoading != null)
+            {
+                _deletedWhileLoading.add(objectId);
+            }
+            return;
+        }
+
+        QmfConsoleData current = _objects.get(objectId);
+        if (current == null)
+        {
+            current = object;
+        }
+        else if (object.getUpdateTime() >= current.getUpdateTime())
+        {
+            current = current.merge(object);
+        }
+        else
+        {
+            current = object.merge(current);
+        }
+        _objects.put(objectId, current);
+        index.put(objectId, current);
+        for (ReferenceIndex referenceIndex : references.values())
+        {
+            referenceIndex.put(current);
+        }
+    }
+
+    /**
+     * Return the ReferenceIndex of a reference property of a replicated class, building it from the replicated
+     * objects of the class if this is the first time it has been needed.
+     *
+     * @param key the key of the class.
+     * @param refName the name of the reference property.
+     * @return the ReferenceIndex of the property.
+     */
+    private ReferenceIndex getReferenceIndex(final String key, final String refName)
+    {
+        Map<String, ReferenceIndex> references = _referenceIndex.get(key);
+        ReferenceIndex referenceIndex = references.get(refName);
+        if (referenceIndex == null)
+        {
+            synchronized (this)
+            { // Updates are applied holding the monitor, so none can be missed whilst the index is built.
+                referenceIndex = references.get(refName);
+                if (referenceIndex == null)
+                {
+                    referenceIndex = new ReferenceIndex(refName);
+                    for (QmfConsoleData object : _classIndex.get(key).values())
+                    {
+                        referenceIndex.put(object);
+                    }
+                    references.put(refName, referenceIndex);
+                }
+            }
+        }
+        return referenceIndex;
+    }
+
+    /**
+     * Periodically refresh the Subscriptions keeping the replica up to date so that they don't expire.
+     */
+    public void run()
+    {
+        for (String subscriptionId : _subscriptionIds)
+        {
+            try
+            {
+                _console.refreshSubscriptionAsync(subscriptionId, null);
+            }
+            catch (QmfException qmfe)
+            {
+                _log.info("QmfException {} caught refreshing replica Subscription {}", qmfe.getMessage(), subscriptionId);
+            }
+        }
+    }
+
+    /**
+     * Return the Agent managing the replicated objects.
+     * @return the Agent managing the replicated objects.
+     */
+    public Agent getAgent()
+    {
+        return _agent;
+    }
+
+    /**
+     * Return the SchemaClassIds of the replicated classes.
+     * @return the SchemaClassIds of the replicated classes.
+     */
+    public List<SchemaClassId> getClasses()
+    {
+        return _classes;
+    }
+
+    /**
+     * Return the number of replicated objects.
+     * @return the number of replicated objects.
+     */
+    public int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Return the replicated objects of the given class.
+     *
+     * @param packageName the package name of the class.
+     * @param className the name of the class.
+     * @return the replicated objects of the class, which is empty if the class isn't replicated.
+     */
+    public List<QmfConsoleData> getObjects(final String packageName, final String className)
+    {
+        Map<ObjectId, QmfConsoleData> index = _classIndex.get(getKey(packageName, className));
+        return (index == null) ? new ArrayList<QmfConsoleData>() : new ArrayList<QmfConsoleData>(index.values());
+    }
+
+    /**
+     * Return the replicated objects of the given class in any of the replicated packages.
+     *
+     * @param className the name of the class.
+     * @return the replicated objects of the class, which is empty if the class isn't replicated.
+     */
+    public List<QmfConsoleData> getObjects(final String className)
+    {
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        for (SchemaClassId classId : _classes)
+        {
+            if (classId.getClassName().equals(className))
+            {
+                results.addAll(getObjects(classId.getPackageName(), className));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return the replicated object with the given ObjectId.
+     *
+     * @param objectId the ObjectId of the object.
+     * @return the replicated object or null if there's no replicated object with the given ObjectId.
+     */
+    public QmfConsoleData getObject(final ObjectId objectId)
+    {
+        return (objectId == null) ? null : _objects.get(objectId);
+    }
+
+    /**
+     * Dereferences an ObjectId returning the replicated object that it refers to. This is a synonym for getObject().
+     *
+     * @param ref the ObjectId to be dereferenced.
+     * @return the replicated object or null if there's no replicated object with the given ObjectId.
+     */
+    public QmfConsoleData dereference(final ObjectId ref)
+    {
+        return getObject(ref);
+    }
+
+    /**
+     * Dereferences the named reference property of an object returning the replicated object that it refers to,
+     * for example dereference(binding, "queueRef") returns the queue that a binding is bound to.
+     *
+     * @param object the object containing the reference property.
+     * @param refName the name of the reference property.
+     * @return the replicated object or null if the property doesn't exist or refers to an object that isn't
+     *         replicated.
+     */
+    public QmfConsoleData dereference(final QmfConsoleData object, final String refName)
+    {
+        return object.hasValue(refName) ? getObject(object.getRefValue(refName)) : null;
+    }
+
+    /**
+     * Return the replicated objects of the given class whose named reference property refers to the given object,
+     * for example getReferrers("binding", "queueRef", queue.getObjectId()) returns the bindings of a queue. The
+     * referring objects are found via an index of the class by the reference property, which is built by the first
+     * call for the class and property.
+     *
+     * @param className the name of the class of the referring objects.
+     * @param refName the name of the reference property.
+     * @param objectId the ObjectId of the referenced object.
+     * @return the referring objects, which is empty if there are none.
+     */
+    public List<QmfConsoleData> getReferrers(final String className, final String refName, final ObjectId objectId)
+    {
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        for (SchemaClassId classId : _classes)
+        {
+            if (classId.getClassName().equals(className))
+            {
+                String key = getKey(classId.getPackageName(), className);
+                for (ObjectId referrer : getReferenceIndex(key, refName).get(objectId))
+                {
+                    QmfConsoleData object = _objects.get(referrer);
+                    if (object != null)
+                    {
+                        results.add(object);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stop maintaining the replica, cancelling any Subscriptions created to keep it up to date. The replica retains
+     * the objects it contained when it was closed.
+     */
+    public void close()
+    {
+        cancel();
+        _console.removeReplica(this);
+        for (String subscriptionId : _subscriptionIds)
+        {
+            try
+            {
+                _console.cancelSubscription(subscriptionId);
+            }
+            catch (QmfException qmfe)
+            {
+                _log.info("QmfException {} caught cancelling replica Subscription {}", qmfe.getMessage(), subscriptionId);
+            }
+        }
+        _subscriptionIds.clear();
+    }
+}
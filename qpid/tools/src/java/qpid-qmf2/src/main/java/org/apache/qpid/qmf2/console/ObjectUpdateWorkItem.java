@@ -20,10 +20,12 @@
  */
 package org.apache.qpid.qmf2.console;
 
+import java.util.Arrays;
 import java.util.Map;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.Handle;
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.WorkItem;
 
 /**
@@ -61,5 +63,47 @@ public final class ObjectUpdateWorkItem extends WorkItem
     {
         return (QmfConsoleData)getParams();
     }
+
+    /**
+     * Return the coalesce key of this WorkItem, ObjectUpdates for the same ObjectId and reply handle may be coalesced.
+     * @return the coalesce key, or null if the QmfConsoleData has no ObjectId.
+     */
+    @Override
+    public Object getCoalesceKey()
+    {
+        Handle handle = getHandle();
+        ObjectId objectId = getQmfConsoleData().getObjectId();
+        return (objectId == null) ? null :
+                Arrays.asList(getType(), (handle == null) ? null : handle.getCorrelationId(), objectId);
+    }
+
+    /**
+     * Coalesce a newer ObjectUpdateWorkItem for the same ObjectId and reply handle into this one, which simply
+     * replaces this WorkItem with the newer one.
+     *
+     * @param newer the newer WorkItem.
+     * @return the newer WorkItem, or null if it isn't an ObjectUpdateWorkItem for the same ObjectId and reply handle.
+     */
+    @Override
+    public WorkItem coalesce(final WorkItem newer)
+    {
+        if (!(newer instanceof ObjectUpdateWorkItem))
+        {
+            return null;
+        }
+
+        Handle handle = getHandle();
+        Handle newerHandle = newer.getHandle();
+        String correlationId = (handle == null) ? null : handle.getCorrelationId();
+        String newerCorrelationId = (newerHandle == null) ? null : newerHandle.getCorrelationId();
+        if (correlationId == null ? newerCorrelationId != null : !correlationId.equals(newerCorrelationId))
+        {
+            return null;
+        }
+
+        ObjectId objectId = getQmfConsoleData().getObjectId();
+        return (objectId != null && objectId.equals(((ObjectUpdateWorkItem)newer).getQmfConsoleData().getObjectId())) ?
+                newer : null;
+    }
 }
 
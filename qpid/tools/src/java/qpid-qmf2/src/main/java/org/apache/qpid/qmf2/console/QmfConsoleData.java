@@ -71,6 +71,51 @@ public class QmfConsoleData extends QmfManaged
         _agent = a;
     }
 
+    /**
+     * Construct a QmfConsoleData combining the state of an object with a newer, possibly partial, update of the same
+     * object. The broker ManagementAgent only includes the properties in its periodic updates if they have changed,
+     * and likewise the statistics, so the values in the update are added to rather than replacing the current values.
+     *
+     * @param current the current state of the object.
+     * @param update the newer update of the object.
+     */
+    private QmfConsoleData(final QmfConsoleData current, final QmfConsoleData update)
+    {
+        Map<String, Object> values = new HashMap<String, Object>(current._values);
+        values.putAll(update._values);
+        _values = values;
+
+        if (current._subtypes == null || update._subtypes == null)
+        {
+            _subtypes = (update._subtypes == null) ? current._subtypes : update._subtypes;
+        }
+        else
+        {
+            Map<String, String> subtypes = new HashMap<String, String>(current._subtypes);
+            subtypes.putAll(update._subtypes);
+            _subtypes = subtypes;
+        }
+
+        setSchemaClassId(update.getSchemaClassId());
+        setObjectId(update.getObjectId());
+        _agent = update._agent;
+        _updateTimestamp = update._updateTimestamp;
+        _createTimestamp = current._createTimestamp;
+        _deleteTimestamp = update._deleteTimestamp;
+    }
+
+    /**
+     * Return a new QmfConsoleData combining the state of this object with a newer, possibly partial, update of it.
+     * Neither this object nor the update are modified.
+     *
+     * @param update the newer update of this object.
+     * @return the combined QmfConsoleData.
+     */
+    QmfConsoleData merge(final QmfConsoleData update)
+    {
+        return new QmfConsoleData(this, update);
+    }
+
     /**
      * Sets the state of the QmfConsoleData, used as an assignment operator.
      * 
@@ -262,6 +307,63 @@ public class QmfConsoleData extends QmfManaged
         _agent.invokeMethod(getObjectId(), name, inArgs, replyHandle);
     }
 
+    /**
+     * Invoke the named method on this instance, returning a QmfFuture that completes with the MethodResult rather
+     * than blocking until the Agent responds.
+     *
+     * @param name name of the method to invoke.
+     * @param inArgs inArgs an unordered set of key/value pairs comprising the method arguments.
+     * @return a QmfFuture that completes with the MethodResult.
+     */    
+    public final QmfFuture<MethodResult> invokeMethodAsync(final String name, final QmfData inArgs) throws QmfException
+    {
+        return invokeMethodAsync(name, inArgs, -1);
+    }
+
+    /**
+     * Invoke the named method on this instance, returning a QmfFuture that completes with the MethodResult rather
+     * than blocking until the Agent responds.
+     *
+     * @param name name of the method to invoke.
+     * @param inArgs inArgs an unordered set of key/value pairs comprising the method arguments.
+     * @param timeout the maximum time in seconds to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */    
+    public final QmfFuture<MethodResult> invokeMethodAsync(final String name, final QmfData inArgs, final int timeout)
+        throws QmfException
+    {
+        if (_agent == null)
+        {
+            throw new QmfException("QmfConsoleData.invokeMethodAsync() called with null Agent");
+        }
+        return _agent.invokeMethodAsync(getObjectId(), name, inArgs, timeout);
+    }
+
+    /**
+     * Return the named metadata item, this adds the "_update_ts", "_create_ts" and "_delete_ts" timestamps to the
+     * metadata of QmfManaged.
+     *
+     * @param name the name of the metadata item.
+     * @return the value of the metadata item or null if this object has no such metadata.
+     */
+    @Override
+    protected Object getMetadataValue(final String name)
+    {
+        if (name.equals("_update_ts"))
+        {
+            return _updateTimestamp;
+        }
+        else if (name.equals("_create_ts"))
+        {
+            return _createTimestamp;
+        }
+        else if (name.equals("_delete_ts"))
+        {
+            return _deleteTimestamp;
+        }
+        return super.getMetadataValue(name);
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
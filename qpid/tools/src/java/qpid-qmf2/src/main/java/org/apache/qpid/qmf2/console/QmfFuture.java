@@ -0,0 +1,280 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A QmfFuture represents the result of an asynchronous Console request such as Console.getObjectsAsync(),
+ * Console.invokeMethodAsync() or Console.createSubscriptionAsync().
+ * <p>
+ * The original QMF2 API delivers asynchronous results as WorkItems on the Console's work queue tagged with an
+ * application supplied replyHandle, leaving the application to correlate them with its requests. A QmfFuture
+ * instead ties the result directly to the request: the application may block in get(), or may add a
+ * QmfFutureListener to be called back when the result is available, without any WorkItems being created.
+ * <p>
+ * A QmfFuture is completed by the Console, normally on the Console's listener thread as the response arrives,
+ * and is failed with a QmfException if no response is received within the request's timeout. Cancelling a
+ * QmfFuture simply abandons the request, any response subsequently received from the Agent is discarded.
+ *
+ * @param <T> the type of the result of the asynchronous request.
+ * @author Fraser Adams
+ */
+public final class QmfFuture<T> implements Future<T>
+{
+    private static final Logger _log = LoggerFactory.getLogger(QmfFuture.class);
+
+    private List<QmfFutureListener<T>> _listeners = new ArrayList<QmfFutureListener<T>>(2);
+    private boolean _done = false;
+    private boolean _cancelled = false;
+    private T _result;
+    private Throwable _failure;
+
+    /**
+     * Construct an incomplete QmfFuture, only the Console completes QmfFutures.
+     */
+    QmfFuture()
+    {
+    }
+
+    /**
+     * Complete the QmfFuture successfully.
+     *
+     * @param result the result of the request.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    boolean complete(final T result)
+    {
+        List<QmfFutureListener<T>> listeners;
+        synchronized(this)
+        {
+            if (_done)
+            {
+                return false;
+            }
+            _result = result;
+            listeners = finish();
+        }
+
+        for (QmfFutureListener<T> listener : listeners)
+        {
+            notifySuccess(listener, result);
+        }
+        return true;
+    }
+
+    /**
+     * Complete the QmfFuture unsuccessfully.
+     *
+     * @param cause the reason for the failure.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    boolean fail(final Throwable cause)
+    {
+        List<QmfFutureListener<T>> listeners;
+        synchronized(this)
+        {
+            if (_done)
+            {
+                return false;
+            }
+            _failure = cause;
+            _cancelled = (cause instanceof CancellationException);
+            listeners = finish();
+        }
+
+        for (QmfFutureListener<T> listener : listeners)
+        {
+            notifyFailure(listener, cause);
+        }
+        return true;
+    }
+
+    /**
+     * Mark the QmfFuture as done and wake any threads blocked in get(). Must be called holding the monitor.
+     *
+     * @return the listeners to be notified of the completion.
+     */
+    private List<QmfFutureListener<T>> finish()
+    {
+        _done = true;
+        notifyAll();
+        List<QmfFutureListener<T>> listeners = _listeners;
+        _listeners = null;
+        return listeners;
+    }
+
+    /**
+     * Call a listener's onSuccess(), a misbehaving listener must not prevent the other listeners from being called.
+     */
+    private void notifySuccess(final QmfFutureListener<T> listener, final T result)
+    {
+        try
+        {
+            listener.onSuccess(result);
+        }
+        catch (RuntimeException re)
+        {
+            _log.info("RuntimeException {} caught in QmfFutureListener.onSuccess()", re.getMessage());
+        }
+    }
+
+    /**
+     * Call a listener's onFailure(), a misbehaving listener must not prevent the other listeners from being called.
+     */
+    private void notifyFailure(final QmfFutureListener<T> listener, final Throwable cause)
+    {
+        try
+        {
+            listener.onFailure(cause);
+        }
+        catch (RuntimeException re)
+        {
+            _log.info("RuntimeException {} caught in QmfFutureListener.onFailure()", re.getMessage());
+        }
+    }
+
+    /**
+     * Add a listener to be called back when the QmfFuture completes. If the QmfFuture has already completed the
+     * listener is called immediately on the calling thread.
+     *
+     * @param listener the QmfFutureListener to add.
+     */
+    public void addListener(final QmfFutureListener<T> listener)
+    {
+        synchronized(this)
+        {
+            if (!_done)
+            {
+                _listeners.add(listener);
+                return;
+            }
+        }
+
+        if (_failure == null)
+        {
+            notifySuccess(listener, _result);
+        }
+        else
+        {
+            notifyFailure(listener, _failure);
+        }
+    }
+
+    /**
+     * Abandon the request. Any response subsequently received from the Agent is discarded.
+     *
+     * @param mayInterruptIfRunning ignored, there is no thread executing the request that could be interrupted.
+     * @return true if the QmfFuture was cancelled, false if it had already completed.
+     */
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        return fail(new CancellationException("QmfFuture cancelled"));
+    }
+
+    /**
+     * Return true if the QmfFuture was cancelled before it completed.
+     * @return true if the QmfFuture was cancelled before it completed.
+     */
+    public synchronized boolean isCancelled()
+    {
+        return _cancelled;
+    }
+
+    /**
+     * Return true if the QmfFuture has completed, whether successfully, unsuccessfully or by being cancelled.
+     * @return true if the QmfFuture has completed.
+     */
+    public synchronized boolean isDone()
+    {
+        return _done;
+    }
+
+    /**
+     * Wait for the request to complete. The Console always fails the QmfFuture once the request's timeout expires,
+     * so this will not block indefinitely.
+     *
+     * @return the result of the request.
+     * @throws ExecutionException wrapping the QmfException if the request failed or timed out.
+     * @throws CancellationException if the QmfFuture was cancelled.
+     */
+    public synchronized T get() throws InterruptedException, ExecutionException
+    {
+        while (!_done)
+        {
+            wait();
+        }
+        return getResult();
+    }
+
+    /**
+     * Wait for at most the given time for the request to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the result of the request.
+     * @throws ExecutionException wrapping the QmfException if the request failed or timed out.
+     * @throws CancellationException if the QmfFuture was cancelled.
+     * @throws TimeoutException if the request did not complete within the given time.
+     */
+    public synchronized T get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!_done)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                throw new TimeoutException("QmfFuture.get() timed out");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    /**
+     * Return the result of a completed QmfFuture. Must be called holding the monitor.
+     */
+    private T getResult() throws ExecutionException
+    {
+        if (_cancelled)
+        {
+            throw (CancellationException)_failure;
+        }
+        if (_failure != null)
+        {
+            throw new ExecutionException(_failure);
+        }
+        return _result;
+    }
+}
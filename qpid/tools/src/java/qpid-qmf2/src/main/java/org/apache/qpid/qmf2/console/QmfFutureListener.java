@@ -0,0 +1,54 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfCallback;
+
+/**
+ * A QmfFutureListener may be added to a QmfFuture in order to be called back when the asynchronous request that
+ * the QmfFuture represents completes, rather than having to block in QmfFuture.get().
+ * <p>
+ * The listener is called on the thread that completes the QmfFuture, which is normally the Console's listener
+ * thread, so it should return promptly and must not block waiting for the results of further Console requests.
+ * If the QmfFuture has already completed when the listener is added the listener is called immediately on the
+ * thread adding it.
+ *
+ * @param <T> the type of the result of the asynchronous request.
+ * @author Fraser Adams
+ */
+public interface QmfFutureListener<T> extends QmfCallback
+{
+    /**
+     * Called when the asynchronous request completes successfully.
+     *
+     * @param result the result of the request.
+     */
+    public void onSuccess(T result);
+
+    /**
+     * Called when the asynchronous request fails, times out or is cancelled.
+     *
+     * @param cause the reason for the failure, this is a QmfException if the request failed or timed out or a
+     *        java.util.concurrent.CancellationException if the request was cancelled.
+     */
+    public void onFailure(Throwable cause);
+}
@@ -0,0 +1,45 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.List;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfCallback;
+
+/**
+ * A QueryResultListener may be passed to Console.getObjects() in order to receive the results of a query sent to
+ * several Agents as each response is received, rather than waiting until every Agent has responded.
+ *
+ * @author Fraser Adams
+ */
+public interface QueryResultListener extends QmfCallback
+{
+    /**
+     * Passes the objects contained in a response to the listener. An Agent may send its results in several
+     * responses, in which case this is called once for each response.
+     *
+     * @param agent the Agent that sent the response.
+     * @param results the QmfConsoleData objects contained in the response.
+     */
+    public void onResults(Agent agent, List<QmfConsoleData> results);
+}
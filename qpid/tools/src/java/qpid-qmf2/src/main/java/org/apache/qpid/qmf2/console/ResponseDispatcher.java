@@ -0,0 +1,170 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ResponseDispatcher routes the responses to the Console's synchronous requests to the threads waiting for them.
+ * <p>
+ * Each synchronous request is given a unique correlation ID by calling register() before the request is sent. The
+ * ResponseDispatcher is the MessageListener for the Console's synchronous reply queue and places each response on
+ * the queue of pending responses for its correlation ID, where it is picked up by the requesting thread calling
+ * receive(). This allows any number of threads to have requests outstanding at the same time, where previously
+ * a single MessageConsumer was shared so the whole request/response exchange had to be serialised.
+ * <p>
+ * Responses for correlation IDs that are no longer registered, for example responses that arrive after their
+ * request has timed out, are discarded.
+ *
+ * @author Fraser Adams
+ */
+final class ResponseDispatcher implements MessageListener
+{
+    private static final Logger _log = LoggerFactory.getLogger(ResponseDispatcher.class);
+
+    /**
+     * The source of the numeric part of the correlation IDs.
+     */
+    private final AtomicLong _nextId = new AtomicLong();
+
+    /**
+     * The prefix of the correlation IDs, these only need to be unique for the Console's own reply queue.
+     */
+    private final String _prefix;
+
+    /**
+     * The queues of pending responses for each registered correlation ID. More than one response may be received
+     * for a request, e.g. when an Agent returns query results in several partial responses.
+     */
+    private final ConcurrentHashMap<String, BlockingQueue<Message>> _pending =
+        new ConcurrentHashMap<String, BlockingQueue<Message>>();
+
+    /**
+     * Construct a ResponseDispatcher.
+     *
+     * @param prefix the prefix used for the correlation IDs of the requests.
+     */
+    ResponseDispatcher(final String prefix)
+    {
+        _prefix = prefix;
+    }
+
+    /**
+     * Register a new request, this must be called before the request is sent so that no responses can be missed.
+     *
+     * @return the correlation ID that should be used for the request Message.
+     */
+    String register()
+    {
+        return register(new LinkedBlockingQueue<Message>());
+    }
+
+    /**
+     * Register a new request whose responses should be placed on the given queue. Several requests may share the
+     * same queue so that a single thread can gather the responses to requests sent to many Agents, in which case
+     * the responses should be told apart by their correlation IDs.
+     *
+     * @param responses the queue that responses to the request should be placed on.
+     * @return the correlation ID that should be used for the request Message.
+     */
+    String register(final BlockingQueue<Message> responses)
+    {
+        String correlationId = _prefix + _nextId.incrementAndGet();
+        _pending.put(correlationId, responses);
+        return correlationId;
+    }
+
+    /**
+     * Unregister a request once all of its responses have been received or the request has timed out.
+     *
+     * @param correlationId the correlation ID returned by register().
+     */
+    void unregister(final String correlationId)
+    {
+        _pending.remove(correlationId);
+    }
+
+    /**
+     * Wait for the next response to a registered request.
+     *
+     * @param correlationId the correlation ID returned by register().
+     * @param timeout the maximum time in milliseconds to wait for a response.
+     * @return the response Message or null if no response was received before the timeout.
+     */
+    Message receive(final String correlationId, final long timeout)
+    {
+        BlockingQueue<Message> responses = _pending.get(correlationId);
+        if (responses == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return responses.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Route a response to the thread waiting for it.
+     *
+     * @param message the response Message.
+     */
+    public void onMessage(final Message message)
+    {
+        try
+        {
+            String correlationId = message.getJMSCorrelationID();
+            BlockingQueue<Message> responses = (correlationId == null) ? null : _pending.get(correlationId);
+            if (responses == null)
+            {
+                _log.debug("Discarding response with unknown correlation ID {}", correlationId);
+            }
+            else
+            {
+                responses.offer(message);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in ResponseDispatcher.onMessage()", jmse.getMessage());
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Need the following to decode and encode the schema file
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.qpid.transport.codec.BBDecoder;
+import org.apache.qpid.transport.codec.BBEncoder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.SchemaClass;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+
+/**
+ * A SchemaCache holds the SchemaClasses retrieved from Agents keyed by their full SchemaClassId, that is to say
+ * the package name, the class name and the hash of the schema.
+ * <p>
+ * The hash is a revision identifier computed over the body of the schema, so a SchemaClassId including the hash
+ * identifies the same schema whichever Agent it came from. Each Agent still records which classes it supports,
+ * but looks up their SchemaClasses from the Console's SchemaCache, so:
+ * <ul>
+ *  <li>a deployment comprising many Agents of the same product retrieves and decodes each schema only once.</li>
+ *  <li>when an Agent restarts only its list of classes is retrieved again, the schema of any class whose hash is
+ *      unchanged is taken from the SchemaCache.</li>
+ * </ul>
+ * A SchemaCache may optionally be backed by a file, which is read when the SchemaCache is created and written by
+ * save(), which the Console calls when its connection is removed. Short lived tools can then start with the schema
+ * retrieved by their previous runs. As schema are only looked up by full SchemaClassId a stale file is harmless,
+ * schema that have since changed simply aren't found.
+ * <p>
+ * The Console creates a SchemaCache backed by a file if given the "schemaCacheFile" option, and a SchemaCache may
+ * be shared between Consoles via Console.setSchemaCache().
+ *
+ * @author Fraser Adams
+ */
+public final class SchemaCache
+{
+    private static final Logger _log = LoggerFactory.getLogger(SchemaCache.class);
+
+    /**
+     * The cached schema keyed by their full SchemaClassId.
+     */
+    private final ConcurrentMap<SchemaClassId, SchemaClass> _schema = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
+
+    /**
+     * The file backing the SchemaCache, may be null.
+     */
+    private final File _file;
+
+    /**
+     * Set when schema have been added since the SchemaCache was last loaded or saved.
+     */
+    private volatile boolean _modified = false;
+
+    /**
+     * Construct an empty SchemaCache that isn't backed by a file.
+     */
+    public SchemaCache()
+    {
+        _file = null;
+    }
+
+    /**
+     * Construct a SchemaCache backed by a file, loading the schema previously saved to the file if it exists.
+     * A file that can't be read is logged and ignored, as the schema will simply be retrieved from the Agents.
+     *
+     * @param file the file backing the SchemaCache.
+     */
+    public SchemaCache(final File file)
+    {
+        _file = file;
+        if (_file.exists())
+        {
+            load();
+        }
+    }
+
+    /**
+     * Create the appropriate SchemaClass subclass from the Map encoding of a schema.
+     *
+     * @param m the Map encoding of the schema.
+     * @return a SchemaEventClass if the schema type is "_event" otherwise a SchemaObjectClass.
+     */
+    static SchemaClass decode(final Map m)
+    {
+        SchemaClass schema = new SchemaObjectClass(m);
+        if (schema.getClassId().getType().equals("_event"))
+        {
+            schema = new SchemaEventClass(m);
+        }
+        return schema;
+    }
+
+    /**
+     * Return the schema with the given SchemaClassId.
+     *
+     * @param classId the SchemaClassId of the schema, which must include the hash.
+     * @return the schema or null if it isn't cached or classId has no hash.
+     */
+    public SchemaClass get(final SchemaClassId classId)
+    {
+        return (classId.getHashString() == null) ? null : _schema.get(classId);
+    }
+
+    /**
+     * Add a schema to the SchemaCache. If an identical schema is already cached that schema is returned, so that
+     * the Agents supporting the same class share a single SchemaClass instance. A schema whose SchemaClassId has no
+     * hash isn't cached, as it can't be told apart from other revisions of the class and get() would never return it.
+     *
+     * @param schema the schema to add.
+     * @return the cached schema with the same SchemaClassId, or schema itself if it has no hash.
+     */
+    public SchemaClass put(final SchemaClass schema)
+    {
+        if (!hasHash(schema))
+        {
+            return schema;
+        }
+
+        SchemaClass cached = _schema.putIfAbsent(schema.getClassId(), schema);
+        if (cached == null)
+        {
+            _modified = true;
+            return schema;
+        }
+        return cached;
+    }
+
+    /**
+     * Return true if the schema was received with a hash. SchemaClass.getClassId() generates a hash when the
+     * SchemaClassId doesn't have one, so the SchemaClassId that the schema was received with is checked instead.
+     *
+     * @param schema the schema.
+     * @return true if the schema has a hash or was created locally, false if it was received without a hash.
+     */
+    private static boolean hasHash(final SchemaClass schema)
+    {
+        Object schemaId = schema.getValue("_schema_id");
+        return !(schemaId instanceof Map) || ((Map)schemaId).get("_hash") != null;
+    }
+
+    /**
+     * Return the number of cached schema.
+     * @return the number of cached schema.
+     */
+    public int size()
+    {
+        return _schema.size();
+    }
+
+    /**
+     * Remove all of the cached schema. The file backing the SchemaCache is emptied when it is next saved.
+     */
+    public void clear()
+    {
+        _schema.clear();
+        _modified = true;
+    }
+
+    /**
+     * Read the schema from the file backing the SchemaCache, which contains the Map encodings of the schema as an
+     * amqp/list.
+     */
+    private void load()
+    {
+        try
+        {
+            byte[] bytes = new byte[(int)_file.length()];
+            FileInputStream in = new FileInputStream(_file);
+            try
+            {
+                int offset = 0;
+                while (offset < bytes.length)
+                {
+                    int count = in.read(bytes, offset, bytes.length - offset);
+                    if (count < 0)
+                    {
+                        break;
+                    }
+                    offset += count;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            BBDecoder decoder = new BBDecoder();
+            decoder.init(ByteBuffer.wrap(bytes));
+            List<Object> list = decoder.readList();
+            for (Object m : list)
+            {
+                SchemaClass schema = decode((Map)m);
+                _schema.put(schema.getClassId(), schema);
+            }
+            _log.info("Loaded {} schema from {}", _schema.size(), _file);
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught in SchemaCache.load()", ioe.getMessage());
+        }
+        catch (RuntimeException re)
+        { // The BBDecoder throws RuntimeExceptions if the file is corrupt.
+            _log.info("RuntimeException {} caught in SchemaCache.load()", re.getMessage());
+            _schema.clear();
+        }
+    }
+
+    /**
+     * Write the schema to the file backing the SchemaCache if any have been added since it was last loaded or saved.
+     * The file is written via a uniquely named temporary file in the same directory that is then renamed, so a
+     * concurrently starting process never sees a partly written file and concurrently saving processes don't write
+     * to the same temporary file.
+     */
+    public synchronized void save()
+    {
+        if (_file == null || !_modified)
+        {
+            return;
+        }
+        _modified = false; // Cleared first so that schema added whilst saving mark the cache as modified again.
+
+        List<Object> list = new ArrayList<Object>(_schema.size());
+        for (SchemaClass schema : _schema.values())
+        {
+            list.add(schema.mapEncode());
+        }
+
+        File temp = null;
+        try
+        {
+            BBEncoder encoder = new BBEncoder(4096);
+            encoder.writeList(list);
+            ByteBuffer buf = encoder.segment();
+            temp = File.createTempFile(_file.getName() + ".save", ".tmp", _file.getAbsoluteFile().getParentFile());
+            FileOutputStream out = new FileOutputStream(temp);
+            try
+            {
+                FileChannel channel = out.getChannel();
+                while (buf.hasRemaining())
+                { // A single write() isn't guaranteed to write the whole buffer.
+                    channel.write(buf);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!temp.renameTo(_file))
+            { // renameTo() won't replace an existing file on some platforms.
+                _file.delete();
+                if (!temp.renameTo(_file))
+                {
+                    throw new IOException("Failed to rename " + temp + " to " + _file);
+                }
+            }
+            _log.info("Saved {} schema to {}", list.size(), _file);
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught in SchemaCache.save()", ioe.getMessage());
+            _modified = true; // The file wasn't written, so the next save() should try again.
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+}
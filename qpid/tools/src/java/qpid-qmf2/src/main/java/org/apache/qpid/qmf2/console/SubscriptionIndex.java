@@ -0,0 +1,278 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+
+/**
+ * A SubscriptionIndex holds the Subscriptions that the Console emulates for the broker Agent, indexed by what their
+ * queries can match so that each object pushed by the broker is only evaluated against the Subscriptions that may
+ * match it, rather than against every Subscription.
+ * <p>
+ * Subscriptions are indexed as follows:
+ * <ul>
+ *  <li>ID queries for an ObjectId are indexed by the ObjectId.</li>
+ *  <li>ID queries for a SchemaClassId are indexed by class name, or by package name if no class name is given.</li>
+ *  <li>PREDICATE queries whose predicate requires a given "_class_name", either directly or as a term of an "and",
+ *      for example <pre>['and', ['eq', '_class_name', ['quote', 'queue']], ['gt', 'msgDepth', 0]]</pre>
+ *      are indexed by that class name.</li>
+ * </ul>
+ * Any other Subscriptions are evaluated against every object. The query of each candidate Subscription is still
+ * evaluated as the index only narrows down which Subscriptions may match.
+ * <p>
+ * Subscriptions are added and removed rarely compared to the rate that objects are matched, so the index uses
+ * copy on write Lists and matching takes no locks.
+ *
+ * @author Fraser Adams
+ */
+final class SubscriptionIndex
+{
+    private final Map<ObjectId, List<SubscriptionManager>> _byObjectId =
+        new ConcurrentHashMap<ObjectId, List<SubscriptionManager>>();
+    private final Map<String, List<SubscriptionManager>> _byClassName =
+        new ConcurrentHashMap<String, List<SubscriptionManager>>();
+    private final Map<String, List<SubscriptionManager>> _byPackageName =
+        new ConcurrentHashMap<String, List<SubscriptionManager>>();
+    private final List<SubscriptionManager> _unindexed = new CopyOnWriteArrayList<SubscriptionManager>();
+    private volatile int _size = 0;
+
+    /**
+     * Return the class name that a predicate requires objects to have, if any.
+     *
+     * @param predicate the predicate of a PREDICATE query.
+     * @return the class name or null if the predicate doesn't require a particular class name.
+     */
+    private static String getClassName(final List predicate)
+    {
+        if (predicate.size() == 3 && "eq".equals(predicate.get(0)))
+        {
+            if ("_class_name".equals(predicate.get(1)))
+            {
+                return getQuotedString(predicate.get(2));
+            }
+            if ("_class_name".equals(predicate.get(2)))
+            {
+                return getQuotedString(predicate.get(1));
+            }
+        }
+        else if (predicate.size() > 1 && "and".equals(predicate.get(0)))
+        {
+            for (Object term : predicate.subList(1, predicate.size()))
+            {
+                if (term instanceof List)
+                {
+                    String className = getClassName((List)term);
+                    if (className != null)
+                    {
+                        return className;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the String from a quoted operand of the form ['quote', &lt;token&gt;].
+     *
+     * @param operand the operand.
+     * @return the quoted String or null if the operand isn't quoted.
+     */
+    private static String getQuotedString(final Object operand)
+    {
+        if (operand instanceof List)
+        {
+            List quote = (List)operand;
+            if (quote.size() == 2 && "quote".equals(QmfData.getString(quote.get(0))))
+            {
+                return QmfData.getString(quote.get(1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the List that a Subscription should be held in, creating it if necessary.
+     *
+     * @param subscription the Subscription.
+     * @param create if true the List is created if it doesn't exist.
+     * @return the List or null if create is false and the List doesn't exist.
+     */
+    private List<SubscriptionManager> getList(final SubscriptionManager subscription, final boolean create)
+    {
+        QmfQuery query = subscription.getQuery();
+        ObjectId objectId = query.getObjectId();
+        SchemaClassId classId = query.getSchemaClassId();
+        if (query.getPredicate() == null)
+        {
+            if (objectId != null && classId == null)
+            {
+                return getList(_byObjectId, objectId, create);
+            }
+            else if (objectId == null && classId != null)
+            {
+                if (classId.getClassName().length() > 0)
+                {
+                    return getList(_byClassName, classId.getClassName(), create);
+                }
+                else if (classId.getPackageName().length() > 0)
+                {
+                    return getList(_byPackageName, classId.getPackageName(), create);
+                }
+            }
+        }
+        else
+        {
+            String className = getClassName(query.getPredicate());
+            if (className != null)
+            {
+                return getList(_byClassName, className, create);
+            }
+        }
+        return _unindexed;
+    }
+
+    /**
+     * Return the List for the given key, creating it if necessary.
+     */
+    private static <K> List<SubscriptionManager> getList(final Map<K, List<SubscriptionManager>> map, final K key,
+                                                         final boolean create)
+    {
+        List<SubscriptionManager> list = map.get(key);
+        if (list == null && create)
+        {
+            list = new CopyOnWriteArrayList<SubscriptionManager>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Add a Subscription to the index.
+     *
+     * @param subscription the Subscription to add.
+     */
+    public synchronized void add(final SubscriptionManager subscription)
+    {
+        List<SubscriptionManager> list = getList(subscription, true);
+        if (!list.contains(subscription))
+        {
+            list.add(subscription);
+            _size++;
+        }
+    }
+
+    /**
+     * Remove a Subscription from the index.
+     *
+     * @param subscription the Subscription to remove.
+     */
+    public synchronized void remove(final SubscriptionManager subscription)
+    {
+        List<SubscriptionManager> list = getList(subscription, false);
+        if (list != null && list.remove(subscription))
+        {
+            _size--;
+            if (list.isEmpty() && list != _unindexed)
+            { // Remove the empty List so that the index doesn't grow with every ObjectId ever subscribed to.
+                _byObjectId.values().remove(list);
+                _byClassName.values().remove(list);
+                _byPackageName.values().remove(list);
+            }
+        }
+    }
+
+    /**
+     * Return true if the index holds no Subscriptions.
+     * @return true if the index holds no Subscriptions.
+     */
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    /**
+     * Return the Subscriptions whose queries match the given object.
+     *
+     * @param object the object to match.
+     * @return the matching Subscriptions, which is empty if there are none.
+     */
+    public List<SubscriptionManager> match(final QmfConsoleData object)
+    {
+        List<SubscriptionManager> matches = null;
+        ObjectId objectId = object.getObjectId();
+        if (objectId != null)
+        {
+            matches = match(object, _byObjectId.get(objectId), matches);
+        }
+
+        SchemaClassId classId = object.getSchemaClassId();
+        if (classId != null)
+        {
+            matches = match(object, _byClassName.get(classId.getClassName()), matches);
+            matches = match(object, _byPackageName.get(classId.getPackageName()), matches);
+        }
+
+        matches = match(object, _unindexed, matches);
+        return (matches == null) ? Collections.<SubscriptionManager>emptyList() : matches;
+    }
+
+    /**
+     * Add the candidate Subscriptions whose queries match the given object to matches.
+     *
+     * @param object the object to match.
+     * @param candidates the Subscriptions that may match the object, may be null.
+     * @param matches the matching Subscriptions found so far, may be null if none have been found.
+     * @return the matching Subscriptions, null if none have been found.
+     */
+    private static List<SubscriptionManager> match(final QmfConsoleData object,
+                                                   final List<SubscriptionManager> candidates,
+                                                   List<SubscriptionManager> matches)
+    {
+        if (candidates != null)
+        {
+            for (SubscriptionManager subscription : candidates)
+            {
+                if (subscription.getQuery().evaluate(object))
+                {
+                    if (matches == null)
+                    {
+                        matches = new ArrayList<SubscriptionManager>();
+                    }
+                    matches.add(subscription);
+                }
+            }
+        }
+        return matches;
+    }
+}
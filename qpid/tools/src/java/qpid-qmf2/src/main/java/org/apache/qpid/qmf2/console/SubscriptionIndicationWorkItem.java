@@ -20,10 +20,16 @@
  */
 package org.apache.qpid.qmf2.console;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.Handle;
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.WorkItem;
 
 /**
@@ -58,5 +64,60 @@ public final class SubscriptionIndicationWorkItem extends WorkItem
     {
         return (SubscribeIndication)getParams();
     }
+
+    /**
+     * Return the coalesce key of this WorkItem, SubscriptionIndications for the same subscription may be coalesced.
+     * @return the coalesce key, or null if the SubscribeIndication has no consoleHandle.
+     */
+    @Override
+    public Object getCoalesceKey()
+    {
+        String consoleHandle = getSubscribeIndication().getConsoleHandle();
+        return (consoleHandle == null) ? null : Arrays.asList(getType(), consoleHandle);
+    }
+
+    /**
+     * Coalesce a newer SubscriptionIndicationWorkItem for the same subscription into this one. The result contains
+     * this WorkItem's objects that aren't updated by the newer WorkItem followed by all of the newer WorkItem's
+     * objects, so only the latest state of each ObjectId is retained.
+     *
+     * @param newer the newer WorkItem.
+     * @return the coalesced WorkItem, or null if newer isn't a SubscriptionIndicationWorkItem for the same subscription.
+     */
+    @Override
+    public WorkItem coalesce(final WorkItem newer)
+    {
+        if (!(newer instanceof SubscriptionIndicationWorkItem))
+        {
+            return null;
+        }
+
+        SubscribeIndication older = getSubscribeIndication();
+        SubscribeIndication latest = ((SubscriptionIndicationWorkItem)newer).getSubscribeIndication();
+        String consoleHandle = older.getConsoleHandle();
+        if (consoleHandle == null || !consoleHandle.equals(latest.getConsoleHandle()))
+        {
+            return null;
+        }
+
+        List<QmfConsoleData> latestData = latest.getData();
+        Set<ObjectId> updated = new HashSet<ObjectId>(latestData.size()*2);
+        for (QmfConsoleData object : latestData)
+        {
+            updated.add(object.getObjectId());
+        }
+
+        List<QmfConsoleData> olderData = older.getData();
+        List<QmfConsoleData> data = new ArrayList<QmfConsoleData>(olderData.size() + latestData.size());
+        for (QmfConsoleData object : olderData)
+        {
+            if (!updated.contains(object.getObjectId()))
+            {
+                data.add(object);
+            }
+        }
+        data.addAll(latestData);
+        return new SubscriptionIndicationWorkItem(new SubscribeIndication(consoleHandle, data));
+    }
 }
 
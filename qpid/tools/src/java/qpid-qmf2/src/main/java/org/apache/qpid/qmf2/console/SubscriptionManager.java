@@ -27,15 +27,15 @@ import org.slf4j.LoggerFactory;
 // Misc Imports
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimerTask;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.ScheduledTask;
 
 /** 
  * A SubscriptionManager represents a running Subscription on the Console.
  * <p>
- * The main reason we have SubscriptionManagers as TimerTasks is to enable proper cleanup of the references stored in
+ * The main reason we have SubscriptionManagers as ScheduledTasks is to enable proper cleanup of the references stored in
  * the subscriptionByHandle and subscriptionById Maps. Ideally these will be cleaned up by a client calling 
  * cancelSubscription but we can't rely on that as the client may forget or the Agent may not respond.
  * <p>
@@ -56,7 +56,7 @@ import org.apache.qpid.qmf2.common.QmfQuery;
  *
  * @author Fraser Adams
  */
-public final class SubscriptionManager extends TimerTask
+public final class SubscriptionManager extends ScheduledTask
 {
     private static final Logger _log = LoggerFactory.getLogger(SubscriptionManager.class);
 
@@ -65,6 +65,7 @@ public final class SubscriptionManager extends TimerTask
     private String   _subscriptionId;
     private String   _consoleHandle;
     private String   _replyHandle;
+    private volatile QmfFuture<SubscribeParams> _future;
     private QmfQuery _query;
     private long     _duration = 0;
     private long     _interval = 0;
@@ -92,7 +93,7 @@ public final class SubscriptionManager extends TimerTask
     }
 
     /**
-     * This method gets called periodically by the Timer scheduling this TimerTask.
+     * This method gets called periodically by the scheduler running this ScheduledTask.
      * <p>
      * First a check is made to see if the Subscription has expired, if it has then it is cancelled.
      */
@@ -161,7 +162,7 @@ public final class SubscriptionManager extends TimerTask
     }
 
     /**
-     * Cancel the Subscription, tidying references up and cancelling the TimerTask.
+     * Cancel the Subscription, tidying references up and cancelling the ScheduledTask.
      */
     @Override
     public boolean cancel()
@@ -169,7 +170,7 @@ public final class SubscriptionManager extends TimerTask
         _log.debug("Cancelling Subscription {}, {}", _consoleHandle, _subscriptionId);
         _agent.removeSubscription(this);
         signal(); // Just in case anything is blocking on this Subscription.
-        return super.cancel(); // Cancel the TimerTask
+        return super.cancel(); // Cancel the ScheduledTask
     }
 
     /**
@@ -208,6 +209,26 @@ public final class SubscriptionManager extends TimerTask
         return _replyHandle;
     }
 
+    /**
+     * Set the QmfFuture to complete with the subscription response when the Subscription was created by
+     * Console.createSubscriptionAsync().
+     * @param future the QmfFuture to complete with the subscription response.
+     */
+    void setFuture(final QmfFuture<SubscribeParams> future)
+    {
+        _future = future;
+    }
+
+    /**
+     * Return the QmfFuture to complete with the subscription response, or null if the Subscription wasn't created
+     * by Console.createSubscriptionAsync().
+     * @return the QmfFuture to complete with the subscription response.
+     */
+    QmfFuture<SubscribeParams> getFuture()
+    {
+        return _future;
+    }
+
     /**
      * Return the Agent running this Subscription.
      * @return the Agent running this Subscription.
@@ -0,0 +1,294 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+// Misc Imports
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LoopbackBroker is an in-process transport for QMF2 that routes Messages between the Agents and Consoles of a
+ * single JVM without a network or an AMQP broker.
+ * <p>
+ * The Agent and Console talk to their transport via the JMS API, so the LoopbackBroker creates javax.jms.Connections
+ * that may be passed to Agent.setConnection() and Console.addConnection() in place of a Qpid JMS client Connection.
+ * The Messages of the loopback transport implement TransportMessage, so amqp/list Messages carry their List as a
+ * java.util.List and the Maps and Lists that Messages carry are copied rather than encoded and decoded.
+ * <p>
+ * This is intended for co-located Agents and Consoles, for example embedded management where a Console monitors
+ * Agents in the same process, and for testing or benchmarking the QMF2 layer independently of a broker.
+ * <pre>
+ * LoopbackBroker broker = new LoopbackBroker();
+ *
+ * Agent agent = new Agent(new MyAgentListener());
+ * agent.setVendor("apache.org");
+ * agent.setProduct("qpidd");
+ * agent.setConnection(broker.createConnection());
+ *
+ * Console console = new Console();
+ * console.addConnection(broker.createConnection());
+ * </pre>
+ * Note that Console.addConnection() waits for the broker Agent, i.e. an Agent whose vendor is "apache.org" and
+ * whose product is "qpidd", unless the Console's events are disabled, so such an Agent should be connected first.
+ * <p>
+ * Messages are routed by the exchange name and subject of the Qpid Address Strings used by the Agent and Console.
+ * Exchanges whose names end in ".topic" route using AMQP topic matching of the binding key, where "*" matches a
+ * single word and "#" matches zero or more words, all other exchanges route on an exact match of the routing key.
+ * The routing key of a Message is given by its "qpid.subject" property, or by the subject of the Destination that
+ * it was sent to if it doesn't have one.
+ *
+ * @author Fraser Adams
+ */
+public final class LoopbackBroker
+{
+    /**
+     * A consumer bound to a topic exchange along with the words of its binding key.
+     */
+    private static final class TopicBinding
+    {
+        private final LoopbackConsumer _consumer;
+        private final String[] _pattern;
+
+        TopicBinding(final LoopbackConsumer consumer)
+        {
+            String subject = consumer.getDestination().getSubject();
+            _consumer = consumer;
+            _pattern = (subject.length() == 0) ? new String[] {"#"} : subject.split("\\.");
+        }
+    }
+
+    /**
+     * The consumers bound to direct exchanges keyed by exchange name and binding key.
+     */
+    private final ConcurrentMap<String, List<LoopbackConsumer>> _directBindings =
+        new ConcurrentHashMap<String, List<LoopbackConsumer>>();
+
+    /**
+     * The consumers bound to topic exchanges keyed by exchange name.
+     */
+    private final ConcurrentMap<String, List<TopicBinding>> _topicBindings =
+        new ConcurrentHashMap<String, List<TopicBinding>>();
+
+    private final AtomicLong _messageCount = new AtomicLong();
+    private final AtomicLong _messageId = new AtomicLong();
+
+    /**
+     * Create a Connection to the LoopbackBroker.
+     * @return a javax.jms.Connection that may be passed to Agent.setConnection() or Console.addConnection().
+     */
+    public Connection createConnection()
+    {
+        return createConnection(null);
+    }
+
+    /**
+     * Create a Connection to the LoopbackBroker whose Messages are given an authenticated user id.
+     * @param userId the user id given to the Messages sent via the Connection, which an Agent sees as "_user_id".
+     * @return a javax.jms.Connection that may be passed to Agent.setConnection() or Console.addConnection().
+     */
+    public Connection createConnection(final String userId)
+    {
+        return new LoopbackConnection(this, userId);
+    }
+
+    /**
+     * Return the number of Messages routed by the LoopbackBroker, including any that matched no consumers.
+     * @return the number of Messages routed by the LoopbackBroker.
+     */
+    public long getMessageCount()
+    {
+        return _messageCount.get();
+    }
+
+    /**
+     * Return true if the exchange is a topic exchange.
+     */
+    private static boolean isTopic(final String exchange)
+    {
+        return exchange.endsWith(".topic") || exchange.equals("amq.topic");
+    }
+
+    /**
+     * Create the JMSMessageID for a Message.
+     * @return a JMSMessageID that is unique within this LoopbackBroker.
+     */
+    String createMessageID()
+    {
+        return "ID:loopback-" + _messageId.incrementAndGet();
+    }
+
+    /**
+     * Bind a consumer to the exchange named by its Destination.
+     * @param consumer the consumer.
+     */
+    synchronized void bind(final LoopbackConsumer consumer)
+    {
+        LoopbackDestination destination = consumer.getDestination();
+        if (isTopic(destination.getName()))
+        {
+            List<TopicBinding> bindings = _topicBindings.get(destination.getName());
+            if (bindings == null)
+            {
+                bindings = new CopyOnWriteArrayList<TopicBinding>();
+                _topicBindings.put(destination.getName(), bindings);
+            }
+            bindings.add(new TopicBinding(consumer));
+        }
+        else
+        {
+            String key = destination.getName() + "/" + destination.getSubject();
+            List<LoopbackConsumer> consumers = _directBindings.get(key);
+            if (consumers == null)
+            {
+                consumers = new CopyOnWriteArrayList<LoopbackConsumer>();
+                _directBindings.put(key, consumers);
+            }
+            consumers.add(consumer);
+        }
+    }
+
+    /**
+     * Unbind a consumer, which is called when the consumer is closed.
+     * @param consumer the consumer.
+     */
+    synchronized void unbind(final LoopbackConsumer consumer)
+    {
+        LoopbackDestination destination = consumer.getDestination();
+        if (isTopic(destination.getName()))
+        {
+            List<TopicBinding> bindings = _topicBindings.get(destination.getName());
+            if (bindings != null)
+            {
+                for (TopicBinding binding : bindings)
+                {
+                    if (binding._consumer == consumer)
+                    {
+                        bindings.remove(binding);
+                    }
+                }
+                if (bindings.isEmpty())
+                {
+                    _topicBindings.remove(destination.getName());
+                }
+            }
+        }
+        else
+        {
+            String key = destination.getName() + "/" + destination.getSubject();
+            List<LoopbackConsumer> consumers = _directBindings.get(key);
+            if (consumers != null)
+            {
+                consumers.remove(consumer);
+                if (consumers.isEmpty())
+                {
+                    _directBindings.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Route a Message to the consumers bound to the exchange that it was sent to, each of which is given its own
+     * copy of the Message.
+     *
+     * @param message the Message.
+     * @param destination the Destination that the Message was sent to.
+     */
+    void route(final LoopbackMessage message, final LoopbackDestination destination) throws JMSException
+    {
+        _messageCount.incrementAndGet();
+        String exchange = destination.getName();
+        String routingKey = message.getStringProperty("qpid.subject");
+        if (routingKey == null)
+        {
+            routingKey = destination.getSubject();
+        }
+
+        if (isTopic(exchange))
+        {
+            List<TopicBinding> bindings = _topicBindings.get(exchange);
+            if (bindings != null)
+            {
+                String[] words = routingKey.split("\\.");
+                for (TopicBinding binding : bindings)
+                {
+                    if (matches(binding._pattern, 0, words, 0))
+                    {
+                        binding._consumer.deliver(message.copy());
+                    }
+                }
+            }
+        }
+        else
+        {
+            List<LoopbackConsumer> consumers = _directBindings.get(exchange + "/" + routingKey);
+            if (consumers != null)
+            {
+                for (LoopbackConsumer consumer : consumers)
+                {
+                    consumer.deliver(message.copy());
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if the words of a routing key match the words of a topic binding key from the given positions.
+     *
+     * @param pattern the words of the binding key, where "*" matches one word and "#" matches zero or more words.
+     * @param p the position in pattern to match from.
+     * @param words the words of the routing key.
+     * @param w the position in words to match from.
+     * @return true if the remaining words match.
+     */
+    private static boolean matches(final String[] pattern, final int p, final String[] words, final int w)
+    {
+        if (p == pattern.length)
+        {
+            return w == words.length;
+        }
+
+        if (pattern[p].equals("#"))
+        {
+            for (int i = w; i <= words.length; i++)
+            {
+                if (matches(pattern, p + 1, words, i))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (w < words.length && (pattern[p].equals("*") || pattern[p].equals(words[w])))
+        {
+            return matches(pattern, p + 1, words, w + 1);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotReadableException;
+import javax.jms.MessageNotWriteableException;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * The loopback transport's implementation of javax.jms.BytesMessage.
+ * <p>
+ * The QMF2 API uses BytesMessages for amqp/list Messages. Where the List is set via AMQPMessage.setList(Message, List)
+ * it is carried by the Message as a java.util.List and the body remains empty, otherwise the body holds the encoded
+ * List, e.g. as written by AMQPMessage.setList(Message, BBEncoder, int), and is decoded by the receiver.
+ * <p>
+ * The body is writeable until the Message is sent or reset() is called, after which it is read only.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackBytesMessage extends LoopbackMessage implements BytesMessage
+{
+    private ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+    private DataOutputStream _writer = new DataOutputStream(_buffer);
+    private byte[] _body = null;
+    private DataInputStream _reader = null;
+
+    /**
+     * Construct an empty LoopbackBytesMessage.
+     */
+    LoopbackBytesMessage()
+    {
+    }
+
+    /**
+     * Construct a read only LoopbackBytesMessage that is a copy of the source Message. The body is shared with the
+     * source Message as neither may subsequently modify it.
+     *
+     * @param source the Message to copy.
+     */
+    private LoopbackBytesMessage(final LoopbackBytesMessage source)
+    {
+        super(source);
+        source.reset();
+        _buffer = null;
+        _writer = null;
+        _body = source._body;
+        _reader = new DataInputStream(new ByteArrayInputStream(_body));
+    }
+
+    @Override
+    LoopbackMessage copy()
+    {
+        return new LoopbackBytesMessage(this);
+    }
+
+    @Override
+    public void clearBody() throws JMSException
+    {
+        super.clearBody();
+        _buffer = new ByteArrayOutputStream();
+        _writer = new DataOutputStream(_buffer);
+        _body = null;
+        _reader = null;
+    }
+
+    /**
+     * Return the reader for the body, checking that the body is read only.
+     */
+    private DataInputStream getReader() throws JMSException
+    {
+        if (_reader == null)
+        {
+            throw new MessageNotReadableException("BytesMessage is write only");
+        }
+        return _reader;
+    }
+
+    /**
+     * Return the writer for the body, checking that the body is writeable.
+     */
+    private DataOutputStream getWriter() throws JMSException
+    {
+        if (_writer == null)
+        {
+            throw new MessageNotWriteableException("BytesMessage is read only");
+        }
+        return _writer;
+    }
+
+    /**
+     * Create the JMSException for an IOException thrown while reading or writing the body.
+     */
+    private static JMSException createException(final IOException ioe)
+    {
+        JMSException jmse = (ioe instanceof EOFException) ? new MessageEOFException("End of BytesMessage reached") :
+                                                            new MessageFormatException(ioe.getMessage());
+        jmse.setLinkedException(ioe);
+        return jmse;
+    }
+
+    public long getBodyLength()
+    {
+        return (_body == null) ? _buffer.size() : _body.length;
+    }
+
+    public void reset()
+    {
+        if (_writer != null)
+        {
+            _body = _buffer.toByteArray();
+            _buffer = null;
+            _writer = null;
+        }
+        _reader = new DataInputStream(new ByteArrayInputStream(_body));
+    }
+
+    public boolean readBoolean() throws JMSException
+    {
+        try
+        {
+            return getReader().readBoolean();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public byte readByte() throws JMSException
+    {
+        try
+        {
+            return getReader().readByte();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public int readUnsignedByte() throws JMSException
+    {
+        try
+        {
+            return getReader().readUnsignedByte();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public short readShort() throws JMSException
+    {
+        try
+        {
+            return getReader().readShort();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public int readUnsignedShort() throws JMSException
+    {
+        try
+        {
+            return getReader().readUnsignedShort();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public char readChar() throws JMSException
+    {
+        try
+        {
+            return getReader().readChar();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public int readInt() throws JMSException
+    {
+        try
+        {
+            return getReader().readInt();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public long readLong() throws JMSException
+    {
+        try
+        {
+            return getReader().readLong();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public float readFloat() throws JMSException
+    {
+        try
+        {
+            return getReader().readFloat();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public double readDouble() throws JMSException
+    {
+        try
+        {
+            return getReader().readDouble();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public String readUTF() throws JMSException
+    {
+        try
+        {
+            return getReader().readUTF();
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public int readBytes(final byte[] value) throws JMSException
+    {
+        return readBytes(value, value.length);
+    }
+
+    public int readBytes(final byte[] value, final int length) throws JMSException
+    {
+        try
+        {
+            return getReader().read(value, 0, length);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeBoolean(final boolean value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeBoolean(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeByte(final byte value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeByte(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeShort(final short value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeShort(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeChar(final char value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeChar(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeInt(final int value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeInt(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeLong(final long value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeLong(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeFloat(final float value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeFloat(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeDouble(final double value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeDouble(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeUTF(final String value) throws JMSException
+    {
+        try
+        {
+            getWriter().writeUTF(value);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeBytes(final byte[] value) throws JMSException
+    {
+        writeBytes(value, 0, value.length);
+    }
+
+    public void writeBytes(final byte[] value, final int offset, final int length) throws JMSException
+    {
+        try
+        {
+            getWriter().write(value, offset, length);
+        }
+        catch (IOException ioe)
+        {
+            throw createException(ioe);
+        }
+    }
+
+    public void writeObject(final Object value) throws JMSException
+    {
+        if (value instanceof Boolean)
+        {
+            writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Byte)
+        {
+            writeByte((Byte)value);
+        }
+        else if (value instanceof Short)
+        {
+            writeShort((Short)value);
+        }
+        else if (value instanceof Character)
+        {
+            writeChar((Character)value);
+        }
+        else if (value instanceof Integer)
+        {
+            writeInt((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            writeLong((Long)value);
+        }
+        else if (value instanceof Float)
+        {
+            writeFloat((Float)value);
+        }
+        else if (value instanceof Double)
+        {
+            writeDouble((Double)value);
+        }
+        else if (value instanceof String)
+        {
+            writeUTF((String)value);
+        }
+        else if (value instanceof byte[])
+        {
+            writeBytes((byte[])value);
+        }
+        else
+        {
+            throw new MessageFormatException("Can't write " + (value == null ? "null" : value.getClass().getName()));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.Connection;
+import javax.jms.ConnectionConsumer;
+import javax.jms.ConnectionMetaData;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+// Misc Imports
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The loopback transport's implementation of javax.jms.Connection, created by LoopbackBroker.createConnection().
+ * <p>
+ * As with any JMS Connection Messages are only delivered to MessageListeners once the Connection has been started.
+ * The user id that the Connection was created with is given to the Messages that it sends, in the same way that a
+ * broker sets the authenticated user id of a Message, so an Agent sees it as the "_user_id" of requests.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackConnection implements Connection
+{
+    private final LoopbackBroker _broker;
+    private final String _userId;
+    private final List<LoopbackSession> _sessions = new CopyOnWriteArrayList<LoopbackSession>();
+    private String _clientId = null;
+    private ExceptionListener _exceptionListener = null;
+    private volatile boolean _started = false;
+    private volatile boolean _closed = false;
+
+    /**
+     * Construct a LoopbackConnection.
+     * @param broker the LoopbackBroker that routes the Connection's Messages.
+     * @param userId the user id given to the Messages sent by the Connection, may be null.
+     */
+    LoopbackConnection(final LoopbackBroker broker, final String userId)
+    {
+        _broker = broker;
+        _userId = userId;
+    }
+
+    /**
+     * Return the LoopbackBroker that routes the Connection's Messages.
+     * @return the LoopbackBroker that routes the Connection's Messages.
+     */
+    LoopbackBroker getBroker()
+    {
+        return _broker;
+    }
+
+    /**
+     * Return true if the Connection has been started and not stopped or closed.
+     * @return true if the Connection has been started and not stopped or closed.
+     */
+    boolean isStarted()
+    {
+        return _started && !_closed;
+    }
+
+    /**
+     * Route a Message sent by one of the Connection's Sessions.
+     * @param message the Message.
+     * @param destination the Destination that the Message was sent to.
+     * @param disableMessageID true if the producer has disabled Message IDs.
+     */
+    void send(final LoopbackMessage message, final LoopbackDestination destination,
+              final boolean disableMessageID) throws JMSException
+    {
+        message.setJMSMessageID(disableMessageID ? null : _broker.createMessageID());
+        message.setUserId(_userId);
+        _broker.route(message, destination);
+    }
+
+    public Session createSession(final boolean transacted, final int acknowledgeMode) throws JMSException
+    {
+        if (_closed)
+        {
+            throw new IllegalStateException("Connection is closed");
+        }
+
+        if (transacted)
+        {
+            throw new JMSException("Transacted Sessions are not supported by the loopback transport");
+        }
+
+        LoopbackSession session = new LoopbackSession(this);
+        _sessions.add(session);
+        return session;
+    }
+
+    public String getClientID()
+    {
+        return _clientId;
+    }
+
+    public void setClientID(final String clientId)
+    {
+        _clientId = clientId;
+    }
+
+    public ConnectionMetaData getMetaData() throws JMSException
+    {
+        throw new JMSException("ConnectionMetaData is not supported by the loopback transport");
+    }
+
+    public ExceptionListener getExceptionListener()
+    {
+        return _exceptionListener;
+    }
+
+    /**
+     * Set the ExceptionListener. A LoopbackConnection can't fail so the ExceptionListener is never called.
+     * @param listener the ExceptionListener.
+     */
+    public void setExceptionListener(final ExceptionListener listener)
+    {
+        _exceptionListener = listener;
+    }
+
+    public void start() throws JMSException
+    {
+        if (_closed)
+        {
+            throw new IllegalStateException("Connection is closed");
+        }
+
+        _started = true;
+        for (LoopbackSession session : _sessions)
+        {
+            session.start();
+        }
+    }
+
+    public void stop()
+    {
+        _started = false;
+    }
+
+    public void close()
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            for (LoopbackSession session : _sessions)
+            {
+                session.close();
+            }
+            _sessions.clear();
+        }
+    }
+
+    public ConnectionConsumer createConnectionConsumer(final Destination destination, final String messageSelector,
+                                                       final ServerSessionPool sessionPool, final int maxMessages)
+        throws JMSException
+    {
+        throw new JMSException("ConnectionConsumer is not supported by the loopback transport");
+    }
+
+    public ConnectionConsumer createDurableConnectionConsumer(final Topic topic, final String subscriptionName,
+                                                              final String messageSelector,
+                                                              final ServerSessionPool sessionPool,
+                                                              final int maxMessages) throws JMSException
+    {
+        throw new JMSException("ConnectionConsumer is not supported by the loopback transport");
+    }
+}
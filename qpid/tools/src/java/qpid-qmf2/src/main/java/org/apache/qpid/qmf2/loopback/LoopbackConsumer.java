@@ -0,0 +1,230 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// JMS Imports
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+
+// Misc Imports
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The loopback transport's implementation of javax.jms.MessageConsumer.
+ * <p>
+ * Each consumer is bound to the LoopbackBroker by its Destination and has its own queue of the Messages routed to
+ * it. If a MessageListener is set the Messages are passed to it on the dispatcher thread of the consumer's Session,
+ * so as with the Qpid JMS client the Messages for the consumers of a Session are delivered serially, and a
+ * MessageListener that blocks waiting for a response, as the Console does while discovering an Agent's schema, only
+ * holds up its own Session.
+ * <p>
+ * Messages whose time to live has expired by the time they would be delivered are discarded.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackConsumer implements MessageConsumer, Runnable
+{
+    private static final Logger _log = LoggerFactory.getLogger(LoopbackConsumer.class);
+
+    private final LoopbackSession _session;
+    private final LoopbackDestination _destination;
+    private final BlockingQueue<LoopbackMessage> _queue = new LinkedBlockingQueue<LoopbackMessage>();
+
+    /**
+     * Set while a run() of this consumer is waiting to be executed by the Session's dispatcher, so that a burst of
+     * Messages results in a single run() rather than one per Message.
+     */
+    private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+    private volatile MessageListener _listener = null;
+    private volatile boolean _closed = false;
+
+    /**
+     * Construct a LoopbackConsumer.
+     * @param session the Session that created the consumer.
+     * @param destination the Destination that the consumer is bound by.
+     */
+    LoopbackConsumer(final LoopbackSession session, final LoopbackDestination destination)
+    {
+        _session = session;
+        _destination = destination;
+    }
+
+    /**
+     * Return the Destination that the consumer is bound by.
+     * @return the Destination that the consumer is bound by.
+     */
+    LoopbackDestination getDestination()
+    {
+        return _destination;
+    }
+
+    /**
+     * Called by the LoopbackBroker to add a Message routed to this consumer to its queue.
+     * @param message the Message, which is the consumer's own copy.
+     */
+    void deliver(final LoopbackMessage message)
+    {
+        if (!_closed)
+        {
+            _queue.offer(message);
+            schedule();
+        }
+    }
+
+    /**
+     * Have the Session's dispatcher pass any queued Messages to the MessageListener, if one has been set.
+     */
+    void schedule()
+    {
+        if (_listener != null && _scheduled.compareAndSet(false, true))
+        {
+            if (!_session.dispatch(this))
+            {
+                _scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Pass the queued Messages to the MessageListener, this is executed by the Session's dispatcher thread.
+     */
+    public void run()
+    {
+        _scheduled.set(false);
+        LoopbackMessage message;
+        while (!_closed && _session.isStarted() && _listener != null && (message = _queue.poll()) != null)
+        {
+            if (message.isExpired(System.currentTimeMillis()))
+            {
+                continue;
+            }
+
+            try
+            {
+                _listener.onMessage(message);
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught in LoopbackConsumer.run()", re.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Return the next unexpired Message from the queue.
+     * @param timeout the time to wait in milliseconds, zero to wait indefinitely or negative not to wait at all.
+     * @return the next Message or null if none arrives before the timeout or the consumer is closed.
+     */
+    private Message receiveMessage(final long timeout)
+    {
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+        try
+        {
+            while (!_closed)
+            {
+                LoopbackMessage message = null;
+                if (timeout < 0)
+                {
+                    message = _queue.poll();
+                }
+                else if (timeout == 0)
+                {
+                    message = _queue.poll(1000, TimeUnit.MILLISECONDS); // Wake up periodically to check for close.
+                    if (message == null)
+                    {
+                        continue;
+                    }
+                }
+                else
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining > 0)
+                    {
+                        message = _queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    }
+                }
+
+                if (message == null)
+                {
+                    return null;
+                }
+                else if (!message.isExpired(System.currentTimeMillis()))
+                {
+                    return message;
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    public String getMessageSelector()
+    {
+        return null;
+    }
+
+    public MessageListener getMessageListener()
+    {
+        return _listener;
+    }
+
+    public void setMessageListener(final MessageListener listener)
+    {
+        _listener = listener;
+        schedule(); // Deliver any Messages that arrived before the MessageListener was set.
+    }
+
+    public Message receive()
+    {
+        return receiveMessage(0);
+    }
+
+    public Message receive(final long timeout)
+    {
+        return receiveMessage(timeout == 0 ? 0 : Math.max(timeout, 1));
+    }
+
+    public Message receiveNoWait()
+    {
+        return receiveMessage(-1);
+    }
+
+    public void close()
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            _session.removeConsumer(this);
+            _queue.clear();
+        }
+    }
+}
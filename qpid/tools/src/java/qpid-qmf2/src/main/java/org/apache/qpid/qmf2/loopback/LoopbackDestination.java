@@ -0,0 +1,137 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+/**
+ * The loopback transport's implementation of javax.jms.Destination, created from the Qpid Address Strings used by
+ * the Agent and Console, which have the form:
+ * <pre>
+ * &lt;name&gt; [ / &lt;subject&gt; ] [ ; &lt;options&gt; ]
+ * </pre>
+ * The name is the exchange and the subject is the routing key or, for consumers, the binding key. Options such as
+ * queue names, sizes and policies have no meaning for the loopback transport and are ignored.
+ * <p>
+ * The Destination implements Topic because the QMF2 Handle obtains the routing key of a replyTo via getTopicName()
+ * and toString() quotes the name and subject in the same way as the Qpid JMS client, which the Agent relies upon to
+ * recognise replyTo addresses on the QMF direct and topic exchanges.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackDestination implements Queue, Topic
+{
+    private final String _name;
+    private final String _subject;
+
+    /**
+     * Construct a LoopbackDestination from a Qpid Address String.
+     * @param address the Address String.
+     */
+    LoopbackDestination(final String address)
+    {
+        String trimmed = address;
+        int semicolon = trimmed.indexOf(';');
+        if (semicolon >= 0)
+        {
+            trimmed = trimmed.substring(0, semicolon);
+        }
+
+        int slash = trimmed.indexOf('/');
+        if (slash >= 0)
+        {
+            _name = unquote(trimmed.substring(0, slash));
+            _subject = unquote(trimmed.substring(slash + 1));
+        }
+        else
+        {
+            _name = unquote(trimmed);
+            _subject = "";
+        }
+    }
+
+    /**
+     * Remove surrounding white space and quotes from part of an Address String.
+     */
+    private static String unquote(final String s)
+    {
+        String result = s.trim();
+        if (result.length() >= 2 && (result.startsWith("'") && result.endsWith("'") ||
+                                     result.startsWith("\"") && result.endsWith("\"")))
+        {
+            result = result.substring(1, result.length() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Return the exchange name.
+     * @return the exchange name.
+     */
+    String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * Return the subject, i.e. the routing key for producers or the binding key for consumers.
+     * @return the subject or an empty String if the Address has no subject.
+     */
+    String getSubject()
+    {
+        return _subject;
+    }
+
+    public String getQueueName()
+    {
+        return _name;
+    }
+
+    public String getTopicName()
+    {
+        return _subject;
+    }
+
+    @Override
+    public boolean equals(final Object rhs)
+    {
+        if (rhs instanceof LoopbackDestination)
+        {
+            LoopbackDestination destination = (LoopbackDestination)rhs;
+            return _name.equals(destination._name) && _subject.equals(destination._subject);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _name.hashCode()*31 + _subject.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "'" + _name + "'/'" + _subject + "'";
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.MessageFormatException;
+
+// Misc Imports
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The loopback transport's implementation of javax.jms.MapMessage, which has the "amqp/map" Content-Type.
+ * <p>
+ * The Map entries are held as they are set, for example the "_values" Map of a QMF heartbeat is held as a
+ * java.util.Map and copied rather than encoded when the Message is delivered.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackMapMessage extends LoopbackMessage implements MapMessage
+{
+    private final Map<String, Object> _map;
+
+    /**
+     * Construct an empty LoopbackMapMessage.
+     */
+    LoopbackMapMessage()
+    {
+        _map = new HashMap<String, Object>();
+        setContentType("amqp/map");
+    }
+
+    /**
+     * Construct a LoopbackMapMessage that is a copy of the source Message.
+     * @param source the Message to copy.
+     */
+    @SuppressWarnings("unchecked")
+    private LoopbackMapMessage(final LoopbackMapMessage source)
+    {
+        super(source);
+        _map = (Map<String, Object>)copyValue(source._map);
+    }
+
+    @Override
+    LoopbackMessage copy()
+    {
+        return new LoopbackMapMessage(this);
+    }
+
+    @Override
+    public void clearBody() throws JMSException
+    {
+        super.clearBody();
+        _map.clear();
+    }
+
+    public boolean getBoolean(final String name) throws JMSException
+    {
+        return toBoolean(_map.get(name));
+    }
+
+    public byte getByte(final String name) throws JMSException
+    {
+        return toByte(_map.get(name));
+    }
+
+    public short getShort(final String name) throws JMSException
+    {
+        return toShort(_map.get(name));
+    }
+
+    public char getChar(final String name) throws JMSException
+    {
+        Object value = _map.get(name);
+        if (value instanceof Character)
+        {
+            return (Character)value;
+        }
+        else if (value == null)
+        {
+            throw new NullPointerException("Can't convert null to char");
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to char");
+    }
+
+    public int getInt(final String name) throws JMSException
+    {
+        return toInt(_map.get(name));
+    }
+
+    public long getLong(final String name) throws JMSException
+    {
+        return toLong(_map.get(name));
+    }
+
+    public float getFloat(final String name) throws JMSException
+    {
+        return toFloat(_map.get(name));
+    }
+
+    public double getDouble(final String name) throws JMSException
+    {
+        return toDouble(_map.get(name));
+    }
+
+    public String getString(final String name) throws JMSException
+    {
+        return toString(_map.get(name));
+    }
+
+    public byte[] getBytes(final String name) throws JMSException
+    {
+        Object value = _map.get(name);
+        if (value == null || value instanceof byte[])
+        {
+            return (byte[])value;
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to byte[]");
+    }
+
+    public Object getObject(final String name)
+    {
+        return _map.get(name);
+    }
+
+    public Enumeration getMapNames()
+    {
+        return Collections.enumeration(_map.keySet());
+    }
+
+    public void setBoolean(final String name, final boolean value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setByte(final String name, final byte value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setShort(final String name, final short value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setChar(final String name, final char value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setInt(final String name, final int value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setLong(final String name, final long value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setFloat(final String name, final float value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setDouble(final String name, final double value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setString(final String name, final String value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setBytes(final String name, final byte[] value)
+    {
+        _map.put(name, value);
+    }
+
+    public void setBytes(final String name, final byte[] value, final int offset, final int length)
+    {
+        byte[] bytes = new byte[length];
+        System.arraycopy(value, offset, bytes, 0, length);
+        _map.put(name, bytes);
+    }
+
+    /**
+     * Set a Map entry. Unlike the Qpid JMS client's MapMessage, which encodes them as amqp/map and amqp/list, the
+     * java.util.Map and java.util.List values used by QMF are accepted along with the primitive types.
+     *
+     * @param name the name of the entry.
+     * @param value the value of the entry.
+     */
+    public void setObject(final String name, final Object value)
+    {
+        _map.put(name, value);
+    }
+
+    public boolean itemExists(final String name)
+    {
+        return _map.containsKey(name);
+    }
+}
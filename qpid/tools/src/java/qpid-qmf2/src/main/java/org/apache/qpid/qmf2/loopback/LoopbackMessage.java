@@ -0,0 +1,527 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.TransportMessage;
+
+/**
+ * The loopback transport's implementation of javax.jms.Message.
+ * <p>
+ * The Message headers and properties are held as they are set. Each consumer that a Message is routed to receives
+ * its own copy of the Message, made by copy(), in which the Maps and Lists that the Message carries are copied but
+ * not encoded. The receiver therefore sees the values as they were when the Message was sent and may modify them
+ * without affecting the sender or any other receiver.
+ * <p>
+ * Property values are converted between types following the rules given in the javax.jms.Message documentation.
+ *
+ * @author Fraser Adams
+ */
+class LoopbackMessage implements Message, TransportMessage
+{
+    private final Map<String, Object> _properties;
+    private String _messageId = null;
+    private long _timestamp = 0;
+    private String _correlationId = null;
+    private Destination _replyTo = null;
+    private Destination _destination = null;
+    private int _deliveryMode = DeliveryMode.NON_PERSISTENT;
+    private boolean _redelivered = false;
+    private String _type = null;
+    private long _expiration = 0;
+    private int _priority = DEFAULT_PRIORITY;
+    private String _contentType = "";
+    private String _userId = null;
+    private List _list = null;
+
+    /**
+     * Construct an empty LoopbackMessage.
+     */
+    LoopbackMessage()
+    {
+        _properties = new HashMap<String, Object>();
+    }
+
+    /**
+     * Construct a LoopbackMessage with the same headers, properties and List as the source Message.
+     * @param source the Message to copy.
+     */
+    LoopbackMessage(final LoopbackMessage source)
+    {
+        _properties = new HashMap<String, Object>(source._properties);
+        _messageId = source._messageId;
+        _timestamp = source._timestamp;
+        _correlationId = source._correlationId;
+        _replyTo = source._replyTo;
+        _destination = source._destination;
+        _deliveryMode = source._deliveryMode;
+        _redelivered = source._redelivered;
+        _type = source._type;
+        _expiration = source._expiration;
+        _priority = source._priority;
+        _contentType = source._contentType;
+        _userId = source._userId;
+        _list = (List)copyValue(source._list);
+    }
+
+    /**
+     * Return a copy of this Message for delivery to a consumer.
+     * @return a copy of this Message.
+     */
+    LoopbackMessage copy()
+    {
+        return new LoopbackMessage(this);
+    }
+
+    /**
+     * Copy a value carried by a Message. Maps and Lists are copied along with any Maps and Lists that they contain,
+     * byte arrays are cloned and any other values, which are immutable, are returned as they are.
+     *
+     * @param value the value to copy.
+     * @return the copied value.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copyValue(final Object value)
+    {
+        if (value instanceof Map)
+        {
+            Map<Object, Object> source = (Map<Object, Object>)value;
+            Map<Object, Object> copy = new HashMap<Object, Object>(Math.max((int)(source.size()/.75f) + 1, 16));
+            for (Map.Entry<Object, Object> entry : source.entrySet())
+            {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
+        }
+        else if (value instanceof List)
+        {
+            List<Object> source = (List<Object>)value;
+            List<Object> copy = new ArrayList<Object>(source.size());
+            for (Object item : source)
+            {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        }
+        else if (value instanceof byte[])
+        {
+            return ((byte[])value).clone();
+        }
+        else
+        {
+            return value;
+        }
+    }
+
+    /**
+     * Return true if the Message has expired.
+     * @param now the current time in milliseconds.
+     * @return true if the Message has an expiration time that has passed.
+     */
+    final boolean isExpired(final long now)
+    {
+        return _expiration != 0 && _expiration <= now;
+    }
+
+    /**
+     * Set the authenticated user id of the sender of the Message.
+     * @param userId the user id of the Connection that sent the Message.
+     */
+    final void setUserId(final String userId)
+    {
+        _userId = userId;
+    }
+
+    // The following are the type conversions allowed by the javax.jms.Message documentation.
+
+    static boolean toBoolean(final Object value) throws JMSException
+    {
+        if (value instanceof Boolean)
+        {
+            return (Boolean)value;
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Boolean.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to boolean");
+    }
+
+    static byte toByte(final Object value) throws JMSException
+    {
+        if (value instanceof Byte)
+        {
+            return (Byte)value;
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Byte.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to byte");
+    }
+
+    static short toShort(final Object value) throws JMSException
+    {
+        if (value instanceof Short || value instanceof Byte)
+        {
+            return ((Number)value).shortValue();
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Short.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to short");
+    }
+
+    static int toInt(final Object value) throws JMSException
+    {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+        {
+            return ((Number)value).intValue();
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Integer.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to int");
+    }
+
+    static long toLong(final Object value) throws JMSException
+    {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+        {
+            return ((Number)value).longValue();
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Long.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to long");
+    }
+
+    static float toFloat(final Object value) throws JMSException
+    {
+        if (value instanceof Float)
+        {
+            return (Float)value;
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Float.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to float");
+    }
+
+    static double toDouble(final Object value) throws JMSException
+    {
+        if (value instanceof Double || value instanceof Float)
+        {
+            return ((Number)value).doubleValue();
+        }
+        else if (value == null || value instanceof String)
+        {
+            return Double.valueOf((String)value);
+        }
+        throw new MessageFormatException("Can't convert " + value.getClass().getName() + " to double");
+    }
+
+    static String toString(final Object value) throws JMSException
+    {
+        if (value instanceof byte[])
+        {
+            throw new MessageFormatException("Can't convert byte[] to String");
+        }
+        return (value == null) ? null : value.toString();
+    }
+
+    // TransportMessage methods
+
+    public String getContentType()
+    {
+        return _contentType;
+    }
+
+    public void setContentType(final String contentType)
+    {
+        _contentType = (contentType == null) ? "" : contentType;
+    }
+
+    public String getUserId()
+    {
+        return _userId;
+    }
+
+    public List getList()
+    {
+        return _list;
+    }
+
+    public void setList(final List list)
+    {
+        _list = list;
+    }
+
+    // javax.jms.Message methods
+
+    public String getJMSMessageID()
+    {
+        return _messageId;
+    }
+
+    public void setJMSMessageID(final String id)
+    {
+        _messageId = id;
+    }
+
+    public long getJMSTimestamp()
+    {
+        return _timestamp;
+    }
+
+    public void setJMSTimestamp(final long timestamp)
+    {
+        _timestamp = timestamp;
+    }
+
+    public byte[] getJMSCorrelationIDAsBytes()
+    {
+        return (_correlationId == null) ? null : _correlationId.getBytes();
+    }
+
+    public void setJMSCorrelationIDAsBytes(final byte[] correlationId)
+    {
+        _correlationId = (correlationId == null) ? null : new String(correlationId);
+    }
+
+    public void setJMSCorrelationID(final String correlationId)
+    {
+        _correlationId = correlationId;
+    }
+
+    public String getJMSCorrelationID()
+    {
+        return _correlationId;
+    }
+
+    public Destination getJMSReplyTo()
+    {
+        return _replyTo;
+    }
+
+    public void setJMSReplyTo(final Destination replyTo)
+    {
+        _replyTo = replyTo;
+    }
+
+    public Destination getJMSDestination()
+    {
+        return _destination;
+    }
+
+    public void setJMSDestination(final Destination destination)
+    {
+        _destination = destination;
+    }
+
+    public int getJMSDeliveryMode()
+    {
+        return _deliveryMode;
+    }
+
+    public void setJMSDeliveryMode(final int deliveryMode)
+    {
+        _deliveryMode = deliveryMode;
+    }
+
+    public boolean getJMSRedelivered()
+    {
+        return _redelivered;
+    }
+
+    public void setJMSRedelivered(final boolean redelivered)
+    {
+        _redelivered = redelivered;
+    }
+
+    public String getJMSType()
+    {
+        return _type;
+    }
+
+    public void setJMSType(final String type)
+    {
+        _type = type;
+    }
+
+    public long getJMSExpiration()
+    {
+        return _expiration;
+    }
+
+    public void setJMSExpiration(final long expiration)
+    {
+        _expiration = expiration;
+    }
+
+    public int getJMSPriority()
+    {
+        return _priority;
+    }
+
+    public void setJMSPriority(final int priority)
+    {
+        _priority = priority;
+    }
+
+    public void clearProperties()
+    {
+        _properties.clear();
+    }
+
+    public boolean propertyExists(final String name)
+    {
+        return _properties.containsKey(name);
+    }
+
+    public boolean getBooleanProperty(final String name) throws JMSException
+    {
+        return toBoolean(_properties.get(name));
+    }
+
+    public byte getByteProperty(final String name) throws JMSException
+    {
+        return toByte(_properties.get(name));
+    }
+
+    public short getShortProperty(final String name) throws JMSException
+    {
+        return toShort(_properties.get(name));
+    }
+
+    public int getIntProperty(final String name) throws JMSException
+    {
+        return toInt(_properties.get(name));
+    }
+
+    public long getLongProperty(final String name) throws JMSException
+    {
+        return toLong(_properties.get(name));
+    }
+
+    public float getFloatProperty(final String name) throws JMSException
+    {
+        return toFloat(_properties.get(name));
+    }
+
+    public double getDoubleProperty(final String name) throws JMSException
+    {
+        return toDouble(_properties.get(name));
+    }
+
+    public String getStringProperty(final String name) throws JMSException
+    {
+        return toString(_properties.get(name));
+    }
+
+    public Object getObjectProperty(final String name)
+    {
+        return _properties.get(name);
+    }
+
+    public Enumeration getPropertyNames()
+    {
+        return Collections.enumeration(_properties.keySet());
+    }
+
+    public void setBooleanProperty(final String name, final boolean value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setByteProperty(final String name, final byte value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setShortProperty(final String name, final short value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setIntProperty(final String name, final int value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setLongProperty(final String name, final long value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setFloatProperty(final String name, final float value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setDoubleProperty(final String name, final double value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setStringProperty(final String name, final String value)
+    {
+        _properties.put(name, value);
+    }
+
+    public void setObjectProperty(final String name, final Object value) throws JMSException
+    {
+        if (value != null && !(value instanceof Boolean || value instanceof Number || value instanceof String))
+        {
+            throw new MessageFormatException("Invalid property type " + value.getClass().getName());
+        }
+        _properties.put(name, value);
+    }
+
+    public void acknowledge()
+    {
+        // Loopback Messages are acknowledged as they are delivered.
+    }
+
+    public void clearBody() throws JMSException
+    {
+        _list = null;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageProducer;
+
+/**
+ * The loopback transport's implementation of javax.jms.MessageProducer.
+ * <p>
+ * Messages are routed by the LoopbackBroker in the thread that sends them, so when send() returns each consumer
+ * that the Message was routed to has its own copy of the Message on its queue.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackProducer implements MessageProducer
+{
+    private final LoopbackSession _session;
+    private final LoopbackDestination _destination;
+    private boolean _disableMessageID = false;
+    private boolean _disableMessageTimestamp = false;
+    private int _deliveryMode = DeliveryMode.NON_PERSISTENT;
+    private int _priority = Message.DEFAULT_PRIORITY;
+    private long _timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+    private volatile boolean _closed = false;
+
+    /**
+     * Construct a LoopbackProducer.
+     * @param session the Session that created the producer.
+     * @param destination the Destination of the producer, null for an unidentified producer.
+     */
+    LoopbackProducer(final LoopbackSession session, final LoopbackDestination destination)
+    {
+        _session = session;
+        _destination = destination;
+    }
+
+    public void setDisableMessageID(final boolean value)
+    {
+        _disableMessageID = value;
+    }
+
+    public boolean getDisableMessageID()
+    {
+        return _disableMessageID;
+    }
+
+    public void setDisableMessageTimestamp(final boolean value)
+    {
+        _disableMessageTimestamp = value;
+    }
+
+    public boolean getDisableMessageTimestamp()
+    {
+        return _disableMessageTimestamp;
+    }
+
+    public void setDeliveryMode(final int deliveryMode)
+    {
+        _deliveryMode = deliveryMode;
+    }
+
+    public int getDeliveryMode()
+    {
+        return _deliveryMode;
+    }
+
+    public void setPriority(final int priority)
+    {
+        _priority = priority;
+    }
+
+    public int getPriority()
+    {
+        return _priority;
+    }
+
+    public void setTimeToLive(final long timeToLive)
+    {
+        _timeToLive = timeToLive;
+    }
+
+    public long getTimeToLive()
+    {
+        return _timeToLive;
+    }
+
+    public Destination getDestination()
+    {
+        return _destination;
+    }
+
+    public void close()
+    {
+        _closed = true;
+    }
+
+    public void send(final Message message) throws JMSException
+    {
+        send(_destination, message, _deliveryMode, _priority, _timeToLive);
+    }
+
+    public void send(final Message message, final int deliveryMode, final int priority, final long timeToLive)
+        throws JMSException
+    {
+        send(_destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    public void send(final Destination destination, final Message message) throws JMSException
+    {
+        send(destination, message, _deliveryMode, _priority, _timeToLive);
+    }
+
+    public void send(final Destination destination, final Message message, final int deliveryMode,
+                     final int priority, final long timeToLive) throws JMSException
+    {
+        if (_closed)
+        {
+            throw new IllegalStateException("MessageProducer is closed");
+        }
+
+        if (!(destination instanceof LoopbackDestination))
+        {
+            throw new InvalidDestinationException("Destination " + destination +
+                                                  " was not created by the loopback transport");
+        }
+
+        if (!(message instanceof LoopbackMessage))
+        {
+            throw new MessageFormatException("Message was not created by the loopback transport");
+        }
+
+        long now = System.currentTimeMillis();
+        LoopbackMessage msg = (LoopbackMessage)message;
+        msg.setJMSDestination(destination);
+        msg.setJMSDeliveryMode(deliveryMode);
+        msg.setJMSPriority(priority);
+        msg.setJMSExpiration(timeToLive > 0 ? now + timeToLive : 0);
+        msg.setJMSTimestamp(_disableMessageTimestamp ? 0 : now);
+        _session.send(msg, (LoopbackDestination)destination, _disableMessageID);
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.loopback;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicSubscriber;
+
+// Misc Imports
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The loopback transport's implementation of javax.jms.Session.
+ * <p>
+ * Only the parts of the JMS API used by QMF2 are supported, i.e. non-transacted Sessions with MapMessages and
+ * BytesMessages sent to and received from Destinations created from Qpid Address Strings. Message selectors,
+ * durable subscriptions, browsers and temporary Destinations aren't supported.
+ * <p>
+ * Each Session has a dispatcher thread, created when it first delivers a Message to a MessageListener, on which
+ * its consumers' MessageListeners are called.
+ *
+ * @author Fraser Adams
+ */
+final class LoopbackSession implements Session
+{
+    /**
+     * Used to number the dispatcher threads of all LoopbackSessions.
+     */
+    private static final AtomicInteger _threadCount = new AtomicInteger();
+
+    private final LoopbackConnection _connection;
+    private final List<LoopbackConsumer> _consumers = new CopyOnWriteArrayList<LoopbackConsumer>();
+    private final ExecutorService _dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        public Thread newThread(final Runnable r)
+        {
+            Thread thread = new Thread(r, "qmf2-loopback-" + _threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile boolean _closed = false;
+
+    /**
+     * Construct a LoopbackSession.
+     * @param connection the Connection that created the Session.
+     */
+    LoopbackSession(final LoopbackConnection connection)
+    {
+        _connection = connection;
+    }
+
+    /**
+     * Return true if the Session's Connection has been started, i.e. Messages may be delivered.
+     * @return true if the Session's Connection has been started.
+     */
+    boolean isStarted()
+    {
+        return _connection.isStarted() && !_closed;
+    }
+
+    /**
+     * Have the consumers of the Session deliver any Messages that they queued while the Connection was stopped.
+     */
+    void start()
+    {
+        for (LoopbackConsumer consumer : _consumers)
+        {
+            consumer.schedule();
+        }
+    }
+
+    /**
+     * Execute a consumer's run() on the Session's dispatcher thread.
+     * @param consumer the consumer.
+     * @return false if the Session isn't started, in which case the consumer is run once the Connection is started.
+     */
+    boolean dispatch(final LoopbackConsumer consumer)
+    {
+        if (isStarted())
+        {
+            try
+            {
+                _dispatcher.execute(consumer);
+                return true;
+            }
+            catch (RejectedExecutionException ree)
+            { // The Session has been closed.
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Route a Message sent by one of the Session's producers.
+     * @param message the Message.
+     * @param destination the Destination that the Message was sent to.
+     * @param disableMessageID true if the producer has disabled Message IDs.
+     */
+    void send(final LoopbackMessage message, final LoopbackDestination destination,
+              final boolean disableMessageID) throws JMSException
+    {
+        if (_closed)
+        {
+            throw new IllegalStateException("Session is closed");
+        }
+        _connection.send(message, destination, disableMessageID);
+    }
+
+    /**
+     * Called by a consumer when it is closed.
+     * @param consumer the consumer.
+     */
+    void removeConsumer(final LoopbackConsumer consumer)
+    {
+        _consumers.remove(consumer);
+        _connection.getBroker().unbind(consumer);
+    }
+
+    /**
+     * Return the LoopbackDestination for a Destination, checking that it was created by the loopback transport.
+     */
+    private static LoopbackDestination getDestination(final Destination destination) throws JMSException
+    {
+        if (destination instanceof LoopbackDestination)
+        {
+            return (LoopbackDestination)destination;
+        }
+        throw new InvalidDestinationException("Destination " + destination +
+                                              " was not created by the loopback transport");
+    }
+
+    /**
+     * Check that a Session method is being called on an open Session.
+     */
+    private void checkOpen() throws JMSException
+    {
+        if (_closed)
+        {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    public BytesMessage createBytesMessage() throws JMSException
+    {
+        checkOpen();
+        return new LoopbackBytesMessage();
+    }
+
+    public MapMessage createMapMessage() throws JMSException
+    {
+        checkOpen();
+        return new LoopbackMapMessage();
+    }
+
+    public Message createMessage() throws JMSException
+    {
+        checkOpen();
+        return new LoopbackMessage();
+    }
+
+    public ObjectMessage createObjectMessage() throws JMSException
+    {
+        throw new JMSException("ObjectMessage is not supported by the loopback transport");
+    }
+
+    public ObjectMessage createObjectMessage(final Serializable object) throws JMSException
+    {
+        throw new JMSException("ObjectMessage is not supported by the loopback transport");
+    }
+
+    public StreamMessage createStreamMessage() throws JMSException
+    {
+        throw new JMSException("StreamMessage is not supported by the loopback transport");
+    }
+
+    public TextMessage createTextMessage() throws JMSException
+    {
+        throw new JMSException("TextMessage is not supported by the loopback transport");
+    }
+
+    public TextMessage createTextMessage(final String text) throws JMSException
+    {
+        throw new JMSException("TextMessage is not supported by the loopback transport");
+    }
+
+    public boolean getTransacted()
+    {
+        return false;
+    }
+
+    public int getAcknowledgeMode()
+    {
+        return AUTO_ACKNOWLEDGE;
+    }
+
+    public void commit() throws JMSException
+    {
+        throw new IllegalStateException("Session is not transacted");
+    }
+
+    public void rollback() throws JMSException
+    {
+        throw new IllegalStateException("Session is not transacted");
+    }
+
+    public void close()
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            for (LoopbackConsumer consumer : _consumers)
+            {
+                consumer.close();
+            }
+            _dispatcher.shutdown();
+        }
+    }
+
+    public void recover()
+    {
+        // Loopback Messages are acknowledged as they are delivered so there's nothing to recover.
+    }
+
+    public MessageListener getMessageListener() throws JMSException
+    {
+        throw new JMSException("Session MessageListener is not supported by the loopback transport");
+    }
+
+    public void setMessageListener(final MessageListener listener) throws JMSException
+    {
+        throw new JMSException("Session MessageListener is not supported by the loopback transport");
+    }
+
+    public void run()
+    {
+    }
+
+    public MessageProducer createProducer(final Destination destination) throws JMSException
+    {
+        checkOpen();
+        return new LoopbackProducer(this, (destination == null) ? null : getDestination(destination));
+    }
+
+    public MessageConsumer createConsumer(final Destination destination) throws JMSException
+    {
+        checkOpen();
+        LoopbackConsumer consumer = new LoopbackConsumer(this, getDestination(destination));
+        _consumers.add(consumer);
+        _connection.getBroker().bind(consumer);
+        return consumer;
+    }
+
+    public MessageConsumer createConsumer(final Destination destination, final String messageSelector)
+        throws JMSException
+    {
+        return createConsumer(destination, messageSelector, false);
+    }
+
+    public MessageConsumer createConsumer(final Destination destination, final String messageSelector,
+                                          final boolean noLocal) throws JMSException
+    {
+        if (messageSelector != null && messageSelector.length() > 0)
+        {
+            throw new JMSException("Message selectors are not supported by the loopback transport");
+        }
+        return createConsumer(destination);
+    }
+
+    public Queue createQueue(final String queueName) throws JMSException
+    {
+        checkOpen();
+        return new LoopbackDestination(queueName);
+    }
+
+    public Topic createTopic(final String topicName) throws JMSException
+    {
+        checkOpen();
+        return new LoopbackDestination(topicName);
+    }
+
+    public TopicSubscriber createDurableSubscriber(final Topic topic, final String name) throws JMSException
+    {
+        throw new JMSException("Durable subscriptions are not supported by the loopback transport");
+    }
+
+    public TopicSubscriber createDurableSubscriber(final Topic topic, final String name,
+                                                   final String messageSelector, final boolean noLocal)
+        throws JMSException
+    {
+        throw new JMSException("Durable subscriptions are not supported by the loopback transport");
+    }
+
+    public QueueBrowser createBrowser(final Queue queue) throws JMSException
+    {
+        throw new JMSException("QueueBrowser is not supported by the loopback transport");
+    }
+
+    public QueueBrowser createBrowser(final Queue queue, final String messageSelector) throws JMSException
+    {
+        throw new JMSException("QueueBrowser is not supported by the loopback transport");
+    }
+
+    public TemporaryQueue createTemporaryQueue() throws JMSException
+    {
+        throw new JMSException("Temporary Destinations are not supported by the loopback transport");
+    }
+
+    public TemporaryTopic createTemporaryTopic() throws JMSException
+    {
+        throw new JMSException("Temporary Destinations are not supported by the loopback transport");
+    }
+
+    public void unsubscribe(final String name) throws JMSException
+    {
+        throw new JMSException("Durable subscriptions are not supported by the loopback transport");
+    }
+}